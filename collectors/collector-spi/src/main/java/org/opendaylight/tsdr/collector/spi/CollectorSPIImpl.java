@@ -23,9 +23,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controll
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.InsertTSDRMetricRecordInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.TsdrCollectorSpiService;
 import org.opendaylight.yangtools.yang.common.RpcResult;
-import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 
-import com.google.common.util.concurrent.Futures;
 /**
  * @author Sharon Aicler(saichler@gmail.com)
  * This class is being used as a stub to the persistence layer SPI. It purpose is to give a layer
@@ -54,8 +52,7 @@ public class CollectorSPIImpl implements TsdrCollectorSpiService{
             records.add(rec.build());
         }
         tsdrServiceInput.setTSDRMetricRecord(records);
-        tsdrService.storeTSDRMetricRecord(tsdrServiceInput.build());
-        return Futures.immediateFuture(RpcResultBuilder.<Void> success().build());
+        return tsdrService.storeTSDRMetricRecord(tsdrServiceInput.build());
     }
 
     @Override
@@ -74,7 +71,6 @@ public class CollectorSPIImpl implements TsdrCollectorSpiService{
             records.add(rec.build());
         }
         tsdrServiceInput.setTSDRLogRecord(records);
-        tsdrService.storeTSDRLogRecord(tsdrServiceInput.build());
-        return Futures.immediateFuture(RpcResultBuilder.<Void> success().build());
+        return tsdrService.storeTSDRLogRecord(tsdrServiceInput.build());
     }
 }
@@ -10,10 +10,13 @@ package org.opendaylight.tsdr.collector.spi;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.StoreTSDRMetricRecordInput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRService;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeysBuilder;
@@ -23,6 +26,9 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controll
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrlogrecord.input.TSDRLogRecordBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrmetricrecord.input.TSDRMetricRecord;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yangtools.yang.common.RpcError;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 
 /**
  * @author <a href="mailto:saichler@gmail.com">Sharon Aicler</a>
@@ -80,6 +86,16 @@ public class CollectorSpiImplTest {
         impl.insertTSDRMetricRecord(b.build());
     }
 
+    @Test
+    public void testInsertReturnsTheStoreResult() throws Exception {
+        Future<RpcResult<Void>> failed = RpcResultBuilder.<Void> failed().withError(RpcError.ErrorType.APPLICATION, "rejected").buildFuture();
+        Mockito.when(tsdrService.storeTSDRMetricRecord(Mockito.any(StoreTSDRMetricRecordInput.class))).thenReturn(failed);
+        InsertTSDRMetricRecordInputBuilder b = new InsertTSDRMetricRecordInputBuilder();
+        b.setCollectorCodeName("Test");
+        b.setTSDRMetricRecord(createTSDRMetricRecordList());
+        Assert.assertFalse(impl.insertTSDRMetricRecord(b.build()).get().isSuccessful());
+    }
+
     @Test
     public void testInsertTSDRLogRecord(){
         InsertTSDRLogRecordInputBuilder b = new InsertTSDRLogRecordInputBuilder();
@@ -11,15 +11,20 @@ import java.io.File;
 import java.io.PrintStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
 import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
@@ -59,6 +64,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controll
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.openflow.statistics.collector.rev150820.TsdrOpenflowStatisticsCollectorService;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.port.statistics.rev131214.FlowCapableNodeConnectorStatisticsData;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.queue.statistics.rev131216.FlowCapableNodeConnectorQueueStatisticsData;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.opendaylight.yangtools.yang.common.RpcResult;
@@ -81,19 +87,12 @@ import com.google.common.util.concurrent.CheckedFuture;
 public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService {
     // A reference to the data broker
     private DataBroker dataBroker = null;
-    // A map representing the instance identifier of the metric collection to
-    // the place in the cached builder collection array
-    private Map<InstanceIdentifier<?>, ContainerIndex> id2Index = new ConcurrentHashMap<InstanceIdentifier<?>, ContainerIndex>();
-    // An array of BuilderContainer, a builder container is a collection of
-    // metric builders that serves as a cache
-    // so we won't need to instantiate and set all the static meta data of the
-    // metric when ever we want to store
-    // It is an array to avoid iteration problems and synchronization issues
-    // when working with List/Set
-    // As we don't really care about synchronization when reading the array, it
-    // will be much faster than using
-    // some object that we need to synchronize.
-    private TSDRMetricRecordBuilderContainer[] containers = new TSDRMetricRecordBuilderContainer[0];
+    // The registry of the builder containers, a builder container is a
+    // collection of metric builders that serves as a cache so we won't need to
+    // instantiate and set all the static meta data of the metric when ever we
+    // want to store. Every metric path has a stable slot in the registry and
+    // the storing thread iterates over it without synchronization.
+    private final TSDRMetricRecordBuilderRegistry registry = new TSDRMetricRecordBuilderRegistry();
     // Is the collector running, an indication to stop the thresds if it is
     // closed
     private boolean running = true;
@@ -107,11 +106,41 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
     private static boolean logToExternalFile = false;
     // collectors
     private Map<Class<? extends DataObject>, TSDRBaseDataHandler> handlers = new ConcurrentHashMap<>();
-    private Map<InstanceIdentifier<Node>, Set<InstanceIdentifier<?>>> nodeID2SubIDs = new ConcurrentHashMap<>();
     private TSDROSCConfig config = null;
     protected Object pollerSyncObject = new Object();
     private TsdrCollectorSpiService collectorSPIService = null;
     private static final String COLLECTOR_CODE_NAME = TSDRDOMCollector.class.getSimpleName();
+    // The default interval of reading all the nodes in the incremental
+    // collection, to reconcile missed changes and removed nodes
+    private static final long DEFAULT_RECONCILIATION_INTERVAL = 300000l;
+    // The registrations of the statistics listeners, empty when polling
+    private final List<ListenerRegistration<?>> statisticsListeners = new ArrayList<>();
+    // The default maximum number of records in one store call
+    private static final int DEFAULT_STORE_BATCH_SIZE = 5000;
+    // The number of batches that are built ahead of the batch being stored
+    private static final int MAX_PENDING_BATCHES = 2;
+    // Stores the batches one after the other, so the storing thread can build
+    // the next batch while the previous one is stored
+    private final ExecutorService batchWriter = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TSDR Storing Writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    // The default interval in milliseconds of storing an unchanged sample
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 300000l;
+    // Drops unchanged samples and derives rates, used only by the storing thread
+    private final TSDRSampleFilter sampleFilter = new TSDRSampleFilter();
+    // The poller of the inventory nodes
+    private TSDRInventoryNodesPoller nodesPoller = null;
+    // The metrics of the last storing cycle
+    private volatile long lastCycleRecords = 0;
+    private volatile long lastCycleBatches = 0;
+    private volatile long lastCycleFailedBatches = 0;
+    private volatile long lastCycleDuration = 0;
 
     public TSDRDOMCollector(DataBroker _dataBroker,
             RpcProviderRegistry _rpcRegistry) {
@@ -134,9 +163,16 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
 
         TSDROSCConfigBuilder b = new TSDROSCConfigBuilder();
         b.setPollingInterval(15000l);
+        b.setIncrementalCollection(false);
+        b.setReconciliationInterval(DEFAULT_RECONCILIATION_INTERVAL);
+        b.setStoreBatchSize(DEFAULT_STORE_BATCH_SIZE);
+        b.setSuppressUnchanged(false);
+        b.setHeartbeatInterval(DEFAULT_HEARTBEAT_INTERVAL);
+        b.setDeriveRates(false);
+        b.setCollectorThreads(Runtime.getRuntime().availableProcessors());
         this.config = b.build();
         saveConfigData();
-        new TSDRInventoryNodesPoller(this);
+        this.nodesPoller = new TSDRInventoryNodesPoller(this);
         new StoringThread();
     }
 
@@ -181,8 +217,124 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
         return this.config;
     }
 
+    // Are the statistics collected from data tree change notifications, in
+    // which case the nodes are only read every reconciliation interval
+    public boolean isIncrementalCollection() {
+        return Boolean.TRUE.equals(this.config.isIncrementalCollection());
+    }
+
+    // The interval of the inventory nodes poller, the polling interval or the
+    // reconciliation interval in the incremental collection
+    public long getNodesPollingInterval() {
+        if (isIncrementalCollection()) {
+            Long interval = this.config.getReconciliationInterval();
+            return interval != null && interval > 0 ? interval
+                    : DEFAULT_RECONCILIATION_INTERVAL;
+        }
+        return this.config.getPollingInterval();
+    }
+
+    // The maximum number of records in one store call
+    public int getStoreBatchSize() {
+        Integer size = this.config.getStoreBatchSize();
+        return size != null && size > 0 ? size : DEFAULT_STORE_BATCH_SIZE;
+    }
+
+    // The number of threads that extract the statistics of the nodes in
+    // parallel, the number of processors by default
+    public int getCollectorThreads() {
+        Integer threads = this.config.getCollectorThreads();
+        return threads != null && threads > 0 ? threads
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    // The poller of the inventory nodes, with the per node timing metrics
+    public TSDRInventoryNodesPoller getNodesPoller() {
+        return this.nodesPoller;
+    }
+
+    // The interval in milliseconds of storing a sample that did not change
+    public long getHeartbeatInterval() {
+        Long interval = this.config.getHeartbeatInterval();
+        return interval != null && interval >= 0 ? interval
+                : DEFAULT_HEARTBEAT_INTERVAL;
+    }
+
+    // The stage that drops unchanged samples and derives rates
+    public TSDRSampleFilter getSampleFilter() {
+        return this.sampleFilter;
+    }
+
+    // Registers the statistics listeners when switching to the incremental
+    // collection and closes them when switching back to polling
+    public void updateStatisticsListeners() {
+        synchronized (statisticsListeners) {
+            boolean incremental = running && isIncrementalCollection();
+            if (incremental && statisticsListeners.isEmpty()) {
+                InstanceIdentifier<FlowCapableNode> fcnode = InstanceIdentifier
+                        .create(Nodes.class).child(Node.class)
+                        .augmentation(FlowCapableNode.class);
+                InstanceIdentifier<NodeConnector> nc = InstanceIdentifier
+                        .create(Nodes.class).child(Node.class)
+                        .child(NodeConnector.class);
+                registerStatisticsListener(fcnode.child(Meter.class)
+                        .augmentation(NodeMeterStatistics.class),
+                        NodeMeterStatistics.class);
+                registerStatisticsListener(fcnode.child(Table.class)
+                        .augmentation(FlowTableStatisticsData.class),
+                        FlowTableStatisticsData.class);
+                registerStatisticsListener(fcnode.child(Table.class)
+                        .child(Flow.class)
+                        .augmentation(FlowStatisticsData.class),
+                        FlowStatisticsData.class);
+                registerStatisticsListener(fcnode.child(Group.class)
+                        .augmentation(NodeGroupStatistics.class),
+                        NodeGroupStatistics.class);
+                registerStatisticsListener(nc
+                        .augmentation(FlowCapableNodeConnectorStatisticsData.class),
+                        FlowCapableNodeConnectorStatisticsData.class);
+                registerStatisticsListener(nc
+                        .augmentation(FlowCapableNodeConnector.class)
+                        .child(Queue.class)
+                        .augmentation(FlowCapableNodeConnectorQueueStatisticsData.class),
+                        FlowCapableNodeConnectorQueueStatisticsData.class);
+                log("Registered " + statisticsListeners.size()
+                        + " statistics listeners for incremental collection", INFO);
+            } else if (!incremental && !statisticsListeners.isEmpty()) {
+                for (ListenerRegistration<?> registration : statisticsListeners) {
+                    try {
+                        registration.close();
+                    } catch (Exception err) {
+                        log(err);
+                    }
+                }
+                statisticsListeners.clear();
+                log("Closed the statistics listeners, collecting by polling", INFO);
+            }
+        }
+    }
+
+    private <T extends DataObject> void registerStatisticsListener(
+            InstanceIdentifier<T> path, Class<T> cls) {
+        try {
+            ListenerRegistration<?> registration = dataBroker
+                    .registerDataTreeChangeListener(
+                            new DataTreeIdentifier<T>(LogicalDatastoreType.OPERATIONAL, path),
+                            new TSDRStatisticsChangeListener<T>(this, cls));
+            if (registration != null) {
+                statisticsListeners.add(registration);
+            }
+        } catch (Exception err) {
+            log("Failed to register a listener on " + cls.getSimpleName()
+                    + ", it will be collected by the reconciliation", ERROR);
+            log(err);
+        }
+    }
+
     public void shutdown() {
         this.running = false;
+        updateStatisticsListeners();
+        batchWriter.shutdown();
         synchronized(TSDRDOMCollector.this.pollerSyncObject){
             TSDRDOMCollector.this.pollerSyncObject.notifyAll();
         }
@@ -191,82 +343,30 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
         }
     }
 
-    // Adds a new builder to the builder container, the first metric for the
-    // InstanceIdenfier will create
-    // the builder container.
-    public void addBuilderToContainer(InstanceIdentifier<Node> nodeID,
-            InstanceIdentifier<?> id, TSDRMetricRecordBuilder builder) {
-        TSDRMetricRecordBuilderContainer container = null;
-        // We want to synchronize here because when adding a new builder we want
-        // to make sure there
-        // is only one builder container per metric path as we might get on the
-        // same InstanceIdentifier two notification in a very short time
-        // and we don't want to instantiate two containers for the same metric
-        // path.
-        synchronized (id2Index) {
-            ContainerIndex index = id2Index.get(id);
-            if (index != null) {
-                container = containers[index.index];
-            } else {
-                container = new TSDRMetricRecordBuilderContainer();
-                TSDRMetricRecordBuilderContainer temp[] = new TSDRMetricRecordBuilderContainer[containers.length + 1];
-                System.arraycopy(containers, 0, temp, 0, containers.length);
-                id2Index.put(id, new ContainerIndex(containers.length));
-                Set<InstanceIdentifier<?>> nodeIDs = nodeID2SubIDs.get(nodeID);
-                if (nodeIDs == null) {
-                    nodeIDs = new HashSet<InstanceIdentifier<?>>();
-                    nodeID2SubIDs.put(nodeID, nodeIDs);
-                }
-                nodeIDs.add(id);
-                temp[containers.length] = container;
-                containers = temp;
-            }
-        }
-        // once we have the container, synchronization of the builders array
-        // inside the container
-        // is under the container responsibility
-        container.addBuilder(builder);
+    // Adds a new builder container with all its builders. There is only one
+    // builder container per metric path, even if we get two notifications on
+    // the same InstanceIdentifier in a very short time, so the container of
+    // the second notification is dropped and its values are updated by the
+    // next one.
+    public TSDRMetricRecordBuilderContainer addBuilderContainer(InstanceIdentifier<Node> nodeID,
+            InstanceIdentifier<?> id, TSDRMetricRecordBuilderContainer container) {
+        return registry.getOrAdd(nodeID, id, container);
     }
 
     public void removeBuilderContailer(InstanceIdentifier<?> id) {
-        synchronized (id2Index) {
-            ContainerIndex index = id2Index.remove(id);
-            if (index != null) {
-                TSDRMetricRecordBuilderContainer temp[] = new TSDRMetricRecordBuilderContainer[containers.length - 1];
-                if (index.index == 0) {
-                    System.arraycopy(containers, 1, temp, 0, temp.length);
-                } else if (index.index == containers.length - 1) {
-                    System.arraycopy(containers, 0, temp, 0, temp.length);
-                } else {
-                    System.arraycopy(containers, 0, temp, 0, index.index);
-                    System.arraycopy(containers, index.index + 1, temp,
-                            index.index, containers.length - (index.index + 1));
-                }
-                for (ContainerIndex ndx : id2Index.values()) {
-                    if (ndx.index > index.index) {
-                        ndx.index--;
-                    }
-                }
-                containers = temp;
-            }
-        }
+        registry.remove(id);
     }
 
     // Retrieve a BuilderContainer according to the InstanceIdentifier
     public TSDRMetricRecordBuilderContainer getTSDRMetricRecordBuilderContainer(
             InstanceIdentifier<?> id) {
-        ContainerIndex index = this.id2Index.get(id);
-        if (index != null) {
-            return containers[index.index];
-        }
-        return null;
+        return registry.get(id);
     }
 
-    // Create a new TSDRMetricRecordBuilder and adds it to its builder container
-    // according to the instanceIdentifier
-    public void createTSDRMetricRecordBuilder(InstanceIdentifier<Node> nodeID,
-            InstanceIdentifier<?> id, List<RecordKeys> recKeys,
-            String metricName, BigDecimal value, DataCategory category) {
+    // Create a new TSDRMetricRecordBuilder and adds it to a builder container
+    // that is not added to the registry yet
+    public void createTSDRMetricRecordBuilder(TSDRMetricRecordBuilderContainer container,
+            List<RecordKeys> recKeys, String metricName, BigDecimal value, DataCategory category) {
         TSDRMetricRecordBuilder builder = new TSDRMetricRecordBuilder();
         builder.setRecordKeys(recKeys);
         builder.setNodeID(getNodeIDFrom(recKeys));
@@ -274,7 +374,7 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
         builder.setTSDRDataCategory(category);
         builder.setMetricValue(value);
         builder.setTimeStamp(System.currentTimeMillis());
-        addBuilderToContainer(nodeID, id, builder);
+        container.addBuilder(builder);
     }
 
     // Finds the handler for this statistics and apply it
@@ -462,48 +562,151 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
                          * to avoid "stuck" thread. Disregarding the case where
                          * storing will take more than the polling interval, we
                          * have bigger issues in that case...:o)
+                         * In the incremental collection the poller only
+                         * reconciles, so this thread stores every interval.
                          */
-                        TSDRDOMCollector.this.wait(getConfigData()
-                                .getPollingInterval() * 2);
+                        long interval = getConfigData().getPollingInterval();
+                        TSDRDOMCollector.this.wait(isIncrementalCollection()
+                                ? interval : interval * 2);
                     } catch (InterruptedException err) {
                         log("Storing Thread Interrupted.", ERROR);
                     }
                 }
-                try {
-                    for (int i = 0; i < containers.length; i++) {
-                        try {
-                            InsertTSDRMetricRecordInputBuilder input = new InsertTSDRMetricRecordInputBuilder();
-                            List<TSDRMetricRecord> list = new LinkedList<>();
-                            TSDRMetricRecordBuilderContainer bc = containers[i];
-                            for (TSDRMetricRecordBuilder builder : bc.getBuilders()) {
-                                list.add(builder.build());
+                if (running) {
+                    storeContainers();
+                }
+            }
+        }
+    }
+
+    // Builds the records of all the builder containers and stores them in
+    // batches of up to the store batch size, instead of a store call per
+    // container. The batches are stored by the batch writer in the order they
+    // were built, while the next batch is built.
+    private void storeContainers() {
+        long startTime = System.currentTimeMillis();
+        int batchSize = getStoreBatchSize();
+        long records = 0;
+        long batches = 0;
+        long failedBatches = 0;
+        LinkedList<Future<?>> pending = new LinkedList<>();
+        List<TSDRMetricRecord> batch = new ArrayList<>(batchSize);
+        // The records of one builder that passed the sample filter
+        List<TSDRMetricRecord> filtered = new ArrayList<>(2);
+        sampleFilter.configure(Boolean.TRUE.equals(config.isSuppressUnchanged()),
+                getHeartbeatInterval(), Boolean.TRUE.equals(config.isDeriveRates()));
+        boolean filter = sampleFilter.isEnabled();
+        try {
+            for (TSDRMetricRecordBuilderContainer container : registry) {
+                for (TSDRMetricRecordBuilder builder : container.getBuilders()) {
+                    if (filter) {
+                        sampleFilter.filter(builder, filtered);
+                    } else {
+                        filtered.add(builder.build());
+                    }
+                    for (TSDRMetricRecord record : filtered) {
+                        batch.add(record);
+                        if (batch.size() == batchSize) {
+                            // Keep a bounded number of built batches in memory
+                            while (pending.size() >= MAX_PENDING_BATCHES) {
+                                failedBatches += waitForBatch(pending.removeFirst());
                             }
-                            input.setTSDRMetricRecord(list);
-                            input.setCollectorCodeName("OpenFlowStatistics");
-                            store(input.build());
-                            // store.storeTSDRMetricRecord(input.build());
-                        } catch (Exception err) {
-                            log("Fail to store data due to the following exception:",
-                                    ERROR);
-                            log(err);
+                            pending.add(submitBatch(batch));
+                            records += batch.size();
+                            batches++;
+                            batch = new ArrayList<>(batchSize);
                         }
                     }
-                } catch (Exception err) {
-                    log("Fail to iterate over builder containers due to the following error:",
-                            ERROR);
-                    log(err);
+                    filtered.clear();
                 }
             }
+            if (filter) {
+                sampleFilter.endCycle();
+            }
+            if (!batch.isEmpty()) {
+                pending.add(submitBatch(batch));
+                records += batch.size();
+                batches++;
+            }
+        } catch (Exception err) {
+            log("Fail to iterate over builder containers due to the following error:",
+                    ERROR);
+            log(err);
+        }
+        while (!pending.isEmpty()) {
+            failedBatches += waitForBatch(pending.removeFirst());
         }
+        this.lastCycleRecords = records;
+        this.lastCycleBatches = batches;
+        this.lastCycleFailedBatches = failedBatches;
+        this.lastCycleDuration = System.currentTimeMillis() - startTime;
+        log("Storing cycle stored " + records + " records in " + batches
+                + " batches (" + failedBatches + " failed) in "
+                + lastCycleDuration + "ms, " + sampleFilter.getSuppressed()
+                + " samples suppressed so far", DEBUG);
     }
 
-    // Invoke the storage rpc method
-    private void store(InsertTSDRMetricRecordInput input) {
+    private Future<?> submitBatch(final List<TSDRMetricRecord> batch) {
+        final InsertTSDRMetricRecordInputBuilder input = new InsertTSDRMetricRecordInputBuilder();
+        input.setTSDRMetricRecord(batch);
+        input.setCollectorCodeName("OpenFlowStatistics");
+        return batchWriter.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                store(input.build());
+                return null;
+            }
+        });
+    }
+
+    // Waits for a batch to be stored, returns 1 if it failed
+    private int waitForBatch(Future<?> future) {
+        try {
+            future.get();
+            return 0;
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            log("Storing Thread Interrupted.", ERROR);
+        } catch (ExecutionException err) {
+            log("Fail to store data due to the following exception:", ERROR);
+            log(err.getCause() instanceof Exception ? (Exception) err.getCause() : err);
+        }
+        return 1;
+    }
+
+    // The number of records stored in the last storing cycle
+    public long getLastCycleRecords() {
+        return this.lastCycleRecords;
+    }
+
+    // The number of store calls of the last storing cycle
+    public long getLastCycleBatches() {
+        return this.lastCycleBatches;
+    }
+
+    // The number of store calls of the last storing cycle that failed
+    public long getLastCycleFailedBatches() {
+        return this.lastCycleFailedBatches;
+    }
+
+    // The duration in milliseconds of the last storing cycle
+    public long getLastCycleDuration() {
+        return this.lastCycleDuration;
+    }
+
+    // Invoke the storage rpc method and wait for the records to be stored, so
+    // a batch the storage did not accept fails
+    private void store(InsertTSDRMetricRecordInput input) throws InterruptedException, ExecutionException {
         if(this.collectorSPIService==null){
             this.collectorSPIService = this.rpcRegistry
                 .getRpcService(TsdrCollectorSpiService.class);
         }
-        this.collectorSPIService.insertTSDRMetricRecord(input);
+        RpcResult<Void> result = this.collectorSPIService.insertTSDRMetricRecord(input).get();
+        if (result == null || !result.isSuccessful()) {
+            throw new IllegalStateException("The data storage failed to store "
+                    + input.getTSDRMetricRecord().size() + " records: "
+                    + (result != null ? result.getErrors() : "no result"));
+        }
         log("Data Storage called", DEBUG);
     }
 
@@ -573,18 +776,18 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
     }
 
     public void removeAllNodeBuilders(InstanceIdentifier<Node> nodeID) {
-        synchronized (id2Index) {
-            Set<InstanceIdentifier<?>> subIDs = nodeID2SubIDs.get(nodeID);
-            if (subIDs == null)
-                return;
-            for (InstanceIdentifier<?> subID : subIDs) {
-                removeBuilderContailer(subID);
-            }
-            subIDs.clear();
-            log("Removed all data for node-" + nodeID, INFO);
+        int removed = registry.removeNode(nodeID);
+        if (removed > 0) {
+            log("Removed all data for node-" + nodeID + ", " + removed
+                    + " metric paths", INFO);
         }
     }
 
+    // The registry of the builder containers
+    public TSDRMetricRecordBuilderRegistry getBuilderRegistry() {
+        return this.registry;
+    }
+
     public DataBroker getDataBroker() {
         return this.dataBroker;
     }
@@ -593,18 +796,10 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
         return this.running;
     }
 
-    private class ContainerIndex {
-        public ContainerIndex(Integer _index) {
-            this.index = _index;
-        }
-
-        private Integer index = -1;
-    }
-
     @Override
     public Future<RpcResult<Void>> setPollingInterval(
             SetPollingIntervalInput input) {
-        TSDROSCConfigBuilder builder = new TSDROSCConfigBuilder();
+        TSDROSCConfigBuilder builder = new TSDROSCConfigBuilder(this.config);
         builder.setPollingInterval(input.getInterval());
         this.config = builder.build();
         saveConfigData();
@@ -612,4 +807,4 @@ public class TSDRDOMCollector implements TsdrOpenflowStatisticsCollectorService
         return rpc.buildFuture();
     }
 }
-
+
@@ -9,7 +9,16 @@ package org.opendaylight.tsdr.osc;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
@@ -21,12 +30,25 @@ import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
  * @author Sharon Aicler(saichler@gmail.com)
  **/
 // The inventory nodes poller is polling the inventory every 15 seconds and
-// determinate if there are nodes added/removed
+// determinate if there are nodes added/removed. In the incremental collection
+// the statistics arrive as data tree changes and the poller only reconciles
+// them every reconciliation interval.
+// The statistics of the nodes are extracted in parallel by a pool of
+// collector threads, as the work per node is independent.
 public class TSDRInventoryNodesPoller extends Thread {
     // List of nodes already registered on
     private Set<InstanceIdentifier<Node>> knownNodes = new HashSet<>();
     // The collector
     private TSDRDOMCollector collector = null;
+    // The pool that extracts the statistics of the nodes, null when they are
+    // extracted by this thread
+    private ExecutorService workers = null;
+    private int workerCount = 1;
+    // The duration in milliseconds of the last statistics extraction of
+    // every node
+    private final Map<InstanceIdentifier<Node>, Long> nodeCollectionTimes = new ConcurrentHashMap<>();
+    // The duration in milliseconds of the last poll
+    private volatile long lastPollDuration = 0;
 
     public TSDRInventoryNodesPoller(TSDRDOMCollector _collector) {
         super("TSDR Inventory Nodes Poller");
@@ -38,6 +60,9 @@ public class TSDRInventoryNodesPoller extends Thread {
 
     public void run() {
         while (collector.isRunning()) {
+            // Register the listeners before reading the nodes so no change
+            // is missed between the read and the registration
+            collector.updateStatisticsListeners();
             InstanceIdentifier<Nodes> id = InstanceIdentifier.builder(
                     Nodes.class).build();
             ReadOnlyTransaction read = collector.getDataBroker()
@@ -46,12 +71,38 @@ public class TSDRInventoryNodesPoller extends Thread {
                 Nodes nodes = read.read(LogicalDatastoreType.OPERATIONAL, id)
                         .get().get();
                 Set<InstanceIdentifier<Node>> nodeSet = new HashSet<>();
+                long pollStart = System.currentTimeMillis();
+                updateWorkers();
+                Map<InstanceIdentifier<Node>, Future<?>> futures = new LinkedHashMap<>();
                 for (Node n : nodes.getNode()) {
                     InstanceIdentifier<Node> nodeID = id.child(Node.class,
                             n.getKey());
                     nodeSet.add(nodeID);
-                    collector.collectStatistics(n);
+                    NodeCollection collection = new NodeCollection(nodeID, n);
+                    if (workers != null) {
+                        futures.put(nodeID, workers.submit(collection));
+                    } else {
+                        // A failed node does not stop the collection of the
+                        // other nodes
+                        try {
+                            collection.run();
+                        } catch (RuntimeException err) {
+                            logNodeFailure(nodeID, err);
+                        }
+                    }
+                }
+                // Wait for all the nodes before looking for removed nodes
+                for (Map.Entry<InstanceIdentifier<Node>, Future<?>> entry : futures.entrySet()) {
+                    try {
+                        entry.getValue().get();
+                    } catch (ExecutionException err) {
+                        logNodeFailure(entry.getKey(), err.getCause());
+                    }
                 }
+                this.lastPollDuration = System.currentTimeMillis() - pollStart;
+                TSDRDOMCollector.log("Collected the statistics of " + nodeSet.size()
+                        + " nodes with " + workerCount + " threads in "
+                        + lastPollDuration + "ms", TSDRDOMCollector.DEBUG);
                 // Register on added nodes
                 for (InstanceIdentifier<Node> nodeID : nodeSet) {
                     knownNodes.add(nodeID);
@@ -65,6 +116,7 @@ public class TSDRInventoryNodesPoller extends Thread {
                     InstanceIdentifier<Node> nodeID = iter.next();
                     if (!nodeSet.contains(nodeID)) {
                         iter.remove();
+                        nodeCollectionTimes.remove(nodeID);
                         collector.removeAllNodeBuilders(nodeID);
                     }
                 }
@@ -74,13 +126,17 @@ public class TSDRInventoryNodesPoller extends Thread {
             } finally {
                 read.close();
             }
-            synchronized(this.collector){
-                this.collector.notifyAll();
+            // In the incremental collection the storing thread does not wait
+            // for the poller
+            if (!collector.isIncrementalCollection()) {
+                synchronized(this.collector){
+                    this.collector.notifyAll();
+                }
             }
             //This object is only for the time when we shutdown so we want to break the waiting time
             synchronized(this.collector.pollerSyncObject){
                 try {
-                    this.collector.pollerSyncObject.wait(this.collector.getConfigData().getPollingInterval());
+                    this.collector.pollerSyncObject.wait(this.collector.getNodesPollingInterval());
                 } catch (InterruptedException err) {
                     TSDRDOMCollector.log(
                             "Unknown error when sleeping in TSDR poller",
@@ -89,5 +145,76 @@ public class TSDRInventoryNodesPoller extends Thread {
             }
             this.collector.loadConfigData();
         }
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    // Creates the pool of collector threads, or replaces it when the number of
+    // collector threads was changed
+    private void updateWorkers() {
+        int count = collector.getCollectorThreads();
+        if (count == workerCount && (workers != null || count == 1)) {
+            return;
+        }
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+        workerCount = count;
+        if (count > 1) {
+            workers = Executors.newFixedThreadPool(count, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TSDR Node Statistics Collector "
+                            + threadNumber.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    // The duration in milliseconds of the last statistics extraction of the
+    // node, or null if the node is unknown
+    public Long getNodeCollectionTime(InstanceIdentifier<Node> nodeID) {
+        return nodeCollectionTimes.get(nodeID);
+    }
+
+    // The duration in milliseconds of the last poll of all the nodes
+    public long getLastPollDuration() {
+        return this.lastPollDuration;
+    }
+
+    // The number of threads that extract the statistics of the nodes
+    public int getWorkerCount() {
+        return this.workerCount;
+    }
+
+    // Logs the failure of the statistics extraction of one node
+    private static void logNodeFailure(InstanceIdentifier<Node> nodeID, Throwable cause) {
+        TSDRDOMCollector.log("Failed to collect the statistics of the node " + nodeID,
+                TSDRDOMCollector.ERROR);
+        TSDRDOMCollector.log(cause instanceof Exception ? (Exception) cause : new ExecutionException(cause));
+    }
+
+    // Extracts the statistics of one node and times it
+    private class NodeCollection implements Runnable {
+        private final InstanceIdentifier<Node> nodeID;
+        private final Node node;
+
+        private NodeCollection(InstanceIdentifier<Node> _nodeID, Node _node) {
+            this.nodeID = _nodeID;
+            this.node = _node;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            collector.collectStatistics(node);
+            nodeCollectionTimes.put(nodeID, System.currentTimeMillis() - start);
+        }
     }
 }
@@ -24,9 +24,11 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controll
 // container
 // the place in the array will be 0,1,2 so when updating metric A you need to
 // update builder[0] & so on...
+// The handlers index the builders without locking, so all the builders are
+// added before the container is added to the registry.
 public class TSDRMetricRecordBuilderContainer {
     // An array of metric record builders
-    private TSDRMetricRecordBuilder[] builders = new TSDRMetricRecordBuilder[0];
+    private volatile TSDRMetricRecordBuilder[] builders = new TSDRMetricRecordBuilder[0];
     // A set to make sure the same metric is not been added twice.
     private Set<String> metricNames = new HashSet<String>();
 
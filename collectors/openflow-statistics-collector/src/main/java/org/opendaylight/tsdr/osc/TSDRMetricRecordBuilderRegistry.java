@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.osc;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ **/
+/*
+ * The registry of the builder containers of the collector. Every metric path
+ * gets a stable slot in an array of containers, a removed path frees its slot
+ * and the next new path reuses it, so adding and removing a path does not
+ * copy the array or shift the slots of the other paths. The array only grows,
+ * by doubling, when there is no free slot.
+ * Looking up a path and iterating over the containers do not lock, only adding
+ * and removing a path lock for the short time of taking or freeing a slot.
+ * The paths of every node are kept so removing a node only costs its paths.
+ */
+public class TSDRMetricRecordBuilderRegistry implements Iterable<TSDRMetricRecordBuilderContainer> {
+    // The initial number of slots
+    private static final int INITIAL_CAPACITY = 1024;
+    // The containers by slot, a free slot is null
+    private volatile AtomicReferenceArray<TSDRMetricRecordBuilderContainer> slots;
+    // One more than the highest slot ever used, the iteration stops there
+    private volatile int slotCount = 0;
+    // The slot of every metric path
+    private final Map<InstanceIdentifier<?>, Entry> id2Entry = new ConcurrentHashMap<>();
+    // The metric paths of every node
+    private final Map<InstanceIdentifier<Node>, Set<InstanceIdentifier<?>>> nodeID2SubIDs = new ConcurrentHashMap<>();
+    // The free slots below slotCount
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    // Guards taking and freeing slots
+    private final Object slotsLock = new Object();
+
+    public TSDRMetricRecordBuilderRegistry() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public TSDRMetricRecordBuilderRegistry(int initialCapacity) {
+        this.slots = new AtomicReferenceArray<>(Math.max(1, initialCapacity));
+    }
+
+    // Returns the container of the metric path, or null
+    public TSDRMetricRecordBuilderContainer get(InstanceIdentifier<?> id) {
+        Entry entry = id2Entry.get(id);
+        return entry != null ? entry.container : null;
+    }
+
+    // Returns the container of the metric path, the first metric of the path
+    // creates it. As we might get two notifications of the same path in a very
+    // short time, only one container is created per path.
+    public TSDRMetricRecordBuilderContainer getOrCreate(InstanceIdentifier<Node> nodeID,
+            InstanceIdentifier<?> id) {
+        Entry entry = id2Entry.get(id);
+        if (entry != null) {
+            return entry.container;
+        }
+        return getOrAdd(nodeID, id, new TSDRMetricRecordBuilderContainer());
+    }
+
+    // Returns the container of the metric path, or adds the given container if
+    // the path has none. The handlers index the builders of a container they
+    // find, so the container is added only after all its builders were added.
+    public TSDRMetricRecordBuilderContainer getOrAdd(InstanceIdentifier<Node> nodeID,
+            InstanceIdentifier<?> id, TSDRMetricRecordBuilderContainer container) {
+        Entry entry = id2Entry.get(id);
+        if (entry != null) {
+            return entry.container;
+        }
+        synchronized (slotsLock) {
+            entry = id2Entry.get(id);
+            if (entry != null) {
+                return entry.container;
+            }
+            Integer slot = freeSlots.pollFirst();
+            if (slot == null) {
+                if (slotCount == slots.length()) {
+                    grow();
+                }
+                slot = slotCount;
+                slotCount = slot + 1;
+            }
+            entry = new Entry(nodeID, slot, container);
+            slots.set(slot, entry.container);
+            id2Entry.put(id, entry);
+            Set<InstanceIdentifier<?>> subIDs = nodeID2SubIDs.get(nodeID);
+            if (subIDs == null) {
+                subIDs = Collections.newSetFromMap(new ConcurrentHashMap<InstanceIdentifier<?>, Boolean>());
+                nodeID2SubIDs.put(nodeID, subIDs);
+            }
+            subIDs.add(id);
+            return entry.container;
+        }
+    }
+
+    // Removes the container of the metric path and frees its slot
+    public boolean remove(InstanceIdentifier<?> id) {
+        synchronized (slotsLock) {
+            Entry entry = id2Entry.remove(id);
+            if (entry == null) {
+                return false;
+            }
+            slots.set(entry.slot, null);
+            freeSlots.addFirst(entry.slot);
+            Set<InstanceIdentifier<?>> subIDs = nodeID2SubIDs.get(entry.nodeID);
+            if (subIDs != null) {
+                subIDs.remove(id);
+            }
+            return true;
+        }
+    }
+
+    // Removes the containers of all the metric paths of the node, returns the
+    // number of removed containers
+    public int removeNode(InstanceIdentifier<Node> nodeID) {
+        synchronized (slotsLock) {
+            Set<InstanceIdentifier<?>> subIDs = nodeID2SubIDs.remove(nodeID);
+            if (subIDs == null) {
+                return 0;
+            }
+            int removed = 0;
+            for (InstanceIdentifier<?> subID : subIDs) {
+                Entry entry = id2Entry.remove(subID);
+                if (entry != null) {
+                    slots.set(entry.slot, null);
+                    freeSlots.addFirst(entry.slot);
+                    removed++;
+                }
+            }
+            return removed;
+        }
+    }
+
+    // The number of metric paths
+    public int size() {
+        return id2Entry.size();
+    }
+
+    // The number of slots in the array
+    public int capacity() {
+        return slots.length();
+    }
+
+    // Iterates over the containers without locking, a container that is added
+    // or removed during the iteration may or may not be returned
+    @Override
+    public Iterator<TSDRMetricRecordBuilderContainer> iterator() {
+        final AtomicReferenceArray<TSDRMetricRecordBuilderContainer> snapshot = slots;
+        final int count = Math.min(slotCount, snapshot.length());
+        return new Iterator<TSDRMetricRecordBuilderContainer>() {
+            private int slot = -1;
+            private TSDRMetricRecordBuilderContainer next = advance();
+
+            private TSDRMetricRecordBuilderContainer advance() {
+                while (++slot < count) {
+                    TSDRMetricRecordBuilderContainer c = snapshot.get(slot);
+                    if (c != null) {
+                        return c;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public TSDRMetricRecordBuilderContainer next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                TSDRMetricRecordBuilderContainer result = next;
+                next = advance();
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // Doubles the array, called with the slots lock held
+    private void grow() {
+        AtomicReferenceArray<TSDRMetricRecordBuilderContainer> bigger = new AtomicReferenceArray<>(slots.length() * 2);
+        for (int i = 0; i < slotCount; i++) {
+            bigger.set(i, slots.get(i));
+        }
+        slots = bigger;
+    }
+
+    private static final class Entry {
+        private final InstanceIdentifier<Node> nodeID;
+        private final int slot;
+        private final TSDRMetricRecordBuilderContainer container;
+
+        private Entry(InstanceIdentifier<Node> nodeID, int slot, TSDRMetricRecordBuilderContainer container) {
+            this.nodeID = nodeID;
+            this.slot = slot;
+            this.container = container;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.osc;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrmetricrecord.input.TSDRMetricRecordBuilder;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ **/
+/*
+ * The stage between the builders and the storing of the records. The handlers
+ * overwrite the builder values every poll, so without this stage every builder
+ * is stored every cycle even if its counter did not change or no poll happened
+ * since the last cycle.
+ * When suppressing unchanged samples, a sample is stored only if it is a new
+ * sample (its time changed) and its value changed, or the heartbeat interval
+ * passed since the series was last stored, so an idle series is still stored
+ * once every heartbeat.
+ * When deriving rates, every new sample of a counter also produces a sample
+ * of the "<MetricName>Rate" series, the per second rate since the previous
+ * sample. A counter that went down wrapped if it was in the upper half of the
+ * 64 bit range of the OpenFlow counters, otherwise it was reset and counted
+ * from 0.
+ * The stage is only used by the storing thread so it is not synchronized.
+ */
+public class TSDRSampleFilter {
+    // The suffix of the metric name of a rate series
+    public static final String RATE_SUFFIX = "Rate";
+    // The metrics of the handlers that are gauges and not counters
+    private static final Set<String> GAUGES = new HashSet<>(Arrays.asList("ActiveFlows", "FlowCount", "RefCount"));
+    private static final BigDecimal COUNTER_RANGE = new BigDecimal(BigInteger.ONE.shiftLeft(64));
+    private static final BigDecimal COUNTER_HALF_RANGE = new BigDecimal(BigInteger.ONE.shiftLeft(63));
+    private static final BigDecimal MILLIS_PER_SECOND = BigDecimal.valueOf(1000);
+    private static final int RATE_SCALE = 3;
+
+    // The state of every builder, a builder is the cache of one series so it is
+    // kept by identity
+    private final Map<TSDRMetricRecordBuilder, SeriesState> states = new IdentityHashMap<>();
+    private boolean suppressUnchanged = false;
+    private long heartbeatInterval = 0;
+    private boolean deriveRates = false;
+    private long cycle = 0;
+    private long suppressed = 0;
+    private long rates = 0;
+
+    // Updates the configuration of the stage
+    public void configure(boolean _suppressUnchanged, long _heartbeatInterval, boolean _deriveRates) {
+        this.suppressUnchanged = _suppressUnchanged;
+        this.heartbeatInterval = _heartbeatInterval;
+        this.deriveRates = _deriveRates;
+    }
+
+    // Is the stage doing anything, if not the builders are stored as they are
+    public boolean isEnabled() {
+        return suppressUnchanged || deriveRates;
+    }
+
+    // Adds the records of the builder that should be stored to the list
+    public void filter(TSDRMetricRecordBuilder builder, List<TSDRMetricRecord> out) {
+        Long time = builder.getTimeStamp();
+        BigDecimal value = builder.getMetricValue();
+        if (time == null || value == null) {
+            out.add(builder.build());
+            return;
+        }
+        SeriesState state = states.get(builder);
+        if (state == null) {
+            state = new SeriesState();
+            states.put(builder, state);
+        }
+        state.cycle = cycle;
+        boolean newSample = state.lastSeenTime != time;
+        if (!suppressUnchanged) {
+            out.add(builder.build());
+        } else if (newSample && state.stored.shouldStore(time, value, heartbeatInterval)) {
+            out.add(builder.build());
+        } else {
+            suppressed++;
+        }
+        if (deriveRates && newSample && state.lastSeenValue != null
+                && time > state.lastSeenTime && !GAUGES.contains(builder.getMetricName())) {
+            BigDecimal rate = rate(state.lastSeenValue, value, time - state.lastSeenTime);
+            if (!suppressUnchanged || state.storedRate.shouldStore(time, rate, heartbeatInterval)) {
+                TSDRMetricRecordBuilder rb = new TSDRMetricRecordBuilder();
+                rb.setNodeID(builder.getNodeID());
+                rb.setRecordKeys(builder.getRecordKeys());
+                rb.setTSDRDataCategory(builder.getTSDRDataCategory());
+                rb.setMetricName(builder.getMetricName() + RATE_SUFFIX);
+                rb.setMetricValue(rate);
+                rb.setTimeStamp(time);
+                out.add(rb.build());
+                rates++;
+            } else {
+                suppressed++;
+            }
+        }
+        if (newSample) {
+            state.lastSeenTime = time;
+            state.lastSeenValue = value;
+        }
+    }
+
+    // Ends a storing cycle, the state of a builder that was not seen in the
+    // cycle belongs to a removed metric path and is dropped
+    public void endCycle() {
+        for (Iterator<SeriesState> iter = states.values().iterator(); iter.hasNext();) {
+            if (iter.next().cycle != cycle) {
+                iter.remove();
+            }
+        }
+        cycle++;
+    }
+
+    // The per second rate of a counter between two samples
+    public static BigDecimal rate(BigDecimal previous, BigDecimal current, long elapsedMillis) {
+        BigDecimal delta = current.subtract(previous);
+        if (delta.signum() < 0) {
+            if (previous.compareTo(COUNTER_HALF_RANGE) >= 0) {
+                // The counter wrapped
+                delta = delta.add(COUNTER_RANGE);
+            } else {
+                // The counter was reset and counted from 0
+                delta = current;
+            }
+        }
+        return delta.multiply(MILLIS_PER_SECOND).divide(BigDecimal.valueOf(elapsedMillis), RATE_SCALE,
+                RoundingMode.HALF_UP);
+    }
+
+    // The number of samples that were not stored since the stage was created
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    // The number of rate samples since the stage was created
+    public long getRates() {
+        return rates;
+    }
+
+    // The number of series the stage keeps a state for
+    public int size() {
+        return states.size();
+    }
+
+    private static final class SeriesState {
+        private long cycle;
+        private long lastSeenTime = Long.MIN_VALUE;
+        private BigDecimal lastSeenValue = null;
+        private final StoredSample stored = new StoredSample();
+        private final StoredSample storedRate = new StoredSample();
+    }
+
+    private static final class StoredSample {
+        private long time = Long.MIN_VALUE;
+        private BigDecimal value = null;
+
+        // Should the sample be stored, if so it becomes the last stored sample
+        private boolean shouldStore(long sampleTime, BigDecimal sampleValue, long heartbeat) {
+            if (value != null && value.compareTo(sampleValue) == 0 && sampleTime - time < heartbeat) {
+                return false;
+            }
+            this.time = sampleTime;
+            this.value = sampleValue;
+            return true;
+        }
+    }
+}
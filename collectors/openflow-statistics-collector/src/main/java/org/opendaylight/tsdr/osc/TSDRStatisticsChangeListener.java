@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.osc;
+
+import java.util.Collection;
+
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeChangeListener;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ **/
+/*
+ * Listens on a wildcard path of one statistics augmentation, e.g. the flow
+ * statistics of all the flows of all the nodes, and hands every changed
+ * statistics object to its handler so only the builders of that object are
+ * updated. A deleted statistics object removes its builder container.
+ */
+public class TSDRStatisticsChangeListener<T extends DataObject> implements DataTreeChangeListener<T> {
+    // The collector
+    private final TSDRDOMCollector collector;
+    // The statistics class, to find the handler
+    private final Class<T> statisticsClass;
+
+    public TSDRStatisticsChangeListener(TSDRDOMCollector _collector, Class<T> _statisticsClass) {
+        this.collector = _collector;
+        this.statisticsClass = _statisticsClass;
+    }
+
+    @Override
+    public void onDataTreeChanged(Collection<DataTreeModification<T>> changes) {
+        for (DataTreeModification<T> change : changes) {
+            try {
+                InstanceIdentifier<T> id = change.getRootPath().getRootIdentifier();
+                InstanceIdentifier<Node> nodeID = id.firstIdentifierOf(Node.class);
+                DataObjectModification<T> modification = change.getRootNode();
+                if (modification.getModificationType() == DataObjectModification.ModificationType.DELETE) {
+                    collector.removeBuilderContailer(id);
+                } else {
+                    collector.handle(nodeID, id, modification.getDataAfter(), statisticsClass);
+                }
+            } catch (Exception err) {
+                TSDRDOMCollector.log("Failed to handle a change of " + statisticsClass.getSimpleName(),
+                        TSDRDOMCollector.ERROR);
+                TSDRDOMCollector.log(err);
+            }
+        }
+    }
+}
@@ -55,18 +55,20 @@ public class FlowCapableNodeConnectorQueueStatisticsDataHandler extends TSDRBase
             builder[2].setTimeStamp(timeStamp);
         } else {
             List<RecordKeys> recKeys = createRecordKeys(id);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            TSDRMetricRecordBuilderContainer container = new TSDRMetricRecordBuilderContainer();
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "TransmissionErrors",
                     FormatUtil.toMetricValue(gs.getTransmissionErrors()),
                     DataCategory.QUEUESTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "TransmittedBytes",
                     FormatUtil.toMetricValue(gs.getTransmittedBytes()),
                     DataCategory.QUEUESTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "TransmittedPackets",
                     FormatUtil.toMetricValue(gs.getTransmittedPackets()),
                     DataCategory.QUEUESTATS);
+            getCollector().addBuilderContainer(nodeID, id, container);
         }
     }
 }
\ No newline at end of file
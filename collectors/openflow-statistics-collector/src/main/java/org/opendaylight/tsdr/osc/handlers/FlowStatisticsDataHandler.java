@@ -53,12 +53,14 @@ public class FlowStatisticsDataHandler extends TSDRBaseDataHandler {
             builder[1].setTimeStamp(timeStamp);
         } else {
             List<RecordKeys> recKeys = createRecordKeys(id);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            TSDRMetricRecordBuilderContainer container = new TSDRMetricRecordBuilderContainer();
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ByteCount", FormatUtil.toMetricValue(gs.getByteCount()),
                     DataCategory.FLOWSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "PacketCount", FormatUtil.toMetricValue(gs.getPacketCount()),
                     DataCategory.FLOWSTATS);
+            getCollector().addBuilderContainer(nodeID, id, container);
         }
     }
 }
@@ -79,38 +79,40 @@ public class NodeConnectorStatisticsChangeHandler extends TSDRBaseDataHandler {
             }
         } else {
             List<RecordKeys> recKeys = createRecordKeys(id);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            TSDRMetricRecordBuilderContainer container = new TSDRMetricRecordBuilderContainer();
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "TransmitDrops",FormatUtil.toMetricValue(fs.getTransmitDrops()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ReceiveDrops",FormatUtil.toMetricValue(fs.getReceiveDrops()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ReceiveCrcError",FormatUtil.toMetricValue(fs.getReceiveCrcError()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ReceiveFrameError", FormatUtil.toMetricValue(fs.getReceiveFrameError()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ReceiveOverRunError", FormatUtil.toMetricValue(fs.getReceiveOverRunError()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "TransmitErrors", FormatUtil.toMetricValue(fs.getTransmitErrors()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "CollisionCount", FormatUtil.toMetricValue(fs.getCollisionCount()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ReceiveErrors", FormatUtil.toMetricValue(fs.getReceiveErrors()),
                     DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "TransmittedBytes", new BigDecimal(0), DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ReceivedBytes", new BigDecimal(0), DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "TransmittedPackets", new BigDecimal(0), DataCategory.PORTSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ReceivedPackets", new BigDecimal(0), DataCategory.PORTSTATS);
+            getCollector().addBuilderContainer(nodeID, id, container);
         }
     }
 }
\ No newline at end of file
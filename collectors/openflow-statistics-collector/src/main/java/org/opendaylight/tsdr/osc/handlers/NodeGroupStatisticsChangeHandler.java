@@ -56,15 +56,17 @@ public class NodeGroupStatisticsChangeHandler extends TSDRBaseDataHandler {
             builder[2].setTimeStamp(timeStamp);
         } else {
             List<RecordKeys> recKeys = createRecordKeys(id);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            TSDRMetricRecordBuilderContainer container = new TSDRMetricRecordBuilderContainer();
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "RefCount", FormatUtil.toMetricValue(gs.getRefCount()),
                     DataCategory.FLOWGROUPSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "PacketCount", FormatUtil.toMetricValue(gs.getPacketCount()),
                     DataCategory.FLOWGROUPSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ByteCount", FormatUtil.toMetricValue(gs.getByteCount()),
                     DataCategory.FLOWGROUPSTATS);
+            getCollector().addBuilderContainer(nodeID, id, container);
         }
     }
 }
@@ -57,15 +57,17 @@ public class NodeMeterStatisticsChangeHandler extends
             builder[2].setTimeStamp(timeStamp);
         } else {
             List<RecordKeys> recKeys = createRecordKeys(id);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            TSDRMetricRecordBuilderContainer container = new TSDRMetricRecordBuilderContainer();
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ByteInCount", FormatUtil.toMetricValue(ms.getByteInCount()),
                     DataCategory.FLOWMETERSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "FlowCount", FormatUtil.toMetricValue(ms.getFlowCount()),
                     DataCategory.FLOWMETERSTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "PacketInCount", FormatUtil.toMetricValue(ms.getPacketInCount()),
                     DataCategory.FLOWMETERSTATS);
+            getCollector().addBuilderContainer(nodeID, id, container);
         }
     }
 }
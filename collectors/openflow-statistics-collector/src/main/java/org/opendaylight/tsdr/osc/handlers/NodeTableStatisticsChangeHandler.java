@@ -56,15 +56,17 @@ public class NodeTableStatisticsChangeHandler extends TSDRBaseDataHandler {
             builder[2].setTimeStamp(timeStamp);
         } else {
             List<RecordKeys> recKeys = createRecordKeys(id);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            TSDRMetricRecordBuilderContainer container = new TSDRMetricRecordBuilderContainer();
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "ActiveFlows", FormatUtil.toMetricValue(fs.getActiveFlows()),
                     DataCategory.FLOWTABLESTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "PacketMatch", FormatUtil.toMetricValue(fs.getPacketsMatched()),
                     DataCategory.FLOWTABLESTATS);
-            getCollector().createTSDRMetricRecordBuilder(nodeID,id, recKeys,
+            getCollector().createTSDRMetricRecordBuilder(container, recKeys,
                     "PacketLookup", FormatUtil.toMetricValue(fs.getPacketsLookedUp()),
                     DataCategory.FLOWTABLESTATS);
+            getCollector().addBuilderContainer(nodeID, id, container);
         }
     }
 }
@@ -1,22 +1,32 @@
 package org.opendaylight.tsdr.datacollection;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
 import org.opendaylight.controller.md.sal.common.api.data.ReadFailedException;
 import org.opendaylight.controller.sal.binding.api.RpcProviderRegistry;
 import org.opendaylight.tsdr.osc.TSDRDOMCollector;
+import org.opendaylight.tsdr.osc.TSDRStatisticsChangeListener;
 import org.opendaylight.tsdr.osc.handlers.FlowCapableNodeConnectorQueueStatisticsDataHandler;
 import org.opendaylight.tsdr.osc.handlers.FlowStatisticsDataHandler;
 import org.opendaylight.tsdr.osc.handlers.NodeConnectorStatisticsChangeHandler;
@@ -73,6 +83,10 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.meter.statistics.rev131111.
 import org.opendaylight.yang.gen.v1.urn.opendaylight.meter.statistics.rev131111.nodes.node.meter.MeterStatistics;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.meter.statistics.rev131111.nodes.node.meter.MeterStatisticsBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.meter.types.rev130918.MeterId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.InsertTSDRMetricRecordInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.TsdrCollectorSpiService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.openflow.statistics.collector.rev150820.TSDROSCConfig;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.openflow.statistics.collector.rev150820.TSDROSCConfigBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.model.statistics.types.rev130925.node.connector.statistics.BytesBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.model.statistics.types.rev130925.node.connector.statistics.PacketsBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.port.statistics.rev131214.FlowCapableNodeConnectorStatisticsData;
@@ -84,6 +98,8 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.queue.statistics.rev131216.
 import org.opendaylight.yang.gen.v1.urn.opendaylight.queue.statistics.rev131216.flow.capable.node.connector.queue.statistics.FlowCapableNodeConnectorQueueStatistics;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.queue.statistics.rev131216.flow.capable.node.connector.queue.statistics.FlowCapableNodeConnectorQueueStatisticsBuilder;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcError;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.CheckedFuture;
@@ -395,4 +411,104 @@ public class DataCollectionTest {
                         FlowCapableNodeConnectorQueueStatisticsData.class);
         handler.handleData(nodeID, id, buildFlowCapableNodeConnectorQueueStatisticsData());
     }
+    @Test
+    public void testStatisticsChangeListener(){
+        TSDRStatisticsChangeListener<NodeMeterStatistics> listener = new TSDRStatisticsChangeListener<>(collector, NodeMeterStatistics.class);
+        Node node = nodes.getNode().get(0);
+        //A meter the poller does not know about
+        InstanceIdentifier<NodeMeterStatistics> id = InstanceIdentifier
+                .create(Nodes.class)
+                .child(Node.class, node.getKey())
+                .augmentation(FlowCapableNode.class)
+                .child(Meter.class, new MeterKey(new MeterId(3l)))
+                .augmentation(NodeMeterStatistics.class);
+        DataTreeModification<NodeMeterStatistics> change = mock(DataTreeModification.class);
+        DataObjectModification<NodeMeterStatistics> modification = mock(DataObjectModification.class);
+        when(change.getRootPath()).thenReturn(new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL, id));
+        when(change.getRootNode()).thenReturn(modification);
+        when(modification.getModificationType()).thenReturn(DataObjectModification.ModificationType.WRITE);
+        when(modification.getDataAfter()).thenReturn(buildNodeMeterStatistics());
+        listener.onDataTreeChanged(Collections.singletonList(change));
+        Assert.assertNotNull(collector.getTSDRMetricRecordBuilderContainer(id));
+        when(modification.getModificationType()).thenReturn(DataObjectModification.ModificationType.DELETE);
+        listener.onDataTreeChanged(Collections.singletonList(change));
+        Assert.assertNull(collector.getTSDRMetricRecordBuilderContainer(id));
+        Assert.assertFalse(collector.isIncrementalCollection());
+    }
+    @Test
+    public void testBatchedStoringCycle() throws Exception {
+        //Poll and store every 100 milliseconds, 10 records per store call
+        TSDROSCConfigBuilder cb = new TSDROSCConfigBuilder();
+        cb.setPollingInterval(100l);
+        cb.setStoreBatchSize(10);
+        CheckedFuture<Optional<TSDROSCConfig>, ReadFailedException> configFuture = mock(CheckedFuture.class);
+        when(configFuture.get()).thenReturn(Optional.of(cb.build()));
+        when(readTransaction.read(LogicalDatastoreType.CONFIGURATION, InstanceIdentifier.create(TSDROSCConfig.class))).thenReturn(configFuture);
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        TsdrCollectorSpiService spi = mock(TsdrCollectorSpiService.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                batchSizes.add(((InsertTSDRMetricRecordInput)invocation.getArguments()[0]).getTSDRMetricRecord().size());
+                return RpcResultBuilder.<Void> success().buildFuture();
+            }
+        }).when(spi).insertTSDRMetricRecord(any(InsertTSDRMetricRecordInput.class));
+        RpcProviderRegistry registry = mock(RpcProviderRegistry.class);
+        when(registry.getRpcService(TsdrCollectorSpiService.class)).thenReturn(spi);
+        TSDRDOMCollector batchingCollector = new TSDRDOMCollector(this.dataBroker, registry);
+        try {
+            for(int i=0;i<100 && batchingCollector.getLastCycleRecords()==0;i++){
+                Thread.sleep(100);
+            }
+            long records = batchingCollector.getLastCycleRecords();
+            Assert.assertTrue(records>10);
+            Assert.assertEquals((records+9)/10, batchingCollector.getLastCycleBatches());
+            Assert.assertEquals(0, batchingCollector.getLastCycleFailedBatches());
+            for(Integer size:batchSizes){
+                Assert.assertTrue(size>0 && size<=10);
+            }
+        } finally {
+            batchingCollector.shutdown();
+        }
+    }
+    @Test
+    public void testRejectedBatchesFail() throws Exception {
+        TSDROSCConfigBuilder cb = new TSDROSCConfigBuilder();
+        cb.setPollingInterval(100l);
+        cb.setStoreBatchSize(10);
+        CheckedFuture<Optional<TSDROSCConfig>, ReadFailedException> configFuture = mock(CheckedFuture.class);
+        when(configFuture.get()).thenReturn(Optional.of(cb.build()));
+        when(readTransaction.read(LogicalDatastoreType.CONFIGURATION, InstanceIdentifier.create(TSDROSCConfig.class))).thenReturn(configFuture);
+        //The data storage rejects every batch after the call returned
+        TsdrCollectorSpiService spi = mock(TsdrCollectorSpiService.class);
+        when(spi.insertTSDRMetricRecord(any(InsertTSDRMetricRecordInput.class))).thenReturn(
+                RpcResultBuilder.<Void> failed().withError(RpcError.ErrorType.APPLICATION, "rejected").buildFuture());
+        RpcProviderRegistry registry = mock(RpcProviderRegistry.class);
+        when(registry.getRpcService(TsdrCollectorSpiService.class)).thenReturn(spi);
+        TSDRDOMCollector rejectedCollector = new TSDRDOMCollector(this.dataBroker, registry);
+        try {
+            for(int i=0;i<100 && rejectedCollector.getLastCycleRecords()==0;i++){
+                Thread.sleep(100);
+            }
+            Assert.assertTrue(rejectedCollector.getLastCycleBatches()>0);
+            Assert.assertEquals(rejectedCollector.getLastCycleBatches(), rejectedCollector.getLastCycleFailedBatches());
+        } finally {
+            rejectedCollector.shutdown();
+        }
+    }
+    @Test
+    public void testParallelNodesCollection() throws Exception {
+        InstanceIdentifier<Node> nodeID1 = InstanceIdentifier.create(Nodes.class).child(Node.class, nodes.getNode().get(0).getKey());
+        InstanceIdentifier<Node> nodeID2 = InstanceIdentifier.create(Nodes.class).child(Node.class, nodes.getNode().get(1).getKey());
+        for(int i=0;i<100 && collector.getNodesPoller().getNodeCollectionTime(nodeID2)==null;i++){
+            Thread.sleep(50);
+        }
+        Assert.assertNotNull(collector.getNodesPoller().getNodeCollectionTime(nodeID1));
+        Assert.assertNotNull(collector.getNodesPoller().getNodeCollectionTime(nodeID2));
+        Assert.assertEquals(collector.getCollectorThreads(), collector.getNodesPoller().getWorkerCount());
+        Assert.assertNotNull(collector.getTSDRMetricRecordBuilderContainer(InstanceIdentifier.create(Nodes.class)
+                .child(Node.class, nodes.getNode().get(1).getKey())
+                .child(NodeConnector.class, buildNodeConnector(nodes.getNode().get(1).getId().getValue()+":2").getKey())
+                .augmentation(FlowCapableNodeConnectorStatisticsData.class)));
+    }
 }
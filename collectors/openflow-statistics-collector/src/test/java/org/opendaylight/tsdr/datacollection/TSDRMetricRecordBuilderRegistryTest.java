@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datacollection;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.tsdr.osc.TSDRMetricRecordBuilderContainer;
+import org.opendaylight.tsdr.osc.TSDRMetricRecordBuilderRegistry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ **/
+public class TSDRMetricRecordBuilderRegistryTest {
+
+    private static InstanceIdentifier<Node> nodeID(String node){
+        return InstanceIdentifier.create(Nodes.class).child(Node.class, new NodeKey(new NodeId(node)));
+    }
+
+    private static InstanceIdentifier<NodeConnector> portID(String node, int port){
+        return nodeID(node).child(NodeConnector.class, new NodeConnectorKey(new NodeConnectorId(node+":"+port)));
+    }
+
+    private static int count(TSDRMetricRecordBuilderRegistry registry){
+        int count = 0;
+        for(TSDRMetricRecordBuilderContainer c:registry){
+            Assert.assertNotNull(c);
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testOneContainerPerPath(){
+        TSDRMetricRecordBuilderRegistry registry = new TSDRMetricRecordBuilderRegistry(4);
+        TSDRMetricRecordBuilderContainer c = registry.getOrCreate(nodeID("openflow:1"), portID("openflow:1",1));
+        Assert.assertSame(c, registry.getOrCreate(nodeID("openflow:1"), portID("openflow:1",1)));
+        Assert.assertSame(c, registry.get(portID("openflow:1",1)));
+        Assert.assertNull(registry.get(portID("openflow:1",2)));
+        Assert.assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testAddedContainerIsComplete(){
+        TSDRMetricRecordBuilderRegistry registry = new TSDRMetricRecordBuilderRegistry(4);
+        TSDRMetricRecordBuilderContainer c = new TSDRMetricRecordBuilderContainer();
+        c.addBuilder(new TSDRMetricRecordBuilder().setMetricName("ReceivedBytes"));
+        c.addBuilder(new TSDRMetricRecordBuilder().setMetricName("TransmittedBytes"));
+        Assert.assertSame(c, registry.getOrAdd(nodeID("openflow:1"), portID("openflow:1",1), c));
+        Assert.assertEquals(2, registry.get(portID("openflow:1",1)).getBuilders().length);
+        //The container of a second notification of the path is dropped
+        TSDRMetricRecordBuilderContainer second = new TSDRMetricRecordBuilderContainer();
+        Assert.assertSame(c, registry.getOrAdd(nodeID("openflow:1"), portID("openflow:1",1), second));
+        Assert.assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testSlotsAreRecycled(){
+        TSDRMetricRecordBuilderRegistry registry = new TSDRMetricRecordBuilderRegistry(4);
+        for(int i=0;i<4;i++){
+            registry.getOrCreate(nodeID("openflow:1"), portID("openflow:1",i));
+        }
+        //Churn of paths does not grow the registry
+        for(int i=4;i<1000;i++){
+            Assert.assertTrue(registry.remove(portID("openflow:1",i-4)));
+            registry.getOrCreate(nodeID("openflow:1"), portID("openflow:1",i));
+        }
+        Assert.assertFalse(registry.remove(portID("openflow:1",0)));
+        Assert.assertEquals(4, registry.size());
+        Assert.assertEquals(4, registry.capacity());
+        Assert.assertEquals(4, count(registry));
+        //A new path without a free slot grows it
+        registry.getOrCreate(nodeID("openflow:1"), portID("openflow:1",1000));
+        Assert.assertEquals(8, registry.capacity());
+        Assert.assertEquals(5, count(registry));
+    }
+
+    @Test
+    public void testRemoveNode(){
+        TSDRMetricRecordBuilderRegistry registry = new TSDRMetricRecordBuilderRegistry(4);
+        Set<TSDRMetricRecordBuilderContainer> node2 = new HashSet<>();
+        for(int i=0;i<10;i++){
+            registry.getOrCreate(nodeID("openflow:1"), portID("openflow:1",i));
+            node2.add(registry.getOrCreate(nodeID("openflow:2"), portID("openflow:2",i)));
+        }
+        registry.remove(portID("openflow:1",0));
+        Assert.assertEquals(9, registry.removeNode(nodeID("openflow:1")));
+        Assert.assertEquals(0, registry.removeNode(nodeID("openflow:1")));
+        Assert.assertEquals(10, registry.size());
+        for(TSDRMetricRecordBuilderContainer c:registry){
+            Assert.assertTrue(node2.contains(c));
+        }
+    }
+}
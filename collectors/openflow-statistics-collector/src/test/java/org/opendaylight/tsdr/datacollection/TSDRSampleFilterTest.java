@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datacollection;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.tsdr.osc.TSDRSampleFilter;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.controller.config.tsdr.collector.spi.rev150915.inserttsdrmetricrecord.input.TSDRMetricRecordBuilder;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ **/
+public class TSDRSampleFilterTest {
+
+    private static TSDRMetricRecordBuilder createBuilder(String metricName){
+        TSDRMetricRecordBuilder b = new TSDRMetricRecordBuilder();
+        b.setNodeID("openflow:1");
+        b.setMetricName(metricName);
+        b.setTSDRDataCategory(DataCategory.PORTSTATS);
+        return b;
+    }
+
+    private static List<TSDRMetricRecord> sample(TSDRSampleFilter filter, TSDRMetricRecordBuilder b, long time, long value){
+        b.setTimeStamp(time);
+        b.setMetricValue(BigDecimal.valueOf(value));
+        List<TSDRMetricRecord> result = new ArrayList<>();
+        filter.filter(b, result);
+        return result;
+    }
+
+    @Test
+    public void testUnchangedSamplesAreSuppressed(){
+        TSDRSampleFilter filter = new TSDRSampleFilter();
+        filter.configure(true, 60000, false);
+        TSDRMetricRecordBuilder b = createBuilder("ReceivedBytes");
+        Assert.assertEquals(1, sample(filter, b, 1000, 10).size());
+        //Same value
+        Assert.assertEquals(0, sample(filter, b, 16000, 10).size());
+        //No new poll since the last cycle
+        b.setMetricValue(BigDecimal.valueOf(20));
+        List<TSDRMetricRecord> result = new ArrayList<>();
+        filter.filter(b, result);
+        Assert.assertEquals(0, result.size());
+        Assert.assertEquals(1, sample(filter, b, 31000, 20).size());
+        Assert.assertEquals(0, sample(filter, b, 46000, 20).size());
+        //The heartbeat
+        Assert.assertEquals(1, sample(filter, b, 91000, 20).size());
+        Assert.assertEquals(3, filter.getSuppressed());
+    }
+
+    @Test
+    public void testNoSuppression(){
+        TSDRSampleFilter filter = new TSDRSampleFilter();
+        filter.configure(false, 60000, false);
+        Assert.assertFalse(filter.isEnabled());
+        TSDRMetricRecordBuilder b = createBuilder("ReceivedBytes");
+        Assert.assertEquals(1, sample(filter, b, 1000, 10).size());
+        Assert.assertEquals(1, sample(filter, b, 1000, 10).size());
+    }
+
+    @Test
+    public void testRates(){
+        TSDRSampleFilter filter = new TSDRSampleFilter();
+        filter.configure(true, 60000, true);
+        TSDRMetricRecordBuilder b = createBuilder("ReceivedBytes");
+        Assert.assertEquals(1, sample(filter, b, 0, 1000).size());
+        List<TSDRMetricRecord> result = sample(filter, b, 2000, 3000);
+        Assert.assertEquals(2, result.size());
+        TSDRMetricRecord rate = result.get(1);
+        Assert.assertEquals("ReceivedBytesRate", rate.getMetricName());
+        Assert.assertEquals(0, BigDecimal.valueOf(1000).compareTo(rate.getMetricValue()));
+        Assert.assertEquals(2000L, rate.getTimeStamp().longValue());
+        Assert.assertEquals(DataCategory.PORTSTATS, rate.getTSDRDataCategory());
+        //The same rate is suppressed
+        Assert.assertEquals(1, sample(filter, b, 4000, 5000).size());
+        //A gauge has no rate
+        TSDRMetricRecordBuilder gauge = createBuilder("ActiveFlows");
+        sample(filter, gauge, 0, 10);
+        Assert.assertEquals(1, sample(filter, gauge, 2000, 20).size());
+    }
+
+    @Test
+    public void testCounterWrapAndReset(){
+        BigDecimal max = new BigDecimal(BigInteger.ONE.shiftLeft(64));
+        BigDecimal beforeWrap = max.subtract(BigDecimal.valueOf(100));
+        Assert.assertEquals(0, BigDecimal.valueOf(200).compareTo(TSDRSampleFilter.rate(beforeWrap, BigDecimal.valueOf(100), 1000)));
+        Assert.assertEquals(0, BigDecimal.valueOf(100).compareTo(TSDRSampleFilter.rate(BigDecimal.valueOf(5000), BigDecimal.valueOf(100), 1000)));
+        Assert.assertEquals(0, new BigDecimal("0.5").compareTo(TSDRSampleFilter.rate(BigDecimal.ZERO, BigDecimal.ONE, 2000)));
+    }
+
+    @Test
+    public void testRemovedSeriesAreDropped(){
+        TSDRSampleFilter filter = new TSDRSampleFilter();
+        filter.configure(true, 60000, true);
+        TSDRMetricRecordBuilder b1 = createBuilder("ReceivedBytes");
+        TSDRMetricRecordBuilder b2 = createBuilder("TransmittedBytes");
+        sample(filter, b1, 1000, 10);
+        sample(filter, b2, 1000, 10);
+        filter.endCycle();
+        Assert.assertEquals(2, filter.size());
+        sample(filter, b1, 2000, 10);
+        filter.endCycle();
+        Assert.assertEquals(1, filter.size());
+    }
+}
@@ -22,9 +22,11 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import org.opendaylight.controller.config.yang.config.TSDR_dataquery.impl.TSDRDataqueryModule;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRAggregatedMetricsInputBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRAggregatedMetricsOutput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsInputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsOutput;
-import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrmetrics.output.Metrics;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -66,8 +68,20 @@ public class TSDRNBIRestAPI {
         input.setEndTime(getTimeFromString(request.getUntil()));
         final long maxDataPoints = Long.parseLong(request.getMaxDataPoints());
 
-        Future<RpcResult<GetTSDRMetricsOutput>> metric = TSDRDataqueryModule.tsdrService.getTSDRMetrics(input.build());
-        List<Metrics> metrics = metric.get().getResult().getMetrics();
+        //Use the coarsest metric rollups that still provide the requested number of data points
+        final GetTSDRAggregatedMetricsInputBuilder aggregatedInput = new GetTSDRAggregatedMetricsInputBuilder();
+        aggregatedInput.setTSDRDataCategory(input.getTSDRDataCategory());
+        aggregatedInput.setStartTime(input.getStartTime());
+        aggregatedInput.setEndTime(input.getEndTime());
+        aggregatedInput.setMaxDataPoints(maxDataPoints);
+        List<? extends TSDRMetric> metrics = null;
+        Future<RpcResult<GetTSDRAggregatedMetricsOutput>> aggregated = TSDRDataqueryModule.tsdrService.getTSDRAggregatedMetrics(aggregatedInput.build());
+        if (aggregated != null && aggregated.get() != null && aggregated.get().getResult() != null) {
+            metrics = aggregated.get().getResult().getAggregatedMetrics();
+        } else {
+            Future<RpcResult<GetTSDRMetricsOutput>> metric = TSDRDataqueryModule.tsdrService.getTSDRMetrics(input.build());
+            metrics = metric.get().getResult().getMetrics();
+        }
         if (metrics == null || metrics.size() == 0) {
             return Response.status(201).entity("{}").build();
         }
@@ -77,7 +91,7 @@ public class TSDRNBIRestAPI {
         }
         reply.setTarget(request.getTarget());
         int count = 0;
-        for (Metrics m : metrics) {
+        for (TSDRMetric m : metrics) {
             if (count % skip == 0) {
                 reply.addDataPoint(m.getTimeStamp(), m.getMetricValue().doubleValue());
             }
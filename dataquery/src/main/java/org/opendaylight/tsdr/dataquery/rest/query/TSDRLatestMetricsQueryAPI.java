@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.dataquery.rest.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import org.opendaylight.controller.config.yang.config.TSDR_dataquery.impl.TSDRDataqueryModule;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsInputBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsOutput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlatestmetrics.output.LatestMetrics;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrmetrics.output.Metrics;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrmetrics.output.MetricsBuilder;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+/**
+ * Returns the latest sample of the metrics that match the TSDR key, the samples are kept in memory by
+ * the storage service so the persistence data store is not queried.
+ * @author Sharon Aicler(saichler@gmail.com)
+ **/
+@Path("/latest")
+public class TSDRLatestMetricsQueryAPI {
+    @GET
+    @Produces("application/json")
+    public Response get(@QueryParam("tsdrkey") String tsdrkey) throws ExecutionException, InterruptedException {
+        TSDRQueryRequest request = new TSDRQueryRequest();
+        request.setTsdrkey(tsdrkey);
+        return post(null,request);
+    }
+
+    @POST
+    @Produces("application/json")
+    public Response post(@Context UriInfo info, TSDRQueryRequest request) throws ExecutionException, InterruptedException {
+        GetTSDRLatestMetricsInputBuilder input = new GetTSDRLatestMetricsInputBuilder();
+        input.setTSDRDataCategory(request.getTsdrkey());
+
+        Future<RpcResult<GetTSDRLatestMetricsOutput>> metric = TSDRDataqueryModule.tsdrService.getTSDRLatestMetrics(input.build());
+
+        GetTSDRLatestMetricsOutput output = metric.get().getResult();
+        List<Metrics> metrics = new ArrayList<>();
+        if(output.getLatestMetrics()!=null){
+            for(LatestMetrics m:output.getLatestMetrics()){
+                metrics.add(new MetricsBuilder(m).build());
+            }
+        }
+        TSDRMetricsQueryReply reply = new TSDRMetricsQueryReply(metrics);
+
+        return Response.status(201).entity(TSDRMetricsQueryAPI.toJson(reply)).build();
+    }
+}
@@ -10,7 +10,6 @@ package org.opendaylight.tsdr.dataquery.rest.query;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import javax.ws.rs.GET;
@@ -26,7 +25,6 @@ import org.opendaylight.controller.config.yang.config.TSDR_dataquery.impl.TSDRDa
 import org.opendaylight.tsdr.dataquery.rest.nbi.TSDRNBIRestAPI;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsInputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsOutput;
-import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlogrecords.output.Logs;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,11 +41,15 @@ public class TSDRLogQueryAPI {
     public Response get(@PathParam("query") String query,
                         @QueryParam("tsdrkey") String tsdrkey,
                         @QueryParam("from") String from,
-                        @QueryParam("until") String until) throws ExecutionException, InterruptedException {
+                        @QueryParam("until") String until,
+                        @QueryParam("pagesize") Integer pagesize,
+                        @QueryParam("token") String token) throws ExecutionException, InterruptedException {
         TSDRQueryRequest request = new TSDRQueryRequest();
         request.setTsdrkey(tsdrkey);
         request.setFrom(from);
         request.setUntil(until);
+        request.setPagesize(pagesize);
+        request.setToken(token);
         return post(null,request);
     }
 
@@ -59,11 +61,18 @@ public class TSDRLogQueryAPI {
         input.setTSDRDataCategory(request.getTsdrkey());
         input.setStartTime(TSDRNBIRestAPI.getTimeFromString(request.getFrom()));
         input.setEndTime(TSDRNBIRestAPI.getTimeFromString(request.getUntil()));
+        input.setPageSize(request.getPagesize());
+        input.setContinuationToken(request.getToken());
 
         Future<RpcResult<GetTSDRLogRecordsOutput>> metric = TSDRDataqueryModule.tsdrService.getTSDRLogRecords(input.build());
 
-        List<Logs> logs = metric.get().getResult().getLogs();
-        TSDRLogQueryReply reply = new TSDRLogQueryReply(logs);
+        RpcResult<GetTSDRLogRecordsOutput> result = metric.get();
+        if(!result.isSuccessful()){
+            //e.g. an invalid continuation token
+            return Response.status(400).entity(toJson(result.getErrors().iterator().next().getMessage())).build();
+        }
+        GetTSDRLogRecordsOutput output = result.getResult();
+        TSDRLogQueryReply reply = new TSDRLogQueryReply(output.getLogs(),output.getContinuationToken());
 
         return Response.status(201).entity(toJson(reply)).build();
     }
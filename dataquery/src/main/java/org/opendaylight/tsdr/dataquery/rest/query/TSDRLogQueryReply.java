@@ -23,9 +23,19 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.Recor
 public class TSDRLogQueryReply {
     private final int recordCount;
     private final List<LogRecords> logRecords = new ArrayList<>();
+    private final String continuationToken;
 
     public TSDRLogQueryReply(List<Logs> logs){
+        this(logs,null);
+    }
+
+    /**
+     * @param logs - The logs of the page
+     * @param continuationToken - The token of the next page, null if this is the last page
+     */
+    public TSDRLogQueryReply(List<Logs> logs, String continuationToken){
         this.recordCount = logs.size();
+        this.continuationToken = continuationToken;
         for (Logs l : logs) {
             logRecords.add(new LogRecords(l));
         }
@@ -11,7 +11,6 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
 import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import javax.ws.rs.GET;
@@ -27,7 +26,6 @@ import org.opendaylight.controller.config.yang.config.TSDR_dataquery.impl.TSDRDa
 import org.opendaylight.tsdr.dataquery.rest.nbi.TSDRNBIRestAPI;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsInputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsOutput;
-import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrmetrics.output.Metrics;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,11 +42,15 @@ public class TSDRMetricsQueryAPI {
     public Response get(@PathParam("query") String query,
                         @QueryParam("tsdrkey") String tsdrkey,
                         @QueryParam("from") String from,
-                        @QueryParam("until") String until) throws ExecutionException, InterruptedException {
+                        @QueryParam("until") String until,
+                        @QueryParam("pagesize") Integer pagesize,
+                        @QueryParam("token") String token) throws ExecutionException, InterruptedException {
         TSDRQueryRequest request = new TSDRQueryRequest();
         request.setTsdrkey(tsdrkey);
         request.setFrom(from);
         request.setUntil(until);
+        request.setPagesize(pagesize);
+        request.setToken(token);
         return post(null,request);
     }
 
@@ -60,11 +62,18 @@ public class TSDRMetricsQueryAPI {
         input.setTSDRDataCategory(request.getTsdrkey());
         input.setStartTime(TSDRNBIRestAPI.getTimeFromString(request.getFrom()));
         input.setEndTime(TSDRNBIRestAPI.getTimeFromString(request.getUntil()));
+        input.setPageSize(request.getPagesize());
+        input.setContinuationToken(request.getToken());
 
         Future<RpcResult<GetTSDRMetricsOutput>> metric = TSDRDataqueryModule.tsdrService.getTSDRMetrics(input.build());
 
-        List<Metrics> metrics = metric.get().getResult().getMetrics();
-        TSDRMetricsQueryReply reply = new TSDRMetricsQueryReply(metrics);
+        RpcResult<GetTSDRMetricsOutput> result = metric.get();
+        if(!result.isSuccessful()){
+            //e.g. an invalid continuation token
+            return Response.status(400).entity(toJson(result.getErrors().iterator().next().getMessage())).build();
+        }
+        GetTSDRMetricsOutput output = result.getResult();
+        TSDRMetricsQueryReply reply = new TSDRMetricsQueryReply(output.getMetrics(),output.getContinuationToken());
 
         return Response.status(201).entity(toJson(reply)).build();
     }
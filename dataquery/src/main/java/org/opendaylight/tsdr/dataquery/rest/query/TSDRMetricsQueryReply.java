@@ -24,9 +24,19 @@ public class TSDRMetricsQueryReply {
 
     private final List<MetricRecord> metricRecords = new ArrayList<MetricRecord>();
     private final int recordCount;
+    private final String continuationToken;
 
     public TSDRMetricsQueryReply(List<Metrics> metricList){
+        this(metricList,null);
+    }
+
+    /**
+     * @param metricList - The metrics of the page
+     * @param continuationToken - The token of the next page, null if this is the last page
+     */
+    public TSDRMetricsQueryReply(List<Metrics> metricList, String continuationToken){
         this.recordCount = metricList.size();
+        this.continuationToken = continuationToken;
         for (Metrics m : metricList) {
             metricRecords.add(new MetricRecord(m));
         }
@@ -17,6 +17,8 @@ public class TSDRQueryRequest {
     public String tsdrkey=null;
     public String from=null;
     public String until=null;
+    public Integer pagesize=null;
+    public String token=null;
 
     public String getTsdrkey() {
         return tsdrkey;
@@ -41,4 +43,20 @@ public class TSDRQueryRequest {
     public void setUntil(String until) {
         this.until = until;
     }
+
+    public Integer getPagesize() {
+        return pagesize;
+    }
+
+    public void setPagesize(Integer pagesize) {
+        this.pagesize = pagesize;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
 }
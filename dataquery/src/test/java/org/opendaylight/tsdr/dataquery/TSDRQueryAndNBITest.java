@@ -25,9 +25,13 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.opendaylight.controller.config.yang.config.TSDR_dataquery.impl.TSDRDataqueryModule;
 import org.opendaylight.tsdr.dataquery.rest.nbi.TSDRNBIRestAPI;
+import org.opendaylight.tsdr.dataquery.rest.query.TSDRLatestMetricsQueryAPI;
 import org.opendaylight.tsdr.dataquery.rest.query.TSDRLogQueryAPI;
 import org.opendaylight.tsdr.dataquery.rest.query.TSDRMetricsQueryAPI;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsInput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsOutput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsOutputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsInput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsOutput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsOutputBuilder;
@@ -35,6 +39,8 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsIn
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsOutput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsOutputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRService;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlatestmetrics.output.LatestMetrics;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlatestmetrics.output.LatestMetricsBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlogrecords.output.Logs;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlogrecords.output.LogsBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrmetrics.output.Metrics;
@@ -75,6 +81,16 @@ public class TSDRQueryAndNBITest extends JerseyTest{
         return b.build();
     }
 
+    public static GetTSDRLatestMetricsOutput createLatestMetrics(){
+        List<LatestMetrics> result = new ArrayList<>();
+        for(Metrics m:createMetricRecords(false).getMetrics()){
+            result.add(new LatestMetricsBuilder(m).setMetricName("LatestTest").build());
+        }
+        GetTSDRLatestMetricsOutputBuilder b = new GetTSDRLatestMetricsOutputBuilder();
+        b.setLatestMetrics(result);
+        return b.build();
+    }
+
     public static GetTSDRLogRecordsOutput createLogRecords(){
         LogsBuilder rb = new LogsBuilder();
         rb.setTSDRDataCategory(DataCategory.EXTERNAL);
@@ -108,11 +124,15 @@ public class TSDRQueryAndNBITest extends JerseyTest{
         Future<RpcResult<GetTSDRLogRecordsOutput>> metric2 = Mockito.mock(Future.class);
         RpcResult<GetTSDRMetricsOutput> rpcResult = Mockito.mock(RpcResult.class);
         RpcResult<GetTSDRLogRecordsOutput> rpcResult2 = Mockito.mock(RpcResult.class);
+        Future<RpcResult<GetTSDRLatestMetricsOutput>> metric3 = Mockito.mock(Future.class);
+        RpcResult<GetTSDRLatestMetricsOutput> rpcResult3 = Mockito.mock(RpcResult.class);
         Mockito.when(TSDRDataqueryModule.tsdrService.getTSDRMetrics(Mockito.any(GetTSDRMetricsInput.class))).thenReturn(metric);
         Mockito.when(TSDRDataqueryModule.tsdrService.getTSDRLogRecords(Mockito.any(GetTSDRLogRecordsInput.class))).thenReturn(metric2);
+        Mockito.when(TSDRDataqueryModule.tsdrService.getTSDRLatestMetrics(Mockito.any(GetTSDRLatestMetricsInput.class))).thenReturn(metric3);
         try {
             Mockito.when(metric.get()).thenReturn(rpcResult);
             Mockito.when(metric2.get()).thenReturn(rpcResult2);
+            Mockito.when(metric3.get()).thenReturn(rpcResult3);
         } catch (InterruptedException e) {
             e.printStackTrace();
         } catch (ExecutionException e) {
@@ -120,6 +140,7 @@ public class TSDRQueryAndNBITest extends JerseyTest{
         }
         Mockito.when(rpcResult.getResult()).thenReturn(createMetricRecords(false));
         Mockito.when(rpcResult2.getResult()).thenReturn(createLogRecords());
+        Mockito.when(rpcResult3.getResult()).thenReturn(createLatestMetrics());
         return new LowLevelAppDescriptor.Builder(config).build();
     }
 
@@ -143,6 +164,13 @@ public class TSDRQueryAndNBITest extends JerseyTest{
 
     }
 
+    @Test
+    public void testQueryForLatestMetrics(){
+        WebResource webResource = resource();
+        String result = webResource.path("/latest").queryParam("tsdrkey", "[NID=NodeTest]").get(String.class);
+        Assert.assertTrue(result.indexOf("LatestTest")!=-1);
+    }
+
     @Test
     public void testNBIForMetrics(){
         WebResource webResource = resource();
@@ -205,7 +233,9 @@ public class TSDRQueryAndNBITest extends JerseyTest{
             TSDRMetricsQueryAPI qapi = new TSDRMetricsQueryAPI();
             TSDRLogQueryAPI lapi = new TSDRLogQueryAPI();
             TSDRNBIRestAPI nbi = new TSDRNBIRestAPI();
+            TSDRLatestMetricsQueryAPI latest = new TSDRLatestMetricsQueryAPI();
             set.add(qapi);
+            set.add(latest);
             set.add(lapi);
             set.add(nbi);
             return set;
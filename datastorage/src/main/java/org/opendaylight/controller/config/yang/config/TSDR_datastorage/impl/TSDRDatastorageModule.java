@@ -9,8 +9,14 @@
 package org.opendaylight.controller.config.yang.config.TSDR_datastorage.impl;
 
 
+import java.io.File;
+import java.io.IOException;
 import org.opendaylight.controller.sal.binding.api.BindingAwareBroker;
+import org.opendaylight.tsdr.datastorage.TSDRAggregationEngine;
+import org.opendaylight.tsdr.datastorage.TSDRHotTier;
+import org.opendaylight.tsdr.datastorage.TSDRSpillLog;
 import org.opendaylight.tsdr.datastorage.TSDRStorageServiceImpl;
+import org.opendaylight.tsdr.datastorage.TSDRWritePipeline;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,7 +80,16 @@ public class TSDRDatastorageModule
         /*
          * The implementation of TSDRStorageservice.
         */
-        final TSDRStorageServiceImpl tsdrDataStorageServiceImpl = new TSDRStorageServiceImpl();
+        final TSDRWritePipeline writePipeline = new TSDRWritePipeline(
+            getWriterThreads() != null && getWriterThreads() > 0 ? getWriterThreads() : TSDRWritePipeline.DEFAULT_WRITER_THREADS,
+            getQueueCapacity() != null && getQueueCapacity() > 0 ? getQueueCapacity().intValue() : TSDRWritePipeline.DEFAULT_QUEUE_CAPACITY,
+            getBatchSize() != null && getBatchSize() > 0 ? getBatchSize().intValue() : TSDRWritePipeline.DEFAULT_BATCH_SIZE,
+            TSDRWritePipeline.OverflowPolicy.fromString(getOverflowPolicy()),
+            getOfferTimeout() != null ? getOfferTimeout() : TSDRWritePipeline.DEFAULT_OFFER_TIMEOUT);
+        final long checkpointInterval = getAggregationCheckpointInterval() != null ?
+            getAggregationCheckpointInterval() : TSDRAggregationEngine.DEFAULT_CHECKPOINT_INTERVAL;
+        final TSDRAggregationEngine aggregationEngine = checkpointInterval > 0 ? new TSDRAggregationEngine(checkpointInterval) : null;
+        final TSDRStorageServiceImpl tsdrDataStorageServiceImpl = new TSDRStorageServiceImpl(writePipeline,aggregationEngine,createSpillLog(),createHotTier());
         /*
          * Register the implementation class of TSDRDatastorage service in the
          * RPC registry.
@@ -98,4 +113,33 @@ public class TSDRDatastorageModule
         return ret;
      }
 
+    private TSDRHotTier createHotTier(){
+        final long window = getHotTierWindow() != null ? getHotTierWindow()*1000L : TSDRHotTier.DEFAULT_WINDOW;
+        if(window<=0){
+            return null;
+        }
+        final int samples = getHotTierSamples() != null && getHotTierSamples() > 0 ?
+            getHotTierSamples().intValue() : TSDRHotTier.DEFAULT_SAMPLES;
+        final long maxMemory = getHotTierMaxMemory() != null && getHotTierMaxMemory() > 0 ?
+            getHotTierMaxMemory()*1024*1024 : TSDRHotTier.DEFAULT_MAX_MEMORY;
+        return new TSDRHotTier(window,samples,maxMemory,TSDRHotTier.Eviction.fromString(getHotTierEviction()));
+    }
+
+    private TSDRSpillLog createSpillLog(){
+        final TSDRSpillLog.Mode mode = TSDRSpillLog.Mode.fromString(getSpillMode());
+        if(mode==TSDRSpillLog.Mode.DISABLED){
+            return null;
+        }
+        final String dir = getSpillDirectory() != null ? getSpillDirectory() : TSDRSpillLog.DEFAULT_DIRECTORY;
+        final long maxSize = getSpillMaxSize() != null && getSpillMaxSize() > 0 ?
+            getSpillMaxSize()*1024*1024 : TSDRSpillLog.DEFAULT_MAX_SIZE;
+        final int replayRate = getSpillReplayRate() != null ? getSpillReplayRate().intValue() : TSDRSpillLog.DEFAULT_REPLAY_RATE;
+        try {
+            return new TSDRSpillLog(mode,new File(dir),maxSize,TSDRSpillLog.DEFAULT_SEGMENT_SIZE,replayRate);
+        } catch (IOException e) {
+            log.error("Failed to open the spill log in {}, the records that fail to be stored will be lost",dir,e);
+            return null;
+        }
+    }
+
 }
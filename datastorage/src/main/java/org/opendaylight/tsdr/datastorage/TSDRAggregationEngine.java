@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import org.opendaylight.tsdr.datastorage.persistence.TSDRPersistenceServiceFactory;
+import org.opendaylight.tsdr.spi.persistence.TsdrAggregationPersistenceService;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.tsdr.spi.scheduler.SchedulerService;
+import org.opendaylight.tsdr.spi.scheduler.Task;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.TSDRAggregationUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintains the metric rollups (TSDRAggregationMetric) of every granularity as the metrics are stored.
+ *
+ * <p>
+ * For each metric the engine keeps the open period of every granularity in memory. When a sample
+ * falls after the open period, the period is closed and its aggregation is stored. Every checkpoint
+ * interval the partial aggregations of the open periods are stored and reset, so a restart loses
+ * at most one interval. Stored aggregations are deltas, the persistence service merges an aggregation
+ * into the stored one of the same period, which is also how late samples are handled. An aggregation
+ * carries the sum and the count of its samples so merging does not round the average.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRAggregationEngine implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TSDRAggregationEngine.class);
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 900;
+    private static final AggregationGranularity[] GRANULARITIES = AggregationGranularity.values();
+
+    private final ConcurrentHashMap<String,MetricRollup> rollups = new ConcurrentHashMap<>();
+    private ScheduledFuture checkpointFuture = null;
+
+    /**
+     * @param checkpointInterval - The interval in seconds to store the partial aggregations of the open periods,
+     *                           0 leaves the checkpoints to the caller
+     */
+    public TSDRAggregationEngine(long checkpointInterval){
+        if(checkpointInterval>0) {
+            SchedulerService.getInstance().scheduleTaskAtFixedRate(new CheckpointTask(), checkpointInterval, checkpointInterval);
+        }
+    }
+
+    /**
+     * Adds the samples of the metric records in the list to the aggregations.
+     * @param records - The records that were stored
+     */
+    public void aggregate(List<? extends TSDRRecord> records){
+        final List<TSDRAggregationMetric> closed = new ArrayList<>();
+        for(TSDRRecord record:records){
+            if(!(record instanceof TSDRMetric)){
+                continue;
+            }
+            final TSDRMetric metric = (TSDRMetric)record;
+            if(metric.getMetricValue()==null || metric.getTimeStamp()==null){
+                continue;
+            }
+            final String tsdrKey = FormatUtil.getTSDRMetricKey(metric);
+            boolean added = false;
+            while(!added){
+                MetricRollup rollup = rollups.get(tsdrKey);
+                if(rollup==null){
+                    rollup = new MetricRollup(metric);
+                    MetricRollup existing = rollups.putIfAbsent(tsdrKey,rollup);
+                    if(existing!=null){
+                        rollup = existing;
+                    }
+                }
+                //A rollup that was released by a checkpoint refuses the sample and is replaced
+                added = rollup.add(metric.getTimeStamp(),metric.getMetricValue().doubleValue(),closed);
+                if(!added){
+                    rollups.remove(tsdrKey,rollup);
+                }
+            }
+        }
+        store(closed);
+    }
+
+    /**
+     * Stores the partial aggregations of the open periods and releases the metrics that had no samples
+     * since the previous checkpoint.
+     */
+    public void checkpoint(){
+        final List<TSDRAggregationMetric> partial = new ArrayList<>();
+        for(Iterator<MetricRollup> iter = rollups.values().iterator();iter.hasNext();){
+            if(iter.next().flush(partial)){
+                //Nothing is lost, a sample arriving later just starts new periods that are merged on store
+                iter.remove();
+            }
+        }
+        store(partial);
+    }
+
+    private void store(List<TSDRAggregationMetric> aggregations){
+        if(aggregations.isEmpty()){
+            return;
+        }
+        final TsdrPersistenceService persistence = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore();
+        if(!(persistence instanceof TsdrAggregationPersistenceService)){
+            log.debug("The persistence service does not store aggregations, {} aggregations were discarded",aggregations.size());
+            return;
+        }
+        try {
+            ((TsdrAggregationPersistenceService)persistence).storeAggregatedMetrics(aggregations);
+        } catch (RuntimeException e) {
+            log.error("Failed to store {} aggregations",aggregations.size(),e);
+        }
+    }
+
+    /**
+     * @return - The number of metrics that have open periods
+     */
+    public int getMetricCount(){
+        return rollups.size();
+    }
+
+    @Override
+    public void close() {
+        if(checkpointFuture!=null){
+            checkpointFuture.cancel(false);
+        }
+        checkpoint();
+    }
+
+    //The open period of one granularity
+    private static final class Period {
+        private final long start;
+        private final long end;
+        private double min = Double.MAX_VALUE;
+        private double max = -Double.MAX_VALUE;
+        private double sum = 0;
+        private long count = 0;
+
+        private Period(AggregationGranularity granularity, long time){
+            this.start = TSDRAggregationUtil.getPeriodStart(granularity,time);
+            this.end = TSDRAggregationUtil.getPeriodEnd(granularity,time);
+        }
+
+        private void add(double value){
+            if(value<min){
+                min = value;
+            }
+            if(value>max){
+                max = value;
+            }
+            sum+=value;
+            count++;
+        }
+    }
+
+    //The open periods of a single metric
+    private static final class MetricRollup {
+        private final TSDRMetric metric;
+        private final Period[] periods = new Period[GRANULARITIES.length];
+        private boolean updated = true;
+        private boolean released = false;
+
+        private MetricRollup(TSDRMetric metric){
+            this.metric = metric;
+        }
+
+        private synchronized boolean add(long time, double value, List<TSDRAggregationMetric> closed){
+            if(released){
+                return false;
+            }
+            updated = true;
+            for(int i=0;i<GRANULARITIES.length;i++){
+                Period p = periods[i];
+                if(p==null || time>=p.end){
+                    if(p!=null && p.count>0){
+                        closed.add(toAggregation(GRANULARITIES[i],p));
+                    }
+                    p = new Period(GRANULARITIES[i],time);
+                    periods[i] = p;
+                }else if(time<p.start){
+                    //A late sample, store it as a single sample aggregation of its own period
+                    closed.add(TSDRAggregationUtil.createAggregation(metric,GRANULARITIES[i],
+                            TSDRAggregationUtil.getPeriodStart(GRANULARITIES[i],time),value,value,value,1));
+                    continue;
+                }
+                p.add(value);
+            }
+            return true;
+        }
+
+        /**
+         * @return - true if there were no samples since the previous flush and the rollup was released
+         */
+        private synchronized boolean flush(List<TSDRAggregationMetric> partial){
+            for(int i=0;i<GRANULARITIES.length;i++){
+                Period p = periods[i];
+                if(p!=null && p.count>0){
+                    partial.add(toAggregation(GRANULARITIES[i],p));
+                    periods[i] = new Period(GRANULARITIES[i],p.start);
+                }
+            }
+            released = !updated;
+            updated = false;
+            return released;
+        }
+
+        private TSDRAggregationMetric toAggregation(AggregationGranularity granularity, Period p){
+            return TSDRAggregationUtil.createAggregation(metric,granularity,p.start,p.min,p.max,p.sum,p.count);
+        }
+    }
+
+    private final class CheckpointTask extends Task {
+        @Override
+        public void runTask() {
+            try {
+                checkpoint();
+            } catch (RuntimeException e) {
+                log.error("Failed to checkpoint the aggregations",e);
+            }
+        }
+
+        @Override
+        public void setScheduledFuture(ScheduledFuture scheduledFuture) {
+            checkpointFuture = scheduledFuture;
+        }
+    }
+}
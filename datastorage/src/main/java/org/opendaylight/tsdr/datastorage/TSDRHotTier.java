@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the recent samples of the metric series in memory, so the queries of a recent time window
+ * do not go to the persistence service.
+ *
+ * <p>
+ * Every series has a fixed size ring buffer allocated outside of the heap, a sample takes 20 bytes,
+ * its time, its unscaled value and its scale. The buffers are recycled and their number is bounded by
+ * the max memory, when there is no free buffer for a new series the least recently written (or read)
+ * series are evicted. An evicted series keeps its key and the latest sample it had, without a buffer,
+ * until that sample is older than the window, so its queries know which part of the range is missing.
+ * </p>
+ *
+ * <p>
+ * A query is answered from memory for the part of its time range the tier holds all the samples of,
+ * that is after the start of the window, the start of the tier and the latest sample that was evicted
+ * or overwritten from the matching series. The rest of the range is read from the persistence service
+ * and the results are merged. Like the persistence services, a query of a data category returns the
+ * newest metrics first, other queries the oldest first, and at most
+ * TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND metrics are returned.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRHotTier {
+
+    private static final Logger log = LoggerFactory.getLogger(TSDRHotTier.class);
+
+    //The tier is disabled unless a window is configured
+    public static final long DEFAULT_WINDOW = 0;
+    public static final int DEFAULT_SAMPLES = 720;
+    public static final long DEFAULT_MAX_MEMORY = 256*1024*1024L;
+
+    //The time, the unscaled value and the scale of a sample
+    private static final int SAMPLE_SIZE = 20;
+    private static final int VALUE_OFFSET = 8;
+    private static final int SCALE_OFFSET = 16;
+    //The part of the buffers that is evicted when the memory is full
+    private static final int EVICTION_RATIO = 20;
+
+    private static final Comparator<TSDRMetricRecord> BY_TIME = new Comparator<TSDRMetricRecord>() {
+        @Override
+        public int compare(TSDRMetricRecord o1, TSDRMetricRecord o2) {
+            return Long.compare(o1.getTimeStamp(),o2.getTimeStamp());
+        }
+    };
+
+    public enum Eviction {
+        LEAST_RECENTLY_WRITTEN,
+        LEAST_RECENTLY_READ;
+
+        public static Eviction fromString(String eviction){
+            if(eviction!=null){
+                try {
+                    return valueOf(eviction.trim().toUpperCase());
+                }catch(IllegalArgumentException e){
+                    log.warn("Unknown hot tier eviction {}, using {}",eviction,LEAST_RECENTLY_WRITTEN);
+                }
+            }
+            return LEAST_RECENTLY_WRITTEN;
+        }
+    }
+
+    private final long window;
+    private final int samples;
+    private final int maxBuffers;
+    private final Eviction eviction;
+    private final long startTime = System.currentTimeMillis();
+    private final TSDRSeriesIndex<Series> series = new TSDRSeriesIndex<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+    private final Object evictionLock = new Object();
+    private final AtomicLong memoryQueries = new AtomicLong();
+    private final AtomicLong mergedQueries = new AtomicLong();
+    private final AtomicLong persistenceQueries = new AtomicLong();
+    private final AtomicLong evictedSeries = new AtomicLong();
+
+    /**
+     * @param window - The time in milliseconds the samples are kept for
+     * @param samples - The max number of samples kept per series
+     * @param maxMemory - The max size in bytes of the ring buffers
+     * @param eviction - Which series are evicted when the memory is full
+     */
+    public TSDRHotTier(long window, int samples, long maxMemory, Eviction eviction){
+        this.window = window;
+        this.samples = samples;
+        this.maxBuffers = (int)Math.max(1,Math.min(Integer.MAX_VALUE,maxMemory/((long)samples*SAMPLE_SIZE)));
+        this.eviction = eviction;
+        log.info("TSDR hot tier keeps {} ms of samples, up to {} samples of {} series",window,samples,maxBuffers);
+    }
+
+    /**
+     * Adds the metrics in the records, other records are ignored.
+     * @param records - The records
+     */
+    public void update(List<? extends TSDRRecord> records){
+        for(TSDRRecord record:records){
+            if(record instanceof TSDRMetric){
+                update((TSDRMetric)record);
+            }
+        }
+    }
+
+    /**
+     * Adds a sample to the ring buffer of its series, a sample older than the window is ignored.
+     * @param metric - The metric
+     */
+    public void update(TSDRMetric metric){
+        if(metric.getTimeStamp()==null || metric.getMetricValue()==null || metric.getTSDRDataCategory()==null){
+            return;
+        }
+        final long time = metric.getTimeStamp();
+        if(time<System.currentTimeMillis()-window){
+            return;
+        }
+        final BigDecimal value = TSDRLatestValueStore.toLongPrecision(metric.getMetricValue());
+        final MD5ID id = MD5ID.createTSDRID(FormatUtil.getTSDRMetricKey(metric));
+        while(true){
+            Series s = series.get(id);
+            if(s==null){
+                s = new Series(id,metric);
+                final Series existing = series.putIfAbsent(s);
+                if(existing!=null){
+                    s = existing;
+                }
+            }
+            if(s.add(time,value)){
+                return;
+            }
+            //The series has no buffer, it is new or was evicted
+            final ByteBuffer buffer = allocate();
+            if(buffer==null){
+                //No memory for the series, the queries that include the sample go to the persistence service
+                s.drop(time);
+                return;
+            }
+            if(!s.attach(buffer)){
+                //Another thread attached a buffer, or the series was removed
+                freeBuffers.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics of the time range, from memory for the part of the range that is held in memory
+     * and from the persistence service for the rest.
+     * @param persistence - The persistence service
+     * @param tsdrKey - The TSDR key
+     * @param startTime - The start time
+     * @param endTime - The end time
+     * @return - The metrics
+     */
+    public List<TSDRMetricRecord> getTSDRMetricRecords(TsdrPersistenceService persistence, String tsdrKey, long startTime, long endTime){
+        final List<Series> matching = series.find(tsdrKey);
+        long coveredFrom = Math.max(this.startTime,System.currentTimeMillis()-window);
+        for(Series s:matching){
+            coveredFrom = Math.max(coveredFrom,next(s.getDroppedUntil()));
+        }
+        if(endTime<coveredFrom){
+            persistenceQueries.incrementAndGet();
+            return persistence.getTSDRMetricRecords(tsdrKey,startTime,endTime);
+        }
+        final int limit = TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND;
+        final boolean newestFirst = isDataCategory(tsdrKey);
+        final List<TSDRMetricRecord> recent = new ArrayList<>();
+        final long from = Math.max(startTime,coveredFrom);
+        for(Series s:matching){
+            s.read(from,endTime,recent);
+        }
+        if(matching.size()>1){
+            Collections.sort(recent,BY_TIME);
+        }
+        final List<TSDRMetricRecord> result = new ArrayList<>(Math.min(limit,recent.size()));
+        if(newestFirst){
+            for(int i=recent.size()-1;i>=0 && result.size()<limit;i--){
+                result.add(recent.get(i));
+            }
+        }
+        //The older part is not needed when the newest metrics already fill the result
+        if(startTime<coveredFrom && result.size()<limit){
+            mergedQueries.incrementAndGet();
+            final List<TSDRMetricRecord> older = persistence.getTSDRMetricRecords(tsdrKey,startTime,coveredFrom-1);
+            if(older!=null){
+                for(int i=0;i<older.size() && result.size()<limit;i++){
+                    result.add(older.get(i));
+                }
+            }
+        }else{
+            memoryQueries.incrementAndGet();
+        }
+        if(!newestFirst){
+            for(int i=0;i<recent.size() && result.size()<limit;i++){
+                result.add(recent.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isDataCategory(String tsdrKey){
+        if(tsdrKey==null || tsdrKey.startsWith("[")){
+            return false;
+        }
+        try {
+            DataCategory.valueOf(tsdrKey);
+            return true;
+        }catch(IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * Removes the samples of the category that are older than the retention time.
+     * @param category - The data category
+     * @param retentionTime - The time before which the samples are purged
+     */
+    public void purge(DataCategory category, long retentionTime){
+        for(Series s:series.get(category)){
+            s.purge(retentionTime);
+        }
+        removeEvicted(series.get(category));
+    }
+
+    /**
+     * Removes the samples that are older than the retention time.
+     * @param retentionTime - The time before which the samples are purged
+     */
+    public void purgeAll(long retentionTime){
+        for(Series s:series.values()){
+            s.purge(retentionTime);
+        }
+        removeEvicted(series.values());
+    }
+
+    //Removes the evicted series whose latest sample is older than the window, the window covers them anyway
+    private void removeEvicted(Iterable<Series> candidates){
+        final long windowStart = System.currentTimeMillis()-window;
+        for(Series s:candidates){
+            if(s.markRemoved(windowStart)){
+                series.remove(s);
+            }
+        }
+    }
+
+    private ByteBuffer allocate(){
+        ByteBuffer buffer = freeBuffers.poll();
+        if(buffer!=null){
+            return buffer;
+        }
+        if(allocatedBuffers.incrementAndGet()<=maxBuffers){
+            return ByteBuffer.allocateDirect(samples*SAMPLE_SIZE);
+        }
+        allocatedBuffers.decrementAndGet();
+        evict();
+        return freeBuffers.poll();
+    }
+
+    private void evict(){
+        synchronized(evictionLock){
+            //Another thread has just evicted
+            if(!freeBuffers.isEmpty()){
+                return;
+            }
+            //The times are copied first as they keep changing while sorting
+            removeEvicted(series.values());
+            final List<Candidate> candidates = new ArrayList<>(series.size());
+            for(Series s:series.values()){
+                if(s.hasBuffer()){
+                    candidates.add(new Candidate(s,eviction==Eviction.LEAST_RECENTLY_READ ? s.lastRead : s.lastWrite));
+                }
+            }
+            Collections.sort(candidates);
+            final int count = Math.min(candidates.size(),Math.max(1,maxBuffers/EVICTION_RATIO));
+            for(int i=0;i<count;i++){
+                final ByteBuffer buffer = candidates.get(i).series.release();
+                if(buffer!=null){
+                    freeBuffers.offer(buffer);
+                    evictedSeries.incrementAndGet();
+                }
+            }
+            log.debug("Evicted {} series from the hot tier",count);
+        }
+    }
+
+    private static long next(long time){
+        return time==Long.MAX_VALUE ? time : time+1;
+    }
+
+    public long getMemoryQueries(){
+        return memoryQueries.get();
+    }
+
+    public long getMergedQueries(){
+        return mergedQueries.get();
+    }
+
+    public long getPersistenceQueries(){
+        return persistenceQueries.get();
+    }
+
+    public long getEvictedSeries(){
+        return evictedSeries.get();
+    }
+
+    /**
+     * @return - The size in bytes of the allocated ring buffers
+     */
+    public long getMemoryUsage(){
+        return (long)allocatedBuffers.get()*samples*SAMPLE_SIZE;
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+        private final Series series;
+        private final long time;
+
+        private Candidate(Series series, long time){
+            this.series = series;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            return Long.compare(time,o.time);
+        }
+    }
+
+    private final class Series extends TSDRSeries {
+        //Null while the series is evicted
+        private ByteBuffer buffer = null;
+        private int next = 0;
+        private int count = 0;
+        private long maxTime = Long.MIN_VALUE;
+        //The latest sample that was overwritten or evicted, older samples may be missing from the buffer
+        private long droppedUntil = Long.MIN_VALUE;
+        //The series was removed from the index and must not get a buffer
+        private boolean removed = false;
+        private volatile long lastWrite = System.currentTimeMillis();
+        private volatile long lastRead = lastWrite;
+
+        private Series(MD5ID id, TSDRMetric metric){
+            super(id,metric);
+        }
+
+        private synchronized boolean attach(ByteBuffer b){
+            if(buffer!=null || removed){
+                return false;
+            }
+            buffer = b;
+            next = 0;
+            count = 0;
+            maxTime = Long.MIN_VALUE;
+            lastWrite = System.currentTimeMillis();
+            return true;
+        }
+
+        private synchronized boolean hasBuffer(){
+            return buffer!=null;
+        }
+
+        //A sample that could not be kept in memory
+        private synchronized void drop(long time){
+            droppedUntil = Math.max(droppedUntil,time);
+        }
+
+        //Marks an evicted series whose samples are all older than the window as removed
+        private synchronized boolean markRemoved(long windowStart){
+            if(buffer==null && !removed && droppedUntil<windowStart){
+                removed = true;
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized boolean add(long time, BigDecimal value){
+            if(buffer==null){
+                return false;
+            }
+            final int pos = next*SAMPLE_SIZE;
+            if(count==samples){
+                droppedUntil = Math.max(droppedUntil,buffer.getLong(pos));
+            }else{
+                count++;
+            }
+            buffer.putLong(pos,time);
+            buffer.putLong(pos+VALUE_OFFSET,value.unscaledValue().longValue());
+            buffer.putInt(pos+SCALE_OFFSET,value.scale());
+            next = (next+1)%samples;
+            maxTime = Math.max(maxTime,time);
+            lastWrite = System.currentTimeMillis();
+            return true;
+        }
+
+        private synchronized void read(long from, long to, List<TSDRMetricRecord> result){
+            if(buffer==null){
+                return;
+            }
+            lastRead = System.currentTimeMillis();
+            final int first = result.size();
+            final int oldest = count<samples ? 0 : next;
+            boolean sorted = true;
+            long last = Long.MIN_VALUE;
+            for(int i=0;i<count;i++){
+                final int pos = ((oldest+i)%samples)*SAMPLE_SIZE;
+                final long time = buffer.getLong(pos);
+                if(time>=from && time<=to){
+                    final TSDRMetricRecordBuilder b = newRecord();
+                    b.setTimeStamp(time);
+                    b.setMetricValue(BigDecimal.valueOf(buffer.getLong(pos+VALUE_OFFSET),buffer.getInt(pos+SCALE_OFFSET)));
+                    result.add(b.build());
+                    sorted = sorted && time>=last;
+                    last = time;
+                }
+            }
+            //Samples that arrived late are sorted into place
+            if(!sorted){
+                Collections.sort(result.subList(first,result.size()),BY_TIME);
+            }
+        }
+
+        private synchronized void purge(long retentionTime){
+            if(buffer==null){
+                return;
+            }
+            for(int i=0;i<count;i++){
+                final int pos = i*SAMPLE_SIZE;
+                if(buffer.getLong(pos)<retentionTime){
+                    buffer.putLong(pos,Long.MIN_VALUE);
+                }
+            }
+        }
+
+        private synchronized long getDroppedUntil(){
+            return droppedUntil;
+        }
+
+        private synchronized ByteBuffer release(){
+            droppedUntil = Math.max(droppedUntil,maxTime);
+            final ByteBuffer result = buffer;
+            buffer = null;
+            return result;
+        }
+    }
+}
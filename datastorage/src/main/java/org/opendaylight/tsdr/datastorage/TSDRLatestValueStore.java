@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+
+/**
+ * Keeps the latest sample of every metric series in memory.
+ *
+ * <p>
+ * A series is found by the id of its TSDR key, the sample is kept as a time and an unscaled long value
+ * with its scale, so a series holds no objects of the records. An update still builds the key and id of
+ * its series, so it is not allocation free. A sample that is older than the one that is kept is
+ * ignored. The series are also indexed by data category and node id, so a partial key is matched
+ * against the series of its category or node only.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRLatestValueStore {
+
+    //A value whose unscaled value does not fit in a long is rounded to this precision
+    private static final MathContext LONG_PRECISION = new MathContext(18);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+
+    private final TSDRSeriesIndex<Series> series = new TSDRSeriesIndex<>();
+
+    /**
+     * Updates the latest samples of the metrics in the records, other records are ignored.
+     * @param records - The records
+     */
+    public void update(List<? extends TSDRRecord> records){
+        for(TSDRRecord record:records){
+            if(record instanceof TSDRMetric){
+                update((TSDRMetric)record);
+            }
+        }
+    }
+
+    /**
+     * Updates the latest sample of the metric series, a metric without a time or a value is ignored.
+     * @param metric - The metric
+     */
+    public void update(TSDRMetric metric){
+        if(metric.getTimeStamp()==null || metric.getMetricValue()==null || metric.getTSDRDataCategory()==null){
+            return;
+        }
+        final MD5ID id = MD5ID.createTSDRID(FormatUtil.getTSDRMetricKey(metric));
+        Series s = series.get(id);
+        if(s==null){
+            s = new Series(id,metric);
+            final Series existing = series.putIfAbsent(s);
+            if(existing!=null){
+                s = existing;
+            }
+        }
+        s.update(metric.getTimeStamp(),metric.getMetricValue());
+    }
+
+    /**
+     * Returns the latest sample of every series that matches the TSDR key.
+     * @param tsdrKey - A metric key, a partial key or just a data category, null for all the series
+     * @return - The latest samples
+     */
+    public List<TSDRMetricRecord> getLatestMetrics(String tsdrKey){
+        final List<TSDRMetricRecord> result = new ArrayList<>();
+        for(Series s:series.find(tsdrKey)){
+            s.addTo(result);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the series of the category whose latest sample is older than the retention time.
+     * @param category - The data category
+     * @param retentionTime - The time before which the samples are purged
+     */
+    public void purge(DataCategory category, long retentionTime){
+        for(Series s:series.get(category)){
+            if(s.getTime()<retentionTime){
+                series.remove(s);
+            }
+        }
+    }
+
+    /**
+     * Removes the series whose latest sample is older than the retention time.
+     * @param retentionTime - The time before which the samples are purged
+     */
+    public void purgeAll(long retentionTime){
+        for(Series s:series.values()){
+            if(s.getTime()<retentionTime){
+                series.remove(s);
+            }
+        }
+    }
+
+    /**
+     * @return - The number of series
+     */
+    public int size(){
+        return series.size();
+    }
+
+    /**
+     * @param value - A metric value
+     * @return - The value, rounded if its unscaled value does not fit in a long
+     */
+    static BigDecimal toLongPrecision(BigDecimal value){
+        final BigInteger unscaled = value.unscaledValue();
+        if(unscaled.compareTo(MAX_LONG)>0 || unscaled.compareTo(MIN_LONG)<0){
+            return value.round(LONG_PRECISION);
+        }
+        return value;
+    }
+
+    private static final class Series extends TSDRSeries {
+        private long time = Long.MIN_VALUE;
+        private long unscaledValue = 0;
+        private int scale = 0;
+
+        private Series(MD5ID id, TSDRMetric metric){
+            super(id,metric);
+        }
+
+        private synchronized void update(long sampleTime, BigDecimal value){
+            if(sampleTime<time){
+                return;
+            }
+            value = toLongPrecision(value);
+            this.time = sampleTime;
+            this.unscaledValue = value.unscaledValue().longValue();
+            this.scale = value.scale();
+        }
+
+        private synchronized long getTime(){
+            return time;
+        }
+
+        private void addTo(List<TSDRMetricRecord> result){
+            final long t;
+            final long v;
+            final int sc;
+            synchronized (this) {
+                t = time;
+                v = unscaledValue;
+                sc = scale;
+            }
+            //The series was created but its first sample was not set yet
+            if(t==Long.MIN_VALUE){
+                return;
+            }
+            final TSDRMetricRecordBuilder b = newRecord();
+            b.setTimeStamp(t);
+            b.setMetricValue(BigDecimal.valueOf(v,sc));
+            result.add(b.build());
+        }
+    }
+}
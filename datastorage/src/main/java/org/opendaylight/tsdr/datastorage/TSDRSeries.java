@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage;
+
+import java.util.Collections;
+import java.util.List;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+
+/**
+ * The identity of a metric series that is kept in memory, matched against full or partial TSDR keys.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+class TSDRSeries {
+    protected final MD5ID id;
+    protected final String nodeID;
+    protected final DataCategory category;
+    protected final String metricName;
+    protected final List<RecordKeys> recordKeys;
+
+    protected TSDRSeries(MD5ID id, TSDRMetric metric){
+        this.id = id;
+        this.nodeID = metric.getNodeID();
+        this.category = metric.getTSDRDataCategory();
+        this.metricName = metric.getMetricName();
+        this.recordKeys = metric.getRecordKeys()!=null ? metric.getRecordKeys() : Collections.<RecordKeys>emptyList();
+    }
+
+    /**
+     * @param category - The data category, null matches any category
+     * @param nodeID - The node id, null matches any node
+     * @param metricName - The metric name, null matches any metric
+     * @param keys - The record keys the series must have, null matches any keys
+     * @return - true if the series matches all the given parts of a TSDR key
+     */
+    boolean matches(String category, String nodeID, String metricName, List<RecordKeys> keys){
+        if(category!=null && !category.equals(this.category.name())){
+            return false;
+        }
+        if(nodeID!=null && !nodeID.equals(this.nodeID)){
+            return false;
+        }
+        if(metricName!=null && !metricName.equals(this.metricName)){
+            return false;
+        }
+        if(keys!=null){
+            for(RecordKeys k:keys){
+                if(!hasKey(k)){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean hasKey(RecordKeys key){
+        for(RecordKeys k:recordKeys){
+            if(equals(k.getKeyName(),key.getKeyName()) && equals(k.getKeyValue(),key.getKeyValue())){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equals(String a, String b){
+        return a==null ? b==null : a.equals(b);
+    }
+
+    /**
+     * @return - A metric record builder with the identity of the series
+     */
+    TSDRMetricRecordBuilder newRecord(){
+        final TSDRMetricRecordBuilder b = new TSDRMetricRecordBuilder();
+        b.setNodeID(nodeID);
+        b.setTSDRDataCategory(category);
+        b.setMetricName(metricName);
+        b.setRecordKeys(recordKeys);
+        return b;
+    }
+}
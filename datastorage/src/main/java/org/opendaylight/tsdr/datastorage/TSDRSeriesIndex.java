@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+
+/**
+ * The in memory series by their id, also indexed by data category and node id so a partial key
+ * is matched against the series of its category or node only.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+class TSDRSeriesIndex<S extends TSDRSeries> {
+    private final ConcurrentHashMap<MD5ID,S> series = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<DataCategory,Set<S>> categoryIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Set<S>> nodeIDIndex = new ConcurrentHashMap<>();
+
+    S get(MD5ID id){
+        return series.get(id);
+    }
+
+    /**
+     * Adds the series unless a series with the same id exists.
+     * @param s - The series
+     * @return - The existing series, or null if the series was added
+     */
+    S putIfAbsent(S s){
+        final S existing = series.putIfAbsent(s.id,s);
+        if(existing==null){
+            addToIndex(categoryIndex,s.category,s);
+            if(s.nodeID!=null){
+                addToIndex(nodeIDIndex,s.nodeID,s);
+            }
+        }
+        return existing;
+    }
+
+    boolean remove(S s){
+        if(series.remove(s.id,s)){
+            removeFromIndex(categoryIndex,s.category,s);
+            if(s.nodeID!=null){
+                removeFromIndex(nodeIDIndex,s.nodeID,s);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    Collection<S> values(){
+        return series.values();
+    }
+
+    Collection<S> get(DataCategory category){
+        return get(categoryIndex,category);
+    }
+
+    int size(){
+        return series.size();
+    }
+
+    /**
+     * Returns the series that match the TSDR key.
+     * @param tsdrKey - A metric key, a partial key or just a data category, null for all the series
+     * @return - The matching series
+     */
+    List<S> find(String tsdrKey){
+        if(tsdrKey==null || tsdrKey.trim().isEmpty()){
+            return new ArrayList<>(series.values());
+        }
+        final S exact = series.get(MD5ID.createTSDRID(tsdrKey));
+        if(exact!=null){
+            return Collections.singletonList(exact);
+        }
+        String category = FormatUtil.getDataCategoryFromTSDRKey(tsdrKey);
+        //tsdr:list passes just the data category
+        if(category==null && FormatUtil.isDataCategory(tsdrKey)){
+            category = tsdrKey;
+        }
+        final String nodeID = FormatUtil.getNodeIdFromTSDRKey(tsdrKey);
+        final String metricName = FormatUtil.getMetriNameFromTSDRKey(tsdrKey);
+        final List<RecordKeys> recordKeys = FormatUtil.getRecordKeysFromTSDRKey(tsdrKey);
+        Collection<S> candidates = series.values();
+        if(category!=null){
+            candidates = get(categoryIndex,getCategory(category));
+        }
+        if(nodeID!=null){
+            final Collection<S> byNode = get(nodeIDIndex,nodeID);
+            if(byNode.size()<candidates.size()){
+                candidates = byNode;
+            }
+        }
+        final List<S> result = new ArrayList<>();
+        for(S s:candidates){
+            if(s.matches(category,nodeID,metricName,recordKeys)){
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    private static DataCategory getCategory(String category){
+        try {
+            return DataCategory.valueOf(category);
+        }catch(IllegalArgumentException e){
+            return null;
+        }
+    }
+
+    private static <K,S> void addToIndex(ConcurrentHashMap<K,Set<S>> index, K key, S s){
+        Set<S> set = index.get(key);
+        if(set==null){
+            set = Collections.newSetFromMap(new ConcurrentHashMap<S,Boolean>());
+            final Set<S> existing = index.putIfAbsent(key,set);
+            if(existing!=null){
+                set = existing;
+            }
+        }
+        set.add(s);
+    }
+
+    private static <K,S> void removeFromIndex(ConcurrentHashMap<K,Set<S>> index, K key, S s){
+        final Set<S> set = index.get(key);
+        if(set!=null){
+            set.remove(s);
+        }
+    }
+
+    private static <K,S> Collection<S> get(ConcurrentHashMap<K,Set<S>> index, K key){
+        final Set<S> set = key!=null ? index.get(key) : null;
+        return set!=null ? set : Collections.<S>emptySet();
+    }
+}
@@ -0,0 +1,782 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import org.opendaylight.tsdr.datastorage.persistence.TSDRPersistenceServiceFactory;
+import org.opendaylight.tsdr.spi.persistence.TSDRPartialStoreException;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributes;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributesBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeysBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local write-ahead log of the batches that were not written to the persistence service.
+ *
+ * <p>
+ * A batch is appended to the current segment file as a single entry, its length, its crc and its records,
+ * and the file is forced to the disk before the append returns. A replay thread reads the entries in the
+ * order they were appended and stores them in the persistence service, no faster than the replay rate.
+ * When the persistence service fails with a TSDRPersistenceException, the replay waits and tries the same
+ * entry again, so the entries are stored in order. When only a part of the entry fails with a
+ * TSDRPartialStoreException, only the failed records are tried again so the stored ones are not stored
+ * twice. An entry that fails with any other exception, or that still fails after MAX_REPLAY_ATTEMPTS
+ * tries, is moved to the quarantine file so it does not block the
+ * entries after it. The quarantine file has the format of a segment and is never replayed. The metrics
+ * of a replayed entry are aggregated once they were stored. After an entry is stored its end is saved in
+ * the checkpoint file, which is replaced
+ * atomically, and the segments before the checkpoint are deleted. After a crash the replay continues from
+ * the checkpoint, so an entry may be stored twice but none is lost, and a torn entry at the end of the last
+ * segment is cut off.
+ * </p>
+ *
+ * <p>
+ * The total size of the segments is bounded, when a new entry does not fit the oldest segments are deleted.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRSpillLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TSDRSpillLog.class);
+
+    public static enum Mode {
+        //No spill log
+        DISABLED,
+        //A batch is written to the spill log only when the persistence service failed to store it
+        ON_FAILURE,
+        //Every batch is written to the spill log and is stored in the persistence service by the replay
+        ALWAYS;
+
+        public static Mode fromString(String mode){
+            if(mode!=null){
+                for(Mode m:values()){
+                    if(m.name().equalsIgnoreCase(mode.trim().replace('-','_'))){
+                        return m;
+                    }
+                }
+                log.error("Unknown spill mode {}, using {}",mode,DISABLED);
+            }
+            return DISABLED;
+        }
+    }
+
+    public static final String DEFAULT_DIRECTORY = "./tsdr/spill";
+    public static final long DEFAULT_MAX_SIZE = 1024L*1024*1024;
+    public static final long DEFAULT_SEGMENT_SIZE = 16L*1024*1024;
+    public static final int DEFAULT_REPLAY_RATE = 20000;
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    public static final String QUARANTINE_FILE = "quarantine.log";
+    private static final int ENTRY_HEADER_SIZE = 8;
+    private static final byte METRIC = 0;
+    private static final byte LOG = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    //The wait before the replay tries a failed entry again, doubled on every failure
+    private static final long MIN_RETRY_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 30000;
+    //The number of times the replay tries an entry before it is moved to the quarantine file
+    public static final int MAX_REPLAY_ATTEMPTS = 20;
+    private static final long IDLE_WAIT = TimeUnit.SECONDS.toNanos(1);
+
+    private final Mode mode;
+    private final File dir;
+    private final long maxSize;
+    private final long segmentSize;
+    private final int replayRate;
+    //The size of every segment by its id
+    private final TreeMap<Long,Long> segments = new TreeMap<>();
+    private long totalSize = 0;
+    private long writeID = 0;
+    private FileChannel writeChannel = null;
+    //The checkpoint, where the replay reads the next entry
+    private long readID = 0;
+    private long readOffset = 0;
+    private long readChannelID = -1;
+    private FileChannel readChannel = null;
+    private final ReplayThread replayThread;
+    private volatile boolean running = true;
+    //Maintains the rollups of the replayed metrics, may be null
+    private volatile TSDRAggregationEngine aggregationEngine = null;
+
+    private final AtomicLong spilledRecords = new AtomicLong();
+    private final AtomicLong replayedRecords = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private final AtomicLong quarantinedRecords = new AtomicLong();
+
+    /**
+     * Opens the spill log in the directory and starts the replay of the entries that were not stored yet.
+     * @param mode - ON_FAILURE or ALWAYS
+     * @param dir - The directory of the segments, created if it does not exist
+     * @param maxSize - The max total size in bytes of the segments
+     * @param segmentSize - The size in bytes after which a new segment is started
+     * @param replayRate - The max number of records per second the replay stores, 0 for no limit
+     * @throws IOException - If the directory or the segments could not be opened
+     */
+    public TSDRSpillLog(Mode mode, File dir, long maxSize, long segmentSize, int replayRate) throws IOException {
+        this.mode = mode;
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.segmentSize = Math.min(segmentSize,Math.max(1,maxSize/4));
+        this.replayRate = replayRate;
+        open();
+        this.replayThread = new ReplayThread();
+        this.replayThread.start();
+        log.info("TSDR spill log opened in {} with mode {}, max size {}, replay rate {}, pending bytes {}",
+                dir,mode,maxSize,replayRate,getPendingBytes());
+    }
+
+    public Mode getMode(){
+        return mode;
+    }
+
+    public void setAggregationEngine(TSDRAggregationEngine aggregationEngine){
+        this.aggregationEngine = aggregationEngine;
+    }
+
+    private synchronized void open() throws IOException {
+        if(!dir.exists() && !dir.mkdirs()){
+            throw new IOException("Failed to create directory "+dir);
+        }
+        final File[] files = dir.listFiles();
+        if(files!=null){
+            for(File file:files){
+                final long id = getSegmentID(file.getName());
+                if(id>=0){
+                    segments.put(id,file.length());
+                }
+            }
+        }
+        readCheckpoint();
+        //The segments before the checkpoint were already stored
+        for(Long id:new ArrayList<>(segments.headMap(readID).keySet())){
+            deleteSegment(id);
+        }
+        if(segments.isEmpty()){
+            readID = Math.max(readID,0);
+            readOffset = 0;
+            writeID = readID;
+        }else{
+            if(!segments.containsKey(readID)){
+                readID = segments.firstKey();
+                readOffset = 0;
+            }
+            writeID = segments.lastKey();
+        }
+        writeChannel = new RandomAccessFile(getSegmentFile(writeID),"rw").getChannel();
+        //Cut off the entry that was being written when the process stopped
+        final long validSize = getValidSize(writeChannel);
+        if(validSize<writeChannel.size()){
+            log.warn("Truncating a partially written entry at the end of spill log segment {}",getSegmentFile(writeID));
+            writeChannel.truncate(validSize);
+            writeChannel.force(true);
+        }
+        writeChannel.position(validSize);
+        segments.put(writeID,validSize);
+        for(Long size:segments.values()){
+            totalSize+=size;
+        }
+        writeCheckpoint();
+    }
+
+    private File getSegmentFile(long id){
+        return new File(dir,SEGMENT_PREFIX+id+SEGMENT_SUFFIX);
+    }
+
+    private static long getSegmentID(String fileName){
+        if(!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)){
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(),fileName.length()-SEGMENT_SUFFIX.length()));
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    //Returns the end of the last complete entry
+    private static long getValidSize(FileChannel channel) throws IOException {
+        long offset = 0;
+        long entrySize = readEntrySize(channel,offset);
+        while(entrySize>0){
+            offset+=entrySize;
+            entrySize = readEntrySize(channel,offset);
+        }
+        return offset;
+    }
+
+    //Returns the size of the complete entry at the offset, or -1
+    private static long readEntrySize(FileChannel channel, long offset) throws IOException {
+        final byte[] data = readEntry(channel,offset);
+        return data!=null ? ENTRY_HEADER_SIZE+data.length : -1;
+    }
+
+    //Returns the records part of the complete entry at the offset, or null
+    private static byte[] readEntry(FileChannel channel, long offset) throws IOException {
+        final long size = channel.size();
+        if(offset+ENTRY_HEADER_SIZE>size){
+            return null;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        readFully(channel,header,offset);
+        final int length = header.getInt(0);
+        if(length<=0 || length>size-offset-ENTRY_HEADER_SIZE){
+            return null;
+        }
+        final ByteBuffer data = ByteBuffer.allocate(length);
+        readFully(channel,data,offset+ENTRY_HEADER_SIZE);
+        final CRC32 crc = new CRC32();
+        crc.update(data.array());
+        return (int)crc.getValue()==header.getInt(4) ? data.array() : null;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer,offset+buffer.position())<0){
+                throw new IOException("Unexpected end of spill log segment");
+            }
+        }
+    }
+
+    private void readCheckpoint(){
+        final File file = new File(dir,CHECKPOINT_FILE);
+        if(!file.exists()){
+            return;
+        }
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if(buffer.capacity()==20){
+                final CRC32 crc = new CRC32();
+                crc.update(buffer.array(),0,16);
+                if((int)crc.getValue()==buffer.getInt(16)){
+                    readID = buffer.getLong(0);
+                    readOffset = buffer.getLong(8);
+                    return;
+                }
+            }
+            log.error("The spill log checkpoint {} is corrupted, replaying from the first segment",file);
+        }catch(IOException e){
+            log.error("Failed to read the spill log checkpoint, replaying from the first segment",e);
+        }
+    }
+
+    //Writes the checkpoint to a temporary file and replaces the checkpoint with it
+    private void writeCheckpoint() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(20);
+        buffer.putLong(0,readID);
+        buffer.putLong(8,readOffset);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(),0,16);
+        buffer.putInt(16,(int)crc.getValue());
+        final File temp = new File(dir,CHECKPOINT_FILE+".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp,"rw")) {
+            raf.setLength(0);
+            raf.write(buffer.array());
+            raf.getChannel().force(true);
+        }
+        Files.move(temp.toPath(),new File(dir,CHECKPOINT_FILE).toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteSegment(long id){
+        if(id==readChannelID){
+            closeReadChannel();
+        }
+        final Long size = segments.remove(id);
+        if(size!=null){
+            totalSize-=size;
+        }
+        final File file = getSegmentFile(id);
+        if(file.exists() && !file.delete()){
+            log.error("Failed to delete spill log segment {}",file);
+        }
+    }
+
+    private void closeReadChannel(){
+        if(readChannel!=null){
+            try {
+                readChannel.close();
+            }catch(IOException e){
+                log.error("Failed to close spill log segment",e);
+            }
+            readChannel = null;
+            readChannelID = -1;
+        }
+    }
+
+    /**
+     * Appends the records to the log as a single entry, the entry is on the disk when the method returns.
+     * @param records - The records
+     * @return - false if the entry is larger than the max size of the log
+     * @throws IOException - If the entry could not be written
+     */
+    public synchronized boolean append(List<? extends TSDRRecord> records) throws IOException {
+        if(!running){
+            throw new IOException("The spill log is closed");
+        }
+        final byte[] entry = encode(records);
+        if(entry.length>maxSize){
+            log.error("A batch of {} records is larger than the spill log",records.size());
+            return false;
+        }
+        if(segments.get(writeID)>0 && segments.get(writeID)+entry.length>segmentSize){
+            newSegment();
+        }
+        //Make room by dropping the oldest segments, the current segment is never dropped
+        while(totalSize+entry.length>maxSize && segments.firstKey()<writeID){
+            final long id = segments.firstKey();
+            final long size = segments.get(id);
+            log.warn("The spill log is full, dropping segment {} with {} bytes that were not replayed",id,size);
+            droppedBytes.addAndGet(id==readID ? size-readOffset : size);
+            deleteSegment(id);
+            if(id==readID){
+                readID = segments.firstKey();
+                readOffset = 0;
+                writeCheckpoint();
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(entry);
+        while(buffer.hasRemaining()){
+            writeChannel.write(buffer);
+        }
+        writeChannel.force(false);
+        segments.put(writeID,segments.get(writeID)+entry.length);
+        totalSize+=entry.length;
+        spilledRecords.addAndGet(records.size());
+        LockSupport.unpark(replayThread);
+        return true;
+    }
+
+    private void newSegment() throws IOException {
+        writeChannel.close();
+        writeID++;
+        writeChannel = new RandomAccessFile(getSegmentFile(writeID),"rw").getChannel();
+        writeChannel.truncate(0);
+        segments.put(writeID,0L);
+    }
+
+    /*
+     * Reads the entry at the checkpoint, or null if all the entries were replayed.
+     */
+    private synchronized Entry next() throws IOException {
+        while(true){
+            final Long size = segments.get(readID);
+            if(size==null || readOffset>=size){
+                if(readID>=writeID){
+                    return null;
+                }
+                //The segment was replayed, move to the next one
+                readID = segments.higherKey(readID);
+                readOffset = 0;
+                continue;
+            }
+            if(readChannelID!=readID){
+                closeReadChannel();
+                readChannel = new RandomAccessFile(getSegmentFile(readID),"r").getChannel();
+                readChannelID = readID;
+            }
+            final byte[] data = readEntry(readChannel,readOffset);
+            if(data==null){
+                //Only the last segment may end with a torn entry, and it was cut off when it was opened
+                log.error("Spill log segment {} is corrupted at offset {}, skipping the rest of it",readID,readOffset);
+                droppedBytes.addAndGet(size-readOffset);
+                readOffset = size;
+                continue;
+            }
+            return new Entry(decode(data),data,readID,readOffset+ENTRY_HEADER_SIZE+data.length);
+        }
+    }
+
+    /*
+     * Moves the checkpoint after the entry and deletes the segments that were replayed.
+     */
+    private synchronized void commit(Entry entry) throws IOException {
+        //The segment of the entry may have been dropped while it was replayed
+        if(!segments.containsKey(entry.segmentID) || entry.segmentID<readID){
+            return;
+        }
+        readID = entry.segmentID;
+        readOffset = entry.end;
+        for(Long id:new ArrayList<>(segments.headMap(readID).keySet())){
+            deleteSegment(id);
+        }
+        if(readID<writeID && readOffset>=segments.get(readID)){
+            deleteSegment(readID);
+            readID = segments.higherKey(readID);
+            readOffset = 0;
+        }
+        writeCheckpoint();
+    }
+
+    /**
+     * @return - The number of bytes that were not replayed yet
+     */
+    public synchronized long getPendingBytes(){
+        return totalSize-(segments.containsKey(readID) ? readOffset : 0);
+    }
+
+    public long getSpilledRecords(){
+        return spilledRecords.get();
+    }
+
+    public long getReplayedRecords(){
+        return replayedRecords.get();
+    }
+
+    public long getDroppedBytes(){
+        return droppedBytes.get();
+    }
+
+    /**
+     * @return - The number of records that were moved to the quarantine file because they could not be replayed
+     */
+    public long getQuarantinedRecords(){
+        return quarantinedRecords.get();
+    }
+
+    /*
+     * Appends the entry to the quarantine file, with its header so the file can be read like a segment.
+     */
+    private synchronized void quarantine(Entry entry) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        header.putInt(0,entry.data.length);
+        final CRC32 crc = new CRC32();
+        crc.update(entry.data);
+        header.putInt(4,(int)crc.getValue());
+        try (FileChannel channel = new RandomAccessFile(new File(dir,QUARANTINE_FILE),"rw").getChannel()) {
+            channel.position(channel.size());
+            final ByteBuffer data = ByteBuffer.wrap(entry.data);
+            while(header.hasRemaining() || data.hasRemaining()){
+                channel.write(new ByteBuffer[]{header,data});
+            }
+            channel.force(false);
+        }
+        quarantinedRecords.addAndGet(entry.records.size());
+        commit(entry);
+    }
+
+    /**
+     * Stops the replay, the entries that were not replayed are replayed when the log is opened again.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(replayThread);
+        try {
+            replayThread.join();
+        } catch (InterruptedException e) {
+            log.error("Interrupted while waiting for the spill log replay to finish",e);
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeReadChannel();
+            try {
+                writeChannel.close();
+            }catch(IOException e){
+                log.error("Failed to close spill log segment",e);
+            }
+        }
+        log.info("TSDR spill log closed, spilled records={}, replayed records={}, quarantined records={}, dropped bytes={}, pending bytes={}",
+                spilledRecords.get(),replayedRecords.get(),quarantinedRecords.get(),droppedBytes.get(),getPendingBytes());
+    }
+
+    private static byte[] encode(List<? extends TSDRRecord> records) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        //Room for the header
+        out.writeLong(0);
+        out.writeInt(records.size());
+        for(TSDRRecord record:records){
+            if(record instanceof TSDRMetricRecord){
+                final TSDRMetricRecord mr = (TSDRMetricRecord)record;
+                out.writeByte(METRIC);
+                writeRecord(out,record,mr.getTimeStamp());
+                writeString(out,mr.getMetricName());
+                writeString(out,mr.getMetricValue()!=null ? mr.getMetricValue().toPlainString() : null);
+            }else if(record instanceof TSDRLogRecord){
+                final TSDRLogRecord lr = (TSDRLogRecord)record;
+                out.writeByte(LOG);
+                writeRecord(out,record,lr.getTimeStamp());
+                out.writeBoolean(lr.getIndex()!=null);
+                if(lr.getIndex()!=null){
+                    out.writeInt(lr.getIndex());
+                }
+                writeString(out,lr.getRecordFullText());
+                final List<RecordAttributes> attributes = lr.getRecordAttributes();
+                out.writeInt(attributes!=null ? attributes.size() : -1);
+                if(attributes!=null){
+                    for(RecordAttributes a:attributes){
+                        writeString(out,a.getName());
+                        writeString(out,a.getValue());
+                    }
+                }
+            }else{
+                throw new IOException("Unsupported record type "+record.getClass().getName());
+            }
+        }
+        out.flush();
+        final byte[] entry = bytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(entry,ENTRY_HEADER_SIZE,entry.length-ENTRY_HEADER_SIZE);
+        final ByteBuffer header = ByteBuffer.wrap(entry);
+        header.putInt(0,entry.length-ENTRY_HEADER_SIZE);
+        header.putInt(4,(int)crc.getValue());
+        return entry;
+    }
+
+    private static void writeRecord(DataOutputStream out, TSDRRecord record, Long timeStamp) throws IOException {
+        writeString(out,record.getNodeID());
+        writeString(out,record.getTSDRDataCategory()!=null ? record.getTSDRDataCategory().name() : null);
+        out.writeBoolean(timeStamp!=null);
+        if(timeStamp!=null){
+            out.writeLong(timeStamp);
+        }
+        final List<RecordKeys> keys = record.getRecordKeys();
+        out.writeInt(keys!=null ? keys.size() : -1);
+        if(keys!=null){
+            for(RecordKeys k:keys){
+                writeString(out,k.getKeyName());
+                writeString(out,k.getKeyValue());
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if(s==null){
+            out.writeInt(-1);
+        }else{
+            final byte[] data = s.getBytes(UTF8);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static List<TSDRRecord> decode(byte[] data) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        final int count = in.readInt();
+        final List<TSDRRecord> result = new ArrayList<>(count);
+        for(int i=0;i<count;i++){
+            final byte type = in.readByte();
+            final String nodeID = readString(in);
+            final String category = readString(in);
+            final Long timeStamp = in.readBoolean() ? in.readLong() : null;
+            final List<RecordKeys> keys = readKeys(in);
+            if(type==METRIC){
+                final TSDRMetricRecordBuilder b = new TSDRMetricRecordBuilder();
+                b.setNodeID(nodeID);
+                b.setTSDRDataCategory(category!=null ? DataCategory.valueOf(category) : null);
+                b.setTimeStamp(timeStamp);
+                b.setRecordKeys(keys);
+                b.setMetricName(readString(in));
+                final String value = readString(in);
+                b.setMetricValue(value!=null ? new BigDecimal(value) : null);
+                result.add(b.build());
+            }else{
+                final TSDRLogRecordBuilder b = new TSDRLogRecordBuilder();
+                b.setNodeID(nodeID);
+                b.setTSDRDataCategory(category!=null ? DataCategory.valueOf(category) : null);
+                b.setTimeStamp(timeStamp);
+                b.setRecordKeys(keys);
+                b.setIndex(in.readBoolean() ? in.readInt() : null);
+                b.setRecordFullText(readString(in));
+                final int attributeCount = in.readInt();
+                if(attributeCount>=0){
+                    final List<RecordAttributes> attributes = new ArrayList<>(attributeCount);
+                    for(int j=0;j<attributeCount;j++){
+                        final RecordAttributesBuilder ab = new RecordAttributesBuilder();
+                        ab.setName(readString(in));
+                        ab.setValue(readString(in));
+                        attributes.add(ab.build());
+                    }
+                    b.setRecordAttributes(attributes);
+                }
+                result.add(b.build());
+            }
+        }
+        return result;
+    }
+
+    private static List<RecordKeys> readKeys(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if(count<0){
+            return null;
+        }
+        final List<RecordKeys> result = new ArrayList<>(count);
+        for(int i=0;i<count;i++){
+            final RecordKeysBuilder b = new RecordKeysBuilder();
+            b.setKeyName(readString(in));
+            b.setKeyValue(readString(in));
+            result.add(b.build());
+        }
+        return result;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if(length<0){
+            return null;
+        }
+        final byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data,UTF8);
+    }
+
+    //An entry that was read and the position after it
+    private static final class Entry {
+        private final List<TSDRRecord> records;
+        private final byte[] data;
+        private final long segmentID;
+        private final long end;
+
+        private Entry(List<TSDRRecord> records, byte[] data, long segmentID, long end){
+            this.records = records;
+            this.data = data;
+            this.segmentID = segmentID;
+            this.end = end;
+        }
+    }
+
+    private final class ReplayThread extends Thread {
+        private long retryDelay = MIN_RETRY_DELAY;
+        //The number of failed tries of the entry at the checkpoint
+        private int attempts = 0;
+        //The failed records of the entry at the checkpoint when the other records were stored
+        private Entry remainder = null;
+
+        private ReplayThread(){
+            super("TSDR Spill Replay");
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run(){
+            while(running){
+                try {
+                    final Entry entry = remainder!=null ? remainder : next();
+                    if(entry==null){
+                        LockSupport.parkNanos(this,IDLE_WAIT);
+                    }else{
+                        replay(entry);
+                    }
+                }catch(IOException e){
+                    log.error("Failed to read the spill log",e);
+                    backOff();
+                }
+            }
+        }
+
+        private void replay(Entry entry) throws IOException {
+            final long start = System.nanoTime();
+            final TsdrPersistenceService persistence = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore();
+            if(persistence==null){
+                backOff();
+                return;
+            }
+            try {
+                persistence.store(entry.records);
+            }catch(TSDRPartialStoreException e){
+                final List<TSDRRecord> stored = e.getStoredRecords(entry.records);
+                replayedRecords.addAndGet(stored.size());
+                aggregate(stored);
+                //The checkpoint moves only when the failed records are stored too
+                remainder = new Entry(new ArrayList<>(e.getFailedRecords()),encode(e.getFailedRecords()),entry.segmentID,entry.end);
+                retryOrQuarantine(remainder,e);
+                return;
+            }catch(TSDRPersistenceException e){
+                retryOrQuarantine(entry,e);
+                return;
+            }catch(RuntimeException e){
+                //Not a failure of the persistence service, e.g. a malformed record, trying again will fail again
+                log.error("Failed to replay {} records from the spill log, moving them to the quarantine file",entry.records.size(),e);
+                quarantine(entry);
+                resetRetries();
+                return;
+            }
+            commit(entry);
+            replayedRecords.addAndGet(entry.records.size());
+            resetRetries();
+            aggregate(entry.records);
+            if(replayRate>0){
+                //Take at least the time the rate allows for the records
+                sleepUntil(start+TimeUnit.SECONDS.toNanos(entry.records.size())/replayRate);
+            }
+        }
+
+        private void retryOrQuarantine(Entry entry, TSDRPersistenceException e) throws IOException {
+            if(++attempts<MAX_REPLAY_ATTEMPTS){
+                log.warn("Failed to replay {} records from the spill log, retrying in {} ms: {}",entry.records.size(),retryDelay,e.getMessage());
+                backOff();
+                return;
+            }
+            log.error("Failed to replay {} records from the spill log {} times, moving them to the quarantine file",
+                    entry.records.size(),attempts,e);
+            quarantine(entry);
+            resetRetries();
+        }
+
+        private void aggregate(List<TSDRRecord> records){
+            final TSDRAggregationEngine engine = aggregationEngine;
+            if(engine!=null && !records.isEmpty()){
+                try{
+                    engine.aggregate(records);
+                }catch(RuntimeException e){
+                    log.error("Failed to aggregate {} replayed records",records.size(),e);
+                }
+            }
+        }
+
+        private void resetRetries(){
+            remainder = null;
+            attempts = 0;
+            retryDelay = MIN_RETRY_DELAY;
+        }
+
+        private void backOff(){
+            sleepUntil(System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(retryDelay));
+            retryDelay = Math.min(retryDelay*2,MAX_RETRY_DELAY);
+        }
+
+        //An append wakes the thread up, so park again until the time has passed
+        private void sleepUntil(long time){
+            long remaining = time-System.nanoTime();
+            while(running && remaining>0){
+                LockSupport.parkNanos(this,remaining);
+                remaining = time-System.nanoTime();
+            }
+        }
+    }
+}
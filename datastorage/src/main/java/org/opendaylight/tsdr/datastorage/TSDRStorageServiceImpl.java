@@ -9,13 +9,25 @@ package org.opendaylight.tsdr.datastorage;
 
 import com.google.common.util.concurrent.Futures;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Future;
 import org.opendaylight.tsdr.datastorage.persistence.TSDRPersistenceServiceFactory;
+import org.opendaylight.tsdr.spi.persistence.TsdrAggregationPersistenceService;
+import org.opendaylight.tsdr.spi.persistence.TsdrPagingPersistenceService;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
+import org.opendaylight.tsdr.spi.util.TSDRAggregationUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRAggregatedMetricsInput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRAggregatedMetricsOutput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRAggregatedMetricsOutputBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsInput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsOutput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLatestMetricsOutputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsInput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsOutput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsOutputBuilder;
@@ -26,14 +38,20 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.PurgeAllTSDRReco
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.PurgeTSDRRecordInput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.StoreTSDRLogRecordInput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.StoreTSDRMetricRecordInput;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRService;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdraggregatedmetrics.output.AggregatedMetrics;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdraggregatedmetrics.output.AggregatedMetricsBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlatestmetrics.output.LatestMetrics;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlatestmetrics.output.LatestMetricsBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlogrecords.output.Logs;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrlogrecords.output.LogsBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrmetrics.output.Metrics;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdrmetrics.output.MetricsBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yangtools.yang.common.RpcError;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
@@ -57,6 +75,49 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
      private static final Logger log = LoggerFactory
         .getLogger(TSDRStorageServiceImpl.class);
 
+     private final TSDRWritePipeline writePipeline;
+     //Maintains the metric rollups, may be null if aggregation is disabled
+     private final TSDRAggregationEngine aggregationEngine;
+     //Keeps the batches that were not stored, may be null if the spill log is disabled
+     private final TSDRSpillLog spillLog;
+     //The latest sample of every metric series, so the current values are served without a query
+     private final TSDRLatestValueStore latestValues = new TSDRLatestValueStore();
+     //Answers the queries of the recent window from memory, may be null if the hot tier is disabled
+     private final TSDRHotTier hotTier;
+
+     public TSDRStorageServiceImpl(){
+         this(new TSDRWritePipeline(),null);
+     }
+
+     public TSDRStorageServiceImpl(TSDRWritePipeline writePipeline,TSDRAggregationEngine aggregationEngine){
+         this(writePipeline,aggregationEngine,null);
+     }
+
+     public TSDRStorageServiceImpl(TSDRWritePipeline writePipeline,TSDRAggregationEngine aggregationEngine,TSDRSpillLog spillLog){
+         this(writePipeline,aggregationEngine,spillLog,null);
+     }
+
+     public TSDRStorageServiceImpl(TSDRWritePipeline writePipeline,TSDRAggregationEngine aggregationEngine,TSDRSpillLog spillLog,TSDRHotTier hotTier){
+         this.writePipeline = writePipeline;
+         this.aggregationEngine = aggregationEngine;
+         this.spillLog = spillLog;
+         this.hotTier = hotTier;
+         this.writePipeline.setAggregationEngine(aggregationEngine);
+         this.writePipeline.setSpillLog(spillLog);
+         if(spillLog!=null){
+             spillLog.setAggregationEngine(aggregationEngine);
+         }
+         //The in memory views only see the records the pipeline stored or spilled, not the ones it dropped
+         this.writePipeline.setWriteListener(new TSDRWritePipeline.WriteListener() {
+             @Override
+             public void recordsWritten(List<TSDRRecord> records) {
+                 latestValues.update(records);
+                 if(TSDRStorageServiceImpl.this.hotTier!=null){
+                     TSDRStorageServiceImpl.this.hotTier.update(records);
+                 }
+             }
+         });
+     }
 
      /**
      * stores TSDRMetricRecord.
@@ -70,15 +131,17 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
             return Futures.immediateFuture(RpcResultBuilder.<Void> success()
                     .build());
         }
-        List<TSDRRecord> tsdrMetricRecordList = new ArrayList<TSDRRecord>(input.getTSDRMetricRecord().size());
-        tsdrMetricRecordList.addAll(input.getTSDRMetricRecord());
-        if(TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore() != null) {
-            TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore().store(tsdrMetricRecordList);
-        }else{
-            log.warn("storeTSDRMetricRecord: cannot store the metric -- persistence service is found to be null");
+        /*
+         * The records are written by the write pipeline, the returned future completes
+         * once they were handed to the persistence service. The pipeline updates the in
+         * memory views with the records it wrote before the future completes.
+         */
+        final TSDRWritePipeline.Submission submission = writePipeline.submit(input.getTSDRMetricRecord());
+        if(!submission.isAccepted()){
+            log.debug("The write pipeline rejected {} metrics",input.getTSDRMetricRecord().size());
         }
         log.debug("Exiting TSDRStorageService.storeTSDRMetrics()");
-        return Futures.immediateFuture(RpcResultBuilder.<Void> success().build());
+        return submission.getFuture();
     }
 
     /**
@@ -101,6 +164,10 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
          }
          DataCategory category = input.getTSDRDataCategory();
          Long timestamp = input.getRetentionTime();
+         latestValues.purge(category, timestamp);
+         if(hotTier!=null){
+             hotTier.purge(category, timestamp);
+         }
 
          if(TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore() != null) {
              TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore().purgeTSDRRecords(category, timestamp);
@@ -129,6 +196,10 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
          }
 
          Long timestamp = input.getRetentionTime();
+         latestValues.purgeAll(timestamp);
+         if(hotTier!=null){
+             hotTier.purgeAll(timestamp);
+         }
 
          if(TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore() != null) {
              TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore().purgeAllTSDRRecords(timestamp);
@@ -145,7 +216,15 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
      * Close DB connections in the persistence data store.
      */
     public void close() throws Exception {
-
+            //Write whatever is still queued before stopping the persistence service
+            writePipeline.close();
+            //The entries that were not replayed yet are replayed on the next start
+            if(spillLog!=null){
+                spillLog.close();
+            }
+            if(aggregationEngine!=null){
+                aggregationEngine.close();
+            }
             TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore().stop(
                 TSDRConstants.STOP_PERSISTENCE_SERVICE_TIMEOUT);
 
@@ -154,8 +233,31 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
 
     @Override
     public Future<RpcResult<GetTSDRMetricsOutput>> getTSDRMetrics(GetTSDRMetricsInput input) {
-        List<TSDRMetricRecord> result = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore().getTSDRMetricRecords(input.getTSDRDataCategory(), input.getStartTime(), input.getEndTime());
+        final TsdrPersistenceService persistence = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore();
         GetTSDRMetricsOutputBuilder output = new GetTSDRMetricsOutputBuilder();
+        List<TSDRMetricRecord> result = null;
+        //The records are returned in pages only when a page is asked for, and the persistence service supports it
+        if(isPageRequest(input.getPageSize(), input.getContinuationToken()) && persistence instanceof TsdrPagingPersistenceService){
+            TSDRRecordPage<TSDRMetricRecord> page;
+            try{
+                page = ((TsdrPagingPersistenceService)persistence).getTSDRMetricRecords(input.getTSDRDataCategory(),
+                    input.getStartTime(), input.getEndTime(), getPageSize(input.getPageSize()), input.getContinuationToken());
+            }catch(IllegalArgumentException e){
+                if(input.getContinuationToken()==null){
+                    throw e;
+                }
+                return invalidContinuationToken(input.getContinuationToken(), e);
+            }
+            if(page!=null){
+                result = page.getRecords();
+                output.setContinuationToken(page.getContinuationToken());
+            }
+        }else{
+            result = getMetricRecords(persistence, input.getTSDRDataCategory(), input.getStartTime(), input.getEndTime());
+        }
+        if(result==null){
+            result = Collections.emptyList();
+        }
         List<Metrics> metrics = new LinkedList<Metrics>();
         for(TSDRMetricRecord m:result){
             MetricsBuilder b = new MetricsBuilder();
@@ -172,10 +274,99 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
         return builder.buildFuture();
     }
 
+    @Override
+    public Future<RpcResult<GetTSDRLatestMetricsOutput>> getTSDRLatestMetrics(GetTSDRLatestMetricsInput input) {
+        List<LatestMetrics> metrics = new LinkedList<LatestMetrics>();
+        for(TSDRMetricRecord m:latestValues.getLatestMetrics(input!=null ? input.getTSDRDataCategory() : null)){
+            LatestMetricsBuilder b = new LatestMetricsBuilder();
+            b.setMetricName(m.getMetricName());
+            b.setMetricValue(m.getMetricValue());
+            b.setNodeID(m.getNodeID());
+            b.setRecordKeys(m.getRecordKeys());
+            b.setTimeStamp(m.getTimeStamp());
+            b.setTSDRDataCategory(m.getTSDRDataCategory());
+            metrics.add(b.build());
+        }
+        GetTSDRLatestMetricsOutputBuilder output = new GetTSDRLatestMetricsOutputBuilder();
+        output.setLatestMetrics(metrics);
+        return RpcResultBuilder.success(output.build()).buildFuture();
+    }
+
+    public TSDRLatestValueStore getLatestValueStore(){
+        return latestValues;
+    }
+
+    @Override
+    public Future<RpcResult<GetTSDRAggregatedMetricsOutput>> getTSDRAggregatedMetrics(GetTSDRAggregatedMetricsInput input) {
+        final long startTime = input.getStartTime()!=null ? input.getStartTime() : 0;
+        final long endTime = input.getEndTime()!=null ? input.getEndTime() : System.currentTimeMillis();
+        AggregationGranularity granularity = input.getTSDRAggregationGranularity();
+        if(granularity==null && input.getMaxDataPoints()!=null){
+            granularity = TSDRAggregationUtil.getGranularity(startTime, endTime, input.getMaxDataPoints());
+        }
+        final TsdrPersistenceService persistence = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore();
+        List<AggregatedMetrics> aggregations = new LinkedList<AggregatedMetrics>();
+        if(granularity!=null && persistence instanceof TsdrAggregationPersistenceService){
+            List<TSDRAggregationMetric> result = ((TsdrAggregationPersistenceService)persistence).getTSDRAggregatedMetrics(input.getTSDRDataCategory(), granularity, startTime, endTime);
+            if(result!=null){
+                for(TSDRAggregationMetric m:result){
+                    aggregations.add(new AggregatedMetricsBuilder(m).build());
+                }
+            }
+        }
+        //There are no aggregations for the time range, or a finer resolution is needed, use the raw metrics
+        List<TSDRMetricRecord> raw = null;
+        if(aggregations.isEmpty() && persistence!=null){
+            raw = getRawMetricRecords(persistence, input.getTSDRDataCategory(), startTime, endTime);
+        }
+        if(raw!=null){
+            for(TSDRMetricRecord m:raw){
+                AggregatedMetricsBuilder b = new AggregatedMetricsBuilder();
+                b.setMetricName(m.getMetricName());
+                b.setMetricValue(m.getMetricValue());
+                b.setMinValue(m.getMetricValue());
+                b.setMaxValue(m.getMetricValue());
+                b.setAvgValue(m.getMetricValue());
+                b.setSumValue(m.getMetricValue());
+                b.setSampleCount(1L);
+                b.setNodeID(m.getNodeID());
+                b.setRecordKeys(m.getRecordKeys());
+                b.setTimeStamp(m.getTimeStamp());
+                b.setTSDRDataCategory(m.getTSDRDataCategory());
+                aggregations.add(b.build());
+            }
+        }
+        GetTSDRAggregatedMetricsOutputBuilder output = new GetTSDRAggregatedMetricsOutputBuilder();
+        output.setAggregatedMetrics(aggregations);
+        return RpcResultBuilder.success(output.build()).buildFuture();
+    }
+
     @Override
     public Future<RpcResult<GetTSDRLogRecordsOutput>> getTSDRLogRecords(GetTSDRLogRecordsInput input) {
-        List<TSDRLogRecord> result = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore().getTSDRLogRecords(input.getTSDRDataCategory(), input.getStartTime(), input.getEndTime());
+        final TsdrPersistenceService persistence = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore();
         GetTSDRLogRecordsOutputBuilder output = new GetTSDRLogRecordsOutputBuilder();
+        List<TSDRLogRecord> result = null;
+        if(isPageRequest(input.getPageSize(), input.getContinuationToken()) && persistence instanceof TsdrPagingPersistenceService){
+            TSDRRecordPage<TSDRLogRecord> page;
+            try{
+                page = ((TsdrPagingPersistenceService)persistence).getTSDRLogRecords(input.getTSDRDataCategory(),
+                    input.getStartTime(), input.getEndTime(), getPageSize(input.getPageSize()), input.getContinuationToken());
+            }catch(IllegalArgumentException e){
+                if(input.getContinuationToken()==null){
+                    throw e;
+                }
+                return invalidContinuationToken(input.getContinuationToken(), e);
+            }
+            if(page!=null){
+                result = page.getRecords();
+                output.setContinuationToken(page.getContinuationToken());
+            }
+        }else{
+            result = persistence.getTSDRLogRecords(input.getTSDRDataCategory(), input.getStartTime(), input.getEndTime());
+        }
+        if(result==null){
+            result = Collections.emptyList();
+        }
         List<Logs> logs = new LinkedList<Logs>();
         for(TSDRLogRecord l:result){
             LogsBuilder b = new LogsBuilder();
@@ -199,14 +390,45 @@ public class TSDRStorageServiceImpl implements TSDRService, AutoCloseable {
             log.error("Input of storeTSDRLog is null");
             return Futures.immediateFuture(RpcResultBuilder.<Void> success().build());
         }
-        List<TSDRRecord> tsdrLogRecordList = new ArrayList<TSDRRecord>(input.getTSDRLogRecord().size());
-        tsdrLogRecordList.addAll(input.getTSDRLogRecord());
-        if(TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore() != null) {
-            TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore().store(tsdrLogRecordList);
-        }else{
-            log.warn("storeTSDRMetricRecord: cannot store the metric -- persistence service is found to be null");
+        log.debug("Exiting TSDRStorageService.storeTSDRLog()");
+        return writePipeline.submit(input.getTSDRLogRecord()).getFuture();
+    }
+
+    private List<TSDRMetricRecord> getMetricRecords(TsdrPersistenceService persistence, String tsdrKey, long startTime, long endTime){
+        if(hotTier!=null){
+            return hotTier.getTSDRMetricRecords(persistence, tsdrKey, startTime, endTime);
         }
-        log.debug("Exiting TSDRStorageService.storeTSDRMetrics()");
-        return Futures.immediateFuture(RpcResultBuilder.<Void> success().build());
+        return persistence.getTSDRMetricRecords(tsdrKey, startTime, endTime);
+    }
+
+    /*
+     * The raw metrics that replace the aggregations are capped like a list query, a backend that supports
+     * paging reads only the first page instead of the whole time range.
+     */
+    private List<TSDRMetricRecord> getRawMetricRecords(TsdrPersistenceService persistence, String tsdrKey, long startTime, long endTime){
+        final int limit = TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND;
+        if(hotTier==null && persistence instanceof TsdrPagingPersistenceService){
+            TSDRRecordPage<TSDRMetricRecord> page = ((TsdrPagingPersistenceService)persistence).getTSDRMetricRecords(tsdrKey, startTime, endTime, limit, null);
+            return page!=null ? page.getRecords() : null;
+        }
+        List<TSDRMetricRecord> result = getMetricRecords(persistence, tsdrKey, startTime, endTime);
+        if(result!=null && result.size()>limit){
+            result = result.subList(0, limit);
+        }
+        return result;
+    }
+
+    private static boolean isPageRequest(Integer pageSize, String continuationToken){
+        return (pageSize!=null && pageSize>0) || continuationToken!=null;
+    }
+
+    private static int getPageSize(Integer pageSize){
+        return pageSize!=null ? pageSize : 0;
+    }
+
+    //A token that is not a token of the query is a client error, the RPC fails with an error instead of an exception
+    private static <T> Future<RpcResult<T>> invalidContinuationToken(String continuationToken, IllegalArgumentException e){
+        log.warn("Invalid continuation token {}", continuationToken);
+        return RpcResultBuilder.<T> failed().withError(RpcError.ErrorType.APPLICATION, "Invalid continuation token "+continuationToken, e).buildFuture();
     }
 }
@@ -0,0 +1,520 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.opendaylight.tsdr.datastorage.persistence.TSDRPersistenceServiceFactory;
+import org.opendaylight.tsdr.spi.persistence.TSDRPartialStoreException;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yangtools.yang.common.RpcError;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ingestion pipeline between the TSDR storage service and the persistence service.
+ *
+ * <p>
+ * Each data category has its own queue, bounded by the number of queued records, which is
+ * consumed by a single writer thread out of a configurable pool. A writer coalesces the queued
+ * requests of a category into batches of up to the configured batch size and hands each batch to
+ * the persistence service in one store call. The future returned for a request completes only after
+ * all of its records were written, or failed if any of them was dropped or could not be written.
+ * When a queue is full the overflow policy decides whether the caller waits for room, the new
+ * request is dropped or the oldest queued requests are dropped.
+ * </p>
+ *
+ * <p>
+ * The submission of a request tells whether all of its records were queued. A queued request may
+ * still be dropped later by the DROP_OLDEST policy, so the write listener is told only about the
+ * batches that were stored or spilled.
+ * </p>
+ *
+ * <p>
+ * With a spill log, a batch the persistence service failed to store with a TSDRPersistenceException is
+ * written to the spill log and its request completes successfully, the spill log stores it later. Any
+ * other failure, e.g. a malformed record, would fail again on the replay, so its requests fail. In the
+ * ALWAYS spill mode every batch is written to the spill log and only its replay writes to the
+ * persistence service. The metrics of a batch are aggregated where the batch is stored, here or by
+ * the replay of the spill log.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRWritePipeline implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TSDRWritePipeline.class);
+
+    public static enum OverflowPolicy {
+        //Wait up to the offer timeout for room in the queue and then reject the request
+        BLOCK,
+        //Reject the new request right away
+        DROP_NEWEST,
+        //Drop the oldest queued requests to make room for the new one
+        DROP_OLDEST;
+
+        public static OverflowPolicy fromString(String policy){
+            if(policy!=null){
+                for(OverflowPolicy p:values()){
+                    if(p.name().equalsIgnoreCase(policy.trim().replace('-','_'))){
+                        return p;
+                    }
+                }
+                log.error("Unknown overflow policy {}, using {}",policy,BLOCK);
+            }
+            return BLOCK;
+        }
+    }
+
+    /**
+     * Listens to the records that were handed to the persistence service or to the spill log.
+     */
+    public static interface WriteListener {
+        /**
+         * Called by the writer before the futures of the requests of the records complete.
+         * @param records - The records of a batch that was stored or spilled
+         */
+        void recordsWritten(List<TSDRRecord> records);
+    }
+
+    /**
+     * The outcome of submitting a request.
+     */
+    public static final class Submission {
+        private final boolean accepted;
+        private final Future<RpcResult<Void>> future;
+
+        private Submission(boolean accepted, Future<RpcResult<Void>> future){
+            this.accepted = accepted;
+            this.future = future;
+        }
+
+        /**
+         * @return - true if all the records were queued, false if any of them was rejected
+         */
+        public boolean isAccepted(){
+            return accepted;
+        }
+
+        /**
+         * @return - A future that completes when all the records were written
+         */
+        public Future<RpcResult<Void>> getFuture(){
+            return future;
+        }
+    }
+
+    public static final int DEFAULT_WRITER_THREADS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 100000;
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    public static final long DEFAULT_OFFER_TIMEOUT = 5000;
+    //The max time a writer sleeps when there is nothing to write
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long offerTimeout;
+    private final OverflowPolicy overflowPolicy;
+    private final CategoryQueue[] queues;
+    private final WriterThread[] writers;
+    private volatile boolean running = true;
+    //Maintains the rollups of the metrics that were written, may be null
+    private volatile TSDRAggregationEngine aggregationEngine = null;
+    //Keeps the batches the persistence service failed to store, may be null
+    private volatile TSDRSpillLog spillLog = null;
+    //Told about the batches that were stored or spilled, may be null
+    private volatile WriteListener writeListener = null;
+
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+    private final AtomicLong spilledRecords = new AtomicLong();
+
+    public TSDRWritePipeline(){
+        this(DEFAULT_WRITER_THREADS,DEFAULT_QUEUE_CAPACITY,DEFAULT_BATCH_SIZE,OverflowPolicy.BLOCK,DEFAULT_OFFER_TIMEOUT);
+    }
+
+    public TSDRWritePipeline(int writerThreads,int queueCapacity,int batchSize,OverflowPolicy overflowPolicy,long offerTimeout){
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeout = offerTimeout;
+        this.writers = new WriterThread[writerThreads];
+        for(int i=0;i<writers.length;i++){
+            writers[i] = new WriterThread(i);
+        }
+        //One queue per data category plus one for records with no category
+        this.queues = new CategoryQueue[DataCategory.values().length+1];
+        for(int i=0;i<queues.length;i++){
+            queues[i] = new CategoryQueue(writers[i % writers.length]);
+            writers[i % writers.length].queues.add(queues[i]);
+        }
+        for(WriterThread w:writers){
+            w.start();
+        }
+        log.info("TSDR write pipeline started with {} writers, queue capacity {}, batch size {} and overflow policy {}",
+                writerThreads,queueCapacity,batchSize,overflowPolicy);
+    }
+
+    /**
+     * Queues the records to be written by the writers.
+     * @param records - The records to write
+     * @return - Whether the records were queued and the future that completes when they were written
+     */
+    public Submission submit(List<? extends TSDRRecord> records){
+        if(!running){
+            return new Submission(false,Futures.immediateFuture(failed("The TSDR write pipeline is closed")));
+        }
+        if(records.isEmpty()){
+            return new Submission(true,Futures.immediateFuture(RpcResultBuilder.<Void> success().build()));
+        }
+        @SuppressWarnings("unchecked")
+        final List<TSDRRecord>[] parts = new List[queues.length];
+        int partCount = 0;
+        for(TSDRRecord record:records){
+            final int index = record.getTSDRDataCategory()==null ? queues.length-1 : record.getTSDRDataCategory().ordinal();
+            if(parts[index]==null){
+                parts[index] = new ArrayList<>();
+                partCount++;
+            }
+            parts[index].add(record);
+        }
+        final WriteRequest request = new WriteRequest(partCount);
+        boolean accepted = true;
+        for(int i=0;i<parts.length;i++){
+            if(parts[i]!=null){
+                accepted &= queues[i].offer(new PendingWrite(parts[i],request));
+            }
+        }
+        return new Submission(accepted,request.future);
+    }
+
+    private static RpcResult<Void> failed(String message){
+        return RpcResultBuilder.<Void> failed().withError(RpcError.ErrorType.APPLICATION,message).build();
+    }
+
+    public void setAggregationEngine(TSDRAggregationEngine aggregationEngine){
+        this.aggregationEngine = aggregationEngine;
+    }
+
+    public void setSpillLog(TSDRSpillLog spillLog){
+        this.spillLog = spillLog;
+    }
+
+    public void setWriteListener(WriteListener writeListener){
+        this.writeListener = writeListener;
+    }
+
+    public long getWrittenRecords(){
+        return writtenRecords.get();
+    }
+
+    public long getWrittenBatches(){
+        return writtenBatches.get();
+    }
+
+    public long getDroppedRecords(){
+        return droppedRecords.get();
+    }
+
+    public long getFailedRecords(){
+        return failedRecords.get();
+    }
+
+    /**
+     * @return - The number of records that were written to the spill log instead of the persistence service
+     */
+    public long getSpilledRecords(){
+        return spilledRecords.get();
+    }
+
+    /**
+     * @return - The number of records waiting in the queues
+     */
+    public int getQueuedRecords(){
+        int result = 0;
+        for(CategoryQueue q:queues){
+            result+=queueCapacity-q.capacity.availablePermits();
+        }
+        return result;
+    }
+
+    /**
+     * Stops accepting new requests, writes whatever is already queued and stops the writers.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for(WriterThread w:writers){
+            LockSupport.unpark(w);
+        }
+        for(WriterThread w:writers){
+            try {
+                w.join();
+            } catch (InterruptedException e) {
+                log.error("Interrupted while waiting for the TSDR writer to finish",e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        //A request that was queued while the writers were stopping is not written
+        for(CategoryQueue q:queues){
+            PendingWrite pw = null;
+            while((pw = q.queue.poll())!=null){
+                q.capacity.release(pw.permits);
+                q.drop(pw,"The TSDR write pipeline is closed, "+pw.records.size()+" records were not written");
+            }
+        }
+        log.info("TSDR write pipeline closed, written records={}, batches={}, dropped records={}, failed records={}, spilled records={}",
+                writtenRecords.get(),writtenBatches.get(),droppedRecords.get(),failedRecords.get(),spilledRecords.get());
+    }
+
+    //A single store request, which may be split into several category queues
+    private static final class WriteRequest {
+        private final SettableFuture<RpcResult<Void>> future = SettableFuture.create();
+        private final AtomicInteger remainingParts;
+        private volatile String error = null;
+
+        private WriteRequest(int parts){
+            this.remainingParts = new AtomicInteger(parts);
+        }
+
+        private void partDone(String partError){
+            if(partError!=null){
+                error = partError;
+            }
+            if(remainingParts.decrementAndGet()==0){
+                if(error==null){
+                    future.set(RpcResultBuilder.<Void> success().build());
+                }else{
+                    future.set(failed(error));
+                }
+            }
+        }
+    }
+
+    //The records of a single request that belong to one category
+    private static final class PendingWrite {
+        private final List<TSDRRecord> records;
+        private final WriteRequest request;
+        private int permits = 0;
+
+        private PendingWrite(List<TSDRRecord> records,WriteRequest request){
+            this.records = records;
+            this.request = request;
+        }
+    }
+
+    private final class CategoryQueue {
+        private final ConcurrentLinkedQueue<PendingWrite> queue = new ConcurrentLinkedQueue<>();
+        //Each permit is a free slot for one record
+        private final Semaphore capacity = new Semaphore(queueCapacity);
+        private final WriterThread writer;
+
+        private CategoryQueue(WriterThread writer){
+            this.writer = writer;
+        }
+
+        //Returns false if the records were dropped instead of queued
+        private boolean offer(PendingWrite pw){
+            //A request larger than the queue takes the whole queue
+            final int permits = Math.min(pw.records.size(),queueCapacity);
+            try {
+                if(!acquire(permits)){
+                    drop(pw,"The TSDR write queue is full, "+pw.records.size()+" records were dropped");
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop(pw,"Interrupted while waiting for room in the TSDR write queue");
+                return false;
+            }
+            pw.permits = permits;
+            queue.add(pw);
+            LockSupport.unpark(writer);
+            return true;
+        }
+
+        private boolean acquire(int permits) throws InterruptedException {
+            switch(overflowPolicy){
+                case DROP_NEWEST:
+                    return capacity.tryAcquire(permits);
+                case DROP_OLDEST:
+                    while(!capacity.tryAcquire(permits)){
+                        PendingWrite oldest = queue.poll();
+                        if(oldest==null){
+                            //The room is taken by a batch that is being written
+                            return capacity.tryAcquire(permits,offerTimeout,TimeUnit.MILLISECONDS);
+                        }
+                        capacity.release(oldest.permits);
+                        drop(oldest,"The TSDR write queue is full, "+oldest.records.size()+" older records were dropped");
+                    }
+                    return true;
+                default:
+                    return capacity.tryAcquire(permits,offerTimeout,TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void drop(PendingWrite pw,String message){
+            log.warn(message);
+            droppedRecords.addAndGet(pw.records.size());
+            pw.request.partDone(message);
+        }
+    }
+
+    private final class WriterThread extends Thread {
+        private final List<CategoryQueue> queues = new ArrayList<>();
+
+        private WriterThread(int index){
+            super("TSDR Writer "+index);
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run(){
+            while(true){
+                boolean wrote = false;
+                for(CategoryQueue q:queues){
+                    wrote |= writeBatch(q);
+                }
+                if(!wrote){
+                    if(!running){
+                        break;
+                    }
+                    LockSupport.parkNanos(this,IDLE_WAIT);
+                }
+            }
+        }
+
+        private boolean writeBatch(CategoryQueue q){
+            final List<PendingWrite> parts = new ArrayList<>();
+            final List<TSDRRecord> batch = new ArrayList<>();
+            PendingWrite pw = null;
+            while(batch.size()<batchSize && (pw = q.queue.poll())!=null){
+                parts.add(pw);
+                batch.addAll(pw.records);
+            }
+            if(parts.isEmpty()){
+                return false;
+            }
+            //The requests complete only after the batch was handled, if anything unexpected
+            //escapes the persistence service they still complete as failed
+            String error = "Failed to store the records";
+            //The records that are in the persistence service
+            List<TSDRRecord> stored = null;
+            try{
+                final TSDRSpillLog spill = spillLog;
+                if(spill!=null && spill.getMode()==TSDRSpillLog.Mode.ALWAYS){
+                    //The replay of the spill log stores the batch in the persistence service
+                    error = spill(spill,batch) ? null : "Failed to write the records to the spill log";
+                }else{
+                    try {
+                        store(batch);
+                        stored = batch;
+                        error = null;
+                    } catch (TSDRPartialStoreException e) {
+                        //Only the failed records are kept, the others were stored and must not be stored twice
+                        final List<TSDRRecord> failed = e.getFailedRecords();
+                        stored = e.getStoredRecords(batch);
+                        writtenRecords.addAndGet(stored.size());
+                        log.error("Failed to store {} records of a batch of {} records",failed.size(),batch.size(),e);
+                        error = "Failed to store the records: "+e.getMessage();
+                        if(spill!=null && spill(spill,failed)){
+                            log.warn("{}, the failed records were written to the spill log",error);
+                            error = null;
+                        }
+                    } catch (TSDRPersistenceException e) {
+                        log.error("Failed to store a batch of {} records",batch.size(),e);
+                        error = "Failed to store the records: "+e.getMessage();
+                        if(spill!=null && spill(spill,batch)){
+                            log.warn("{}, the records were written to the spill log",error);
+                            error = null;
+                        }
+                    } catch (RuntimeException e) {
+                        //Not a failure of the persistence service, the replay would fail the same way
+                        log.error("Failed to store a batch of {} records",batch.size(),e);
+                        error = "Failed to store the records: "+e.getMessage();
+                    }
+                }
+            }finally{
+                if(error!=null){
+                    log.warn(error);
+                    failedRecords.addAndGet(batch.size()-(stored!=null ? stored.size() : 0));
+                    if(stored!=null){
+                        notifyWritten(stored);
+                    }
+                }else{
+                    notifyWritten(batch);
+                }
+                for(PendingWrite p:parts){
+                    q.capacity.release(p.permits);
+                    p.request.partDone(error);
+                }
+            }
+            //A spilled batch is aggregated when the spill log replays it
+            final TSDRAggregationEngine engine = aggregationEngine;
+            if(stored!=null && !stored.isEmpty() && engine!=null){
+                try{
+                    engine.aggregate(stored);
+                }catch(RuntimeException e){
+                    log.error("Failed to aggregate a batch of {} records",stored.size(),e);
+                }
+            }
+            return true;
+        }
+
+        private void notifyWritten(List<TSDRRecord> batch){
+            final WriteListener listener = writeListener;
+            if(listener!=null){
+                try{
+                    listener.recordsWritten(batch);
+                }catch(RuntimeException e){
+                    log.error("The write listener failed on a batch of {} records",batch.size(),e);
+                }
+            }
+        }
+
+        private void store(List<TSDRRecord> batch){
+            final TsdrPersistenceService persistence = TSDRPersistenceServiceFactory.getTSDRPersistenceDataStore();
+            if(persistence==null){
+                //The persistence service was not registered yet, the batch can be stored later
+                throw new TSDRPersistenceException("Cannot store the records -- persistence service is found to be null");
+            }
+            persistence.store(batch);
+            writtenRecords.addAndGet(batch.size());
+            writtenBatches.incrementAndGet();
+        }
+
+        private boolean spill(TSDRSpillLog spill, List<TSDRRecord> batch){
+            try {
+                if(spill.append(batch)){
+                    spilledRecords.addAndGet(batch.size());
+                    return true;
+                }
+            } catch (IOException e) {
+                log.error("Failed to write a batch of {} records to the spill log",batch.size(),e);
+            }
+            return false;
+        }
+    }
+}
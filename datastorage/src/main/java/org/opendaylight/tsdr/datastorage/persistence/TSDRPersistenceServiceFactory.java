@@ -46,11 +46,10 @@ public class TSDRPersistenceServiceFactory {
      */
     public static TsdrPersistenceService getTSDRPersistenceDataStore( ){
         log.debug("Entering getTSDRPersistenceDataStore()");
-        if(persistenceService== null){
-            persistenceService = TsdrPersistenceServiceUtil.getTsdrPersistenceService();
-            if(persistenceService == null) {
-                log.error("persistenceService is found to be null");
-            }
+        //Always take the registered service so a replaced persistence service is picked up by the writers
+        persistenceService = TsdrPersistenceServiceUtil.getTsdrPersistenceService();
+        if(persistenceService == null) {
+            log.error("persistenceService is found to be null");
         }
 
         log.debug("Exiting getTSDRPersistenceDataStore()");
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage.test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendaylight.tsdr.datastorage.TSDRAggregationEngine;
+import org.opendaylight.tsdr.spi.persistence.TsdrAggregationPersistenceService;
+import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRAggregationEngineTest {
+    //2016-01-01 00:00 UTC
+    private static final long START = 1451606400000L;
+    private static final long MINUTE = 60000L;
+    private final List<TSDRAggregationMetric> stored = new ArrayList<>();
+    private TSDRAggregationEngine engine = new TSDRAggregationEngine(0);
+
+    @Before
+    public void setup() {
+        TsdrAggregationPersistenceService persistenceService = mock(TsdrAggregationPersistenceService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                stored.addAll((List<TSDRAggregationMetric>) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(persistenceService).storeAggregatedMetrics(any(List.class));
+        TsdrPersistenceServiceUtil.setTsdrPersistenceService(persistenceService);
+    }
+
+    private static TSDRMetricRecord createMetric(long time, double value){
+        return new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+                .setMetricValue(new BigDecimal(value))
+                .setNodeID("node1")
+                .setRecordKeys(new ArrayList<RecordKeys>())
+                .setTSDRDataCategory(DataCategory.PORTSTATS)
+                .setTimeStamp(time).build();
+    }
+
+    private List<TSDRAggregationMetric> getStored(AggregationGranularity granularity){
+        List<TSDRAggregationMetric> result = new ArrayList<>();
+        for(TSDRAggregationMetric m:stored){
+            if(m.getTSDRAggregationGranularity()==granularity){
+                result.add(m);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testClosePeriod() {
+        List<TSDRMetricRecord> metrics = new ArrayList<>();
+        //One sample a minute for 15 minutes, values 0..14
+        for(int i=0;i<15;i++){
+            metrics.add(createMetric(START + i * MINUTE, i));
+        }
+        engine.aggregate(metrics);
+        Assert.assertTrue(stored.isEmpty());
+        //The next sample closes the first 15 minutes period
+        engine.aggregate(Arrays.asList(createMetric(START + 15 * MINUTE, 100)));
+        List<TSDRAggregationMetric> closed = getStored(AggregationGranularity._15MIN);
+        Assert.assertEquals(1, closed.size());
+        TSDRAggregationMetric m = closed.get(0);
+        Assert.assertEquals(START, m.getTimeStamp().longValue());
+        Assert.assertEquals(0, m.getMinValue().compareTo(BigDecimal.ZERO));
+        Assert.assertEquals(0, m.getMaxValue().compareTo(new BigDecimal(14)));
+        Assert.assertEquals(0, m.getAvgValue().compareTo(new BigDecimal(7)));
+        Assert.assertEquals(15L, m.getSampleCount().longValue());
+        Assert.assertEquals("PacketCount", m.getMetricName());
+        //The coarser periods are still open
+        Assert.assertTrue(getStored(AggregationGranularity.HOURLY).isEmpty());
+    }
+
+    @Test
+    public void testCheckpoint() {
+        engine.aggregate(Arrays.asList(createMetric(START, 1), createMetric(START + MINUTE, 3)));
+        engine.checkpoint();
+        //The partial aggregation of every granularity is stored
+        Assert.assertEquals(AggregationGranularity.values().length, stored.size());
+        Assert.assertEquals(2L, getStored(AggregationGranularity.YEARLY).get(0).getSampleCount().longValue());
+        stored.clear();
+        //Nothing new since the previous checkpoint, the metric is released
+        engine.checkpoint();
+        Assert.assertTrue(stored.isEmpty());
+        Assert.assertEquals(0, engine.getMetricCount());
+        //A sample arriving later to the same period is stored as a delta of that period
+        engine.aggregate(Arrays.asList(createMetric(START + 2 * MINUTE, 5)));
+        engine.close();
+        List<TSDRAggregationMetric> delta = getStored(AggregationGranularity._15MIN);
+        Assert.assertEquals(1, delta.size());
+        Assert.assertEquals(START, delta.get(0).getTimeStamp().longValue());
+        Assert.assertEquals(1L, delta.get(0).getSampleCount().longValue());
+    }
+
+    @Test
+    public void testLateSample() {
+        engine.aggregate(Arrays.asList(createMetric(START + 20 * MINUTE, 1)));
+        engine.aggregate(Arrays.asList(createMetric(START + 5 * MINUTE, 2)));
+        List<TSDRAggregationMetric> late = getStored(AggregationGranularity._15MIN);
+        Assert.assertEquals(1, late.size());
+        Assert.assertEquals(START, late.get(0).getTimeStamp().longValue());
+        Assert.assertEquals(0, late.get(0).getAvgValue().compareTo(new BigDecimal(2)));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage.test;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendaylight.tsdr.datastorage.TSDRHotTier;
+import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeysBuilder;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRHotTierTest {
+
+    private static final String KEY = "[NID=node1][DC=PORTSTATS][MN=PacketCount][RK=PortID:1]";
+    private final List<long[]> persistenceQueries = new ArrayList<>();
+    private TsdrPersistenceService persistenceService = null;
+    private long now;
+
+    @Before
+    public void setup() {
+        persistenceService = mock(TsdrPersistenceService.class);
+        doAnswer(new Answer<List<TSDRMetricRecord>>() {
+            @Override
+            public List<TSDRMetricRecord> answer(InvocationOnMock invocation) throws Throwable {
+                long start = (Long)invocation.getArguments()[1];
+                long end = (Long)invocation.getArguments()[2];
+                persistenceQueries.add(new long[]{start,end});
+                List<TSDRMetricRecord> result = new ArrayList<>();
+                result.add(createMetric("1",start,-1));
+                return result;
+            }
+        }).when(persistenceService).getTSDRMetricRecords(anyString(),anyLong(),anyLong());
+    }
+
+    private TSDRHotTier createHotTier(int samples, long maxMemory){
+        TSDRHotTier hotTier = new TSDRHotTier(60000L,samples,maxMemory,TSDRHotTier.Eviction.LEAST_RECENTLY_WRITTEN);
+        //The tier holds the samples since it started
+        now = System.currentTimeMillis();
+        return hotTier;
+    }
+
+    private static TSDRMetricRecord createMetric(String port, long time, long value){
+        List<RecordKeys> keys = new ArrayList<>();
+        keys.add(new RecordKeysBuilder().setKeyName("PortID").setKeyValue(port).build());
+        return new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+            .setMetricValue(new BigDecimal(value))
+            .setNodeID("node1")
+            .setRecordKeys(keys)
+            .setTSDRDataCategory(DataCategory.PORTSTATS)
+            .setTimeStamp(time).build();
+    }
+
+    @Test
+    public void testRecentWindowFromMemory(){
+        TSDRHotTier hotTier = createHotTier(100,1024*1024);
+        List<TSDRMetricRecord> records = new ArrayList<>();
+        for(int i=0;i<10;i++){
+            records.add(createMetric("1",now+i*1000L,i));
+            records.add(createMetric("2",now+i*1000L,i*10));
+        }
+        hotTier.update(records);
+        List<TSDRMetricRecord> result = hotTier.getTSDRMetricRecords(persistenceService,KEY,now,now+100000L);
+        Assert.assertEquals(10,result.size());
+        Assert.assertTrue(persistenceQueries.isEmpty());
+        Assert.assertEquals(now+9000L,result.get(9).getTimeStamp().longValue());
+        Assert.assertEquals(9,result.get(9).getMetricValue().intValue());
+        Assert.assertEquals(20,hotTier.getTSDRMetricRecords(persistenceService,"[NID=node1]",now,now+100000L).size());
+        Assert.assertEquals(2,hotTier.getMemoryQueries());
+    }
+
+    @Test
+    public void testStraddlingQueryIsMerged(){
+        TSDRHotTier hotTier = createHotTier(100,1024*1024);
+        hotTier.update(createMetric("1",now+1000L,1));
+        //The samples before the tier started are read from the persistence service
+        List<TSDRMetricRecord> result = hotTier.getTSDRMetricRecords(persistenceService,KEY,now-3600000L,now+100000L);
+        Assert.assertEquals(1,persistenceQueries.size());
+        Assert.assertEquals(now-3600000L,persistenceQueries.get(0)[0]);
+        Assert.assertTrue(persistenceQueries.get(0)[1]<now+1000L);
+        Assert.assertEquals(2,result.size());
+        Assert.assertEquals(-1,result.get(0).getMetricValue().intValue());
+        Assert.assertEquals(1,result.get(1).getMetricValue().intValue());
+        Assert.assertEquals(1,hotTier.getMergedQueries());
+        //A range before the window only goes to the persistence service
+        hotTier.getTSDRMetricRecords(persistenceService,KEY,now-3600000L,now-1800000L);
+        Assert.assertEquals(1,hotTier.getPersistenceQueries());
+    }
+
+    @Test
+    public void testOverwrittenSamplesAreReadFromPersistence(){
+        TSDRHotTier hotTier = createHotTier(10,1024*1024);
+        for(int i=0;i<15;i++){
+            hotTier.update(createMetric("1",now+i*1000L,i));
+        }
+        List<TSDRMetricRecord> result = hotTier.getTSDRMetricRecords(persistenceService,KEY,now,now+100000L);
+        Assert.assertEquals(1,persistenceQueries.size());
+        Assert.assertEquals(now+4000L,persistenceQueries.get(0)[1]);
+        Assert.assertEquals(11,result.size());
+        Assert.assertEquals(5,result.get(1).getMetricValue().intValue());
+    }
+
+    @Test
+    public void testBoundedMemory(){
+        //Room for the buffers of 20 series
+        TSDRHotTier hotTier = createHotTier(10,20*10*20);
+        for(int i=0;i<100;i++){
+            hotTier.update(createMetric(String.valueOf(i),now+i,i));
+        }
+        Assert.assertTrue(hotTier.getMemoryUsage()<=20*10*20);
+        Assert.assertTrue(hotTier.getEvictedSeries()>=80);
+        //The latest series are kept and only the evicted ones are read from the persistence service
+        String key = "[NID=node1][DC=PORTSTATS][MN=PacketCount][RK=PortID:99]";
+        List<TSDRMetricRecord> result = hotTier.getTSDRMetricRecords(persistenceService,key,now,now+100000L);
+        Assert.assertEquals(1,result.size());
+        Assert.assertEquals(99,result.get(0).getMetricValue().intValue());
+        Assert.assertTrue(persistenceQueries.isEmpty());
+        key = "[NID=node1][DC=PORTSTATS][MN=PacketCount][RK=PortID:0]";
+        hotTier.getTSDRMetricRecords(persistenceService,key,now,now+100000L);
+        Assert.assertEquals(1,persistenceQueries.size());
+        Assert.assertEquals(now,persistenceQueries.get(0)[1]);
+    }
+
+    @Test
+    public void testCategoryIsNewestFirstAndCapped(){
+        TSDRHotTier hotTier = createHotTier(2000,1024*1024);
+        for(int i=0;i<1500;i++){
+            hotTier.update(createMetric(String.valueOf(i%2),now+i,i));
+        }
+        List<TSDRMetricRecord> result = hotTier.getTSDRMetricRecords(persistenceService,DataCategory.PORTSTATS.name(),now,now+100000L);
+        Assert.assertEquals(TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND,result.size());
+        Assert.assertEquals(1499,result.get(0).getMetricValue().intValue());
+        Assert.assertEquals(1498,result.get(1).getMetricValue().intValue());
+        Assert.assertTrue(persistenceQueries.isEmpty());
+        //A series key is oldest first
+        result = hotTier.getTSDRMetricRecords(persistenceService,KEY,now,now+100000L);
+        Assert.assertEquals(750,result.size());
+        Assert.assertEquals(1,result.get(0).getMetricValue().intValue());
+    }
+
+    @Test
+    public void testPurge(){
+        TSDRHotTier hotTier = createHotTier(100,1024*1024);
+        for(int i=0;i<10;i++){
+            hotTier.update(createMetric("1",now+i*1000L,i));
+        }
+        hotTier.purge(DataCategory.PORTSTATS,now+5000L);
+        Assert.assertEquals(5,hotTier.getTSDRMetricRecords(persistenceService,KEY,now,now+100000L).size());
+        hotTier.purgeAll(now+8000L);
+        Assert.assertEquals(2,hotTier.getTSDRMetricRecords(persistenceService,KEY,now,now+100000L).size());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.tsdr.datastorage.TSDRLatestValueStore;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeysBuilder;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRLatestValueStoreTest {
+
+    private static TSDRMetricRecord createMetric(String node, DataCategory category, String port, long time, BigDecimal value){
+        List<RecordKeys> keys = new ArrayList<>();
+        keys.add(new RecordKeysBuilder().setKeyName("PortID").setKeyValue(port).build());
+        return new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+            .setMetricValue(value)
+            .setNodeID(node)
+            .setRecordKeys(keys)
+            .setTSDRDataCategory(category)
+            .setTimeStamp(time).build();
+    }
+
+    @Test
+    public void testLatestSampleIsKept(){
+        TSDRLatestValueStore store = new TSDRLatestValueStore();
+        TSDRMetricRecord metric = createMetric("node1",DataCategory.PORTSTATS,"1",2000L,new BigDecimal("12.5"));
+        store.update(metric);
+        //An older sample does not replace the latest one
+        store.update(createMetric("node1",DataCategory.PORTSTATS,"1",1000L,new BigDecimal(3)));
+        List<TSDRMetricRecord> result = store.getLatestMetrics(FormatUtil.getTSDRMetricKey(metric));
+        Assert.assertEquals(1,result.size());
+        Assert.assertEquals(2000L,result.get(0).getTimeStamp().longValue());
+        Assert.assertEquals(new BigDecimal("12.5"),result.get(0).getMetricValue());
+        Assert.assertEquals("1",result.get(0).getRecordKeys().get(0).getKeyValue());
+        store.update(createMetric("node1",DataCategory.PORTSTATS,"1",3000L,new BigDecimal("123456789012345678901234567890")));
+        result = store.getLatestMetrics(FormatUtil.getTSDRMetricKey(metric));
+        Assert.assertEquals(3000L,result.get(0).getTimeStamp().longValue());
+        //A value that does not fit in a long is kept with 18 digits
+        Assert.assertEquals(0,new BigDecimal("123456789012345679000000000000").compareTo(result.get(0).getMetricValue()));
+        Assert.assertEquals(1,store.size());
+    }
+
+    @Test
+    public void testPartialKeys(){
+        TSDRLatestValueStore store = new TSDRLatestValueStore();
+        List<TSDRMetricRecord> records = new ArrayList<>();
+        for(int i=0;i<10;i++){
+            records.add(createMetric("node"+(i%2),DataCategory.PORTSTATS,String.valueOf(i),1000L+i,new BigDecimal(i)));
+            records.add(createMetric("node"+(i%2),DataCategory.FLOWSTATS,String.valueOf(i),1000L+i,new BigDecimal(i)));
+        }
+        store.update(records);
+        Assert.assertEquals(20,store.getLatestMetrics(null).size());
+        Assert.assertEquals(10,store.getLatestMetrics(DataCategory.PORTSTATS.name()).size());
+        Assert.assertEquals(10,store.getLatestMetrics("[DC=FLOWSTATS]").size());
+        Assert.assertEquals(5,store.getLatestMetrics("[NID=node1][DC=FLOWSTATS]").size());
+        Assert.assertEquals(10,store.getLatestMetrics("[NID=node0]").size());
+        List<TSDRMetricRecord> result = store.getLatestMetrics("[NID=node0][DC=PORTSTATS][MN=PacketCount][RK=PortID:4]");
+        Assert.assertEquals(1,result.size());
+        Assert.assertEquals(4,result.get(0).getMetricValue().intValue());
+        Assert.assertTrue(store.getLatestMetrics("[NID=node2]").isEmpty());
+    }
+
+    @Test
+    public void testPurge(){
+        TSDRLatestValueStore store = new TSDRLatestValueStore();
+        for(int i=0;i<10;i++){
+            store.update(createMetric("node1",DataCategory.PORTSTATS,String.valueOf(i),1000L+i,new BigDecimal(i)));
+            store.update(createMetric("node1",DataCategory.FLOWSTATS,String.valueOf(i),1000L+i,new BigDecimal(i)));
+        }
+        store.purge(DataCategory.PORTSTATS,1005L);
+        Assert.assertEquals(5,store.getLatestMetrics(DataCategory.PORTSTATS.name()).size());
+        Assert.assertEquals(10,store.getLatestMetrics(DataCategory.FLOWSTATS.name()).size());
+        store.purgeAll(1008L);
+        Assert.assertEquals(4,store.size());
+        Assert.assertEquals(2,store.getLatestMetrics("[NID=node1][DC=FLOWSTATS]").size());
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage.test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendaylight.tsdr.datastorage.TSDRAggregationEngine;
+import org.opendaylight.tsdr.datastorage.TSDRSpillLog;
+import org.opendaylight.tsdr.datastorage.TSDRWritePipeline;
+import org.opendaylight.tsdr.persistence.tsfile.TSDRTSFilePersistenceServiceImpl;
+import org.opendaylight.tsdr.persistence.tsfile.TSFileStore;
+import org.opendaylight.tsdr.spi.persistence.TSDRPartialStoreException;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeysBuilder;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRSpillLogTest {
+
+    private static final File DIR = new File("./target/spill-test");
+    //The records of this node fail with an exception that is not a persistence failure
+    private static final String BAD_NODE = "bad";
+    private final List<TSDRRecord> stored = Collections.synchronizedList(new ArrayList<TSDRRecord>());
+    private volatile boolean fail = true;
+    //Only the log records fail, like a backend of the logs that is down while the metrics are stored
+    private volatile boolean failLogs = false;
+    private TSDRSpillLog spillLog = null;
+
+    @Before
+    public void setup() {
+        delete(DIR);
+        TsdrPersistenceService persistenceService = mock(TsdrPersistenceService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if(fail){
+                    throw new TSDRPersistenceException("The persistence service is down");
+                }
+                for(TSDRRecord r:(List<TSDRRecord>) invocation.getArguments()[0]){
+                    if(BAD_NODE.equals(r.getNodeID())){
+                        throw new IllegalArgumentException("A malformed record");
+                    }
+                }
+                if(failLogs){
+                    List<TSDRRecord> logs = new ArrayList<>();
+                    for(TSDRRecord r:(List<TSDRRecord>) invocation.getArguments()[0]){
+                        if(r instanceof TSDRLogRecord){
+                            logs.add(r);
+                        }else{
+                            stored.add(r);
+                        }
+                    }
+                    if(!logs.isEmpty()){
+                        throw new TSDRPartialStoreException("The logs backend is down",null,logs);
+                    }
+                    return null;
+                }
+                stored.addAll((List<TSDRRecord>) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(persistenceService).store(any(List.class));
+        TsdrPersistenceServiceUtil.setTsdrPersistenceService(persistenceService);
+    }
+
+    @After
+    public void teardown() {
+        if(spillLog!=null){
+            spillLog.close();
+        }
+        delete(DIR);
+    }
+
+    private static void delete(File file){
+        File[] files = file.listFiles();
+        if(files!=null){
+            for(File f:files){
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    private static List<TSDRRecord> createRecords(int start, int count){
+        List<TSDRRecord> result = new ArrayList<>();
+        for(int i=start;i<start+count;i++){
+            List<RecordKeys> keys = new ArrayList<>();
+            keys.add(new RecordKeysBuilder().setKeyName("PortID").setKeyValue(String.valueOf(i)).build());
+            if(i%2==0){
+                result.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+                    .setMetricValue(new BigDecimal(i))
+                    .setNodeID("node1")
+                    .setRecordKeys(keys)
+                    .setTSDRDataCategory(DataCategory.PORTSTATS)
+                    .setTimeStamp((long)i).build());
+            }else{
+                result.add(new TSDRLogRecordBuilder().setRecordFullText("Some syslog text "+i)
+                    .setIndex(i)
+                    .setNodeID("node1")
+                    .setRecordKeys(keys)
+                    .setTSDRDataCategory(DataCategory.SYSLOG)
+                    .setTimeStamp((long)i).build());
+            }
+        }
+        return result;
+    }
+
+    private static List<TSDRMetricRecord> createMetrics(String nodeID, int count){
+        List<TSDRMetricRecord> result = new ArrayList<>();
+        for(int i=0;i<count;i++){
+            result.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+                .setMetricValue(new BigDecimal(i))
+                .setNodeID(nodeID)
+                .setTSDRDataCategory(DataCategory.PORTSTATS)
+                .setTimeStamp((long)i).build());
+        }
+        return result;
+    }
+
+    private static long getTimeStamp(TSDRRecord record){
+        return record instanceof TSDRMetricRecord ? ((TSDRMetricRecord)record).getTimeStamp() : ((TSDRLogRecord)record).getTimeStamp();
+    }
+
+    private void waitForReplay(long records) throws InterruptedException {
+        long until = System.currentTimeMillis()+10000;
+        while(spillLog.getReplayedRecords()<records && System.currentTimeMillis()<until){
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testReplayInOrderAfterRestart() throws Exception {
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        for(int i=0;i<50;i++){
+            Assert.assertTrue(spillLog.append(createRecords(i*10,10)));
+        }
+        spillLog.close();
+        //A torn entry at the end of the log is ignored
+        File[] segments = DIR.listFiles();
+        for(File f:segments){
+            if(f.getName().equals("spill-"+(segments.length-2)+".log")){
+                try (FileOutputStream out = new FileOutputStream(f,true)) {
+                    out.write(new byte[]{0,0,1,0,1,2,3});
+                }
+            }
+        }
+        Assert.assertTrue(stored.isEmpty());
+        fail = false;
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        waitForReplay(500);
+        Assert.assertEquals(500,stored.size());
+        for(int i=0;i<stored.size();i++){
+            Assert.assertEquals(i,getTimeStamp(stored.get(i)));
+        }
+        TSDRLogRecord log = (TSDRLogRecord)stored.get(7);
+        Assert.assertEquals("Some syslog text 7",log.getRecordFullText());
+        Assert.assertEquals(7,log.getIndex().intValue());
+        Assert.assertEquals("7",log.getRecordKeys().get(0).getKeyValue());
+        Assert.assertEquals(0,spillLog.getPendingBytes());
+        //The checkpoint keeps the entries from being replayed again
+        spillLog.close();
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        Thread.sleep(500);
+        Assert.assertEquals(0,spillLog.getReplayedRecords());
+        Assert.assertEquals(500,stored.size());
+    }
+
+    @Test
+    public void testBoundedSize() throws Exception {
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,20*1024,4096,0);
+        for(int i=0;i<200;i++){
+            Assert.assertTrue(spillLog.append(createRecords(i*10,10)));
+        }
+        long size = 0;
+        for(File f:DIR.listFiles()){
+            size+=f.length();
+        }
+        Assert.assertTrue(size<=21*1024);
+        Assert.assertTrue(spillLog.getDroppedBytes()>0);
+        //The newest records are kept
+        fail = false;
+        waitForReplay(1);
+        long until = System.currentTimeMillis()+10000;
+        while(spillLog.getPendingBytes()>0 && System.currentTimeMillis()<until){
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(1999,getTimeStamp(stored.get(stored.size()-1)));
+    }
+
+    @Test
+    public void testPipelineSpillsFailedBatches() throws Exception {
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        TSDRWritePipeline pipeline = new TSDRWritePipeline();
+        pipeline.setSpillLog(spillLog);
+        List<TSDRMetricRecord> records = new ArrayList<>();
+        for(TSDRRecord r:createRecords(0,10)){
+            if(r instanceof TSDRMetricRecord){
+                records.add((TSDRMetricRecord)r);
+            }
+        }
+        //The records are kept in the spill log, so the request succeeds
+        Assert.assertTrue(pipeline.submit(records).getFuture().get().isSuccessful());
+        Assert.assertEquals(5,pipeline.getSpilledRecords());
+        Assert.assertEquals(0,pipeline.getFailedRecords());
+        fail = false;
+        waitForReplay(5);
+        Assert.assertEquals(5,stored.size());
+        pipeline.close();
+    }
+
+    @Test
+    public void testBackendFailureIsSpilled() throws Exception {
+        //A real backend whose data directory is a file, so it fails to store until the file is removed
+        File dataDir = new File("./target/spill-test-tsfile");
+        delete(dataDir);
+        dataDir.getParentFile().mkdirs();
+        Assert.assertTrue(dataDir.createNewFile());
+        TSDRTSFilePersistenceServiceImpl backend = new TSDRTSFilePersistenceServiceImpl();
+        backend.start(new TSFileStore(dataDir,1024*1024,100));
+        TsdrPersistenceServiceUtil.setTsdrPersistenceService(backend);
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        TSDRWritePipeline pipeline = new TSDRWritePipeline();
+        pipeline.setSpillLog(spillLog);
+        try {
+            List<TSDRMetricRecord> records = new ArrayList<>();
+            for(TSDRRecord r:createRecords(0,10)){
+                if(r instanceof TSDRMetricRecord){
+                    records.add((TSDRMetricRecord)r);
+                }
+            }
+            Assert.assertTrue(pipeline.submit(records).getFuture().get().isSuccessful());
+            Assert.assertEquals(5,pipeline.getSpilledRecords());
+            Assert.assertEquals(0,spillLog.getReplayedRecords());
+            //The backend recovers and the replay stores the records
+            Assert.assertTrue(dataDir.delete());
+            waitForReplay(5);
+            Assert.assertEquals(5,spillLog.getReplayedRecords());
+            String key = FormatUtil.getTSDRMetricKey(records.get(0));
+            Assert.assertEquals(1,backend.getTSDRMetricRecords(key,0,Long.MAX_VALUE).size());
+            Assert.assertEquals(5,backend.getTSDRMetricRecords(DataCategory.PORTSTATS.name(),0,Long.MAX_VALUE).size());
+        }finally{
+            pipeline.close();
+            backend.stop(0);
+            delete(dataDir);
+        }
+    }
+
+    @Test
+    public void testNonTransientFailureIsQuarantined() throws Exception {
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        Assert.assertTrue(spillLog.append(createMetrics(BAD_NODE,3)));
+        Assert.assertTrue(spillLog.append(createRecords(0,10)));
+        fail = false;
+        //The bad entry does not block the entry after it
+        waitForReplay(10);
+        Assert.assertEquals(10,stored.size());
+        Assert.assertEquals(3,spillLog.getQuarantinedRecords());
+        Assert.assertTrue(new File(DIR,TSDRSpillLog.QUARANTINE_FILE).length()>0);
+        Assert.assertEquals(0,spillLog.getPendingBytes());
+    }
+
+    @Test
+    public void testPipelineDoesNotSpillNonTransientFailures() throws Exception {
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        TSDRWritePipeline pipeline = new TSDRWritePipeline();
+        pipeline.setSpillLog(spillLog);
+        fail = false;
+        try {
+            Assert.assertFalse(pipeline.submit(createMetrics(BAD_NODE,5)).getFuture().get().isSuccessful());
+            Assert.assertEquals(0,pipeline.getSpilledRecords());
+            Assert.assertEquals(5,pipeline.getFailedRecords());
+        }finally{
+            pipeline.close();
+        }
+    }
+
+    @Test
+    public void testPartialFailureReplaysOnlyTheFailedRecords() throws Exception {
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ON_FAILURE,DIR,10*1024*1024,4096,0);
+        Assert.assertTrue(spillLog.append(createRecords(0,10)));
+        failLogs = true;
+        fail = false;
+        waitForReplay(5);
+        //The metrics were stored once while the logs are tried again
+        Thread.sleep(200);
+        Assert.assertEquals(5,stored.size());
+        Assert.assertTrue(spillLog.getPendingBytes()>0);
+        failLogs = false;
+        waitForReplay(10);
+        Assert.assertEquals(10,stored.size());
+        int logs = 0;
+        for(TSDRRecord r:stored){
+            if(r instanceof TSDRLogRecord){
+                logs++;
+            }
+        }
+        Assert.assertEquals(5,logs);
+        Assert.assertEquals(0,spillLog.getPendingBytes());
+        Assert.assertEquals(0,spillLog.getQuarantinedRecords());
+    }
+
+    @Test
+    public void testSpilledBatchIsAggregatedOnReplay() throws Exception {
+        spillLog = new TSDRSpillLog(TSDRSpillLog.Mode.ALWAYS,DIR,10*1024*1024,4096,0);
+        TSDRAggregationEngine engine = new TSDRAggregationEngine(0);
+        TSDRWritePipeline pipeline = new TSDRWritePipeline();
+        pipeline.setSpillLog(spillLog);
+        pipeline.setAggregationEngine(engine);
+        spillLog.setAggregationEngine(engine);
+        try {
+            Assert.assertTrue(pipeline.submit(createMetrics("node1",5)).getFuture().get().isSuccessful());
+            //The records are only in the spill log
+            Assert.assertEquals(0,engine.getMetricCount());
+            fail = false;
+            waitForReplay(5);
+            long until = System.currentTimeMillis()+10000;
+            while(engine.getMetricCount()==0 && System.currentTimeMillis()<until){
+                Thread.sleep(20);
+            }
+            Assert.assertEquals(1,engine.getMetricCount());
+        }finally{
+            pipeline.close();
+            engine.close();
+        }
+    }
+}
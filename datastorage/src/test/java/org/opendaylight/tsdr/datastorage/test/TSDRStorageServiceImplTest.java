@@ -20,6 +20,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -27,12 +28,17 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.opendaylight.tsdr.datastorage.TSDRMetricsMap;
 import org.opendaylight.tsdr.datastorage.TSDRStorageServiceImpl;
+import org.opendaylight.tsdr.datastorage.TSDRWritePipeline;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TsdrPagingPersistenceService;
 import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
 import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRAggregatedMetricsInputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsInputBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRLogRecordsOutput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsInputBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.GetTSDRMetricsOutput;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.PurgeAllTSDRRecordInputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.PurgeTSDRRecordInputBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.StoreTSDRLogRecordInputBuilder;
@@ -42,6 +48,8 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.gettsdraggregatedmetrics.output.AggregatedMetrics;
+import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeysBuilder;
 /**
@@ -140,7 +148,7 @@ public class TSDRStorageServiceImplTest {
     }
 
     @Test
-    public void testgetTSDRLogRecord() {
+    public void testgetTSDRLogRecord() throws Exception {
            Date startDate = new Date();
            List<TSDRLogRecord> metricCol = new ArrayList<TSDRLogRecord>();
            String timeStamp = (new Long((new Date()).getTime())).toString();
@@ -157,7 +165,8 @@ public class TSDRStorageServiceImplTest {
                    .setTSDRDataCategory(DataCategory.SYSLOG)
                    .setTimeStamp(new Long(timeStamp)).build());
             Date endDate = new Date();
-        storageService.storeTSDRLogRecord(new StoreTSDRLogRecordInputBuilder().setTSDRLogRecord(metricCol).build());
+        //The records are written asynchronously, wait for them to be stored before querying
+        Assert.assertTrue(storageService.storeTSDRLogRecord(new StoreTSDRLogRecordInputBuilder().setTSDRLogRecord(metricCol).build()).get().isSuccessful());
         storageService.storeTSDRLogRecord(new StoreTSDRLogRecordInputBuilder().setTSDRLogRecord(null).build());
         storageService.getTSDRLogRecords(new GetTSDRLogRecordsInputBuilder()
                 .setStartTime(startDate.getTime())
@@ -198,7 +207,7 @@ public class TSDRStorageServiceImplTest {
     }
 
     @Test
-    public void testgetTSDRMetricRecord(){
+    public void testgetTSDRMetricRecord() throws Exception {
         Date startDate = new Date();
         List<TSDRMetricRecord> metricCol = new ArrayList<TSDRMetricRecord>();
         String timeStamp = (new Long((new Date()).getTime())).toString();
@@ -215,7 +224,7 @@ public class TSDRStorageServiceImplTest {
             .setTSDRDataCategory(DataCategory.FLOWGROUPSTATS)
             .setTimeStamp(new Long(timeStamp)).build());
         Date endDate = new Date();
-            storageService.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(metricCol).build());
+            Assert.assertTrue(storageService.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(metricCol).build()).get().isSuccessful());
             storageService.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(null).build());
             storageService.getTSDRMetrics(new GetTSDRMetricsInputBuilder()
                     .setStartTime(startDate.getTime())
@@ -223,6 +232,107 @@ public class TSDRStorageServiceImplTest {
                     .setTSDRDataCategory(GROUP_METRICS_TABLE_NAME).build());
     }
 
+    @Test
+    public void testgetTSDRAggregatedMetrics() throws Exception {
+        long startTime = System.currentTimeMillis();
+        List<TSDRMetricRecord> metricCol = new ArrayList<TSDRMetricRecord>();
+        metricCol.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+            .setMetricValue(new BigDecimal(40))
+            .setNodeID("node1")
+            .setRecordKeys(new ArrayList<RecordKeys>())
+            .setTSDRDataCategory(DataCategory.FLOWGROUPSTATS)
+            .setTimeStamp(startTime).build());
+        Assert.assertTrue(storageService.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(metricCol).build()).get().isSuccessful());
+        //The time range is too short for any aggregation granularity, so the raw metrics are returned
+        List<AggregatedMetrics> result = storageService.getTSDRAggregatedMetrics(new GetTSDRAggregatedMetricsInputBuilder()
+                .setStartTime(startTime)
+                .setEndTime(System.currentTimeMillis())
+                .setMaxDataPoints(1000L)
+                .setTSDRDataCategory(GROUP_METRICS_TABLE_NAME).build()).get().getResult().getAggregatedMetrics();
+        Assert.assertEquals(1, result.size());
+        Assert.assertEquals(1L, result.get(0).getSampleCount().longValue());
+        Assert.assertNull(result.get(0).getTSDRAggregationGranularity());
+    }
+
+    @Test
+    public void testgetTSDRAggregatedMetricsRawFallbackIsCapped() throws Exception {
+        long startTime = System.currentTimeMillis();
+        List<TSDRMetricRecord> metricCol = new ArrayList<TSDRMetricRecord>();
+        for(int i=0;i<TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND+10;i++){
+            metricCol.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+                .setMetricValue(new BigDecimal(i))
+                .setNodeID("node1")
+                .setRecordKeys(new ArrayList<RecordKeys>())
+                .setTSDRDataCategory(DataCategory.FLOWGROUPSTATS)
+                .setTimeStamp(startTime+i).build());
+        }
+        Assert.assertTrue(storageService.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(metricCol).build()).get().isSuccessful());
+        List<AggregatedMetrics> result = storageService.getTSDRAggregatedMetrics(new GetTSDRAggregatedMetricsInputBuilder()
+                .setStartTime(startTime)
+                .setEndTime(System.currentTimeMillis())
+                .setMaxDataPoints(1000L)
+                .setTSDRDataCategory(GROUP_METRICS_TABLE_NAME).build()).get().getResult().getAggregatedMetrics();
+        Assert.assertEquals(TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND, result.size());
+        Assert.assertEquals(0, result.get(1).getSumValue().compareTo(new BigDecimal(1)));
+    }
+
+    @Test
+    public void teststoreTSDRMetricRecordFailure() throws Exception {
+        List<TSDRMetricRecord> metricCol = new ArrayList<TSDRMetricRecord>();
+        metricCol.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+            .setMetricValue(new BigDecimal(40))
+            .setNodeID("node1")
+            .setRecordKeys(new ArrayList<RecordKeys>())
+            .setTSDRDataCategory(DataCategory.FLOWGROUPSTATS)
+            .setTimeStamp(System.currentTimeMillis()).build());
+        Mockito.doThrow(new IllegalStateException("Backend is down")).when(persistenceService).store(any(List.class));
+        Assert.assertFalse(storageService.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(metricCol).build()).get().isSuccessful());
+        //The records the pipeline accepted but failed to write are not the latest values
+        Assert.assertEquals(0, storageService.getLatestValueStore().size());
+    }
+
+    @Test
+    public void testRejectedMetricsAreNotLatest() throws Exception {
+        List<TSDRMetricRecord> metricCol = new ArrayList<TSDRMetricRecord>();
+        metricCol.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+            .setMetricValue(new BigDecimal(40))
+            .setNodeID("node1")
+            .setRecordKeys(new ArrayList<RecordKeys>())
+            .setTSDRDataCategory(DataCategory.FLOWGROUPSTATS)
+            .setTimeStamp(System.currentTimeMillis()).build());
+        Assert.assertTrue(storageService.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(metricCol).build()).get().isSuccessful());
+        Assert.assertEquals(1, storageService.getLatestValueStore().size());
+        //A closed pipeline does not accept the records, so they are not the latest values
+        TSDRWritePipeline pipeline = new TSDRWritePipeline();
+        pipeline.close();
+        TSDRStorageServiceImpl closed = new TSDRStorageServiceImpl(pipeline, null);
+        Assert.assertFalse(closed.storeTSDRMetricRecord(new StoreTSDRMetricRecordInputBuilder().setTSDRMetricRecord(metricCol).build()).get().isSuccessful());
+        Assert.assertEquals(0, closed.getLatestValueStore().size());
+    }
+
+    @Test
+    public void testInvalidContinuationToken() throws Exception {
+        TsdrPagingPersistenceService pagingService = mock(TsdrPagingPersistenceService.class);
+        Mockito.doThrow(new IllegalArgumentException("Illegal continuation token")).when(pagingService)
+            .getTSDRMetricRecords(any(String.class),any(long.class),any(long.class),any(int.class),any(String.class));
+        Mockito.doThrow(new IllegalArgumentException("Illegal continuation token")).when(pagingService)
+            .getTSDRLogRecords(any(String.class),any(long.class),any(long.class),any(int.class),any(String.class));
+        TsdrPersistenceServiceUtil.setTsdrPersistenceService(pagingService);
+        RpcResult<GetTSDRMetricsOutput> metrics = storageService.getTSDRMetrics(new GetTSDRMetricsInputBuilder()
+                .setStartTime(0L)
+                .setEndTime(System.currentTimeMillis())
+                .setTSDRDataCategory(GROUP_METRICS_TABLE_NAME)
+                .setContinuationToken("bad-token").build()).get();
+        Assert.assertFalse(metrics.isSuccessful());
+        Assert.assertEquals("Invalid continuation token bad-token", metrics.getErrors().iterator().next().getMessage());
+        RpcResult<GetTSDRLogRecordsOutput> logs = storageService.getTSDRLogRecords(new GetTSDRLogRecordsInputBuilder()
+                .setStartTime(0L)
+                .setEndTime(System.currentTimeMillis())
+                .setTSDRDataCategory(SYS_LOG_TABLE_NAME)
+                .setContinuationToken("bad-token").build()).get();
+        Assert.assertFalse(logs.isSuccessful());
+    }
+
     private static final String GROUP_METRICS_TABLE_NAME = "GroupMetrics";
     private static final String SYS_LOG_TABLE_NAME = "SYSLOG";
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage.test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendaylight.tsdr.datastorage.TSDRWritePipeline;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRWritePipelineTest {
+
+    private TSDRWritePipeline pipeline = null;
+    private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    //The first store call waits on this latch so the next requests are queued
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch firstStore = new CountDownLatch(1);
+
+    @Before
+    public void setup() {
+        TsdrPersistenceService persistenceService = mock(TsdrPersistenceService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                List<TSDRRecord> batch = (List<TSDRRecord>) invocation.getArguments()[0];
+                batchSizes.add(batch.size());
+                firstStore.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(persistenceService).store(any(List.class));
+        TsdrPersistenceServiceUtil.setTsdrPersistenceService(persistenceService);
+    }
+
+    @After
+    public void teardown() {
+        release.countDown();
+        if(pipeline!=null){
+            pipeline.close();
+        }
+    }
+
+    private static List<TSDRMetricRecord> createRecords(int count){
+        List<TSDRMetricRecord> result = new ArrayList<>();
+        for(int i=0;i<count;i++){
+            result.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+                .setMetricValue(new BigDecimal(i))
+                .setNodeID("node1")
+                .setRecordKeys(new ArrayList<RecordKeys>())
+                .setTSDRDataCategory(DataCategory.PORTSTATS)
+                .setTimeStamp(System.currentTimeMillis()).build());
+        }
+        return result;
+    }
+
+    @Test
+    public void testCoalesceQueuedRequests() throws Exception {
+        pipeline = new TSDRWritePipeline(1,100,100,TSDRWritePipeline.OverflowPolicy.BLOCK,1000);
+        Future<RpcResult<Void>> first = pipeline.submit(createRecords(1)).getFuture();
+        Assert.assertTrue(firstStore.await(10, TimeUnit.SECONDS));
+        List<Future<RpcResult<Void>>> queued = new ArrayList<>();
+        for(int i=0;i<3;i++){
+            queued.add(pipeline.submit(createRecords(2)).getFuture());
+        }
+        Assert.assertFalse(queued.get(0).isDone());
+        release.countDown();
+        Assert.assertTrue(first.get().isSuccessful());
+        for(Future<RpcResult<Void>> f:queued){
+            Assert.assertTrue(f.get().isSuccessful());
+        }
+        //The three queued requests are written in a single batch
+        Assert.assertEquals(2, batchSizes.size());
+        Assert.assertEquals(6, batchSizes.get(1).intValue());
+        Assert.assertEquals(7, pipeline.getWrittenRecords());
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        pipeline = new TSDRWritePipeline(1,10,10,TSDRWritePipeline.OverflowPolicy.DROP_NEWEST,1000);
+        Future<RpcResult<Void>> first = pipeline.submit(createRecords(10)).getFuture();
+        Assert.assertTrue(firstStore.await(10, TimeUnit.SECONDS));
+        //The queue room is held until the first batch is written
+        TSDRWritePipeline.Submission rejected = pipeline.submit(createRecords(1));
+        Assert.assertFalse(rejected.isAccepted());
+        Assert.assertFalse(rejected.getFuture().get().isSuccessful());
+        Assert.assertEquals(1, pipeline.getDroppedRecords());
+        release.countDown();
+        Assert.assertTrue(first.get().isSuccessful());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        pipeline = new TSDRWritePipeline(1,10,10,TSDRWritePipeline.OverflowPolicy.DROP_OLDEST,1000);
+        final List<TSDRRecord> written = Collections.synchronizedList(new ArrayList<TSDRRecord>());
+        pipeline.setWriteListener(new TSDRWritePipeline.WriteListener() {
+            @Override
+            public void recordsWritten(List<TSDRRecord> records) {
+                written.addAll(records);
+            }
+        });
+        Future<RpcResult<Void>> first = pipeline.submit(createRecords(5)).getFuture();
+        Assert.assertTrue(firstStore.await(10, TimeUnit.SECONDS));
+        TSDRWritePipeline.Submission oldest = pipeline.submit(createRecords(5));
+        //The oldest request was queued and is dropped by the next one
+        Assert.assertTrue(oldest.isAccepted());
+        Future<RpcResult<Void>> newest = pipeline.submit(createRecords(5)).getFuture();
+        Assert.assertFalse(oldest.getFuture().get().isSuccessful());
+        release.countDown();
+        Assert.assertTrue(first.get().isSuccessful());
+        Assert.assertTrue(newest.get().isSuccessful());
+        Assert.assertEquals(5, pipeline.getDroppedRecords());
+        //Only the written records reach the listener
+        Assert.assertEquals(10, written.size());
+    }
+
+    @Test
+    public void testCompleteAfterStore() throws Exception {
+        pipeline = new TSDRWritePipeline(1,100,100,TSDRWritePipeline.OverflowPolicy.BLOCK,1000);
+        Future<RpcResult<Void>> first = pipeline.submit(createRecords(1)).getFuture();
+        Assert.assertTrue(firstStore.await(10, TimeUnit.SECONDS));
+        //The store call has not returned yet
+        Thread.sleep(100);
+        Assert.assertFalse(first.isDone());
+        Assert.assertEquals(0, pipeline.getWrittenRecords());
+        release.countDown();
+        Assert.assertTrue(first.get(10, TimeUnit.SECONDS).isSuccessful());
+        Assert.assertEquals(1, pipeline.getWrittenRecords());
+    }
+
+    @Test
+    public void testStoreFailure() throws Exception {
+        TsdrPersistenceService persistenceService = mock(TsdrPersistenceService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                List<TSDRRecord> batch = (List<TSDRRecord>) invocation.getArguments()[0];
+                if(batch.size()==2){
+                    throw new TSDRPersistenceException("The backend is down");
+                }
+                return null;
+            }
+        }).when(persistenceService).store(any(List.class));
+        TsdrPersistenceServiceUtil.setTsdrPersistenceService(persistenceService);
+        pipeline = new TSDRWritePipeline(1,100,100,TSDRWritePipeline.OverflowPolicy.BLOCK,1000);
+        RpcResult<Void> result = pipeline.submit(createRecords(2)).getFuture().get(10, TimeUnit.SECONDS);
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertTrue(result.getErrors().iterator().next().getMessage().contains("The backend is down"));
+        Assert.assertEquals(2, pipeline.getFailedRecords());
+        //The writer survives the failure
+        Assert.assertTrue(pipeline.submit(createRecords(1)).getFuture().get(10, TimeUnit.SECONDS).isSuccessful());
+        Assert.assertEquals(1, pipeline.getWrittenRecords());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        pipeline = new TSDRWritePipeline();
+        pipeline.close();
+        TSDRWritePipeline.Submission submission = pipeline.submit(createRecords(1));
+        Assert.assertFalse(submission.isAccepted());
+        Assert.assertFalse(submission.getFuture().get().isSuccessful());
+        pipeline = null;
+    }
+}
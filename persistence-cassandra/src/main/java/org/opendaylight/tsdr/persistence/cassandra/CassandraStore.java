@@ -8,14 +8,17 @@
 package org.opendaylight.tsdr.persistence.cassandra;
 
 import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
-import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.exceptions.InvalidQueryException;
-import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.datastax.driver.core.exceptions.QueryValidationException;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -23,11 +26,19 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
 import org.opendaylight.tsdr.spi.util.TSDRKeyCache;
 import org.opendaylight.tsdr.spi.util.TSDRKeyCache.TSDRCacheEntry;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
@@ -40,10 +51,24 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.Recor
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 /**
+ * The samples are stored in one of two table layouts, table_layout in the configuration file.
+ * The legacy layout keeps the whole history of a series in one partition and is purged by deleting the rows.
+ * The bucketed layout partitions a series by day and writes every sample with a TTL per data category,
+ * the TTL follows the retention of the purge requests, so the samples expire on their own and
+ * purging costs nothing. The TTLs of the categories are kept in a table so they survive a restart.
+ * The bucketed layout does not read the legacy tables, a keyspace with legacy data should stay on the legacy layout.
  * @author Sharon Aicler(saichler@gmail.com)
  **/
 public class CassandraStore {
+    public static final String METRIC_BUCKET_TABLE = "MetricValByDay";
+    public static final String LOG_BUCKET_TABLE = "MetricLogByDay";
+    public static final String CATEGORY_TTL_TABLE = "CategoryTTL";
+    public static final int DEFAULT_TTL_IN_HOURS = 168;
+    //The maximum TTL cassandra accepts, 20 years
+    private static final long MAX_TTL = 630720000;
     private static final int MAX_BATCH_SIZE = 500;
+    //The number of rows of a page query that are fetched from the coordinator at once
+    private static final int MAX_FETCH_SIZE = 1000;
     private static final String confFile = "./etc/tsdr-persistence-cassandra.properties";
     private Session session = null;
     private Cluster cluster = null;
@@ -51,13 +76,25 @@ public class CassandraStore {
     private String host = null;
     private int replication_factor = 1;
     private Logger log = LoggerFactory.getLogger(CassandraStore.class);
-    private TSDRKeyCache cache = new TSDRKeyCache();
-    private BatchStatement batch = null;
+    private TSDRKeyCache cache = new TSDRKeyCache(getKeyIDAlgorithm(),"cassandra");
+    private final boolean bucketed = isBucketedLayout();
+    private final int defaultTTL = getDefaultTTL();
+    //The TTL in seconds of the new samples of each category and the largest TTL a category was written with
+    private final Map<DataCategory,Integer> categoryTTL = new ConcurrentHashMap<>();
+    private final Map<DataCategory,Integer> maxCategoryTTL = new ConcurrentHashMap<>();
+    private volatile CassandraWriter writer = null;
+    private volatile PreparedStatement selectMetricBuckets = null;
+    private volatile PreparedStatement selectLogBuckets = null;
+    private volatile PreparedStatement selectLogBucketsAt = null;
+    private volatile PreparedStatement selectMetricPage = null;
+    private volatile PreparedStatement selectLogPage = null;
+    private volatile PreparedStatement selectLogPageAt = null;
 
     public CassandraStore(){
         log.info("Connecting to Cassandra...");
         try {
             getSession();
+            loadCategoryTTL();
         } catch (Exception e) {
             log.error("Failed to connect to Cassandra",e);
         }
@@ -69,6 +106,7 @@ public class CassandraStore {
         this.cluster = c;
         try {
             getSession();
+            loadCategoryTTL();
         } catch (Exception e) {
             log.error("Failed to connect to Cassandra",e);
         }
@@ -81,17 +119,158 @@ public class CassandraStore {
         String line = in.readLine();
         while(line!=null){
             int index = line.indexOf("=");
-            String key = line.substring(0,index).trim();
-            String value = line.substring(index+1).trim();
-            result.put(key, value);
+            //Skip the comments and the empty lines
+            if(index>0 && !line.trim().startsWith("#")){
+                String key = line.substring(0,index).trim();
+                String value = line.substring(index+1).trim();
+                result.put(key, value);
+            }
             line = in.readLine();
         }
         in.close();
         return result;
     }
 
+    private MD5ID.KeyIDAlgorithm getKeyIDAlgorithm(){
+        try {
+            String algorithm = loadConfig().get("key_id_algorithm");
+            if(algorithm!=null){
+                return MD5ID.KeyIDAlgorithm.valueOf(algorithm.toUpperCase());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Could not read the key id algorithm, using MD5",e);
+        }
+        return MD5ID.KeyIDAlgorithm.MD5;
+    }
+
+    private boolean isBucketedLayout(){
+        try {
+            return "bucketed".equalsIgnoreCase(loadConfig().get("table_layout"));
+        } catch (IOException e) {
+            log.warn("Could not read the table layout, using the legacy layout",e);
+        }
+        return false;
+    }
+
+    private int getDefaultTTL(){
+        try {
+            String ttl = loadConfig().get("ttl_in_hours");
+            if(ttl!=null){
+                return (int)Math.min(Long.parseLong(ttl)*3600,MAX_TTL);
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Could not read the ttl, using "+DEFAULT_TTL_IN_HOURS+" hours",e);
+        }
+        return DEFAULT_TTL_IN_HOURS*3600;
+    }
+
+    /**
+     * @param category - The data category
+     * @return - The TTL in seconds of the new samples of the category
+     */
+    public int getTTL(DataCategory category){
+        Integer ttl = category==null ? null : categoryTTL.get(category);
+        return ttl==null ? defaultTTL : ttl;
+    }
+
+    private int getMaxTTL(DataCategory category){
+        Integer ttl = category==null ? null : maxCategoryTTL.get(category);
+        return ttl==null ? defaultTTL : Math.max(ttl,defaultTTL);
+    }
+
+    /**
+     * Sets the TTL of the new samples of the category from the retention of a purge request.
+     * @param category - The data category
+     * @param retentionTime - The time before which the samples should be purged
+     */
+    public void setRetention(DataCategory category, long retentionTime){
+        final long ttl = Math.min((System.currentTimeMillis()-retentionTime)/1000,MAX_TTL);
+        if(ttl<=0){
+            log.warn("Ignoring the retention time {} of {}, it is in the future",retentionTime,category);
+            return;
+        }
+        final Integer previous = categoryTTL.put(category,(int)ttl);
+        final Integer max = maxCategoryTTL.get(category);
+        if(max==null || max<ttl){
+            maxCategoryTTL.put(category,(int)ttl);
+        }
+        if(previous==null || previous!=ttl){
+            log.info("The TTL of {} was set to {} seconds",category,ttl);
+            storeCategoryTTL(category);
+        }
+    }
+
+    /*
+     * Without the stored TTLs a restart would write the new samples with the default TTL and skip
+     * reading the buckets of the samples that were written with a larger TTL
+     */
+    private void loadCategoryTTL(){
+        if(!bucketed || session==null){
+            return;
+        }
+        try {
+            final ResultSet rs = session.execute("SELECT Category,TTL,MaxTTL FROM "+CATEGORY_TTL_TABLE);
+            if(rs==null){
+                return;
+            }
+            for(Row row:rs.all()){
+                final DataCategory category = DataCategory.valueOf(row.getString("Category"));
+                categoryTTL.put(category,row.getInt("TTL"));
+                maxCategoryTTL.put(category,row.getInt("MaxTTL"));
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to load the TTLs of the data categories, using the default TTL",e);
+        }
+    }
+
+    private void storeCategoryTTL(DataCategory category){
+        if(!bucketed || session==null){
+            return;
+        }
+        try {
+            session.execute("INSERT INTO "+CATEGORY_TTL_TABLE+" (Category,TTL,MaxTTL) VALUES (?,?,?)",
+                    category.name(),categoryTTL.get(category),maxCategoryTTL.get(category));
+        } catch (RuntimeException e) {
+            log.error("Failed to store the TTL of "+category,e);
+        }
+    }
+
+    public boolean isBucketed(){
+        return bucketed;
+    }
+
+    private int getMaxInFlight(){
+        try {
+            String maxInFlight = loadConfig().get("max_in_flight_batches");
+            if(maxInFlight!=null){
+                return Integer.parseInt(maxInFlight);
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Could not read the maximum number of batches in flight, using "+CassandraWriter.DEFAULT_MAX_IN_FLIGHT,e);
+        }
+        return CassandraWriter.DEFAULT_MAX_IN_FLIGHT;
+    }
+
+    /**
+     * @return - The statements the calling thread has not sent yet
+     */
     public BatchStatement getBatch(){
-        return this.batch;
+        return getWriter().getBatch();
+    }
+
+    private CassandraWriter getWriter(){
+        if(writer==null){
+            synchronized (this) {
+                if(writer==null){
+                    //The statements are prepared against the tables, so the writer is created once there is a session
+                    if(session==null){
+                        throw new TSDRPersistenceException("There is no session to Cassandra");
+                    }
+                    writer = new CassandraWriter(session,getMaxInFlight(),bucketed);
+                }
+            }
+        }
+        return writer;
     }
 
     public Session getSession() throws Exception {
@@ -102,13 +281,19 @@ public class CassandraStore {
                 this.isMaster = Boolean.parseBoolean(config.get("master"));
                 this.replication_factor = Integer.parseInt(config.get("replication_factor"));
                 log.info("Trying to work with " + this.host+ ", Which cassandra master is set to=" + this.isMaster);
-                Cluster cluster = Cluster.builder().addContactPoint(host).build();
+                //Send every statement directly to a replica of its partition
+                Cluster cluster = Cluster.builder().addContactPoint(host)
+                        .withLoadBalancingPolicy(new TokenAwarePolicy(new DCAwareRoundRobinPolicy())).build();
 
                 // Try 5 times to connect to cassandra with a 5 seconds delay
                 // between each try
                 for (int index = 0; index < 5; index++) {
                     try {
                         session = cluster.connect("tsdr");
+                        if(this.bucketed && this.isMaster){
+                            //An existing keyspace might not have the bucketed tables yet
+                            createBucketedTables();
+                        }
                         return session;
                     } catch (InvalidQueryException err) {
                         try {
@@ -139,6 +324,10 @@ public class CassandraStore {
     }
 
     public void createTSDRTables(){
+        if(this.bucketed){
+            createBucketedTables();
+            return;
+        }
         String cql = "CREATE TABLE MetricVal ("+
                   "KeyA bigint, "+
                   "KeyB bigint, "+
@@ -156,15 +345,65 @@ public class CassandraStore {
         this.session.execute(cql);
     }
 
+    /**
+     * Creates the bucketed tables if they do not exist, a partition holds a single day of a series.
+     */
+    public void createBucketedTables(){
+        createTimeWindowTable("CREATE TABLE IF NOT EXISTS "+METRIC_BUCKET_TABLE+" ("+
+                "KeyA bigint, "+
+                "KeyB bigint, "+
+                "Bucket int, "+
+                "Time bigint, "+
+                "value double,"+
+                "PRIMARY KEY ((KeyA,KeyB,Bucket),Time))");
+        createTimeWindowTable("CREATE TABLE IF NOT EXISTS "+LOG_BUCKET_TABLE+" ("+
+                "KeyA bigint, "+
+                "KeyB bigint, "+
+                "Bucket int, "+
+                "Time bigint, "+
+                "xIndex int,"+
+                "value text,"+
+                "PRIMARY KEY ((KeyA,KeyB,Bucket),Time,xIndex))");
+        this.session.execute("CREATE TABLE IF NOT EXISTS "+CATEGORY_TTL_TABLE+" ("+
+                "Category text, "+
+                "TTL int, "+
+                "MaxTTL int, "+
+                "PRIMARY KEY (Category))");
+    }
+
+    private void createTimeWindowTable(String cql){
+        try {
+            this.session.execute(cql + " WITH compaction = {'class':'TimeWindowCompactionStrategy',"
+                    + "'compaction_window_unit':'DAYS','compaction_window_size':1}");
+        } catch (QueryValidationException e) {
+            //Time window compaction is not available before cassandra 3.0.8, date tiered compaction is the closest
+            log.warn("Time window compaction is not supported, using date tiered compaction",e);
+            this.session.execute(cql + " WITH compaction = {'class':'DateTieredCompactionStrategy'}");
+        }
+    }
+
+    /**
+     * Starts collecting the statements of the calling thread, the statements are sent
+     * when the thread executes the batch or when there are enough of them.
+     */
     public void startBatch(){
-        this.batch = new BatchStatement();
+        getWriter();
     }
 
+    /**
+     * Sends the statements of the calling thread and waits for them to complete.
+     * @throws TSDRPersistenceException - if any of the statements failed
+     */
     public void executeBatch(){
-        try {
-            this.session.execute(this.batch);
-        }catch(Exception err){
-            log.error("Failed to run batch",err);
+        getWriter().executeBatch();
+    }
+
+    /**
+     * Drops the statements of the calling thread that were not sent, called after the batch is executed or failed.
+     */
+    public void endBatch(){
+        if(writer!=null){
+            writer.endBatch();
         }
     }
 
@@ -178,18 +417,7 @@ public class CassandraStore {
             cacheEntry = cache.addTSDRCacheEntry(tsdrKey);
         }
 
-        RegularStatement st = QueryBuilder.insertInto("tsdr","MetricVal").
-                value("KeyA",cacheEntry.getMd5ID().getMd5Long1()).
-                value("KeyB",cacheEntry.getMd5ID().getMd5Long2()).
-                value("Time",mr.getTimeStamp()).
-                value("value",mr.getMetricValue().doubleValue());
-
-        this.batch.add(st);
-
-        if(this.batch.size()>=MAX_BATCH_SIZE){
-            this.executeBatch();
-            this.startBatch();
-        }
+        getWriter().addMetric(cacheEntry.getMd5ID(),mr.getTimeStamp(),mr.getMetricValue().doubleValue(),getTTL(mr.getTSDRDataCategory()));
     }
 
     public void store(TSDRLogRecord lr){
@@ -201,19 +429,7 @@ public class CassandraStore {
             cacheEntry = cache.addTSDRCacheEntry(tsdrKey);
         }
 
-        RegularStatement st = QueryBuilder.insertInto("tsdr","MetricLog").
-                value("KeyA",cacheEntry.getMd5ID().getMd5Long1()).
-                value("KeyB",cacheEntry.getMd5ID().getMd5Long2()).
-                value("Time",lr.getTimeStamp()).
-                value("xIndex",lr.getIndex()).
-                value("value",lr.getRecordFullText());
-
-        this.batch.add(st);
-
-        if(this.batch.size()>=MAX_BATCH_SIZE){
-            this.executeBatch();
-            this.startBatch();
-        }
+        getWriter().addLog(cacheEntry.getMd5ID(),lr.getTimeStamp(),lr.getIndex(),lr.getRecordFullText(),getTTL(lr.getTSDRDataCategory()));
     }
 
     public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime,int recordLimit) {
@@ -221,11 +437,7 @@ public class CassandraStore {
         //Exact match was found
         if(entry!=null){
             final List<TSDRMetricRecord> result = new LinkedList<TSDRMetricRecord>();
-            String cql = "select * from MetricVal where KeyA=" + entry.getMd5ID().getMd5Long1()
-                    + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>=" + startDateTime
-                    + " and Time<=" + endDateTime + " limit "+recordLimit;
-            ResultSet rs = session.execute(cql);
-            for (Row r : rs.all()) {
+            for (Row r : selectMetrics(entry,startDateTime,endDateTime,recordLimit)) {
                 result.add(getTSDRMetricRecord(r.getLong("Time"), r.getDouble("value"), entry));
             }
             return result;
@@ -233,11 +445,7 @@ public class CassandraStore {
             final TSDRKeyCache.TSDRMetricCollectJob job = new TSDRKeyCache.TSDRMetricCollectJob() {
                 @Override
                 public void collectMetricRecords(TSDRCacheEntry entry, long startDateTime, long endDateTime, int recordLimit, List<TSDRMetricRecord> globalResult) {
-                    String cql = "select * from MetricVal where KeyA=" + entry.getMd5ID().getMd5Long1()
-                            + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>=" + startDateTime
-                            + " and Time<=" + endDateTime + " limit "+(recordLimit-globalResult.size());
-                    ResultSet rs = session.execute(cql);
-                    for (Row r : rs.all()) {
+                    for (Row r : selectMetrics(entry,startDateTime,endDateTime,recordLimit-globalResult.size())) {
                         globalResult.add(getTSDRMetricRecord(r.getLong("Time"), r.getDouble("value"), entry));
                     }
                 }
@@ -251,11 +459,7 @@ public class CassandraStore {
         //Exact match was found
         if(entry!=null){
             final List<TSDRLogRecord> result = new LinkedList<TSDRLogRecord>();
-            String cql = "select * from MetricLog where KeyA=" + entry.getMd5ID().getMd5Long1()
-                    + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>="
-                    + startDateTime + " and Time<=" + endDateTime + " limit "+recordLimit;
-            ResultSet rs = session.execute(cql);
-            for (Row r : rs.all()) {
+            for (Row r : selectLogs(entry,startDateTime,endDateTime,recordLimit)) {
                 result.add(getTSDRLogRecord(r.getLong("Time"), r.getString("value"), r.getInt("xIndex"), entry));
             }
             return result;
@@ -263,11 +467,7 @@ public class CassandraStore {
             TSDRKeyCache.TSDRLogCollectJob job = new TSDRKeyCache.TSDRLogCollectJob() {
                 @Override
                 public void collectLogRecords(TSDRCacheEntry entry, long startDateTime, long endDateTime, int recordLimit, List<TSDRLogRecord> globalResult) {
-                    String cql = "select * from MetricLog where KeyA=" + entry.getMd5ID().getMd5Long1()
-                            + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>="
-                            + startDateTime + " and Time<=" + endDateTime + " limit "+(recordLimit-globalResult.size());
-                    ResultSet rs = session.execute(cql);
-                    for (Row r : rs.all()) {
+                    for (Row r : selectLogs(entry,startDateTime,endDateTime,recordLimit-globalResult.size())) {
                         globalResult.add(getTSDRLogRecord(r.getLong("Time"), r.getString("value"), r.getInt("xIndex"), entry));
                     }
                 }
@@ -276,6 +476,255 @@ public class CassandraStore {
         }
     }
 
+    private List<Row> selectMetrics(TSDRCacheEntry entry, long startDateTime, long endDateTime, int recordLimit){
+        if(bucketed){
+            prepareBucketSelects();
+            return selectBuckets(selectMetricBuckets,entry,startDateTime,endDateTime,recordLimit);
+        }
+        String cql = "select * from MetricVal where KeyA=" + entry.getMd5ID().getMd5Long1()
+                + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>=" + startDateTime
+                + " and Time<=" + endDateTime + " limit "+recordLimit;
+        return session.execute(cql).all();
+    }
+
+    private List<Row> selectLogs(TSDRCacheEntry entry, long startDateTime, long endDateTime, int recordLimit){
+        if(bucketed){
+            prepareBucketSelects();
+            return selectBuckets(selectLogBuckets,entry,startDateTime,endDateTime,recordLimit);
+        }
+        String cql = "select * from MetricLog where KeyA=" + entry.getMd5ID().getMd5Long1()
+                + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>="
+                + startDateTime + " and Time<=" + endDateTime + " limit "+recordLimit;
+        return session.execute(cql).all();
+    }
+
+    private List<Row> selectBuckets(PreparedStatement select, TSDRCacheEntry entry, long startDateTime, long endDateTime, int recordLimit){
+        return CassandraTimeBuckets.read(session,select,entry.getMd5ID(),getBucketsStart(entry,startDateTime),
+                getBucketsEnd(endDateTime),recordLimit);
+    }
+
+    //Nothing older than the TTL of the category exists, so there is no need to read the buckets before it
+    private long getBucketsStart(TSDRCacheEntry entry, long startDateTime){
+        final long oldest = System.currentTimeMillis() - getMaxTTL(entry.getDataCategory())*1000L - CassandraTimeBuckets.BUCKET_SIZE;
+        return Math.max(startDateTime,oldest);
+    }
+
+    private long getBucketsEnd(long endDateTime){
+        return Math.min(endDateTime,System.currentTimeMillis()+CassandraTimeBuckets.BUCKET_SIZE);
+    }
+
+    /**
+     * Returns a page of the metrics of the key in the time range. The metrics are read series by series,
+     * and in the bucketed layout bucket by bucket, each series and bucket from the oldest metric.
+     * @param tsdrMetricKey - The metric key or pseudo key
+     * @param startDateTime - The start of the time range
+     * @param endDateTime - The end of the time range
+     * @param pageSize - The maximum number of metrics in the page
+     * @param continuationToken - The token of the previous page, null for the first page
+     * @return - The page
+     */
+    public TSDRRecordPage<TSDRMetricRecord> getTSDRMetricPage(String tsdrMetricKey, long startDateTime, long endDateTime, int pageSize, String continuationToken){
+        return readPage(getPageEntries(tsdrMetricKey,true),metricPageQuery,startDateTime,endDateTime,pageSize,continuationToken);
+    }
+
+    /**
+     * Returns a page of the logs of the key in the time range, in the same order as the metric pages.
+     * @param tsdrLogKey - The log key or pseudo key
+     * @param startDateTime - The start of the time range
+     * @param endDateTime - The end of the time range
+     * @param pageSize - The maximum number of logs in the page
+     * @param continuationToken - The token of the previous page, null for the first page
+     * @return - The page
+     */
+    public TSDRRecordPage<TSDRLogRecord> getTSDRLogPage(String tsdrLogKey, long startDateTime, long endDateTime, int pageSize, String continuationToken){
+        return readPage(getPageEntries(tsdrLogKey,false),logPageQuery,startDateTime,endDateTime,pageSize,continuationToken);
+    }
+
+    /**
+     * @return - The metric or the log entries that fit the key, ordered by their id so every page sees the same order
+     */
+    private List<TSDRCacheEntry> getPageEntries(String tsdrKey, boolean metrics){
+        TSDRCacheEntry entry = this.cache.getCacheEntry(tsdrKey);
+        Collection<TSDRCacheEntry> entries = entry!=null ? Collections.singletonList(entry) : this.cache.getMatchingCacheEntries(tsdrKey);
+        List<TSDRCacheEntry> result = new ArrayList<>(entries.size());
+        for(TSDRCacheEntry e:entries){
+            //A log key has no metric name
+            if((e.getMetricName()!=null)==metrics){
+                result.add(e);
+            }
+        }
+        Collections.sort(result,new Comparator<TSDRCacheEntry>() {
+            @Override
+            public int compare(TSDRCacheEntry o1, TSDRCacheEntry o2) {
+                return compareSeries(o1.getMd5ID(),o2.getMd5ID().getMd5Long1(),o2.getMd5ID().getMd5Long2());
+            }
+        });
+        return result;
+    }
+
+    private static int compareSeries(MD5ID id, long md5Long1, long md5Long2){
+        if(id.getMd5Long1()!=md5Long1){
+            return id.getMd5Long1()<md5Long1 ? -1 : 1;
+        }
+        if(id.getMd5Long2()!=md5Long2){
+            return id.getMd5Long2()<md5Long2 ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a page, the token is the position of the last record of the page, (KeyA,KeyB,Bucket,Time,xIndex),
+     * and the next page continues right after it with a range query on the clustering columns.
+     * One more record than the page size is read to know if there is a next page.
+     */
+    private <T> TSDRRecordPage<T> readPage(List<TSDRCacheEntry> entries, PageQuery<T> query, long startDateTime, long endDateTime,
+                                           int pageSize, String continuationToken){
+        final long[] position = continuationToken!=null ? TSDRRecordPage.getPosition(continuationToken,5) : null;
+        final List<T> records = new ArrayList<>();
+        long[] last = null;
+        preparePageSelects();
+        for(TSDRCacheEntry entry:entries){
+            final MD5ID id = entry.getMd5ID();
+            final int series = position==null ? 1 : compareSeries(id,position[0],position[1]);
+            if(series<0){
+                continue;
+            }
+            long start = startDateTime;
+            long end = endDateTime;
+            int[] buckets = new int[]{0};
+            if(bucketed){
+                start = getBucketsStart(entry,startDateTime);
+                end = getBucketsEnd(endDateTime);
+                buckets = CassandraTimeBuckets.getBuckets(start,end);
+            }
+            for(int bucket:buckets){
+                long[] after = null;
+                if(series==0){
+                    if(bucket<position[2]){
+                        continue;
+                    }
+                    if(bucket==position[2]){
+                        after = position;
+                    }
+                }
+                for(Row row:query.select(id,bucket,start,end,after,pageSize+1-records.size())){
+                    if(records.size()==pageSize){
+                        return new TSDRRecordPage<>(records,TSDRRecordPage.toToken(last));
+                    }
+                    records.add(query.getRecord(row,entry));
+                    last = new long[]{id.getMd5Long1(),id.getMd5Long2(),bucket,row.getLong("Time"),query.getIndex(row)};
+                }
+            }
+        }
+        return new TSDRRecordPage<>(records,null);
+    }
+
+    private List<Row> executePage(PreparedStatement select, MD5ID id, int bucket, int limit, Object... values){
+        final List<Object> bindValues = new ArrayList<>(values.length+3);
+        bindValues.add(id.getMd5Long1());
+        bindValues.add(id.getMd5Long2());
+        if(bucketed){
+            bindValues.add(bucket);
+        }
+        bindValues.addAll(Arrays.asList(values));
+        bindValues.add(limit);
+        final BoundStatement statement = select.bind(bindValues.toArray());
+        //The rows are streamed from the coordinator in pages of the fetch size
+        statement.setFetchSize(Math.min(limit,MAX_FETCH_SIZE));
+        return session.execute(statement).all();
+    }
+
+    //The select of the rows of a page of a single series and bucket, after a position
+    private abstract static class PageQuery<T> {
+        protected abstract List<Row> select(MD5ID id, int bucket, long startDateTime, long endDateTime, long[] after, int limit);
+        protected abstract T getRecord(Row row, TSDRCacheEntry entry);
+        protected abstract int getIndex(Row row);
+    }
+
+    private final PageQuery<TSDRMetricRecord> metricPageQuery = new PageQuery<TSDRMetricRecord>() {
+        @Override
+        protected List<Row> select(MD5ID id, int bucket, long startDateTime, long endDateTime, long[] after, int limit) {
+            //A series has a single metric per time
+            final long start = after!=null ? Math.max(startDateTime,after[3]+1) : startDateTime;
+            return executePage(bucketed ? selectMetricBuckets : selectMetricPage,id,bucket,limit,start,endDateTime);
+        }
+
+        @Override
+        protected TSDRMetricRecord getRecord(Row row, TSDRCacheEntry entry) {
+            return getTSDRMetricRecord(row.getLong("Time"), row.getDouble("value"), entry);
+        }
+
+        @Override
+        protected int getIndex(Row row) {
+            return 0;
+        }
+    };
+
+    private final PageQuery<TSDRLogRecord> logPageQuery = new PageQuery<TSDRLogRecord>() {
+        @Override
+        protected List<Row> select(MD5ID id, int bucket, long startDateTime, long endDateTime, long[] after, int limit) {
+            final List<Row> rows = new ArrayList<>();
+            long start = startDateTime;
+            if(after!=null){
+                //The rest of the logs of the time of the position, then the logs after it
+                if(after[3]>=startDateTime && after[3]<=endDateTime){
+                    rows.addAll(executePage(bucketed ? selectLogBucketsAt : selectLogPageAt,id,bucket,limit,after[3],(int)after[4]));
+                }
+                start = Math.max(startDateTime,after[3]+1);
+            }
+            if(rows.size()<limit){
+                rows.addAll(executePage(bucketed ? selectLogBuckets : selectLogPage,id,bucket,limit-rows.size(),start,endDateTime));
+            }
+            return rows;
+        }
+
+        @Override
+        protected TSDRLogRecord getRecord(Row row, TSDRCacheEntry entry) {
+            return getTSDRLogRecord(row.getLong("Time"), row.getString("value"), row.getInt("xIndex"), entry);
+        }
+
+        @Override
+        protected int getIndex(Row row) {
+            return row.getInt("xIndex");
+        }
+    };
+
+    private void preparePageSelects(){
+        if(bucketed){
+            prepareBucketSelects();
+        }
+        if(selectLogPageAt==null && selectLogBucketsAt==null){
+            synchronized (this) {
+                if(selectLogPageAt==null && selectLogBucketsAt==null){
+                    if(bucketed){
+                        selectLogBucketsAt = session.prepare("SELECT Time,xIndex,value FROM "+LOG_BUCKET_TABLE
+                                + " WHERE KeyA=? AND KeyB=? AND Bucket=? AND Time=? AND xIndex>? LIMIT ?");
+                    }else{
+                        selectMetricPage = session.prepare("SELECT Time,value FROM MetricVal"
+                                + " WHERE KeyA=? AND KeyB=? AND Time>=? AND Time<=? LIMIT ?");
+                        selectLogPage = session.prepare("SELECT Time,xIndex,value FROM MetricLog"
+                                + " WHERE KeyA=? AND KeyB=? AND Time>=? AND Time<=? LIMIT ?");
+                        selectLogPageAt = session.prepare("SELECT Time,xIndex,value FROM MetricLog"
+                                + " WHERE KeyA=? AND KeyB=? AND Time=? AND xIndex>? LIMIT ?");
+                    }
+                }
+            }
+        }
+    }
+
+    private void prepareBucketSelects(){
+        if(selectLogBuckets==null){
+            synchronized (this) {
+                if(selectLogBuckets==null){
+                    selectMetricBuckets = session.prepare("SELECT Time,value FROM "+METRIC_BUCKET_TABLE
+                            + " WHERE KeyA=? AND KeyB=? AND Bucket=? AND Time>=? AND Time<=? LIMIT ?");
+                    selectLogBuckets = session.prepare("SELECT Time,xIndex,value FROM "+LOG_BUCKET_TABLE
+                            + " WHERE KeyA=? AND KeyB=? AND Bucket=? AND Time>=? AND Time<=? LIMIT ?");
+                }
+            }
+        }
+    }
+
     private static final List<RecordKeys> EMPTY_RECORD_KEYS = new ArrayList<>();
     private static final List<RecordAttributes> EMPTY_RECORD_ATTRIBUTES = new ArrayList<>();
 
@@ -310,6 +759,11 @@ public class CassandraStore {
     }
 
     public void purge(DataCategory category, long retentionTime){
+        if(bucketed){
+            //The samples expire by their TTL, the retention only sets the TTL of the new samples of the category
+            setRetention(category,retentionTime);
+            return;
+        }
         purgeMetrics(category,retentionTime);
         purgeLogs(category,retentionTime);
     }
@@ -322,7 +776,7 @@ public class CassandraStore {
         String cql2 = " and keyB = ";
         String cql3 = " and time < "+retentionTime;
         String dcql3 = " and time =";
-        this.startBatch();
+        BatchStatement batch = new BatchStatement();
         for(TSDRCacheEntry entry:this.cache.getAll()){
             if(entry.getDataCategory()==category){
                 String cql = cql1 + entry.getMd5ID().getMd5Long1()+cql2+entry.getMd5ID().getMd5Long2()+cql3;
@@ -330,16 +784,23 @@ public class CassandraStore {
                 for(Row row:rs.all()){
                     String deleteCql = dcql1+row.getLong("keyA")+cql2+row.getLong("keyB")+dcql3+row.getLong("time");
                     batch.add(new SimpleStatement(deleteCql));
-                    if(this.batch.size()>=MAX_BATCH_SIZE){
-                        this.executeBatch();
-                        this.startBatch();
+                    if(batch.size()>=MAX_BATCH_SIZE){
+                        executePurgeBatch(batch);
+                        batch = new BatchStatement();
                     }
                 }
             }
         }
-        if(this.batch.size()>0) {
-            this.executeBatch();
-            this.startBatch();
+        if(batch.size()>0) {
+            executePurgeBatch(batch);
+        }
+    }
+
+    private void executePurgeBatch(BatchStatement batch){
+        try {
+            this.session.execute(batch);
+        }catch(Exception err){
+            log.error("Failed to run batch",err);
         }
     }
 
@@ -352,7 +813,7 @@ public class CassandraStore {
         String cql3 = " and time < "+retentionTime;
         String dcql3 = " and time = ";
         String dcql4 = " and xIndex = ";
-        this.startBatch();
+        BatchStatement batch = new BatchStatement();
         for(TSDRCacheEntry entry:this.cache.getAll()){
             if(entry.getDataCategory()==category){
                 String cql = cql1 + entry.getMd5ID().getMd5Long1()+cql2+entry.getMd5ID().getMd5Long2()+cql3;
@@ -360,16 +821,15 @@ public class CassandraStore {
                 for(Row row:rs.all()){
                     String deleteCql = dcql1+row.getLong("keyA")+cql2+row.getLong("keyB")+dcql3+row.getLong("time")+dcql4+row.getInt("xIndex");
                     batch.add(new SimpleStatement(deleteCql));
-                    if(this.batch.size()>=MAX_BATCH_SIZE){
-                        this.executeBatch();
-                        this.startBatch();
+                    if(batch.size()>=MAX_BATCH_SIZE){
+                        executePurgeBatch(batch);
+                        batch = new BatchStatement();
                     }
                 }
             }
         }
-        if(this.batch.size()>0) {
-            this.executeBatch();
-            this.startBatch();
+        if(batch.size()>0) {
+            executePurgeBatch(batch);
         }
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import java.util.ArrayList;
+import java.util.List;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+
+/**
+ * The day buckets of the time bucketed tables.
+ *
+ * <p>
+ * In the bucketed layout a partition holds a single day of a series, (KeyA,KeyB,Bucket), so the partitions
+ * stay small and, as the samples are written with a TTL, a whole day expires together and is dropped by the
+ * time window compaction without any delete. A time range of a series is read bucket by bucket,
+ * several buckets in parallel.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class CassandraTimeBuckets {
+
+    public static final long BUCKET_SIZE = 24L * 60 * 60 * 1000;
+    //The number of buckets that are read at the same time
+    public static final int MAX_PARALLEL_READS = 8;
+
+    private CassandraTimeBuckets(){
+    }
+
+    /**
+     * @param time - A time in milliseconds
+     * @return - The day bucket of the time
+     */
+    public static final int getBucket(long time){
+        return (int)Math.floor((double)time/BUCKET_SIZE);
+    }
+
+    /**
+     * @param startTime - The start of the time range
+     * @param endTime - The end of the time range
+     * @return - The buckets of the time range, oldest first
+     */
+    public static final int[] getBuckets(long startTime, long endTime){
+        if(endTime<startTime){
+            return new int[0];
+        }
+        final int first = getBucket(startTime);
+        final int last = getBucket(endTime);
+        final int[] buckets = new int[last-first+1];
+        for(int i=0;i<buckets.length;i++){
+            buckets[i] = first+i;
+        }
+        return buckets;
+    }
+
+    /**
+     * Reads the rows of a series in a time range, the buckets are queried in parallel waves
+     * and the reading stops once there are enough rows.
+     * @param session - The session
+     * @param select - The select statement, bound with KeyA, KeyB, Bucket, start time, end time and limit
+     * @param id - The id of the series
+     * @param startTime - The start of the time range
+     * @param endTime - The end of the time range
+     * @param limit - The maximum number of rows
+     * @return - The rows, oldest first
+     */
+    public static final List<Row> read(Session session, PreparedStatement select, MD5ID id, long startTime, long endTime, int limit){
+        final List<Row> result = new ArrayList<>();
+        final int[] buckets = getBuckets(startTime,endTime);
+        int index = 0;
+        while(index<buckets.length && result.size()<limit){
+            final int waveSize = Math.min(MAX_PARALLEL_READS,buckets.length-index);
+            final List<ResultSetFuture> wave = new ArrayList<>(waveSize);
+            for(int i=0;i<waveSize;i++){
+                wave.add(session.executeAsync(select.bind(id.getMd5Long1(),id.getMd5Long2(),buckets[index+i],
+                        startTime,endTime,limit-result.size())));
+            }
+            index+=waveSize;
+            for(ResultSetFuture future:wave){
+                for(Row row:future.getUninterruptibly().all()){
+                    if(result.size()>=limit){
+                        break;
+                    }
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.cassandra;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the samples to cassandra with prepared statements.
+ *
+ * <p>
+ * Every thread collects its statements in its own batch builder, grouped by the partition they belong to,
+ * (KeyA,KeyB) or (KeyA,KeyB,Bucket) in the time bucketed layout. The statements of a partition are sent as a single unlogged batch, so each batch is
+ * handled by one replica set and no batch log is written. The batches are executed asynchronously,
+ * the number of batches in flight across all the threads is bounded by a semaphore. A thread that
+ * executes its batch waits only for its own batches to complete, so the writing threads do not
+ * serialize on each other.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class CassandraWriter {
+    private static final Logger log = LoggerFactory.getLogger(CassandraWriter.class);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    //The number of statements a thread collects before it sends them
+    private static final int MAX_BATCH_SIZE = 500;
+    //The number of statements in a single partition batch, keeps the batches below the batch size warning threshold
+    private static final int MAX_PARTITION_BATCH_SIZE = 100;
+
+    private static final String INSERT_METRIC = "INSERT INTO tsdr.MetricVal (KeyA,KeyB,Time,value) VALUES (?,?,?,?)";
+    private static final String INSERT_LOG = "INSERT INTO tsdr.MetricLog (KeyA,KeyB,Time,xIndex,value) VALUES (?,?,?,?,?)";
+    private static final String INSERT_METRIC_BUCKET = "INSERT INTO tsdr."+CassandraStore.METRIC_BUCKET_TABLE
+            + " (KeyA,KeyB,Bucket,Time,value) VALUES (?,?,?,?,?) USING TTL ?";
+    private static final String INSERT_LOG_BUCKET = "INSERT INTO tsdr."+CassandraStore.LOG_BUCKET_TABLE
+            + " (KeyA,KeyB,Bucket,Time,xIndex,value) VALUES (?,?,?,?,?,?) USING TTL ?";
+
+    private final Session session;
+    private final boolean bucketed;
+    private final Semaphore inFlight;
+    private final PreparedStatement insertMetric;
+    private final PreparedStatement insertLog;
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final ThreadLocal<BatchBuilder> batchBuilder = new ThreadLocal<BatchBuilder>() {
+        @Override
+        protected BatchBuilder initialValue() {
+            return new BatchBuilder();
+        }
+    };
+
+    /**
+     * @param session - The session, the tables need to exist as the statements are prepared here
+     * @param maxInFlight - The maximum number of batches that are executed at the same time
+     * @param bucketed - Write to the time bucketed tables
+     */
+    public CassandraWriter(Session session, int maxInFlight, boolean bucketed){
+        this.session = session;
+        this.bucketed = bucketed;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.insertMetric = session.prepare(bucketed ? INSERT_METRIC_BUCKET : INSERT_METRIC);
+        this.insertLog = session.prepare(bucketed ? INSERT_LOG_BUCKET : INSERT_LOG);
+    }
+
+    /**
+     * Add a metric sample to the batch of the calling thread.
+     * @param id - The id of the series
+     * @param time - The time of the sample
+     * @param value - The value of the sample
+     * @param ttl - The time to live in seconds of the sample, only used by the bucketed tables
+     */
+    public void addMetric(MD5ID id, Long time, double value, int ttl){
+        if(bucketed){
+            final int bucket = CassandraTimeBuckets.getBucket(time);
+            add(new Partition(id,bucket),insertMetric.bind(id.getMd5Long1(),id.getMd5Long2(),bucket,time,value,ttl));
+        }else{
+            add(new Partition(id,0),insertMetric.bind(id.getMd5Long1(),id.getMd5Long2(),time,value));
+        }
+    }
+
+    /**
+     * Add a log to the batch of the calling thread.
+     * @param id - The id of the log key
+     * @param time - The time of the log
+     * @param index - The index of the log
+     * @param text - The text of the log
+     * @param ttl - The time to live in seconds of the log, only used by the bucketed tables
+     */
+    public void addLog(MD5ID id, Long time, Integer index, String text, int ttl){
+        if(bucketed){
+            final int bucket = CassandraTimeBuckets.getBucket(time);
+            add(new Partition(id,bucket),insertLog.bind(id.getMd5Long1(),id.getMd5Long2(),bucket,time,index,text,ttl));
+        }else{
+            add(new Partition(id,0),insertLog.bind(id.getMd5Long1(),id.getMd5Long2(),time,index,text));
+        }
+    }
+
+    private void add(Partition partition, Statement statement){
+        final BatchBuilder builder = batchBuilder.get();
+        final int partitionSize = builder.add(partition,statement);
+        if(partitionSize>=MAX_PARTITION_BATCH_SIZE){
+            send(builder,builder.remove(partition));
+        }
+        if(builder.size>=MAX_BATCH_SIZE){
+            sendAll(builder);
+        }
+    }
+
+    /**
+     * Send the batch of the calling thread and wait for all the batches the thread has sent to complete.
+     * @throws TSDRPersistenceException - if any of the batches the thread has sent since the last call failed
+     */
+    public void executeBatch(){
+        final BatchBuilder builder = batchBuilder.get();
+        sendAll(builder);
+        while(!builder.pending.isEmpty()){
+            waitFor(builder,builder.pending.poll());
+        }
+        if(builder.failed>0){
+            final int failed = builder.failed;
+            builder.failed = 0;
+            throw new TSDRPersistenceException(failed+" cassandra batches failed");
+        }
+    }
+
+    /**
+     * Drops the statements the calling thread did not send and waits for the batches it sent, so the
+     * statements of a failed batch are not sent with the next batch of the thread.
+     */
+    public void endBatch(){
+        final BatchBuilder builder = batchBuilder.get();
+        builder.partitions.clear();
+        builder.size = 0;
+        while(!builder.pending.isEmpty()){
+            waitFor(builder,builder.pending.poll());
+        }
+        builder.failed = 0;
+    }
+
+    /**
+     * @return - The statements that the calling thread did not send yet, as a single batch
+     */
+    public BatchStatement getBatch(){
+        final BatchStatement result = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        for(List<Statement> statements:batchBuilder.get().partitions.values()){
+            result.addAll(statements);
+        }
+        return result;
+    }
+
+    /**
+     * @return - The number of batches that failed
+     */
+    public long getFailedBatches(){
+        return failedBatches.get();
+    }
+
+    private void sendAll(BatchBuilder builder){
+        for(Iterator<List<Statement>> iter = builder.partitions.values().iterator();iter.hasNext();){
+            List<Statement> statements = iter.next();
+            iter.remove();
+            builder.size-=statements.size();
+            send(builder,statements);
+        }
+    }
+
+    private void send(BatchBuilder builder, List<Statement> statements){
+        Statement statement = null;
+        if(statements.size()==1){
+            statement = statements.get(0);
+        }else{
+            BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+            batch.addAll(statements);
+            statement = batch;
+        }
+        //When there are no free permits, complete the batches of this thread first
+        while(!inFlight.tryAcquire()){
+            if(builder.pending.isEmpty()){
+                inFlight.acquireUninterruptibly();
+                break;
+            }
+            waitFor(builder,builder.pending.poll());
+        }
+        try {
+            builder.pending.add(session.executeAsync(statement));
+        } catch (RuntimeException e) {
+            inFlight.release();
+            failedBatches.incrementAndGet();
+            builder.failed++;
+            log.error("Failed to run batch",e);
+        }
+    }
+
+    private void waitFor(BatchBuilder builder, ResultSetFuture future){
+        try {
+            if(future!=null) {
+                future.getUninterruptibly();
+            }
+        } catch (RuntimeException e) {
+            failedBatches.incrementAndGet();
+            builder.failed++;
+            log.error("Failed to run batch",e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    //The partition of a statement, the bucket is 0 in the legacy layout
+    private static final class Partition {
+        private final MD5ID id;
+        private final int bucket;
+
+        private Partition(MD5ID id, int bucket){
+            this.id = id;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode()*31+bucket;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Partition)){
+                return false;
+            }
+            Partition other = (Partition)obj;
+            return bucket==other.bucket && id.equals(other.id);
+        }
+    }
+
+    //The statements of a single thread grouped by partition, and the batches it sent
+    private static final class BatchBuilder {
+        private final Map<Partition,List<Statement>> partitions = new LinkedHashMap<>();
+        private final ArrayDeque<ResultSetFuture> pending = new ArrayDeque<>();
+        private int size = 0;
+        //The number of batches that failed since the last executeBatch
+        private int failed = 0;
+
+        private int add(Partition partition, Statement statement){
+            List<Statement> statements = partitions.get(partition);
+            if(statements==null){
+                statements = new ArrayList<>();
+                partitions.put(partition,statements);
+            }
+            statements.add(statement);
+            size++;
+            return statements.size();
+        }
+
+        private List<Statement> remove(Partition partition){
+            List<Statement> statements = partitions.remove(partition);
+            size-=statements.size();
+            return statements;
+        }
+    }
+}
@@ -7,10 +7,13 @@
  */
 package org.opendaylight.tsdr.persistence.cassandra;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
-import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.persistence.TsdrPagingPersistenceService;
 import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
@@ -22,39 +25,46 @@ import org.slf4j.LoggerFactory;
 /**
  * @author Sharon Aicler(saichler@gmail.com)
  **/
-public class TSDRCassandraPersistenceServiceImpl implements TsdrPersistenceService{
+public class TSDRCassandraPersistenceServiceImpl implements TsdrPagingPersistenceService{
     private static final Logger LOGGER = LoggerFactory.getLogger(TSDRCassandraPersistenceServiceImpl.class);
     private CassandraStore store = null;
 
     public TSDRCassandraPersistenceServiceImpl(){
-        TsdrPersistenceServiceUtil.setTsdrPersistenceService(this);
+        TsdrPersistenceServiceUtil.addTsdrPersistenceService("cassandra",this);
         System.out.println("Cassandra Store was initialized...");
     }
 
     @Override
     public void store(TSDRMetricRecord metricRecord) {
-        store.startBatch();
-        store.store(metricRecord);
-        store.executeBatch();
+        store(Collections.<TSDRRecord>singletonList(metricRecord));
     }
 
     @Override
     public void store(TSDRLogRecord logRecord) {
-        store.store(logRecord);
+        store(Collections.<TSDRRecord>singletonList(logRecord));
     }
 
     @Override
     public void store(List<TSDRRecord> metricRecordList) {
-        store.startBatch();
-        for(TSDRRecord record:metricRecordList){
-           if(record instanceof TSDRMetricRecord){
-               store.store((TSDRMetricRecord)record);
-           }else
-           if(record instanceof TSDRLogRecord){
-               store.store((TSDRLogRecord)record);
-           }
+        try {
+            store.startBatch();
+            for(TSDRRecord record:metricRecordList){
+               if(record instanceof TSDRMetricRecord){
+                   store.store((TSDRMetricRecord)record);
+               }else
+               if(record instanceof TSDRLogRecord){
+                   store.store((TSDRLogRecord)record);
+               }
+            }
+            store.executeBatch();
+        }catch(TSDRPersistenceException e){
+            throw e;
+        }catch(RuntimeException e){
+            throw new TSDRPersistenceException("Failed to store records to cassandra",e);
+        }finally{
+            //The statements of a failed batch are not left to the next batch of the thread
+            store.endBatch();
         }
-        store.executeBatch();
     }
 
     @Override
@@ -93,4 +103,14 @@ public class TSDRCassandraPersistenceServiceImpl implements TsdrPersistenceServi
     public List<TSDRLogRecord> getTSDRLogRecords(String tsdrMetricKey, long startTime, long endTime) {
         return store.getTSDRLogRecords(tsdrMetricKey,startTime,endTime,TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND);
     }
+
+    @Override
+    public TSDRRecordPage<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime, int pageSize, String continuationToken) {
+        return store.getTSDRMetricPage(tsdrMetricKey,startDateTime,endDateTime,TSDRRecordPage.getPageSize(pageSize),continuationToken);
+    }
+
+    @Override
+    public TSDRRecordPage<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startDateTime, long endDateTime, int pageSize, String continuationToken) {
+        return store.getTSDRLogPage(tsdrLogKey,startDateTime,endDateTime,TSDRRecordPage.getPageSize(pageSize),continuationToken);
+    }
 }
@@ -7,10 +7,14 @@
  */
 package org.opendaylight.tsdr.persistence.cassandra;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
 
 import java.io.File;
 import java.math.BigDecimal;
@@ -22,6 +26,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
@@ -42,6 +47,9 @@ public class CassandraStoreTest {
     private ResultSet resultSet = Mockito.mock(ResultSet.class);
     private Row row = Mockito.mock(Row.class);
     private List<Row> rows = new ArrayList<>();
+    private PreparedStatement preparedStatement = Mockito.mock(PreparedStatement.class);
+    private BoundStatement boundStatement = Mockito.mock(BoundStatement.class);
+    private ResultSetFuture resultSetFuture = Mockito.mock(ResultSetFuture.class);
 
     @Before
     public void before(){
@@ -51,6 +59,9 @@ public class CassandraStoreTest {
         Mockito.when(row.getString("KeyPath")).thenReturn(FormatUtil.getTSDRMetricKey(createMetricRecord()));
         Mockito.when(row.getDouble("value")).thenReturn(11d);
         Mockito.when(row.getString("value")).thenReturn(createLogRecord().getRecordFullText());
+        Mockito.when(session.prepare(Mockito.anyString())).thenReturn(preparedStatement);
+        Mockito.when(preparedStatement.bind(Mockito.anyVararg())).thenReturn(boundStatement);
+        Mockito.when(session.executeAsync(Mockito.any(Statement.class))).thenReturn(resultSetFuture);
         store.startBatch();
         if(rows.isEmpty()){
             rows.add(row);
@@ -132,6 +143,20 @@ public class CassandraStoreTest {
         Mockito.verify(session,Mockito.atLeast(1)).close();
     }
 
+    @Test
+    public void testExecuteBatch(){
+        //Two samples of the same series are sent as one batch, the other series is sent on its own
+        TSDRMetricRecord rec = createMetricRecord();
+        store.store(rec);
+        store.store(new TSDRMetricRecordBuilder(rec).setTimeStamp(rec.getTimeStamp()+1).build());
+        store.store(new TSDRMetricRecordBuilder(rec).setMetricName("Other").build());
+        Assert.assertEquals(3,store.getBatch().size());
+        store.executeBatch();
+        Assert.assertEquals(0,store.getBatch().size());
+        Mockito.verify(session,Mockito.times(2)).executeAsync(Mockito.any(Statement.class));
+        Mockito.verify(resultSetFuture,Mockito.times(2)).getUninterruptibly();
+    }
+
     @Test
     public void testGetMetricRecords(){
         TSDRMetricRecord rec = createMetricRecord();
@@ -176,6 +201,24 @@ public class CassandraStoreTest {
         Assert.assertEquals(rec.getRecordFullText(),list.get(0).getRecordFullText());
     }
 
+    @Test
+    public void testGetMetricPage(){
+        TSDRMetricRecord rec = createMetricRecord();
+        String key = FormatUtil.getTSDRMetricKey(rec);
+        store.store(rec);
+        Mockito.when(session.execute(Mockito.any(Statement.class))).thenReturn(resultSet);
+        Mockito.when(row.getLong("Time")).thenReturn(rec.getTimeStamp());
+        TSDRRecordPage<TSDRMetricRecord> page = store.getTSDRMetricPage(key,0L,Long.MAX_VALUE,1,null);
+        Assert.assertEquals(1,page.getRecords().size());
+        Assert.assertNull(page.getContinuationToken());
+        //A second row means there is a next page, it continues after the time of the first one
+        rows.add(row);
+        page = store.getTSDRMetricPage(key,0L,Long.MAX_VALUE,1,null);
+        Assert.assertEquals(1,page.getRecords().size());
+        long[] position = TSDRRecordPage.getPosition(page.getContinuationToken(),5);
+        Assert.assertEquals(rec.getTimeStamp().longValue(),position[3]);
+    }
+
     @Test
     public void testPurge(){
         store.store(createMetricRecord());
@@ -184,6 +227,17 @@ public class CassandraStoreTest {
         Mockito.verify(session,Mockito.atLeast(1)).execute(Mockito.anyString());
     }
 
+    @Test
+    public void testSetRetention(){
+        Assert.assertEquals(CassandraStore.DEFAULT_TTL_IN_HOURS*3600,store.getTTL(DataCategory.EXTERNAL));
+        store.setRetention(DataCategory.EXTERNAL,System.currentTimeMillis()-2*3600*1000L);
+        Assert.assertTrue(Math.abs(store.getTTL(DataCategory.EXTERNAL)-2*3600)<=1);
+        Assert.assertEquals(CassandraStore.DEFAULT_TTL_IN_HOURS*3600,store.getTTL(DataCategory.PORTSTATS));
+        //A retention in the future is ignored
+        store.setRetention(DataCategory.EXTERNAL,System.currentTimeMillis()+3600*1000L);
+        Assert.assertTrue(Math.abs(store.getTTL(DataCategory.EXTERNAL)-2*3600)<=1);
+    }
+
     @Test
     public void testGetSession(){
         CassandraStore s = new CassandraStore();
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.cassandra;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class CassandraTimeBucketsTest {
+
+    @Test
+    public void testGetBucket(){
+        Assert.assertEquals(0,CassandraTimeBuckets.getBucket(0));
+        Assert.assertEquals(0,CassandraTimeBuckets.getBucket(CassandraTimeBuckets.BUCKET_SIZE-1));
+        Assert.assertEquals(1,CassandraTimeBuckets.getBucket(CassandraTimeBuckets.BUCKET_SIZE));
+        Assert.assertEquals(-1,CassandraTimeBuckets.getBucket(-1));
+    }
+
+    @Test
+    public void testGetBuckets(){
+        long day = CassandraTimeBuckets.BUCKET_SIZE;
+        Assert.assertArrayEquals(new int[]{10},CassandraTimeBuckets.getBuckets(10*day,10*day+5));
+        Assert.assertArrayEquals(new int[]{10,11,12},CassandraTimeBuckets.getBuckets(10*day+5,12*day));
+        Assert.assertEquals(0,CassandraTimeBuckets.getBuckets(12*day,10*day).length);
+    }
+}
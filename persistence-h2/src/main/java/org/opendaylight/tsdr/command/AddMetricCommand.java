@@ -10,14 +10,14 @@ package org.opendaylight.tsdr.command;
 import org.apache.karaf.shell.commands.Argument;
 import org.apache.karaf.shell.commands.Command;
 import org.apache.karaf.shell.console.OsgiCommandSupport;
-import org.opendaylight.tsdr.entity.Metric;
-import org.opendaylight.tsdr.service.TsdrJpaService;
-import org.opendaylight.tsdr.service.impl.TsdrH2PersistenceServiceImpl;
 import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import java.math.BigDecimal;
 
 /**
  * This command is useful during debugging to check the
@@ -33,6 +33,8 @@ import java.util.Date;
 public class AddMetricCommand extends OsgiCommandSupport {
     private final Logger
         log = LoggerFactory.getLogger(AddMetricCommand.class);
+    //The node of the metrics added by the command
+    private static final String NODE_ID = "AddMetricCommand";
 
     @Argument(index=0, name="Metric Name", required=true, description="name of the metric", multiValued=false)
     String metricName;
@@ -46,8 +48,13 @@ public class AddMetricCommand extends OsgiCommandSupport {
 
     @Override protected Object doExecute() throws Exception {
         if(persistenceService != null) {
-            Metric metric = new Metric(System.currentTimeMillis(), metricName, metricValue);
-            ((TsdrH2PersistenceServiceImpl)persistenceService).getJpaService().add(metric);
+            TSDRMetricRecord metric = new TSDRMetricRecordBuilder()
+                .setMetricName(metricName)
+                .setMetricValue(new BigDecimal(metricValue))
+                .setNodeID(NODE_ID)
+                .setTSDRDataCategory(DataCategory.EXTERNAL)
+                .setTimeStamp(System.currentTimeMillis()).build();
+            persistenceService.store(metric);
             return null;
         }else{
             log.warn("AddMetricCommand: persistence service is found to be null.");
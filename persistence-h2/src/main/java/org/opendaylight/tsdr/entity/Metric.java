@@ -11,36 +11,40 @@ package org.opendaylight.tsdr.entity;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 /**
  * Represents the Metric table in store's persistent entry
  *
  * Automated id generated will be the primary key of the table
  *
+ * A row holds a single sample of a series, the key, node, name and category
+ * of the series are kept once in the MetricSeries table. The samples are indexed
+ * by series and time so a time range of a series is read without a full scan.
  *
  * @author <a href="mailto:syedbahm@cisco.com">Basheeruddin Ahmed</a>
  *
  */
 
 @Entity
+@Table(indexes = {@Index(name = "metricSeriesTimeIndex", columnList = "seriesId,metricTimeStamp")})
 public class Metric {
     @Id
+    //The generator of the existing tables is kept, so the new ids do not collide with the existing rows
     @GeneratedValue
     private Long id;
+    private Long seriesId;
     private Long metricTimeStamp;
-    private String metricName;
     private Double metricValue;
-    private String metricCategory;
-    private String nodeId;
-    private String metricDetails;
 
     public Metric() {
     }
 
-    public Metric(Long timeStamp, String metricName, double metricValue) {
+    public Metric(Long seriesId, Long timeStamp, double metricValue) {
         super();
+        this.seriesId = seriesId;
         this.metricTimeStamp = timeStamp;
-        this.metricName = metricName;
         this.metricValue = metricValue;
     }
 
@@ -52,20 +56,20 @@ public class Metric {
         this.id = id;
     }
 
-    public Long getMetricTimeStamp() {
-        return metricTimeStamp;
+    public Long getSeriesId() {
+        return seriesId;
     }
 
-    public void setMetricTimeStamp(Long metricTimeStamp) {
-        this.metricTimeStamp = metricTimeStamp;
+    public void setSeriesId(Long seriesId) {
+        this.seriesId = seriesId;
     }
 
-    public String getMetricName() {
-        return metricName;
+    public Long getMetricTimeStamp() {
+        return metricTimeStamp;
     }
 
-    public void setMetricName(String metricName) {
-        this.metricName = metricName;
+    public void setMetricTimeStamp(Long metricTimeStamp) {
+        this.metricTimeStamp = metricTimeStamp;
     }
 
     public Double getMetricValue() {
@@ -75,28 +79,4 @@ public class Metric {
     public void setMetricValue(Double metricValue) {
         this.metricValue = metricValue;
     }
-
-    public String getMetricCategory() {
-        return metricCategory;
-    }
-
-    public void setMetricCategory(String metricCategory) {
-        this.metricCategory = metricCategory;
-    }
-
-    public String getNodeId() {
-        return nodeId;
-    }
-
-    public void setNodeId(String nodeId) {
-        this.nodeId = nodeId;
-    }
-
-    public String getMetricDetails() {
-        return metricDetails;
-    }
-
-    public void setMetricDetails(String metricDetails) {
-        this.metricDetails = metricDetails;
-    }
-}
\ No newline at end of file
+}
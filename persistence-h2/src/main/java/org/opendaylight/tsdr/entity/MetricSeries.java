@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.tsdr.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * Represents the MetricSeries table in store's persistent entry
+ *
+ * A series is a single TSDR metric key, its samples are the rows of
+ * the Metric table that refer to its id.
+ *
+ * @author <a href="mailto:syedbahm@cisco.com">Basheeruddin Ahmed</a>
+ *
+ */
+
+@Entity
+@Table(indexes = {@Index(name = "metricSeriesKeyIndex", columnList = "metricDetails", unique = true),
+                  @Index(name = "metricSeriesCategoryIndex", columnList = "metricCategory")})
+public class MetricSeries {
+    @Id
+    @SequenceGenerator(name = "metricSeriesIdGenerator", sequenceName = "METRIC_SERIES_ID_SEQ", allocationSize = 50)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "metricSeriesIdGenerator")
+    private Long id;
+    @Column(length = 1024)
+    private String metricDetails;
+    private String metricName;
+    private String metricCategory;
+    private String nodeId;
+
+    public MetricSeries() {
+    }
+
+    public MetricSeries(String metricDetails, String nodeId, String metricName, String metricCategory) {
+        super();
+        this.metricDetails = metricDetails;
+        this.nodeId = nodeId;
+        this.metricName = metricName;
+        this.metricCategory = metricCategory;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getMetricDetails() {
+        return metricDetails;
+    }
+
+    public void setMetricDetails(String metricDetails) {
+        this.metricDetails = metricDetails;
+    }
+
+    public String getMetricName() {
+        return metricName;
+    }
+
+    public void setMetricName(String metricName) {
+        this.metricName = metricName;
+    }
+
+    public String getMetricCategory() {
+        return metricCategory;
+    }
+
+    public void setMetricCategory(String metricCategory) {
+        this.metricCategory = metricCategory;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+}
@@ -9,7 +9,6 @@
 package org.opendaylight.tsdr.service;
 
 import java.util.List;
-import org.opendaylight.tsdr.entity.Metric;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
 
@@ -20,10 +19,14 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricr
  */
 public interface TsdrJpaService {
     /**
-     * Adds a metric to store
-     * @param metric
+     * Adds the metrics to store as a single batch
+     * <p>
+     * The samples are inserted with JDBC batches and flushed once
+     * for the whole list
+     * </p>
+     * @param metrics
      */
-    void add(Metric metric);
+    void add(List<TSDRMetricRecord> metrics);
 
     /**
      * Deletes all  metrics in store
@@ -42,7 +45,7 @@ public interface TsdrJpaService {
      * </p>
      * @param maxResults
      */
-    List<Metric> getMetricsFilteredByCategory(String tsdrMetricKey,int maxResults);
+    List<TSDRMetricRecord> getMetricsFilteredByCategory(String tsdrMetricKey,int maxResults);
 
 
     /**
@@ -10,16 +10,14 @@ package org.opendaylight.tsdr.service.impl;
 import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import org.opendaylight.tsdr.entity.Metric;
 import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
-import org.opendaylight.tsdr.spi.util.FormatUtil;
 import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
-import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,7 +40,7 @@ public class TsdrH2PersistenceServiceImpl implements
     private  TsdrJpaServiceImpl jpaService;
 
     public TsdrH2PersistenceServiceImpl(){
-        TsdrPersistenceServiceUtil.setTsdrPersistenceService(this);
+        TsdrPersistenceServiceUtil.addTsdrPersistenceService("h2",this);
         log.info("TSDR H2 Data Store initialized.");
         System.out.println("TSDR H2 Data Store initialized."
             + " Please do not install another TSDR Data Store without uninstalling H2 data store.");
@@ -53,26 +51,33 @@ public class TsdrH2PersistenceServiceImpl implements
      */
     @Override
     public void store(TSDRMetricRecord metrics){
-        Preconditions.checkArgument(metrics != null);
-        DataCategory dc =metrics.getTSDRDataCategory();
-        Preconditions.checkArgument(dc != null);
+        checkMetric(metrics);
         if(jpaService != null) {
-            Metric metric = getEntityFromModel(metrics);
-            jpaService.add(metric);
+            jpaService.add(Collections.singletonList(metrics));
         }else{
             log.error(metrics.getMetricName() + " could not be saved as the JPA Service is null.");
         }
      }
 
     /**
-     * Store a list of TSDRMetrics.
+     * Store a list of TSDRMetrics, the list is written as a single batch.
     */
     @Override
     public void store(List<TSDRRecord> metricList){
         Preconditions.checkArgument(metricList != null);
         if ( metricList != null && metricList.size() != 0){
-            for(TSDRRecord metric: metricList){
-                store((TSDRMetricRecord)metric);
+            List<TSDRMetricRecord> metrics = new ArrayList<>(metricList.size());
+            for(TSDRRecord record: metricList){
+                if(record instanceof TSDRMetricRecord){
+                    TSDRMetricRecord metric = (TSDRMetricRecord)record;
+                    checkMetric(metric);
+                    metrics.add(metric);
+                }
+            }
+            if(jpaService != null) {
+                jpaService.add(metrics);
+            }else{
+                log.error(metrics.size() + " metrics could not be saved as the JPA Service is null.");
             }
         }
     }
@@ -115,76 +120,18 @@ public class TsdrH2PersistenceServiceImpl implements
         }
     }
     /**
-     * Get persistence entry from TSDRMetric object.
-     *
-     * @param data
-     * @return <code>Metric</code> persitence entity populated
-     * @throws IllegalArgumentException if any of preconditions fails
-     */
-    public Metric getEntityFromModel(TSDRMetricRecord data){
-        Preconditions.checkArgument(data != null,"getEntityFromModel found metric data = null");
-        Preconditions.checkArgument(data.getNodeID() != null,"getEntityFromModel found metric data nodeId = null" );
-        Preconditions.checkArgument(data.getMetricName() != null,"getEntityFromModel found metric name = null" );
-        Preconditions.checkArgument(data.getMetricValue() != null,"getEntityFromModel found metric value = null");
-        Preconditions.checkArgument(data.getTSDRDataCategory()!=null,"getEntityFromModel found timestamp of metric = null");
-
-        Metric metric = new Metric();
-
-
-        metric.setNodeId(data.getNodeID());
-        metric.setMetricName(data.getMetricName());
-        metric.setMetricValue(data.getMetricValue().doubleValue());
-        metric.setMetricCategory(data.getTSDRDataCategory().name());
-        metric.setMetricTimeStamp(data.getTimeStamp());
-        //String detail = FormatUtil.convertToMetricDetailsJSON(FormatUtil.getMetricsDetails(data), data.getTSDRDataCategory().name());
-        String detail = FormatUtil.getTSDRMetricKey(data);
-        if(null != detail && !detail.isEmpty()) {
-            metric.setMetricDetails(detail);
-        }
-
-        return metric;
-    }
-
-
-    /**
-     * Get persistence entry from TSDRMetric object.
+     * Validates the metric before it is stored.
      *
      * @param data
-     * @return <code>Metric</code> persitence entity populated
      * @throws IllegalArgumentException if any of preconditions fails
      */
-    public Metric getEntityFromModel(TSDRLogRecord data){
-        Preconditions.checkArgument(data != null, "getEntityFromModel found metric data = null");
-        Preconditions.checkArgument(data.getNodeID() != null, "getEntityFromModel found metric data nodeId = null");
-        Preconditions.checkArgument(data.getTSDRDataCategory() != null,
-            "getEntityFromModel found timestamp of metric = null");
-
-        Metric metric = new Metric();
-
-        metric.setNodeId(data.getNodeID());
-        StringBuffer metricName = new StringBuffer();
-        for(RecordAttributes recordAttributes:data.getRecordAttributes()){
-            metricName.append(recordAttributes.getName())
-                .append("_")
-                .append(recordAttributes.getValue());
-        }
-
-        if(!metricName.toString().isEmpty()){
-            metric.setMetricName(metricName.toString());
-        }else{
-            metric.setMetricName(data.getTSDRDataCategory().name());
-        }
-
-        metric.setMetricValue(0D);//TODO WHAT SHOULD BE VALUE.
-        metric.setMetricCategory(data.getTSDRDataCategory().name());
-        metric.setMetricTimeStamp(data.getTimeStamp().longValue());
-        //String detail = FormatUtil.convertToMetricDetailsJSON(FormatUtil.getMetricsDetails(data), data.getTSDRDataCategory().name());
-        String detail = data.getRecordFullText();
-        if(null != detail && !detail.isEmpty()) {
-            metric.setMetricDetails(detail);
-        }
-
-        return metric;
+    private static void checkMetric(TSDRMetricRecord data){
+        Preconditions.checkArgument(data != null,"checkMetric found metric data = null");
+        Preconditions.checkArgument(data.getNodeID() != null,"checkMetric found metric data nodeId = null" );
+        Preconditions.checkArgument(data.getMetricName() != null,"checkMetric found metric name = null" );
+        Preconditions.checkArgument(data.getMetricValue() != null,"checkMetric found metric value = null");
+        Preconditions.checkArgument(data.getTSDRDataCategory()!=null,"checkMetric found data category of metric = null");
+        Preconditions.checkArgument(data.getTimeStamp()!=null,"checkMetric found timestamp of metric = null");
     }
 
     public  TsdrJpaServiceImpl getJpaService() {
@@ -12,13 +12,20 @@ import com.google.common.base.Preconditions;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
+import javax.persistence.FlushModeType;
+import javax.persistence.TypedQuery;
 import org.opendaylight.tsdr.entity.Metric;
+import org.opendaylight.tsdr.entity.MetricSeries;
 import org.opendaylight.tsdr.service.TsdrJpaService;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
@@ -34,6 +41,14 @@ import org.slf4j.LoggerFactory;
  * using blueprint framework - the definition of which
  * can be found in resources/blueprint.xml
  *
+ * The metric keys are kept once in the MetricSeries table and every sample
+ * is a (seriesId, timestamp, value) row of the Metric table. The ids of the known
+ * series are cached so storing a sample does not query the series table.
+ *
+ * Rows written before the MetricSeries table existed keep the key, node, name
+ * and category in the Metric row itself and have no series id, they are moved
+ * to the series of their key before the first write.
+ *
  * @author <a href="mailto:syedbahm@cisco.com">Basheeruddin Ahmed</a>
  */
 
@@ -42,26 +57,115 @@ public class TsdrJpaServiceImpl implements TsdrJpaService {
     private EntityManager em;
     private static final Logger
         log = LoggerFactory.getLogger(TsdrJpaServiceImpl.class);
+    //The number of series ids in a single IN query
+    private static final int MAX_SERIES_PER_QUERY = 500;
+    //The number of new samples after which the persistence context is flushed and cleared
+    private static final int MAX_UNFLUSHED_METRICS = 10000;
 
+    private final Map<String,Long> seriesIds = new ConcurrentHashMap<>();
+    private volatile boolean legacyMetricsMigrated = false;
 
-    @Override public void add(Metric metric) {
+    @Override public void add(List<TSDRMetricRecord> metrics) {
         Preconditions.checkArgument(em != null, "EntityManager found to be null");
-        Preconditions.checkArgument(metric != null,"add metric called with null metric");
+        Preconditions.checkArgument(metrics != null,"add metrics called with null metrics");
         try {
-            em.persist(metric);
+            migrateLegacyMetrics();
+            int unflushed = 0;
+            for(TSDRMetricRecord metric:metrics){
+                em.persist(new Metric(getSeriesId(metric),metric.getTimeStamp(),metric.getMetricValue().doubleValue()));
+                unflushed++;
+                if(unflushed>=MAX_UNFLUSHED_METRICS){
+                    em.flush();
+                    em.clear();
+                    unflushed = 0;
+                }
+            }
             em.flush();
-
+            em.clear();
         }catch(Exception e){
-            log.error("TsdrJpaServiceImpl:add", e);
+            //The new series and the migration may not be committed
+            seriesIds.clear();
+            legacyMetricsMigrated = false;
+            throw new TSDRPersistenceException("Failed to store "+metrics.size()+" metrics in H2",e);
         }
     }
 
+    /**
+     * Moves the rows of the old schema, that have no series id, to the series of their key.
+     * The old columns are left by the schema update, rows that have no valid key can not be
+     * read back and are deleted.
+     */
+    private void migrateLegacyMetrics(){
+        if(legacyMetricsMigrated){
+            return;
+        }
+        Number legacyColumns = (Number)em.createNativeQuery("select count(*) from INFORMATION_SCHEMA.COLUMNS"
+                + " where TABLE_NAME = 'METRIC' and COLUMN_NAME = 'METRICDETAILS'").getSingleResult();
+        if(legacyColumns.intValue()>0){
+            @SuppressWarnings("unchecked")
+            List<Object[]> legacySeries = em.createNativeQuery("select distinct metricDetails, nodeId, metricName, metricCategory"
+                    + " from Metric where seriesId is null and metricDetails is not null").getResultList();
+            int migrated = 0;
+            for(Object[] series:legacySeries){
+                String tsdrMetricKey = (String)series[0];
+                if(!FormatUtil.isValidTSDRKey(tsdrMetricKey) || series[3]==null
+                        || !FormatUtil.isDataCategory((String)series[3])){
+                    continue;
+                }
+                Long seriesId = getSeriesId(tsdrMetricKey,(String)series[1],(String)series[2],(String)series[3]);
+                migrated += em.createNativeQuery("update Metric set seriesId = ? where seriesId is null and metricDetails = ?")
+                        .setParameter(1,seriesId)
+                        .setParameter(2,tsdrMetricKey)
+                        .executeUpdate();
+            }
+            int deleted = em.createNativeQuery("delete from Metric where seriesId is null").executeUpdate();
+            if(migrated>0 || deleted>0){
+                log.info("Migrated {} metrics of the old schema to the series table, deleted {} metrics without a valid key",migrated,deleted);
+            }
+        }
+        legacyMetricsMigrated = true;
+    }
+
+    /**
+     * Returns the id of the series of the metric, the series is added
+     * if it does not exist yet.
+     * @param metric - The metric
+     * @return - The id of the series
+     */
+    private Long getSeriesId(TSDRMetricRecord metric){
+        return getSeriesId(FormatUtil.getTSDRMetricKey(metric),metric.getNodeID(),metric.getMetricName(),
+                metric.getTSDRDataCategory().name());
+    }
+
+    private Long getSeriesId(String tsdrMetricKey, String nodeId, String metricName, String metricCategory){
+        Long seriesId = seriesIds.get(tsdrMetricKey);
+        if(seriesId != null){
+            return seriesId;
+        }
+        //A new series of this batch is already cached, so there is no need to flush the batch before the query
+        List<Long> ids = em.createQuery("select s.id from MetricSeries s where s.metricDetails = :key",Long.class)
+                .setParameter("key",tsdrMetricKey)
+                .setFlushMode(FlushModeType.COMMIT)
+                .getResultList();
+        if(!ids.isEmpty()){
+            seriesId = ids.get(0);
+        }else{
+            MetricSeries series = new MetricSeries(tsdrMetricKey,nodeId,metricName,metricCategory);
+            em.persist(series);
+            seriesId = series.getId();
+        }
+        seriesIds.put(tsdrMetricKey,seriesId);
+        return seriesId;
+    }
+
     @Override public void deleteAll() {
         Preconditions.checkArgument(em != null, "EntityManager found to be null");
         try {
 
             em.createQuery("delete from Metric").executeUpdate();
+            em.createQuery("delete from MetricSeries").executeUpdate();
             em.flush();
+            seriesIds.clear();
 
         }catch(Exception e){
             log.error("TsdrJpaServiceImpl:delete", e);
@@ -69,21 +173,16 @@ public class TsdrJpaServiceImpl implements TsdrJpaService {
     }
 
     @Override
-    public List<Metric> getMetricsFilteredByCategory(String category,int maxResults) {
+    public List<TSDRMetricRecord> getMetricsFilteredByCategory(String category,int maxResults) {
         Preconditions.checkArgument(em != null, "EntityManager found to be null");
         //default to 1000 results
         if(maxResults <=0){
             maxResults = TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND;
         }
-        StringBuffer sb = new StringBuffer();
-        sb.append("select * from Metric where metriccategory = '")
-                .append(category.toUpperCase())
-                .append("' order by metrictimestamp desc LIMIT " + maxResults);
-        log.info("getMetricsFilteredByCategory: query being sent is "+ sb.toString());
-        Query nativeQuery = em.createNativeQuery(sb.toString(),Metric.class);
-        return nativeQuery.getResultList();
-
-
+        List<MetricSeries> series = em.createQuery("select s from MetricSeries s where s.metricCategory = :category",MetricSeries.class)
+                .setParameter("category",category.toUpperCase())
+                .getResultList();
+        return getMetrics(series,0,Long.MAX_VALUE,maxResults,true);
     }
 
     @Override
@@ -92,68 +191,92 @@ public class TsdrJpaServiceImpl implements TsdrJpaService {
         log.info("getMetricsFilteredByCateory:called with category={},startDateTime={},endDateTime ={}",
                 tsdrMetricKey, startDateTime, endDateTime);
 
-        List<TSDRMetricRecord> results = new ArrayList<>();
-
         if(!FormatUtil.isDataCategory(tsdrMetricKey)){
 
             if(!FormatUtil.isValidTSDRKey(tsdrMetricKey)){
                 log.error("TSDR Metric Key {} is not in the correct format",tsdrMetricKey);
-                return results;
+                return new ArrayList<>();
             }
 
             String dataCategory = FormatUtil.getDataCategoryFromTSDRKey(tsdrMetricKey);
 
             if(!FormatUtil.isDataCategory(dataCategory)){
                 log.error("Data Category is unknown {}",dataCategory);
-                return results;
+                return new ArrayList<>();
             }
 
-            StringBuffer sb = new StringBuffer();
-            sb.append("select * from Metric where metrictimestamp ")
-              .append("between '")
-              .append(startDateTime)
-              .append("' and '")
-              .append(endDateTime)
-              .append("' and metricdetails = '")
-              .append(tsdrMetricKey)
-              .append("'")
-              .append(" order by metrictimestamp");
-            log.info("getMetricsFilteredByCategory with start date and end date: query being sent is "+ sb.toString());
-            Query nativeQuery = em.createNativeQuery(sb.toString(),Metric.class);
-            List<Metric> metrics = nativeQuery.getResultList();
-            for(Metric m:metrics){
-                results.add(getTSDRMetricRecord(m));
-            }
-            return results;
+            List<MetricSeries> series = em.createQuery("select s from MetricSeries s where s.metricDetails = :key",MetricSeries.class)
+                    .setParameter("key",tsdrMetricKey)
+                    .getResultList();
+            return getMetrics(series,startDateTime,endDateTime,Integer.MAX_VALUE,false);
         }else{
-            StringBuffer sb = new StringBuffer();
-            sb.append("select * from Metric where metrictimestamp ")
-              .append("between '")
-              .append(startDateTime)
-              .append("' and '")
-              .append(endDateTime)
-              .append("' and metriccategory = '")
-              .append(tsdrMetricKey.toUpperCase())
-              .append("'")
-              .append(" order by metrictimestamp desc");
-            log.info("getMetricsFilteredByCategory with start date and end date: query being sent is "+ sb.toString());
-            Query nativeQuery = em.createNativeQuery(sb.toString(),Metric.class);
-            List<Metric> metrics = nativeQuery.getResultList();
-            for(Metric m:metrics){
-                results.add(getTSDRMetricRecord(m));
+            List<MetricSeries> series = em.createQuery("select s from MetricSeries s where s.metricCategory = :category",MetricSeries.class)
+                    .setParameter("category",tsdrMetricKey.toUpperCase())
+                    .getResultList();
+            return getMetrics(series,startDateTime,endDateTime,Integer.MAX_VALUE,true);
+        }
+    }
+
+    /**
+     * Reads the samples of the series in the time range, the series are queried in chunks
+     * using the (seriesId, metricTimeStamp) index.
+     * @param series - The series
+     * @param startDateTime - The start of the time range
+     * @param endDateTime - The end of the time range
+     * @param maxResults - The maximum number of metrics
+     * @param newestFirst - true to return the newest metrics first
+     * @return - The metrics ordered by time
+     */
+    private List<TSDRMetricRecord> getMetrics(List<MetricSeries> series, long startDateTime, long endDateTime,
+                                              int maxResults, boolean newestFirst){
+        List<Metric> metrics = new ArrayList<>();
+        Map<Long,MetricSeries> seriesById = new HashMap<>();
+        for(MetricSeries s:series){
+            seriesById.put(s.getId(),s);
+        }
+        List<Long> ids = new ArrayList<>(seriesById.keySet());
+        String order = newestFirst ? " desc" : "";
+        for(int i=0;i<ids.size();i+=MAX_SERIES_PER_QUERY){
+            TypedQuery<Metric> query = em.createQuery("select m from Metric m where m.seriesId in :ids"
+                    + " and m.metricTimeStamp between :start and :end order by m.metricTimeStamp"+order,Metric.class)
+                    .setParameter("ids",ids.subList(i,Math.min(i+MAX_SERIES_PER_QUERY,ids.size())))
+                    .setParameter("start",startDateTime)
+                    .setParameter("end",endDateTime);
+            if(maxResults!=Integer.MAX_VALUE){
+                query.setMaxResults(maxResults);
+            }
+            metrics.addAll(query.getResultList());
+        }
+        if(ids.size()>MAX_SERIES_PER_QUERY){
+            Collections.sort(metrics,newestFirst ? NEWEST_FIRST : OLDEST_FIRST);
+        }
+        List<TSDRMetricRecord> results = new ArrayList<>();
+        for(Metric m:metrics){
+            if(results.size()>=maxResults){
+                break;
             }
-            return results;
+            results.add(getTSDRMetricRecord(seriesById.get(m.getSeriesId()),m));
         }
+        return results;
     }
 
-    private static final TSDRMetricRecord getTSDRMetricRecord(Metric entry){
+    private static final Comparator<Metric> OLDEST_FIRST = new Comparator<Metric>() {
+        @Override
+        public int compare(Metric o1, Metric o2) {
+            return o1.getMetricTimeStamp().compareTo(o2.getMetricTimeStamp());
+        }
+    };
+
+    private static final Comparator<Metric> NEWEST_FIRST = Collections.reverseOrder(OLDEST_FIRST);
+
+    private static final TSDRMetricRecord getTSDRMetricRecord(MetricSeries series, Metric entry){
         TSDRMetricRecordBuilder rb = new TSDRMetricRecordBuilder();
-        rb.setMetricName(entry.getMetricName());
+        rb.setMetricName(series.getMetricName());
         rb.setMetricValue(new BigDecimal(entry.getMetricValue()));
-        rb.setNodeID(entry.getNodeId());
-        rb.setRecordKeys(FormatUtil.getRecordKeysFromTSDRKey(entry.getMetricDetails()));
+        rb.setNodeID(series.getNodeId());
+        rb.setRecordKeys(FormatUtil.getRecordKeysFromTSDRKey(series.getMetricDetails()));
         rb.setTimeStamp(entry.getMetricTimeStamp());
-        rb.setTSDRDataCategory(DataCategory.valueOf(entry.getMetricCategory()));
+        rb.setTSDRDataCategory(DataCategory.valueOf(series.getMetricCategory()));
         return rb.build();
     }
 
@@ -169,18 +292,13 @@ public class TsdrJpaServiceImpl implements TsdrJpaService {
     @Override public void purge(DataCategory category, long retentionTime) {
         Preconditions.checkArgument(em != null, "EntityManager found to be null");
         try {
-            StringBuffer query = new StringBuffer();
-            query.append("delete from Metric where metrictimestamp")
-                 .append(" <= '")
-                 .append(FormatUtil.getFormattedTimeStamp(new Date(retentionTime).getTime(),
-                     FormatUtil.QUERY_TIMESTAMP))
-                 .append("' and metriccategory = '")
-                 .append(category.toString())
-                 .append("'");
-
-
-
-            em.createQuery(query.toString()).executeUpdate();
+            //The rows of the old schema are only found by category once they have a series
+            migrateLegacyMetrics();
+            em.createQuery("delete from Metric m where m.metricTimeStamp <= :retentionTime and m.seriesId in"
+                    + " (select s.id from MetricSeries s where s.metricCategory = :category)")
+                .setParameter("retentionTime",retentionTime)
+                .setParameter("category",category.name())
+                .executeUpdate();
             em.flush();
 
         }catch(Exception e){
@@ -191,14 +309,9 @@ public class TsdrJpaServiceImpl implements TsdrJpaService {
 
     @Override public void purgeAll(long retentionTime) {
         try {
-            StringBuffer query = new StringBuffer();
-            query.append("delete from Metric where metrictimestamp")
-                .append(" <= '")
-                .append(FormatUtil.getFormattedTimeStamp(new Date(retentionTime).getTime(),
-                    FormatUtil.QUERY_TIMESTAMP))
-                .append("'");
-
-            em.createQuery(query.toString()).executeUpdate();
+            em.createQuery("delete from Metric m where m.metricTimeStamp <= :retentionTime")
+                .setParameter("retentionTime",retentionTime)
+                .executeUpdate();
             em.flush();
 
         }catch(Exception e){
@@ -23,9 +23,11 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
@@ -98,6 +100,99 @@ public class TsdrH2PersistenceServiceImplTest {
 
     }
 
+    @Test
+    public void testStoreList() throws Exception {
+        List<TSDRRecord> records = new ArrayList<TSDRRecord>();
+        long timeStamp = System.currentTimeMillis();
+        for(int i=0;i<10;i++){
+            records.add(new TSDRMetricRecordBuilder().setMetricName("METRIC_NAME"+(i%2))
+                .setMetricValue(new BigDecimal(i))
+                .setNodeID("openflow:dummy")
+                .setRecordKeys(new ArrayList<RecordKeys>())
+                .setTimeStamp(timeStamp+i)
+                .setTSDRDataCategory(DataCategory.PORTSTATS).build());
+        }
+        em.getTransaction().begin();
+        tsdrH2PersistenceService.store(records);
+        em.getTransaction().commit();
+
+        //the category returns the metrics of all the series, newest first
+        List<TSDRMetricRecord> metricList = tsdrJpaService.getMetricsFilteredByCategory(DataCategory.PORTSTATS.name(),0,Long.MAX_VALUE);
+        Assert.assertEquals(10, metricList.size());
+        Assert.assertEquals(timeStamp+9, metricList.get(0).getTimeStamp().longValue());
+        Assert.assertEquals("METRIC_NAME1", metricList.get(0).getMetricName());
+
+        //the key returns the metrics of a single series, oldest first
+        String key = FormatUtil.getTSDRMetricKey((TSDRMetricRecord)records.get(0));
+        metricList = tsdrJpaService.getMetricsFilteredByCategory(key,timeStamp+2,Long.MAX_VALUE);
+        Assert.assertEquals(4, metricList.size());
+        Assert.assertEquals(timeStamp+2, metricList.get(0).getTimeStamp().longValue());
+        Assert.assertEquals(8.0, metricList.get(3).getMetricValue().doubleValue(), 0.02);
+        Assert.assertEquals(key, FormatUtil.getTSDRMetricKey(metricList.get(0)));
+
+        metricList = tsdrJpaService.getMetricsFilteredByCategory(DataCategory.PORTSTATS.name(),3);
+        Assert.assertEquals(3, metricList.size());
+        Assert.assertEquals(timeStamp+7, metricList.get(2).getTimeStamp().longValue());
+    }
+
+    @Test
+    public void testLegacyMetricsAreMigrated() throws Exception {
+        long timeStamp = System.currentTimeMillis();
+        TSDRMetricRecord metric = new TSDRMetricRecordBuilder().setMetricName("METRIC_NAME")
+            .setMetricValue(new BigDecimal(1))
+            .setNodeID("openflow:dummy")
+            .setRecordKeys(new ArrayList<RecordKeys>())
+            .setTimeStamp(timeStamp)
+            .setTSDRDataCategory(DataCategory.QUEUESTATS).build();
+        //The columns and rows of the schema before the series table
+        em.getTransaction().begin();
+        em.createNativeQuery("alter table Metric add column metricDetails varchar(255)").executeUpdate();
+        em.createNativeQuery("alter table Metric add column metricName varchar(255)").executeUpdate();
+        em.createNativeQuery("alter table Metric add column metricCategory varchar(255)").executeUpdate();
+        em.createNativeQuery("alter table Metric add column nodeId varchar(255)").executeUpdate();
+        em.getTransaction().commit();
+        em.getTransaction().begin();
+        em.createNativeQuery("insert into Metric (id,metricTimeStamp,metricValue,metricDetails,metricName,metricCategory,nodeId)"
+            + " values (1000001,?,5,?,'METRIC_NAME','QUEUESTATS','openflow:dummy')")
+            .setParameter(1,timeStamp-1)
+            .setParameter(2,FormatUtil.getTSDRMetricKey(metric)).executeUpdate();
+        em.createNativeQuery("insert into Metric (id,metricTimeStamp,metricValue,metricCategory) values (1000002,?,6,'QUEUESTATS')")
+            .setParameter(1,timeStamp-1).executeUpdate();
+        em.getTransaction().commit();
+
+        em.getTransaction().begin();
+        tsdrH2PersistenceService.store(metric);
+        em.getTransaction().commit();
+
+        List<TSDRMetricRecord> metricList = tsdrJpaService.getMetricsFilteredByCategory(FormatUtil.getTSDRMetricKey(metric),0,Long.MAX_VALUE);
+        Assert.assertEquals(2, metricList.size());
+        Assert.assertEquals(5.0, metricList.get(0).getMetricValue().doubleValue(), 0.02);
+        Assert.assertEquals(1.0, metricList.get(1).getMetricValue().doubleValue(), 0.02);
+
+        //The migrated metrics are purged with their category
+        em.getTransaction().begin();
+        tsdrH2PersistenceService.purgeTSDRRecords(DataCategory.QUEUESTATS,timeStamp-1);
+        em.getTransaction().commit();
+        Assert.assertEquals(1, tsdrJpaService.getMetricsFilteredByCategory(DataCategory.QUEUESTATS.name(),0,Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testFailedStoreThrows() throws Exception {
+        TSDRMetricRecord metric = new TSDRMetricRecordBuilder().setMetricName("METRIC_NAME")
+            .setMetricValue(new BigDecimal(1))
+            .setNodeID("openflow:dummy")
+            .setRecordKeys(new ArrayList<RecordKeys>())
+            .setTimeStamp(System.currentTimeMillis())
+            .setTSDRDataCategory(DataCategory.QUEUESTATS).build();
+        em.close();
+        try {
+            tsdrH2PersistenceService.store(metric);
+            Assert.fail("The store should fail when the entity manager is closed");
+        }catch(TSDRPersistenceException e){
+            //The pipeline spills the metrics
+        }
+    }
+
     @Test
     //simple test to see having fixed format strings as output works
     public void testFormatString (){
@@ -9,14 +9,21 @@ package org.opendaylight.tsdr.persistence.hbase;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.MasterNotRunningException;
 import org.apache.hadoop.hbase.TableNotFoundException;
 import org.apache.hadoop.hbase.ZooKeeperConnectionException;
@@ -30,9 +37,17 @@ import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.filter.RowFilter;
+import org.apache.hadoop.hbase.filter.SubstringComparator;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.opendaylight.tsdr.spi.scheduler.SchedulerService;
+import org.opendaylight.tsdr.spi.scheduler.Task;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,14 +63,25 @@ import org.slf4j.LoggerFactory;
  */
 public class HBaseDataStore  {
      private static final Logger log = LoggerFactory.getLogger(HBaseDataStore.class);
+     public static final long DEFAULT_FLUSH_INTERVAL = 1;
      private static String zookeeperQuorum;
      private static String zookeeperClientport;
      private static int poolSize;
      private static int writeBufferSize;
      private static boolean autoFlush;
+     private static boolean binaryRowKey;
+     private static int saltBuckets = TSDRHBaseRowKey.DEFAULT_SALT_BUCKETS;
+     private static MD5ID.KeyIDAlgorithm keyIDAlgorithm = MD5ID.KeyIDAlgorithm.MD5;
+     private static long flushInterval = DEFAULT_FLUSH_INTERVAL;
+     //The shared pool of table handles, all the handles share the connection of the configuration
      private static HTablePool htablePool;
+     private static final Object htablePoolLock = new Object();
      private static Configuration conf;
-     private static Map<String, HTableInterface> htableMap = new HashMap<String, HTableInterface>();
+     //The table handles that are owned by the table writers
+     private static Map<String, HTableInterface> htableMap = new ConcurrentHashMap<String, HTableInterface>();
+     //The buffered writer of each table
+     private static final ConcurrentHashMap<String, HBaseTableWriter> tableWriters = new ConcurrentHashMap<String, HBaseTableWriter>();
+     private static ScheduledFuture flushFuture = null;
 
      /**
       * Default constructor
@@ -97,9 +123,47 @@ public class HBaseDataStore  {
          poolSize = context.getPoolSize();
          writeBufferSize = context.getWriteBufferSize();
          autoFlush = context.getAutoFlush();
+         binaryRowKey = context.getBinaryRowKey();
+         saltBuckets = context.getSaltBuckets();
+         keyIDAlgorithm = context.getKeyIDAlgorithm();
+         flushInterval = context.getFlushInterval();
          log.debug("Exiting constructor HBaseDataStore()");
      }
 
+     /**
+      * @return true if the rows are stored with the binary row key (TSDRHBaseRowKey)
+      */
+     public boolean isBinaryRowKey(){
+         return binaryRowKey;
+     }
+
+     /**
+      * @return the number of salt buckets of the binary row key
+      */
+     public int getSaltBuckets(){
+         return saltBuckets;
+     }
+
+     /**
+      * @return the algorithm of the series ids of the binary row key
+      */
+     public MD5ID.KeyIDAlgorithm getKeyIDAlgorithm(){
+         return keyIDAlgorithm;
+     }
+
+     /*
+      * The binary row key if the entity has one, otherwise the text row key
+      */
+     private static byte[] getRowKeyBytes(HBaseEntity entity){
+         if(entity.getRowKeyBytes()!=null){
+             return entity.getRowKeyBytes();
+         }
+         if(entity.getRowKey()!=null){
+             return Bytes.toBytes(entity.getRowKey());
+         }
+         return null;
+     }
+
      /**
       * Create a HBase configuration based on the data store context info.
       * @return Configuration
@@ -127,12 +191,37 @@ public class HBaseDataStore  {
       */
      public HTablePool getHTablePool() throws Exception{
         log.debug("Entering getHTablePool()");
-        HTablePool htablePool = new HTablePool(getConfiguration(), 1);
+        HTablePool htablePool = new HTablePool(getConfiguration(), poolSize);
         log.debug("Exiting getHTablePool()");
         return htablePool;
      }
+
+     /*
+      * The pool is created once and shared by all the tables, it is only recreated after
+      * the connections were reset due to an error.
+      */
+     private HTablePool getSharedHTablePool() throws Exception{
+         synchronized(htablePoolLock){
+             if(htablePool == null){
+                 htablePool = getHTablePool();
+             }
+             return htablePool;
+         }
+     }
+
+     /*
+      * Drop the connections after an error, the next request creates new ones
+      */
+     private static void resetConnections(){
+         synchronized(htablePoolLock){
+             htablePool = null;
+         }
+         HConnectionManager.deleteAllConnections();
+     }
+
      /**
       * Get connection to a HBase table.
+      * The handle is taken from the shared pool and should be closed by the caller to return it to the pool.
       * @param tableName - The name of the table
       * @return HTableInterface, which is used to communicate with the HTable.
       * @throws TableNotFoundException - a table not found exception
@@ -143,23 +232,24 @@ public class HBaseDataStore  {
          ClassLoader ocl = Thread.currentThread().getContextClassLoader();
          try {
              Thread.currentThread().setContextClassLoader(HBaseConfiguration.class.getClassLoader());
-                 if (htablePool == null || htablePool.getTable(tableName) == null) {
-                     htablePool = getHTablePool();
-                 }
-                 if ( htablePool != null){
-                     htableResult =   htablePool.getTable(tableName);
-                     log.debug("Obtained connection to table:" + tableName);
-                     htableResult.setAutoFlush(autoFlush);
-                     htableResult.setWriteBufferSize(writeBufferSize);
+             HTablePool pool = getSharedHTablePool();
+             if ( pool != null){
+                 try{
+                     htableResult = pool.getTable(tableName);
+                 }catch(RuntimeException re){
+                     //The pool wraps the failure of creating the table handle
+                     if(re.getCause() instanceof TableNotFoundException){
+                         throw (TableNotFoundException)re.getCause();
+                     }
+                     throw re;
                  }
-             htableMap.put(tableName, htableResult);
+                 log.debug("Obtained connection to table:" + tableName);
+             }
          }catch(TableNotFoundException nfe){
               throw nfe;
          }catch(IOException ioe){
-              closeConnection(tableName);
              log.error("Error getting connection to the table", ioe);
          }catch (Exception e) {
-              closeConnection(tableName);
               log.error("Error getting connection to the htable", e);
               log.trace("Error getting connection to the htable. StackTrace is:", e);
          } finally {
@@ -168,6 +258,81 @@ public class HBaseDataStore  {
          log.debug("Exiting getConnection()");
          return htableResult;
      }
+
+     /**
+      * Get the buffered writer of a table, the writer is created on first use.
+      * @param tableName - The name of the table
+      * @return the writer or null if the table could not be reached
+      * @throws Exception - TableNotFoundException if the table does not exist
+      */
+     public HBaseTableWriter getTableWriter(String tableName) throws Exception {
+         HBaseTableWriter writer = tableWriters.get(tableName);
+         if(writer != null){
+             return writer;
+         }
+         synchronized(tableWriters){
+             writer = tableWriters.get(tableName);
+             if(writer == null){
+                 HTableInterface htable = getConnection(tableName);
+                 if(htable == null){
+                     return null;
+                 }
+                 writer = new HBaseTableWriter(tableName, htable, autoFlush, writeBufferSize);
+                 htableMap.put(tableName, htable);
+                 tableWriters.put(tableName, writer);
+             }
+         }
+         return writer;
+     }
+
+     /**
+      * @return the writers of the tables that were written to, with their write metrics
+      */
+     public Collection<HBaseTableWriter> getTableWriters(){
+         return Collections.unmodifiableCollection(tableWriters.values());
+     }
+
+     /**
+      * Start flushing the buffered writes of all the tables periodically.
+      */
+     public void startFlushTask(){
+         synchronized(tableWriters){
+             if(flushFuture == null && !autoFlush && flushInterval > 0){
+                 SchedulerService.getInstance().scheduleTaskAtFixedRate(new FlushTask(), flushInterval, flushInterval);
+             }
+         }
+     }
+
+     /**
+      * Stop the periodic flush.
+      */
+     public void stopFlushTask(){
+         synchronized(tableWriters){
+             if(flushFuture != null){
+                 flushFuture.cancel(false);
+                 flushFuture = null;
+             }
+         }
+     }
+
+     /**
+      * Flush the buffered writes of all the tables.
+      * A table whose flush failed keeps its buffered writes, they are sent with its next write or flush.
+      * The store calls flush their tables before they return and fail when the flush fails, so the
+      * writes that are only sent here were already reported as failed and a failure is only logged.
+      */
+     public void flushAll(){
+         for(HBaseTableWriter writer:tableWriters.values()){
+             try{
+                 flushCommit(writer.getTableName());
+             }catch(IOException e){
+                 log.error("Failed to flush {} buffered writes of table {}, they are kept for the next flush",
+                         writer.getPendingPuts(), writer.getTableName(), e);
+             }
+             log.debug("HBase write metrics: {}", writer);
+         }
+     }
+
      /**
       * Create HBase tables.
       * @param tableName - table name
@@ -214,150 +379,109 @@ public class HBaseDataStore  {
      }
      /**
       * Create a row in HTable.
+      * The row is buffered by the writer of the table and sent with the next flush.
       *
       * @param entity - an object of HBaseEntity.
       * @return HBaseEntity - the object being created in HTable.
       * @throws TableNotFoundException - a table not found exception
+      * @throws IOException - the row could not be written
       */
-     public HBaseEntity create(final HBaseEntity entity) throws TableNotFoundException{
+     public HBaseEntity create(final HBaseEntity entity) throws IOException{
          log.debug("Entering create(HBaseEntity entity)");
-         if (entity != null && entity.getRowKey() != null) {
-                 Put p = new Put(Bytes.toBytes(entity.getRowKey()));
-                 for (HBaseColumn currentColumn : entity.getColumns()) {
-                         if(currentColumn.getTimeStamp()==0){
-                                 if(currentColumn.getColumnQualifier()!=null){
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                             Bytes.toBytes(currentColumn.getColumnQualifier()),
-                                             Bytes.toBytes(currentColumn.getValue()));
-                                 }else{
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                         null,
-                                         Bytes.toBytes(currentColumn.getValue()));
-                                 }
-                         }else{
-                                 if(currentColumn.getColumnQualifier()!=null){
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                                 Bytes.toBytes(currentColumn.getColumnQualifier()),
-                                                 currentColumn.getTimeStamp(),
-                                                 Bytes.toBytes(currentColumn.getValue()));
-                                 }else{
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                         null,//Bytes.toBytes(currentColumn.getColumnQualifier()),
-                                         Bytes.toBytes(currentColumn.getValue()));
-                                 }
-                         }
-                 }
-                 HTableInterface htable = null;
-                 try {
-                     htable = getConnection(entity.getTableName());
-                     htable.put(p);
-                     flushCommit(entity.getTableName());
-                 } catch (TableNotFoundException nfe) {
-                     throw nfe;
-                 } catch ( IOException ioe){
-                     log.error("Cannot put Data into HBase", ioe.getMessage());
-                     closeConnection(entity.getTableName());
-                     HConnectionManager.deleteAllConnections();
-                 } catch (Exception exception) {
-                     log.error("Cannot put Data into Hbase", exception.getMessage());
-                     log.trace("Cannot put Data into HBase", exception);
-                     closeConnection(entity.getTableName());
-                     HConnectionManager.deleteAllConnections();
-                 } catch (Throwable t){
-                     log.error("Cannot put Data into HBase", t.getMessage());
-                     log.trace("Cannot put Data into HBase", t);
-                 } finally{
-                    try{
-                           htablePool.putTable(htable);
-                           htable.close();
-                           log.info("returned connection back to pool" + htable.getTableName());
-                        }catch ( IOException ioe){
-                            log.error("IOException caught");
-                        }
-
-                 }
+         if (entity != null && getRowKeyBytes(entity) != null) {
+             List<Put> putList = new ArrayList<Put>(1);
+             putList.add(createPut(entity));
+             write(entity.getTableName(), putList);
          }
          log.debug("Exiting create(HBaseEntity entity)");
          return entity;
-}
+     }
+
      /**
       * Create a list of rows in HTable.
       * The assumption is that all the entities belong to the same htable.
+      * The rows are buffered by the writer of the table and sent with the next flush.
       *
       * @param entityList - a list of objects of HBaseEntity.
       * @return HBaseEntity - the object being created in HTable.
       * @throws TableNotFoundException - a table not found exception
+      * @throws IOException - the rows could not be written
       */
-     public List<HBaseEntity> create(List<HBaseEntity> entityList) throws TableNotFoundException{
+     public List<HBaseEntity> create(List<HBaseEntity> entityList) throws IOException{
          log.debug("Entering create(HBaseEntity entity)");
          if((entityList==null)||(entityList.size()==0)){
              return entityList;
          }
-         List <Put> putList=new ArrayList<Put>();
+         List <Put> putList=new ArrayList<Put>(entityList.size());
          String tableName = "";
          for(HBaseEntity entity: entityList){
-             if (entity != null && entity.getRowKey() != null) {
+             if (entity != null && getRowKeyBytes(entity) != null) {
                  tableName = entity.getTableName();
-                 Put p = new Put(Bytes.toBytes(entity.getRowKey()));
-                 for (HBaseColumn currentColumn : entity.getColumns()) {
-                         if(currentColumn.getTimeStamp()==0){
-                                 if(currentColumn.getColumnQualifier()!=null){
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                             Bytes.toBytes(currentColumn.getColumnQualifier()),
-                                             Bytes.toBytes(currentColumn.getValue()));
-                                 }else{
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                         null,
-                                         Bytes.toBytes(currentColumn.getValue()));
-                                 }
+                 putList.add(createPut(entity));
+             }
+         }
+         if(!putList.isEmpty()){
+             write(tableName, putList);
+         }
+         log.debug("Exiting create(HBaseEntity entity)");
+         return entityList;
+     }
+
+     private static Put createPut(HBaseEntity entity){
+         Put p = new Put(getRowKeyBytes(entity));
+         for (HBaseColumn currentColumn : entity.getColumns()) {
+                 if(currentColumn.getTimeStamp()==0){
+                         if(currentColumn.getColumnQualifier()!=null){
+                             p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
+                                     Bytes.toBytes(currentColumn.getColumnQualifier()),
+                                     Bytes.toBytes(currentColumn.getValue()));
                          }else{
-                                 if(currentColumn.getColumnQualifier()!=null){
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                                 Bytes.toBytes(currentColumn.getColumnQualifier()),
-                                                 currentColumn.getTimeStamp(),
-                                                 Bytes.toBytes(currentColumn.getValue()));
-                                 }else{
-                                     p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
-                                         null,//Bytes.toBytes(currentColumn.getColumnQualifier()),
+                             p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
+                                 null,
+                                 Bytes.toBytes(currentColumn.getValue()));
+                         }
+                 }else{
+                         if(currentColumn.getColumnQualifier()!=null){
+                             p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
+                                         Bytes.toBytes(currentColumn.getColumnQualifier()),
+                                         currentColumn.getTimeStamp(),
                                          Bytes.toBytes(currentColumn.getValue()));
-                                 }
+                         }else{
+                             p.add(Bytes.toBytes(currentColumn.getColumnFamily()),
+                                 null,//Bytes.toBytes(currentColumn.getColumnQualifier()),
+                                 Bytes.toBytes(currentColumn.getValue()));
                          }
                  }
-                 putList.add(p);
-             }
          }
-                 HTableInterface htable = null;
-                 try {
-                     htable = getConnection(tableName);
-                     htable.put(putList);
-                     flushCommit(tableName);
-                 } catch (TableNotFoundException nfe) {
-                     throw nfe;
-                 } catch ( IOException ioe){
-                     log.error("Cannot put Data into HBase", ioe.getMessage());
-                     closeConnection(tableName);
-                     HConnectionManager.deleteAllConnections();
-                 } catch (Exception exception) {
-                     log.error("Cannot put Data into Hbase", exception.getMessage());
-                     log.trace("Cannot put Data into HBase", exception);
-                     closeConnection(tableName);
-                     HConnectionManager.deleteAllConnections();
-                 } catch (Throwable t){
-                     log.error("Cannot put Data into HBase", t.getMessage());
-                     log.trace("Cannot put Data into HBase", t);
-                 } finally{
-                     try{
-                           htablePool.putTable(htable);
-                           htable.close();
-                           log.debug("Returned connection back to pool" + htable.getTableName());
-                        }catch ( IOException ioe){
-                            log.error("IOException caught");
-                        }
+         return p;
+     }
 
-                 }
-         log.debug("Exiting create(HBaseEntity entity)");
-         return entityList;
-}
+     /*
+      * Write the puts through the writer of the table. A failed write keeps the writer, and with it
+      * the buffered puts that were not sent yet, and is thrown to the caller so it keeps the rows.
+      * When no writer can be created the connections are dropped so the next write starts with new ones.
+      */
+     private void write(String tableName, List<Put> putList) throws IOException{
+         HBaseTableWriter writer = null;
+         try {
+             writer = getTableWriter(tableName);
+         } catch (TableNotFoundException nfe) {
+             throw nfe;
+         } catch (Exception exception) {
+             resetConnections();
+             throw new IOException("Cannot put Data into HBase, no connection to table " + tableName, exception);
+         }
+         if(writer == null){
+             resetConnections();
+             throw new IOException("Cannot put Data into HBase, no connection to table " + tableName);
+         }
+         try {
+             writer.write(putList);
+         } catch ( IOException ioe){
+             log.error("Cannot put Data into HBase table {}", tableName, ioe);
+             throw ioe;
+         }
+     }
 
      /**
       * Retrieve data by specified tableName, startRowkey, endRowkey,
@@ -500,59 +624,17 @@ public class HBaseDataStore  {
       */
      public List<HBaseEntity> getDataByTimeRange(String tableName,List<String> filters,long startTime, long endTime){
             List<HBaseEntity> resultEntityList=new ArrayList<HBaseEntity>();
-            Scan scan =new Scan();
             HTableInterface htable = null;
             ResultScanner rs=null;
             try {
-                    if ( startTime != 0 && endTime != 0){
-                        scan.setTimeRange(startTime, endTime);
-                    }
-                    /*
-                        This is the proper code to use to filter the data, undortunatly I am getting a NoClassDefFound issue on FilterList
-
-                    if(filters!=null && !filters.isEmpty()){
-                        FilterList filterList = new FilterList();
-                        filterList.addFilter(new PageFilter(TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS));
-                        for(String filter:filters){
-                            filterList.addFilter(new SingleColumnValueFilter(TSDRHBaseDataStoreConstants.COLUMN_FAMILY_NAME.getBytes(),
-                                    TSDRHBaseDataStoreConstants.COLUMN_QUALIFIER_NAME.getBytes(), CompareFilter.CompareOp.EQUAL,
-                                    new SubstringComparator(filter)));
-
-                        }
-                        scan.setFilter(filterList);
-                    }else
-                    */
-                    scan.setCaching(TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS);
+                    Scan scan = createTimeRangeScan(tableName, filters, startTime, endTime);
                     htable=getConnection(tableName);
                     rs = htable.getScanner(scan);
+                    //The page filter is applied per region, so the limit is still enforced on the client
                     int count = 0;
-                    for (Result currentResult = rs.next(); currentResult != null; currentResult = rs.next()) {
-                        /*
-                            This is an improper way for doing this as it void all the hbase capabilities in scaling!!!
-                            However as I was not able to use HBase FilterList due to missing dependency, I had to resolve
-                            to using this method to satisfy fetching a single metric.
-                            We need to find a way to instantiate FilterList and install SubstringFilter inside it so we could put it
-                            in the scan and allow hbase agents to filter the data.
-                         */
-                        if(filters!=null && !filters.isEmpty()){
-                            String rowKey = Bytes.toString(currentResult.getRow());
-                            boolean doesFitFilter = true;
-                            for(String filter:filters){
-                                if(rowKey.indexOf(filter)==-1){
-                                    doesFitFilter = false;
-                                    break;
-                                }
-                            }
-                            if(!doesFitFilter){
-                                continue;
-                            }
-                        }
-                        /*
-                            End of improper method.
-                         */
-                        if ( count++ < TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS){
-                            resultEntityList.add(convertResultToEntity(tableName, currentResult));
-                        }
+                    for (Result currentResult = rs.next(); currentResult != null && count < TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS; currentResult = rs.next()) {
+                        resultEntityList.add(convertResultToEntity(tableName, currentResult));
+                        count++;
                     }
             } catch (IOException ioe) {
                     log.error("Scanner error", ioe);
@@ -570,6 +652,257 @@ public class HBaseDataStore  {
 
      }
 
+     /**
+      * Creates the scan of a time range query so the region servers only read and return the matching rows.
+      * The row key is [NID=][DC=][MN=][RK=][TS=], the leading filters that follow this order narrow the
+      * scan to the row range of their prefix, so a query of a single metric reads only the rows of that metric.
+      * The rest of the filters are matched as substrings of the row key by the region servers.
+      * @param tableName - table name, which is the data category
+      * @param filters - the substring filters of the row key, e.g. "[NID=openflow:1]", "[MN=PacketsReceived]"
+      * @param startTime - start time
+      * @param endTime - end time
+      * @return the scan
+      * @throws IOException - an IOException
+      */
+     public Scan createTimeRangeScan(String tableName,List<String> filters,long startTime, long endTime) throws IOException{
+         return createTimeRangeScan(tableName, filters, startTime, endTime, TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS);
+     }
+
+     /**
+      * Creates the scan of a time range query that returns at most the limit of rows.
+      * @param tableName - table name, which is the data category
+      * @param filters - the substring filters of the row key
+      * @param startTime - start time
+      * @param endTime - end time
+      * @param limit - the maximum number of rows
+      * @return the scan
+      * @throws IOException - an IOException
+      */
+     public Scan createTimeRangeScan(String tableName,List<String> filters,long startTime, long endTime, int limit) throws IOException{
+         Scan scan = new Scan();
+         if ( startTime != 0 && endTime != 0){
+             scan.setTimeRange(startTime, endTime);
+         }
+         scan.setCaching(Math.min(limit, TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS));
+         FilterList filterList = new FilterList(FilterList.Operator.MUST_PASS_ALL);
+         if(filters!=null && !filters.isEmpty()){
+             List<String> remaining = new ArrayList<String>(filters);
+             String prefix = getRowKeyPrefix(tableName, remaining);
+             if(prefix!=null){
+                 byte[] startRow = Bytes.toBytes(prefix);
+                 scan.setStartRow(startRow);
+                 scan.setStopRow(getStopRow(startRow));
+             }
+             for(String filter:remaining){
+                 filterList.addFilter(new RowFilter(CompareFilter.CompareOp.EQUAL, new SubstringComparator(filter)));
+             }
+         }
+         //Must be last so it only counts the rows that passed the other filters
+         filterList.addFilter(new PageFilter(limit));
+         scan.setFilter(filterList);
+         return scan;
+     }
+
+     /*
+      * Builds the row key prefix out of the filters that match the beginning of the row key,
+      * the filters that are part of the prefix are removed from the list.
+      */
+     private static String getRowKeyPrefix(String tableName, List<String> filters){
+         String nodeFilter = removeFilter(filters, FormatUtil.KEY_NODEID);
+         if(nodeFilter==null){
+             return null;
+         }
+         StringBuilder prefix = new StringBuilder(nodeFilter);
+         prefix.append(FormatUtil.KEY_CATEGORY).append(tableName).append("]");
+         String metricFilter = removeFilter(filters, FormatUtil.KEY_METRICNAME);
+         if(metricFilter==null){
+             return prefix.toString();
+         }
+         prefix.append(metricFilter);
+         String recordKeysFilter = removeFilter(filters, FormatUtil.KEY_RECORDKEYS);
+         if(recordKeysFilter!=null){
+             prefix.append(recordKeysFilter);
+         }
+         return prefix.toString();
+     }
+
+     private static String removeFilter(List<String> filters, String keyPrefix){
+         for(Iterator<String> iter=filters.iterator();iter.hasNext();){
+             String filter = iter.next();
+             if(filter.startsWith(keyPrefix) && filter.endsWith("]")){
+                 iter.remove();
+                 return filter;
+             }
+         }
+         return null;
+     }
+
+     /*
+      * The smallest row key that is greater than all the row keys starting with the prefix
+      */
+     private static byte[] getStopRow(byte[] prefix){
+         for(int i=prefix.length-1;i>=0;i--){
+             if(prefix[i]!=(byte)0xFF){
+                 byte[] stopRow = Arrays.copyOf(prefix, i+1);
+                 stopRow[i]++;
+                 return stopRow;
+             }
+         }
+         return HConstants.EMPTY_END_ROW;
+     }
+
+     /**
+      * Retrieve the rows between the start row (inclusive) and the stop row (exclusive).
+      * @param tableName - table name
+      * @param startRow - the start row
+      * @param stopRow - the stop row
+      * @param limit - the maximum number of rows to retrieve
+      * @return a list of hbase entity
+      */
+     public List<HBaseEntity> getDataByRowRange(String tableName, byte[] startRow, byte[] stopRow, int limit){
+         return getDataPage(tableName, createRowRangeScan(startRow, stopRow, limit), null, limit);
+     }
+
+     /**
+      * Creates the scan of the rows between the start row (inclusive) and the stop row (exclusive).
+      * @param startRow - the start row
+      * @param stopRow - the stop row
+      * @param limit - the maximum number of rows
+      * @return the scan
+      */
+     public Scan createRowRangeScan(byte[] startRow, byte[] stopRow, int limit){
+         Scan scan = new Scan(startRow, stopRow);
+         scan.setCaching(Math.max(1, Math.min(limit, TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS)));
+         scan.setFilter(new PageFilter(limit));
+         return scan;
+     }
+
+     /**
+      * Retrieve the rows of a scan that come after a row, so a query can continue where its previous page ended.
+      * The rows are returned in the order of their row keys.
+      * @param tableName - table name
+      * @param scan - the scan, the start row is moved to the row that follows the after row
+      * @param afterRow - the last row of the previous page, null to start at the beginning of the scan
+      * @param limit - the maximum number of rows to retrieve
+      * @return a list of hbase entity
+      */
+     public List<HBaseEntity> getDataPage(String tableName, Scan scan, byte[] afterRow, int limit){
+         List<HBaseEntity> resultEntityList=new ArrayList<HBaseEntity>();
+         if(limit<=0){
+             return resultEntityList;
+         }
+         if(afterRow!=null){
+             //The smallest row key that is greater than the after row
+             byte[] nextRow = Arrays.copyOf(afterRow, afterRow.length+1);
+             if(Bytes.compareTo(nextRow, scan.getStartRow())>0){
+                 scan.setStartRow(nextRow);
+             }
+             byte[] stopRow = scan.getStopRow();
+             if(stopRow.length>0 && Bytes.compareTo(scan.getStartRow(), stopRow)>=0){
+                 return resultEntityList;
+             }
+         }
+         HTableInterface htable = null;
+         ResultScanner rs=null;
+         try {
+             htable=getConnection(tableName);
+             rs = htable.getScanner(scan);
+             for (Result currentResult = rs.next(); currentResult != null && resultEntityList.size() < limit; currentResult = rs.next()) {
+                 resultEntityList.add(convertResultToEntity(tableName, currentResult));
+             }
+         } catch (IOException ioe) {
+             log.error("Scanner error", ioe);
+         } catch (Exception e) {
+             log.error("Scanner error", e);
+         }finally{
+             if (rs!=null){
+                 rs.close();
+             }
+             closeConnection(htable);
+         }
+         return resultEntityList;
+     }
+
+     /**
+      * Converts the row keys of a table, each row that gets a new row key is copied with all its cells
+      * to the new row key and then deleted. Rows that the converter returns null for are left as is,
+      * so an interrupted migration can be run again.
+      * @param tableName - table name
+      * @param converter - the row key converter
+      * @return the number of rows that were migrated
+      * @throws IOException - an IOException
+      */
+     public long migrateRowKeys(String tableName, RowKeyConverter converter) throws IOException{
+         final int batchSize = 500;
+         List<Put> putList = new ArrayList<Put>(batchSize);
+         List<Delete> deleteList = new ArrayList<Delete>(batchSize);
+         Scan scan = new Scan();
+         scan.setCaching(batchSize);
+         HTableInterface htable = null;
+         ResultScanner rs = null;
+         long count = 0;
+         try {
+             htable = getConnection(tableName);
+             rs = htable.getScanner(scan);
+             for (Result rr = rs.next(); rr != null; rr = rs.next()){
+                 byte[] newRow = converter.convert(rr.getRow());
+                 if(newRow==null){
+                     continue;
+                 }
+                 Put p = new Put(newRow);
+                 for(KeyValue kv:rr.raw()){
+                     p.add(kv.getFamily(), kv.getQualifier(), kv.getTimestamp(), kv.getValue());
+                 }
+                 putList.add(p);
+                 deleteList.add(new Delete(rr.getRow()));
+                 if(putList.size()>=batchSize){
+                     count+=writeMigrationBatch(htable, putList, deleteList);
+                 }
+             }
+             if(!putList.isEmpty()){
+                 count+=writeMigrationBatch(htable, putList, deleteList);
+             }
+         } catch (TableNotFoundException nfe) {
+             throw nfe;
+         } catch (IOException ioe) {
+             log.error("Row key migration of table {} failed after {} rows", tableName, count, ioe);
+             throw ioe;
+         } catch (Exception e) {
+             log.error("Row key migration of table {} failed after {} rows", tableName, count, e);
+             throw new IOException("Row key migration failed", e);
+         } finally {
+             if (rs!=null){
+                 rs.close();
+             }
+             closeConnection(htable);
+         }
+         return count;
+     }
+
+     /*
+      * The new rows are flushed before the old ones are deleted so a failure never loses a row
+      */
+     private static int writeMigrationBatch(HTableInterface htable, List<Put> putList, List<Delete> deleteList) throws IOException{
+         int size = putList.size();
+         htable.put(putList);
+         htable.flushCommits();
+         htable.delete(deleteList);
+         putList.clear();
+         deleteList.clear();
+         return size;
+     }
+
+     /**
+      * Converts a row key to a new row key.
+      */
+     public static interface RowKeyConverter {
+         /**
+          * @param rowKey - the current row key
+          * @return the new row key or null if the row should be left as is
+          */
+         byte[] convert(byte[] rowKey);
+     }
+
      /**
       * Delete records from hbase data store based on tableName and timestamp.
       * @param tableName - table name
@@ -606,24 +939,21 @@ public class HBaseDataStore  {
                throw nfe;
            } catch ( IOException ioe){
                log.error("Deletion from HBase Data Store failed!", ioe.getMessage());
+               closeConnection(htable);
+               htable = null;
                closeConnection(tableName);
-               HConnectionManager.deleteAllConnections();
+               resetConnections();
            } catch (Exception exception) {
                log.error("Deletion from HBase Data Store failed!", exception.getMessage());
+               closeConnection(htable);
+               htable = null;
                closeConnection(tableName);
-               HConnectionManager.deleteAllConnections();
+               resetConnections();
            } catch (Throwable t){
                log.error("Deletion from HBase Data Store failed!", t.getMessage());
                log.trace("Deletion from HBase Data Store failed!", t);
            } finally{
-              try{
-                     htablePool.putTable(htable);
-                     htable.close();
-                     log.info("returned connection back to pool" + htable.getTableName());
-                  }catch ( IOException ioe){
-                      log.error("IOException caught");
-                  }
-
+               closeConnection(htable);
            }
            log.debug("Exiting deleteByTimeStamp()");
    }
@@ -641,6 +971,7 @@ public class HBaseDataStore  {
          HBaseEntity resultEntity=new HBaseEntity();
          resultEntity.setTableName(tableName);
          resultEntity.setRowKey(Bytes.toString(result.getRow()));
+         resultEntity.setRowKeyBytes(result.getRow());
          List <HBaseColumn> noSQLColumnList=new ArrayList<HBaseColumn>();
                  NavigableMap <byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> map=result.getMap();
                  for(byte [] currentByteFamily:  map.keySet()){
@@ -659,42 +990,38 @@ public class HBaseDataStore  {
      }
 
      /**
-      * Flush the commits for the given tablename
+      * Flush the commits for the given tablename.
+      * The buffered writes are only dropped once they were sent, a failed flush keeps them.
       * @param tableName - the table name
+      * @throws IOException - the buffered writes could not be sent
       */
-     public void flushCommit(String tableName){
+     public void flushCommit(String tableName) throws IOException{
          log.debug("Entering flushCommit(tableName)");
-         HTableInterface htableResult=null;
-         htableResult=htableMap.get(tableName);
-         if(htableResult != null) {
-             if(!autoFlush){
-                 try{
-                     htableResult.flushCommits();
-                 }catch(IOException e){
-                     log.error("Flushcommit failed", e);
-                 }catch(Exception e){
-                     log.error("Exception during flushcommit", e);
-                 }
-             }
+         HBaseTableWriter writer = tableName == null ? null : tableWriters.get(tableName);
+         if(writer != null) {
+             writer.flush();
          }
          log.debug("Exiting flushCommit(tableName)");
      }
 
      /**
       * Close the connection to the specified HTable.
+      * The buffered writes of the table are flushed and its writer is closed.
       * @param tableName - The name of the HTable.
       */
      public void closeConnection(String tableName){
          log.debug("Entering closeConnection(String tableName)");
-         HTableInterface htableResult=null;
-         htableResult=htableMap.get(tableName);
-         if (htableResult != null) {
-                         try {
-                                 htableResult.close();
-                                 htableMap.remove(tableName);
-                         } catch (IOException e) {
-                                    log.error("Cannot close connection:", e);
-                         }
+         if (tableName != null) {
+             HBaseTableWriter writer = tableWriters.remove(tableName);
+             htableMap.remove(tableName);
+             if (writer != null) {
+                 try {
+                     writer.close();
+                 } catch (IOException e) {
+                     log.error("Cannot close connection, {} buffered writes of table {} were not sent:",
+                             writer.getPendingPuts(), tableName, e);
+                 }
+             }
          }
          log.debug("Exiting closeConnection(String tableName)");
      }
@@ -707,7 +1034,6 @@ public class HBaseDataStore  {
          if (htable != null) {
                          try {
                                  htable.close();
-                                 htableMap.remove(Bytes.toString(htable.getTableName()));
                          } catch (IOException e) {
                                     log.error("Cannot close connection:", e);
                          }
@@ -715,7 +1041,7 @@ public class HBaseDataStore  {
          log.debug("Exiting closeConnection(HTable htable)");
      }
      /**
-      * Close the connection to the specified HTable.
+      * Close the connection to the specified HTable, which returns it to the pool.
       * @param htable - the htable
       */
      private void closeConnection(HTableInterface htable){
@@ -723,11 +1049,22 @@ public class HBaseDataStore  {
          if (htable != null) {
                          try {
                                  htable.close();
-                                 htableMap.remove(Bytes.toString(htable.getTableName()));
                          } catch (IOException e) {
                                     log.error("Cannot close connection:", e);
                          }
          }
          log.debug("Exiting closeConnection(HTableInterface htable)");
      }
+
+     private final class FlushTask extends Task {
+         @Override
+         public void runTask() {
+             flushAll();
+         }
+
+         @Override
+         public void setScheduledFuture(ScheduledFuture scheduledFuture) {
+             flushFuture = scheduledFuture;
+         }
+     }
 }
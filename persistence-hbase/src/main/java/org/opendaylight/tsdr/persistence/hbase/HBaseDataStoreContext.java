@@ -21,7 +21,10 @@ package org.opendaylight.tsdr.persistence.hbase;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.opendaylight.tsdr.spi.util.MD5ID;
+
 public class HBaseDataStoreContext {
+    public static final int DEFAULT_WRITE_BUFFER_SIZE = 2097152;
     /**
      * This parameter indicates the host name of the server(Zookeeper node)
      * that HBase client communicates with.
@@ -38,9 +41,30 @@ public class HBaseDataStoreContext {
      */
     private  int poolSize = 5;
 
-    private int writeBufferSize = 512;
+    /**
+     * This parameter indicates the size in bytes of the client side write buffer
+     * of each table, the buffer is sent when it gets full.
+     */
+    private int writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+    /**
+     * This parameter indicates the interval in seconds to send the buffered writes.
+     */
+    private long flushInterval = HBaseDataStore.DEFAULT_FLUSH_INTERVAL;
 
     private boolean autoFlush = false;
+    /**
+     * This parameter indicates if the rows are stored with the compact binary
+     * row key (TSDRHBaseRowKey) instead of the text TSDR key.
+     */
+    private boolean binaryRowKey = false;
+    /**
+     * This parameter indicates the number of salt buckets of the binary row key.
+     */
+    private int saltBuckets = TSDRHBaseRowKey.DEFAULT_SALT_BUCKETS;
+    /**
+     * This parameter indicates the algorithm of the series ids of the binary row key.
+     */
+    private MD5ID.KeyIDAlgorithm keyIDAlgorithm = MD5ID.KeyIDAlgorithm.MD5;
 
     private static Map<String,Object> commonHbasePropertiesMap = new HashMap<String,Object>();
     public static String HBASE_COMMON_PROP_CREATE_TABLE_RETRY_INTERVAL = "hbase-common-prop-create-table-retry-interval";
@@ -69,6 +93,12 @@ public class HBaseDataStoreContext {
     public void setWriteBufferSize(int writeBufferSize) {
         this.writeBufferSize = writeBufferSize;
     }
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
     public void setAutoFlush(boolean autoFlush) {
         this.autoFlush = autoFlush;
     }
@@ -76,6 +106,25 @@ public class HBaseDataStoreContext {
         return this.autoFlush;
     }
 
+    public void setBinaryRowKey(boolean binaryRowKey) {
+        this.binaryRowKey = binaryRowKey;
+    }
+    public boolean getBinaryRowKey() {
+        return this.binaryRowKey;
+    }
+    public int getSaltBuckets() {
+        return saltBuckets;
+    }
+    public void setSaltBuckets(int saltBuckets) {
+        this.saltBuckets = saltBuckets;
+    }
+    public MD5ID.KeyIDAlgorithm getKeyIDAlgorithm() {
+        return keyIDAlgorithm;
+    }
+    public void setKeyIDAlgorithm(MD5ID.KeyIDAlgorithm keyIDAlgorithm) {
+        this.keyIDAlgorithm = keyIDAlgorithm;
+    }
+
     public static void addProperty(String property, long createTableRetryInterval){
         commonHbasePropertiesMap.put(property, createTableRetryInterval);
     }
@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.util.Properties;
+import org.opendaylight.tsdr.spi.util.MD5ID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -98,7 +99,7 @@ public class HBaseDataStoreFactory {
                 context.setZookeeperClientport("2181");
                 context.setZookeeperQuorum("localhost");
                 context.setAutoFlush(false);
-                context.setWriteBufferSize(512);
+                context.setWriteBufferSize(HBaseDataStoreContext.DEFAULT_WRITE_BUFFER_SIZE);
                 HBaseDataStoreContext.addProperty(HBaseDataStoreContext.HBASE_COMMON_PROP_CREATE_TABLE_RETRY_INTERVAL,300L);
                 return context;
             }
@@ -110,7 +111,26 @@ public class HBaseDataStoreFactory {
             context.setZookeeperQuorum(properties.getProperty("zoo.keeper.quorum"));
             context.setAutoFlush(Boolean.valueOf(properties.getProperty("autoflush")));
             context.setWriteBufferSize(Integer.valueOf(properties.getProperty("writebuffersize")));
+            context.setFlushInterval(Long.valueOf(properties.getProperty("flushinterval",
+                    String.valueOf(HBaseDataStore.DEFAULT_FLUSH_INTERVAL))));
             HBaseDataStoreContext.addProperty(HBaseDataStoreContext.HBASE_COMMON_PROP_CREATE_TABLE_RETRY_INTERVAL, Long.valueOf(properties.getProperty("createTableRetryInterval")));
+            //Without the row key format the tables keep the text row key they were created with
+            context.setBinaryRowKey("binary".equalsIgnoreCase(properties.getProperty("rowkey.format","text")));
+            int saltBuckets = Integer.valueOf(properties.getProperty("rowkey.salt.buckets",
+                    String.valueOf(TSDRHBaseRowKey.DEFAULT_SALT_BUCKETS)));
+            if(saltBuckets<1 || saltBuckets>TSDRHBaseRowKey.MAX_SALT_BUCKETS){
+                log.error("rowkey.salt.buckets must be between 1 and " + TSDRHBaseRowKey.MAX_SALT_BUCKETS + ", using the default");
+                saltBuckets = TSDRHBaseRowKey.DEFAULT_SALT_BUCKETS;
+            }
+            context.setSaltBuckets(saltBuckets);
+            String keyIDAlgorithm = properties.getProperty("key_id_algorithm");
+            if(keyIDAlgorithm!=null){
+                try{
+                    context.setKeyIDAlgorithm(MD5ID.KeyIDAlgorithm.valueOf(keyIDAlgorithm.trim().toUpperCase()));
+                }catch(IllegalArgumentException e){
+                    log.error("Unknown key_id_algorithm " + keyIDAlgorithm + ", using MD5");
+                }
+            }
 
         } finally{
             if(inputStream != null){
@@ -22,6 +22,8 @@ import java.util.List;
 public class HBaseEntity implements Serializable {
     private static final long serialVersionUID = 1L;
     private String rowKey;
+    //The binary row key, when it is set it is used instead of the text row key
+    private byte[] rowKeyBytes;
     private String tableName;
     private List<HBaseColumn> columns;
 
@@ -33,6 +35,14 @@ public class HBaseEntity implements Serializable {
         this.rowKey = rowKey;
     }
 
+    public byte[] getRowKeyBytes() {
+        return rowKeyBytes;
+    }
+
+    public void setRowKeyBytes(byte[] rowKeyBytes) {
+        this.rowKeyBytes = rowKeyBytes;
+    }
+
     public String getTableName() {
         return tableName;
     }
@@ -152,6 +152,15 @@ public class HBasePersistenceUtil {
                 columnList.add(column);
             }
         }
+        //add the index, two records of the same key and time differ by it
+        if ( logRecord.getIndex() != null ){
+            HBaseColumn column = new HBaseColumn();
+            column.setColumnFamily(TSDRHBaseDataStoreConstants.COLUMN_FAMILY_NAME);
+            column.setTimeStamp(timeStamp);
+            column.setColumnQualifier(TSDRHBaseDataStoreConstants.LOGRECORD_INDEX);
+            column.setValue(String.valueOf(logRecord.getIndex()));
+            columnList.add(column);
+        }
         //add FullLengthText as the last column
         HBaseColumn column = new HBaseColumn();
         column.setColumnFamily(TSDRHBaseDataStoreConstants.COLUMN_FAMILY_NAME);
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.hbase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * The buffered writer of a single HBase table.
+ *
+ * <p>
+ * The writer holds one table handle of the shared pool for its whole life with the auto flush disabled,
+ * so the puts are buffered on the client and sent to the region servers once the buffer exceeds
+ * the write buffer size or when the writer is flushed (by every store call of the persistence service
+ * for the tables it wrote, and periodically by the data store).
+ * The table handle is not thread safe, all the access to it is synchronized by the writer.
+ * </p>
+ * <p>
+ * With the auto flush disabled the table keeps the puts of a failed flush in its buffer, so they are only
+ * dropped once they were sent. After a failed flush the next write sends the buffer first and fails if
+ * it still cannot be sent, so the caller learns about the failure instead of adding to the buffer.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class HBaseTableWriter {
+
+    private final String tableName;
+    private final HTableInterface table;
+    private final boolean autoFlush;
+    //Puts that were written since the last flush
+    private int pendingPuts = 0;
+    //The last flush failed, the buffer is sent before the next write
+    private boolean flushFailed = false;
+    //Metrics, only updated while holding the writer lock
+    private volatile long writeCount = 0;
+    private volatile long putCount = 0;
+    private volatile long flushCount = 0;
+    private volatile long failureCount = 0;
+    private volatile long totalWriteNanos = 0;
+    private volatile long maxWriteNanos = 0;
+    private volatile long totalFlushNanos = 0;
+
+    /**
+     * @param tableName - The name of the table
+     * @param table - The table handle, owned by the writer from now on
+     * @param autoFlush - Send every write to the region servers immediately
+     * @param writeBufferSize - The size in bytes of the client side write buffer
+     * @throws IOException - an IOException
+     */
+    public HBaseTableWriter(String tableName, HTableInterface table, boolean autoFlush, long writeBufferSize) throws IOException {
+        this.tableName = tableName;
+        this.table = table;
+        this.autoFlush = autoFlush;
+        this.table.setAutoFlush(autoFlush);
+        this.table.setWriteBufferSize(writeBufferSize);
+    }
+
+    /**
+     * Buffer the puts, the buffer is sent when it gets full.
+     * @param puts - the puts
+     * @throws IOException - an IOException, also if the buffer of a previously failed flush still cannot be sent
+     */
+    public synchronized void write(List<Put> puts) throws IOException {
+        if(flushFailed){
+            flush();
+        }
+        final long start = System.nanoTime();
+        try {
+            table.put(puts);
+            if(!autoFlush){
+                pendingPuts+=puts.size();
+            }
+        } catch (IOException e) {
+            failureCount++;
+            if(!autoFlush){
+                //The puts stay in the buffer with the ones whose flush failed
+                pendingPuts+=puts.size();
+                flushFailed = true;
+            }
+            throw e;
+        } finally {
+            final long duration = System.nanoTime()-start;
+            writeCount++;
+            putCount+=puts.size();
+            totalWriteNanos+=duration;
+            if(duration>maxWriteNanos){
+                maxWriteNanos = duration;
+            }
+        }
+    }
+
+    /**
+     * Send the buffered puts to the region servers.
+     * @throws IOException - an IOException
+     */
+    public synchronized void flush() throws IOException {
+        if(pendingPuts==0){
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            table.flushCommits();
+            pendingPuts = 0;
+            flushFailed = false;
+        } catch (IOException e) {
+            failureCount++;
+            flushFailed = true;
+            throw e;
+        } finally {
+            flushCount++;
+            totalFlushNanos+=System.nanoTime()-start;
+        }
+    }
+
+    /**
+     * Flush the buffered puts and return the table handle to the pool.
+     * @throws IOException - an IOException
+     */
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            table.close();
+        }
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public long getWriteCount() {
+        return writeCount;
+    }
+
+    public long getPutCount() {
+        return putCount;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * @return - The number of puts that were written but not sent yet
+     */
+    public synchronized int getPendingPuts() {
+        return pendingPuts;
+    }
+
+    /**
+     * @return - The average latency in microseconds of a write, including the flushes it triggered
+     */
+    public long getAverageWriteLatency() {
+        final long count = writeCount;
+        return count==0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWriteNanos/count);
+    }
+
+    /**
+     * @return - The maximum latency in microseconds of a write
+     */
+    public long getMaxWriteLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(maxWriteNanos);
+    }
+
+    /**
+     * @return - The average latency in microseconds of a periodic flush
+     */
+    public long getAverageFlushLatency() {
+        final long count = flushCount;
+        return count==0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalFlushNanos/count);
+    }
+
+    @Override
+    public String toString() {
+        return "table=" + tableName + ", writes=" + writeCount + ", puts=" + putCount + ", flushes=" + flushCount
+                + ", failures=" + failureCount + ", avgWriteLatency(us)=" + getAverageWriteLatency()
+                + ", maxWriteLatency(us)=" + getMaxWriteLatency() + ", avgFlushLatency(us)=" + getAverageFlushLatency();
+    }
+}
@@ -23,6 +23,7 @@ public class TSDRHBaseDataStoreConstants {
     public static final String COLUMN_FAMILY_NAME = "c1";
     public static final String COLUMN_QUALIFIER_NAME = "raw";
     public static final String LOGRECORD_FULL_TEXT = "RecordFullText";
+    public static final String LOGRECORD_INDEX = "RecordIndex";
 
     /**
      * Constants related to ListMetricsCommand
@@ -11,6 +11,9 @@ package org.opendaylight.tsdr.persistence.hbase;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -18,9 +21,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import org.apache.hadoop.hbase.TableNotFoundException;
-import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
+import org.opendaylight.tsdr.spi.persistence.TsdrPagingPersistenceService;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
 import org.opendaylight.tsdr.spi.scheduler.SchedulerService;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.TSDRKeyCache;
+import org.opendaylight.tsdr.spi.util.TSDRKeyCache.TSDRCacheEntry;
 import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
@@ -29,6 +37,8 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogreco
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributes;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributesBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,16 +60,18 @@ import org.slf4j.LoggerFactory;
  *
  *
  */
-public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService {
+public class TSDRHBasePersistenceServiceImpl  implements TsdrPagingPersistenceService {
 
     private static final Logger log = LoggerFactory.getLogger(TSDRHBasePersistenceServiceImpl.class);
     public ScheduledFuture future;
+    //Maps the series ids of the binary row keys to their TSDR keys, created on first use
+    private TSDRKeyCache keyCache = null;
 
     /**
      * Constructor.
      */
     public TSDRHBasePersistenceServiceImpl(){
-        TsdrPersistenceServiceUtil.setTsdrPersistenceService(this);
+        TsdrPersistenceServiceUtil.addTsdrPersistenceService("hbase",this);
         log.info("TSDR HBase Data Store is initialized.");
         System.out.println("TSDR HBase Data Store is initialized. "
             + "Please do not install another TSDR Data Store without uninstalling HBase Data Store.");
@@ -84,7 +96,7 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
      }
     
     /**
-     * Store TSDRMetricRecord.
+     * Store TSDRMetricRecord, the buffered writes of its table are sent before it returns.
      */
     @Override
     public void store(TSDRMetricRecord metrics){
@@ -97,14 +109,20 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
             return;
             }
             HBaseDataStoreFactory.getHBaseDataStore().create(entity);
+            flushCommit(entity.getTableName());
         } catch(TableNotFoundException e){
               TriggerTableCreatingTask();
+              throw new TSDRPersistenceException("HBase table was not found, the record was not stored",e);
+        } catch(IOException e){
+              throw new TSDRPersistenceException("Failed to store the record in HBase",e);
         }
          log.debug("Exiting store(TSDRMetricRecord)");
      }
 
     /**
      * Store a list of TSDRMetricRecord.
+     * The records are buffered per table and the buffered writes of the tables of the list
+     * are sent before it returns, so the records are in HBase once the store completes.
     */
     @Override
     public void store(List<TSDRRecord> recordList){
@@ -142,9 +160,14 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
                     HBaseDataStoreFactory.getHBaseDataStore().create(entityListMap.get(tableName));
 
                 }
+                flushCommit(keys);
 
             } catch(TableNotFoundException e){
                  TriggerTableCreatingTask();
+                 //Let the caller keep the records until the tables are created
+                 throw new TSDRPersistenceException("HBase table was not found, the records were not stored",e);
+            } catch(IOException e){
+                 throw new TSDRPersistenceException("Failed to store the records in HBase",e);
             }
         }
         log.debug("Exiting store(List<TSDRRecord>)");
@@ -160,6 +183,8 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
          //create the HTables used in TSDR.
          CreateTableTask createTableTask = new CreateTableTask();
          future = SchedulerService.getInstance().scheduleTask(createTableTask);
+         //send the buffered writes periodically
+         HBaseDataStoreFactory.getHBaseDataStore().startFlushTask();
          log.debug("Exiting start(timeout)");
     }
     /**
@@ -167,7 +192,14 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
      */
     @Override public void stop(int timeout) {
        log.debug("Entering stop(timeout)");
+        HBaseDataStoreFactory.getHBaseDataStore().stopFlushTask();
         closeConnections();
+        synchronized(this){
+            if(keyCache!=null){
+                keyCache.shutdown();
+                keyCache = null;
+            }
+        }
         log.debug("Exiting stop(timeout)");
     }
 
@@ -184,6 +216,15 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
             log.error("The tsdr metric key is null");
             return resultRecords;
         }
+        if(HBaseDataStoreFactory.getHBaseDataStore().isBinaryRowKey()){
+            for(HBaseEntity e:getBinaryRowKeyEntities(tsdrMetricKey, startTime, endTime)){
+                TSDRMetricRecord record = getTSDRMetricRecord(e, getKeyCache());
+                if(record!=null){
+                    resultRecords.add(record);
+                }
+            }
+            return resultRecords;
+        }
 
         //This is getting all data from the hbase table
         List<HBaseEntity> resultEntities = null;
@@ -214,29 +255,7 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
                 return resultRecords;
             }
 
-            //Add filter for node id
-            String nodeID = FormatUtil.getNodeIdFromTSDRKey(tsdrMetricKey);
-            if(!nodeID.isEmpty()){
-                substringFilterList.add("[NID=" + nodeID + "]");
-            }
-
-            //Add filter for metric name
-            String metricName = FormatUtil.getMetriNameFromTSDRKey(tsdrMetricKey);
-            if(!metricName.isEmpty()){
-                substringFilterList.add("[MN=" + metricName + "]");
-            }
-
-            //Add filter for record keys
-            List<RecordKeys> recKeys = FormatUtil.getRecordKeysFromTSDRKey(tsdrMetricKey);
-            String recKeyString = "[RK=";
-            if(!recKeys.isEmpty()){
-                for(RecordKeys recKey:recKeys){
-                    recKeyString = recKeyString + recKey.getKeyName() + ":" + recKey.getKeyValue() + ",";
-                }
-                recKeyString = recKeyString.substring(0,recKeyString.length() -1) + "]";
-                substringFilterList.add(recKeyString);
-            }
-
+            substringFilterList.addAll(getRowKeyFilters(tsdrMetricKey, true));
             resultEntities = null;
             resultEntities = HBaseDataStoreFactory.getHBaseDataStore().getDataByTimeRange(dataCategory,substringFilterList, startTime, endTime);
             for (HBaseEntity e : resultEntities) {
@@ -259,6 +278,15 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
             log.error("The data tsdrLogKey is not supported");
             return resultRecords;
         }
+        if(HBaseDataStoreFactory.getHBaseDataStore().isBinaryRowKey()){
+            for(HBaseEntity e:getBinaryRowKeyEntities(tsdrLogKey, startTime, endTime)){
+                TSDRLogRecord record = getTSDRLogRecord(e, getKeyCache());
+                if(record!=null){
+                    resultRecords.add(record);
+                }
+            }
+            return resultRecords;
+        }
 
         //the tsdr log key is just the data category
         if(FormatUtil.isDataCategoryKey(tsdrLogKey) 
@@ -287,23 +315,7 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
                 return resultRecords;
             }
 
-            //Add filter for node id
-            String nodeID = FormatUtil.getNodeIdFromTSDRKey(tsdrLogKey);
-            if(!nodeID.isEmpty()){
-                substringFilterList.add("[NID=" + nodeID + "]");
-            }
-
-            //Add filter for record keys
-            List<RecordKeys> recKeys = FormatUtil.getRecordKeysFromTSDRKey(tsdrLogKey);
-            String recKeyString = "[RK=";
-            if(!recKeys.isEmpty()){
-                for(RecordKeys recKey:recKeys){
-                    recKeyString = recKeyString + recKey.getKeyName() + ":" + recKey.getKeyValue() + ",";
-                }
-                recKeyString = recKeyString.substring(0,recKeyString.length() -1) + "]";
-                substringFilterList.add(recKeyString);
-            }
-
+            substringFilterList.addAll(getRowKeyFilters(tsdrLogKey, false));
             resultEntities = HBaseDataStoreFactory.getHBaseDataStore().getDataByTimeRange(dataCategory, substringFilterList, startTime, endTime);
         }
         for (HBaseEntity e : resultEntities) {
@@ -312,6 +324,149 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
         return resultRecords;
     }
 
+    /*
+     * The substring filters of the text row key for the node id, the metric name and the record keys of a key
+     */
+    private static List<String> getRowKeyFilters(String tsdrKey, boolean metric){
+        final List<String> substringFilterList = new ArrayList<>(3);
+        //Add filter for node id
+        String nodeID = FormatUtil.getNodeIdFromTSDRKey(tsdrKey);
+        if(!nodeID.isEmpty()){
+            substringFilterList.add("[NID=" + nodeID + "]");
+        }
+
+        //Add filter for metric name, a log key does not have one
+        if(metric){
+            String metricName = FormatUtil.getMetriNameFromTSDRKey(tsdrKey);
+            if(!metricName.isEmpty()){
+                substringFilterList.add("[MN=" + metricName + "]");
+            }
+        }
+
+        //Add filter for record keys
+        List<RecordKeys> recKeys = FormatUtil.getRecordKeysFromTSDRKey(tsdrKey);
+        String recKeyString = "[RK=";
+        if(!recKeys.isEmpty()){
+            for(RecordKeys recKey:recKeys){
+                recKeyString = recKeyString + recKey.getKeyName() + ":" + recKey.getKeyValue() + ",";
+            }
+            recKeyString = recKeyString.substring(0,recKeyString.length() -1) + "]";
+            substringFilterList.add(recKeyString);
+        }
+        return substringFilterList;
+    }
+
+    /**
+     * Retrieve a page of TSDRMetricRecords, the rows are read in the order of their row keys and the
+     * continuation token is the row key of the last row of the page.
+     */
+    @Override
+    public TSDRRecordPage<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startTime, long endTime, int pageSize, String continuationToken){
+        final int size = TSDRRecordPage.getPageSize(pageSize);
+        final List<HBaseEntity> entities = getEntityPage(tsdrMetricKey, true, startTime, endTime, size+1, continuationToken);
+        final boolean binaryRowKey = HBaseDataStoreFactory.getHBaseDataStore().isBinaryRowKey();
+        final List<TSDRMetricRecord> resultRecords = new ArrayList<>(size);
+        for(HBaseEntity e:entities.subList(0, Math.min(size, entities.size()))){
+            TSDRMetricRecord record = binaryRowKey ? getTSDRMetricRecord(e, getKeyCache()) : getTSDRMetricRecord(e);
+            if(record!=null){
+                resultRecords.add(record);
+            }
+        }
+        return new TSDRRecordPage<>(resultRecords, getContinuationToken(entities, size));
+    }
+
+    /**
+     * Retrieve a page of TSDRLogRecords, in the same order as the pages of the metrics.
+     */
+    @Override
+    public TSDRRecordPage<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startTime, long endTime, int pageSize, String continuationToken){
+        final int size = TSDRRecordPage.getPageSize(pageSize);
+        final List<HBaseEntity> entities = getEntityPage(tsdrLogKey, false, startTime, endTime, size+1, continuationToken);
+        final boolean binaryRowKey = HBaseDataStoreFactory.getHBaseDataStore().isBinaryRowKey();
+        final List<TSDRLogRecord> resultRecords = new ArrayList<>(size);
+        for(HBaseEntity e:entities.subList(0, Math.min(size, entities.size()))){
+            TSDRLogRecord record = binaryRowKey ? getTSDRLogRecord(e, getKeyCache()) : getTSDRLogRecord(e);
+            if(record!=null){
+                resultRecords.add(record);
+            }
+        }
+        return new TSDRRecordPage<>(resultRecords, getContinuationToken(entities, size));
+    }
+
+    /*
+     * One more row than the page size is read, if it exists the page is followed by another one
+     */
+    private static String getContinuationToken(List<HBaseEntity> entities, int pageSize){
+        if(entities.size()<=pageSize){
+            return null;
+        }
+        return TSDRRecordPage.toToken(entities.get(pageSize-1).getRowKeyBytes());
+    }
+
+    /*
+     * Retrieve up to the limit of rows of a key that come after the row of the continuation token.
+     */
+    private List<HBaseEntity> getEntityPage(String tsdrKey, boolean metric, long startTime, long endTime, int limit, String continuationToken){
+        final List<HBaseEntity> result = new ArrayList<>();
+        if(tsdrKey == null){
+            log.error("The tsdr key is null");
+            return result;
+        }
+        final HBaseDataStore dataStore = HBaseDataStoreFactory.getHBaseDataStore();
+        final byte[] afterRow = continuationToken!=null ? TSDRRecordPage.getPosition(continuationToken) : null;
+        try{
+            if(FormatUtil.isDataCategoryKey(tsdrKey) || FormatUtil.isDataCategory(tsdrKey)) {
+                String dataCategory = FormatUtil.isDataCategoryKey(tsdrKey) ? FormatUtil.getDataCategoryFromTSDRKey(tsdrKey) : tsdrKey;
+                return dataStore.getDataPage(dataCategory, dataStore.createTimeRangeScan(dataCategory, null, startTime, endTime, limit), afterRow, limit);
+            }
+            if(dataStore.isBinaryRowKey()){
+                //Every series is a contiguous range of rows, the series are read in the order of their rows
+                final List<TSDRCacheEntry> entries = new ArrayList<>();
+                TSDRKeyCache cache = getKeyCache();
+                TSDRCacheEntry entry = cache.getCacheEntry(tsdrKey);
+                for(TSDRCacheEntry e:entry!=null ? Collections.singletonList(entry) : cache.getMatchingCacheEntries(tsdrKey)){
+                    //A log key has no metric name
+                    if((e.getMetricName()!=null)==metric){
+                        entries.add(e);
+                    }
+                }
+                final int saltBuckets = dataStore.getSaltBuckets();
+                Collections.sort(entries, new Comparator<TSDRCacheEntry>() {
+                    @Override
+                    public int compare(TSDRCacheEntry o1, TSDRCacheEntry o2) {
+                        return Bytes.compareTo(TSDRHBaseRowKey.getStartRow(o1.getMd5ID(), Long.MAX_VALUE, saltBuckets),
+                                TSDRHBaseRowKey.getStartRow(o2.getMd5ID(), Long.MAX_VALUE, saltBuckets));
+                    }
+                });
+                for(TSDRCacheEntry e:entries){
+                    int remaining = limit - result.size();
+                    if(remaining<=0){
+                        break;
+                    }
+                    result.addAll(dataStore.getDataPage(e.getDataCategory().name(), dataStore.createRowRangeScan(
+                            TSDRHBaseRowKey.getStartRow(e.getMd5ID(), endTime, saltBuckets),
+                            TSDRHBaseRowKey.getStopRow(e.getMd5ID(), startTime, saltBuckets), remaining), afterRow, remaining));
+                }
+                return result;
+            }
+            if(metric ? !FormatUtil.isValidTSDRKey(tsdrKey) : !FormatUtil.isValidTSDRLogKey(tsdrKey)){
+                log.error("TSDR Key {} is not in the correct format",tsdrKey);
+                return result;
+            }
+            String dataCategory = FormatUtil.getDataCategoryFromTSDRKey(tsdrKey);
+            //The data category is a mandatory key for hbase as it defines the table name.
+            if(!FormatUtil.isDataCategory(dataCategory)){
+                log.error("Data Category is unknown {}",dataCategory);
+                return result;
+            }
+            return dataStore.getDataPage(dataCategory, dataStore.createTimeRangeScan(dataCategory,
+                    getRowKeyFilters(tsdrKey, metric), startTime, endTime, limit), afterRow, limit);
+        }catch(IOException e){
+            log.error("Failed to create the scan of key {}", tsdrKey, e);
+            return result;
+        }
+    }
+
     @Override
     public void purgeTSDRRecords(DataCategory category, Long retention_time){
          try{
@@ -361,6 +516,7 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
              DataCategory dataCategory = metricData.getTSDRDataCategory();
              if (dataCategory != null){
                  entity = HBasePersistenceUtil.getEntityFromMetricStats(metricData, dataCategory);
+                 setBinaryRowKey(entity, FormatUtil.getTSDRMetricKey(metricData));
              }
         }
         log.debug("Exiting convertToHBaseEntity(TSDRMetricRecord)");
@@ -381,6 +537,7 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
              DataCategory dataCategory = logData.getTSDRDataCategory();
              if (dataCategory != null){
                  entity = HBasePersistenceUtil.getEntityFromLogRecord(logData, dataCategory);
+                 setBinaryRowKey(entity, FormatUtil.getTSDRLogKey(logData));
              }
         }
         log.debug("Exiting convertToHBaseEntity(TSDRLogRecord)");
@@ -415,9 +572,18 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
     }
 
     private  void flushCommit(String tableName){
-        HBaseDataStoreFactory.getHBaseDataStore().flushCommit(tableName);
+        try{
+            HBaseDataStoreFactory.getHBaseDataStore().flushCommit(tableName);
+        }catch(IOException e){
+            throw new TSDRPersistenceException("Failed to flush the buffered writes of table " + tableName,e);
+        }
     }
 
+    /**
+     * Flush the buffered writes of the tables.
+     * @param tableNames - the table names
+     * @throws TSDRPersistenceException - the buffered writes of a table could not be sent, they are kept for the next flush
+     */
     public void flushCommit(Set<String> tableNames){
         log.debug("Entering flushing commits");
         for ( String tableName: tableNames){
@@ -437,12 +603,148 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
             return;
             }
             HBaseDataStoreFactory.getHBaseDataStore().create(entity);
+            flushCommit(entity.getTableName());
         } catch(TableNotFoundException e){
                TriggerTableCreatingTask();
+               throw new TSDRPersistenceException("HBase table was not found, the record was not stored",e);
+        } catch(IOException e){
+               throw new TSDRPersistenceException("Failed to store the record in HBase",e);
         }
          log.debug("Exiting store(TSDRMetricRecord)");
     }
 
+    /**
+     * The key cache that maps the series ids of the binary row keys to the TSDR keys.
+     * @return - the key cache
+     */
+    public synchronized TSDRKeyCache getKeyCache(){
+        if(keyCache==null){
+            keyCache = new TSDRKeyCache(HBaseDataStoreFactory.getHBaseDataStore().getKeyIDAlgorithm(),"hbase");
+        }
+        return keyCache;
+    }
+
+    /*
+     * Sets the binary row key of the entity when the data store uses binary row keys
+     */
+    private void setBinaryRowKey(HBaseEntity entity, String tsdrKey){
+        HBaseDataStore dataStore = HBaseDataStoreFactory.getHBaseDataStore();
+        if(entity==null || entity.getRowKey()==null || !dataStore.isBinaryRowKey()){
+            return;
+        }
+        TSDRCacheEntry cacheEntry = getKeyCache().addTSDRCacheEntry(tsdrKey);
+        long timeStamp = entity.getColumns().get(0).getTimeStamp();
+        entity.setRowKeyBytes(TSDRHBaseRowKey.create(cacheEntry.getMd5ID(), timeStamp, dataStore.getSaltBuckets()));
+    }
+
+    /*
+     * Retrieve the rows of a key with the binary row key. A data category is a scan of its table,
+     * otherwise every series that fits the (pseudo) key is a contiguous scan of its time range.
+     */
+    private List<HBaseEntity> getBinaryRowKeyEntities(String tsdrKey, long startTime, long endTime){
+        HBaseDataStore dataStore = HBaseDataStoreFactory.getHBaseDataStore();
+        if(FormatUtil.isDataCategory(tsdrKey)){
+            return dataStore.getDataByTimeRange(tsdrKey, startTime, endTime);
+        }
+        if(FormatUtil.isDataCategoryKey(tsdrKey)){
+            return dataStore.getDataByTimeRange(FormatUtil.getDataCategoryFromTSDRKey(tsdrKey), startTime, endTime);
+        }
+        final List<HBaseEntity> result = new ArrayList<>();
+        TSDRKeyCache cache = getKeyCache();
+        TSDRCacheEntry entry = cache.getCacheEntry(tsdrKey);
+        Collection<TSDRCacheEntry> entries = entry!=null ? Collections.singletonList(entry) : cache.getMatchingCacheEntries(tsdrKey);
+        for(TSDRCacheEntry e:entries){
+            int limit = TSDRHBaseDataStoreConstants.MAX_QUERY_RECORDS - result.size();
+            if(limit<=0){
+                break;
+            }
+            result.addAll(dataStore.getDataByRowRange(e.getDataCategory().name(),
+                    TSDRHBaseRowKey.getStartRow(e.getMd5ID(), endTime, dataStore.getSaltBuckets()),
+                    TSDRHBaseRowKey.getStopRow(e.getMd5ID(), startTime, dataStore.getSaltBuckets()), limit));
+        }
+        return result;
+    }
+
+    /**
+     * Rewrites the rows of a table that have the text row key with the binary row key.
+     * @param tableName - the table name, which is the data category
+     * @return - the number of rows that were migrated
+     * @throws IOException - an IOException
+     */
+    public long migrateRowKeys(final String tableName) throws IOException{
+        final HBaseDataStore dataStore = HBaseDataStoreFactory.getHBaseDataStore();
+        final TSDRKeyCache cache = getKeyCache();
+        log.info("Migrating the row keys of table {}", tableName);
+        long count = dataStore.migrateRowKeys(tableName, new HBaseDataStore.RowKeyConverter() {
+            @Override
+            public byte[] convert(byte[] rowKey) {
+                if(TSDRHBaseRowKey.isBinaryRowKey(rowKey)){
+                    return null;
+                }
+                String textRowKey = Bytes.toString(rowKey);
+                int index = textRowKey.indexOf(FormatUtil.KEY_TIMESTAMP);
+                if(index==-1){
+                    log.warn("Row {} of table {} has no time stamp and was not migrated", textRowKey, tableName);
+                    return null;
+                }
+                try {
+                    TSDRCacheEntry cacheEntry = cache.addTSDRCacheEntry(textRowKey.substring(0, index));
+                    return TSDRHBaseRowKey.create(cacheEntry.getMd5ID(),
+                            FormatUtil.getTimeStampFromTSDRKey(textRowKey), dataStore.getSaltBuckets());
+                } catch (RuntimeException e) {
+                    log.warn("Row {} of table {} is not a TSDR key and was not migrated", textRowKey, tableName, e);
+                    return null;
+                }
+            }
+        });
+        log.info("Migrated {} rows of table {}", count, tableName);
+        return count;
+    }
+
+    private static final TSDRMetricRecord getTSDRMetricRecord(HBaseEntity entity, TSDRKeyCache cache){
+        TSDRCacheEntry cacheEntry = getCacheEntry(entity, cache);
+        if(cacheEntry==null){
+            return null;
+        }
+        TSDRMetricRecordBuilder tsdrMetricRecordBuilder = new TSDRMetricRecordBuilder();
+        tsdrMetricRecordBuilder.setMetricName(cacheEntry.getMetricName());
+        tsdrMetricRecordBuilder.setMetricValue(new BigDecimal(Double.parseDouble(entity.getColumns().get(0).getValue())));
+        tsdrMetricRecordBuilder.setNodeID(cacheEntry.getNodeID());
+        tsdrMetricRecordBuilder.setRecordKeys(cacheEntry.getRecordKeys());
+        tsdrMetricRecordBuilder.setTimeStamp(TSDRHBaseRowKey.getTimeStamp(entity.getRowKeyBytes()));
+        tsdrMetricRecordBuilder.setTSDRDataCategory(cacheEntry.getDataCategory());
+        return tsdrMetricRecordBuilder.build();
+    }
+
+    private static final TSDRLogRecord getTSDRLogRecord(HBaseEntity entity, TSDRKeyCache cache){
+        TSDRCacheEntry cacheEntry = getCacheEntry(entity, cache);
+        if(cacheEntry==null){
+            return null;
+        }
+        TSDRLogRecordBuilder tsdrLogRecordBuilder = new TSDRLogRecordBuilder();
+        tsdrLogRecordBuilder.setTSDRDataCategory(cacheEntry.getDataCategory());
+        tsdrLogRecordBuilder.setTimeStamp(TSDRHBaseRowKey.getTimeStamp(entity.getRowKeyBytes()));
+        tsdrLogRecordBuilder.setRecordKeys(cacheEntry.getRecordKeys());
+        tsdrLogRecordBuilder.setNodeID(cacheEntry.getNodeID());
+        setLogRecordColumns(tsdrLogRecordBuilder, entity);
+        return tsdrLogRecordBuilder.build();
+    }
+
+    /*
+     * Rows that were not migrated or whose series is unknown are skipped
+     */
+    private static final TSDRCacheEntry getCacheEntry(HBaseEntity entity, TSDRKeyCache cache){
+        if(!TSDRHBaseRowKey.isBinaryRowKey(entity.getRowKeyBytes())){
+            log.debug("Row {} of table {} does not have a binary row key", entity.getRowKey(), entity.getTableName());
+            return null;
+        }
+        TSDRCacheEntry cacheEntry = cache.getCacheEntry(TSDRHBaseRowKey.getSeriesID(entity.getRowKeyBytes()));
+        if(cacheEntry==null){
+            log.debug("Unknown series of row in table {}", entity.getTableName());
+        }
+        return cacheEntry;
+    }
+
     private static final TSDRMetricRecord getTSDRMetricRecord(HBaseEntity entity){
         TSDRMetricRecordBuilder tsdrMetricRecordBuilder = new TSDRMetricRecordBuilder();
         tsdrMetricRecordBuilder.setMetricName(FormatUtil.getMetriNameFromTSDRKey(entity.getRowKey()));
@@ -460,17 +762,37 @@ public class TSDRHBasePersistenceServiceImpl  implements TsdrPersistenceService
         tsdrLogRecordBuilder.setTimeStamp(FormatUtil.getTimeStampFromTSDRKey(entity.getRowKey()));
         tsdrLogRecordBuilder.setRecordKeys(FormatUtil.getRecordKeysFromTSDRKey(entity.getRowKey()));
         tsdrLogRecordBuilder.setNodeID(FormatUtil.getNodeIdFromTSDRKey(entity.getRowKey()));
-        tsdrLogRecordBuilder.setIndex(-1);
-        tsdrLogRecordBuilder.setRecordAttributes(null);
+        setLogRecordColumns(tsdrLogRecordBuilder, entity);
+        return tsdrLogRecordBuilder.build();
+    }
+
+    /*
+     * The full text, the index and the attributes of a log record are its columns,
+     * rows that were written without the index column get -1
+     */
+    private static final void setLogRecordColumns(TSDRLogRecordBuilder tsdrLogRecordBuilder, HBaseEntity entity){
         String fullText = null;
+        int index = -1;
+        List<RecordAttributes> attributes = new ArrayList<>();
         for ( HBaseColumn column: entity.getColumns()){
             if (column.getColumnQualifier().equalsIgnoreCase(TSDRHBaseDataStoreConstants.LOGRECORD_FULL_TEXT)){
                 fullText = column.getValue();
-                break;
+            }else if (column.getColumnQualifier().equalsIgnoreCase(TSDRHBaseDataStoreConstants.LOGRECORD_INDEX)){
+                try{
+                    index = Integer.parseInt(column.getValue());
+                }catch(NumberFormatException e){
+                    log.debug("Invalid index {} of row {}", column.getValue(), entity.getRowKey());
+                }
+            }else{
+                RecordAttributesBuilder rab = new RecordAttributesBuilder();
+                rab.setName(column.getColumnQualifier());
+                rab.setValue(column.getValue());
+                attributes.add(rab.build());
             }
         }
+        tsdrLogRecordBuilder.setIndex(index);
+        tsdrLogRecordBuilder.setRecordAttributes(attributes.isEmpty() ? null : attributes);
         tsdrLogRecordBuilder.setRecordFullText(fullText);
-        return tsdrLogRecordBuilder.build();
     }
 
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.hbase;
+
+import org.opendaylight.tsdr.spi.util.MD5ID;
+
+/**
+ * The compact binary row key of the TSDR HBase tables.
+ *
+ * <p>
+ * The row key is a salt byte, the 16 bytes id of the series (TSDRKeyCache) and the reversed timestamp
+ * as a big endian long, 25 bytes in total. The salt is derived from the series id, so all the rows of a series
+ * are contiguous and sorted by time, newest first, while the series are spread across the regions.
+ * A time range of a series is therefore a single contiguous scan.
+ * The salt is below '[', the first byte of every text row key, so the two formats can be told apart.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRHBaseRowKey {
+
+    public static final int SALT_LENGTH = 1;
+    public static final int SERIES_ID_LENGTH = 16;
+    public static final int ROW_KEY_LENGTH = SALT_LENGTH + SERIES_ID_LENGTH + 8;
+    public static final int DEFAULT_SALT_BUCKETS = 16;
+    //A text TSDR key starts with '[', the salt is always below it so a binary row key is never taken for a text one
+    public static final int MAX_SALT_BUCKETS = '[';
+
+    private TSDRHBaseRowKey(){
+    }
+
+    /**
+     * @param seriesID - The id of the series
+     * @param saltBuckets - The number of salt buckets
+     * @return - The salt byte of the series
+     */
+    public static final byte getSalt(MD5ID seriesID, int saltBuckets){
+        return (byte)((seriesID.getMd5Long1() & Long.MAX_VALUE) % saltBuckets);
+    }
+
+    /**
+     * @param seriesID - The id of the series
+     * @param timeStamp - The time of the sample
+     * @param saltBuckets - The number of salt buckets
+     * @return - The row key of the sample
+     */
+    public static final byte[] create(MD5ID seriesID, long timeStamp, int saltBuckets){
+        byte[] rowKey = new byte[ROW_KEY_LENGTH];
+        rowKey[0] = getSalt(seriesID,saltBuckets);
+        putLong(rowKey,SALT_LENGTH,seriesID.getMd5Long1());
+        putLong(rowKey,SALT_LENGTH+8,seriesID.getMd5Long2());
+        putLong(rowKey,SALT_LENGTH+SERIES_ID_LENGTH,Long.MAX_VALUE-timeStamp);
+        return rowKey;
+    }
+
+    /**
+     * @param seriesID - The id of the series
+     * @param endTime - The end of the time range, 0 for no end
+     * @param saltBuckets - The number of salt buckets
+     * @return - The first row key of the series in the time range, the newest sample comes first
+     */
+    public static final byte[] getStartRow(MD5ID seriesID, long endTime, int saltBuckets){
+        return create(seriesID,endTime==0 ? Long.MAX_VALUE : endTime,saltBuckets);
+    }
+
+    /**
+     * @param seriesID - The id of the series
+     * @param startTime - The start of the time range, 0 for no start
+     * @param saltBuckets - The number of salt buckets
+     * @return - The row key that is right after the last row key of the series in the time range
+     */
+    public static final byte[] getStopRow(MD5ID seriesID, long startTime, int saltBuckets){
+        if(startTime<=0){
+            //The row key after the series prefix
+            byte[] stopRow = create(seriesID,Long.MAX_VALUE,saltBuckets);
+            for(int i=SALT_LENGTH+SERIES_ID_LENGTH-1;i>=0;i--){
+                if(stopRow[i]!=(byte)0xFF){
+                    stopRow[i]++;
+                    byte[] prefix = new byte[i+1];
+                    System.arraycopy(stopRow,0,prefix,0,i+1);
+                    return prefix;
+                }
+            }
+            return new byte[0];
+        }
+        return create(seriesID,startTime-1,saltBuckets);
+    }
+
+    /**
+     * @param rowKey - A row key
+     * @return - true if the row key is a binary row key and not a text TSDR key
+     */
+    public static final boolean isBinaryRowKey(byte[] rowKey){
+        return rowKey!=null && rowKey.length==ROW_KEY_LENGTH && rowKey[0]!='[';
+    }
+
+    /**
+     * @param rowKey - A binary row key
+     * @return - The id of the series
+     */
+    public static final MD5ID getSeriesID(byte[] rowKey){
+        return MD5ID.createTSDRID(getLong(rowKey,SALT_LENGTH),getLong(rowKey,SALT_LENGTH+8));
+    }
+
+    /**
+     * @param rowKey - A binary row key
+     * @return - The time of the sample
+     */
+    public static final long getTimeStamp(byte[] rowKey){
+        return Long.MAX_VALUE-getLong(rowKey,SALT_LENGTH+SERIES_ID_LENGTH);
+    }
+
+    private static final void putLong(byte[] b, int offset, long value){
+        for(int i=0;i<8;i++){
+            b[offset+i] = (byte)(value >>> (56-i*8));
+        }
+    }
+
+    private static final long getLong(byte[] b, int offset){
+        long value = 0;
+        for(int i=0;i<8;i++){
+            value = (value << 8) | (b[offset+i] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.hbase.command;
+
+import java.util.Collections;
+import java.util.List;
+import org.apache.karaf.shell.commands.Argument;
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.console.OsgiCommandSupport;
+import org.opendaylight.tsdr.persistence.hbase.HBaseDataStoreFactory;
+import org.opendaylight.tsdr.persistence.hbase.HBasePersistenceUtil;
+import org.opendaylight.tsdr.persistence.hbase.TSDRHBasePersistenceServiceImpl;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+
+/**
+ * This command rewrites the rows that were stored with the text row key (the TSDR key with the time stamp)
+ * with the compact binary row key, so tables created by previous versions can be used with rowkey.format=binary.
+ * Rows that already have the binary row key are skipped, so the command can be run again after a failure.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+@Command(scope = "tsdr", name = "hbase-migrate-rowkeys", description = "Converts the text row keys of the TSDR HBase tables to binary row keys")
+public class MigrateRowKeysCommand extends OsgiCommandSupport {
+
+    private TSDRHBasePersistenceServiceImpl persistenceService;
+
+    @Argument(index=0, name="category", required=false, description="The category (table) to migrate, all the tables if not specified", multiValued=false)
+    public String category = null;
+
+    public void setPersistenceService(TSDRHBasePersistenceServiceImpl persistenceService) {
+        this.persistenceService = persistenceService;
+    }
+
+    @Override
+    protected Object doExecute() throws Exception {
+        if(!HBaseDataStoreFactory.getHBaseDataStore().isBinaryRowKey()){
+            System.out.println("The row key format is not binary, set rowkey.format=binary in tsdr-persistence-hbase.properties first.");
+            return null;
+        }
+        List<String> tables = null;
+        if(category!=null){
+            if(!FormatUtil.isDataCategory(category)){
+                System.out.println("Unknown category " + category);
+                return null;
+            }
+            tables = Collections.singletonList(category);
+        }else{
+            tables = HBasePersistenceUtil.getTSDRHBaseTables();
+        }
+        for(String table:tables){
+            long count = persistenceService.migrateRowKeys(table);
+            System.out.println(table + ": " + count + " rows migrated");
+        }
+        return null;
+    }
+}
@@ -45,6 +45,8 @@ import org.apache.hadoop.hbase.client.ResultScanner;
 
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.eclipse.jdt.internal.core.Assert;
 
 import static org.mockito.Matchers.any;
@@ -207,6 +209,48 @@ public class HBaseDataStoreTest {
         hbaseDataStore.getDataByTimeRange("tableName",filters, 0L, 100);
     }
 
+    @Test
+    public void testCreateTimeRangeScan() throws Exception{
+        List<String> filters = new ArrayList<String>();
+        filters.add("[NID=openflow:1]");
+        filters.add("[MN=PacketsReceived]");
+        filters.add("[RK=Node:openflow:1]");
+        Scan scan = hbaseDataStore.createTimeRangeScan("PORTSTATS", filters, 100L, 200L);
+        Assert.isTrue("[NID=openflow:1][DC=PORTSTATS][MN=PacketsReceived][RK=Node:openflow:1]".equals(Bytes.toString(scan.getStartRow())));
+        Assert.isTrue("[NID=openflow:1][DC=PORTSTATS][MN=PacketsReceived][RK=Node:openflow:1^".equals(Bytes.toString(scan.getStopRow())));
+        //Only the page filter is left
+        Assert.isTrue(((FilterList)scan.getFilter()).getFilters().size()==1);
+        Assert.isTrue(filters.size()==3);
+
+        filters.clear();
+        filters.add("[NID=openflow:1]");
+        filters.add("[RK=Node:openflow:1]");
+        scan = hbaseDataStore.createTimeRangeScan("PORTSTATS", filters, 100L, 200L);
+        Assert.isTrue("[NID=openflow:1][DC=PORTSTATS]".equals(Bytes.toString(scan.getStartRow())));
+        Assert.isTrue(((FilterList)scan.getFilter()).getFilters().size()==2);
+
+        filters.clear();
+        filters.add("[MN=PacketsReceived]");
+        scan = hbaseDataStore.createTimeRangeScan("PORTSTATS", filters, 100L, 200L);
+        Assert.isTrue(scan.getStartRow().length==0);
+        Assert.isTrue(((FilterList)scan.getFilter()).getFilters().size()==2);
+    }
+
+    @Test
+    public void testGetDataPage() throws Exception{
+        List<String> filters = new ArrayList<String>();
+        filters.add("[NID=openflow:1]");
+        Scan scan = hbaseDataStore.createTimeRangeScan("PORTSTATS", filters, 100L, 200L, 10);
+        byte[] afterRow = Bytes.toBytes("[NID=openflow:1][DC=PORTSTATS][MN=PacketsReceived]");
+        Assert.isTrue(hbaseDataStore.getDataPage("PORTSTATS", scan, afterRow, 10).size()==1);
+        //The page continues right after the last row of the previous page
+        Assert.isTrue(Bytes.compareTo(scan.getStartRow(), afterRow)>0);
+        Assert.isTrue(scan.getStartRow().length==afterRow.length+1);
+        //Nothing is left after the last row of the scan
+        scan = hbaseDataStore.createTimeRangeScan("PORTSTATS", filters, 100L, 200L, 10);
+        Assert.isTrue(hbaseDataStore.getDataPage("PORTSTATS", scan, scan.getStopRow(), 10).isEmpty());
+    }
+
     @Test
     public void testCreateEntity() throws Exception{
         HBaseEntity dentity = new HBaseEntity();
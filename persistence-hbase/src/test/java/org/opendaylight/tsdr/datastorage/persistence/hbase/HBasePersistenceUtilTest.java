@@ -18,8 +18,10 @@ import static org.mockito.Mockito.mock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.opendaylight.tsdr.persistence.hbase.HBaseColumn;
 import org.opendaylight.tsdr.persistence.hbase.HBaseEntity;
 import org.opendaylight.tsdr.persistence.hbase.HBasePersistenceUtil;
+import org.opendaylight.tsdr.persistence.hbase.TSDRHBaseDataStoreConstants;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRLog;
@@ -89,6 +91,13 @@ public class HBasePersistenceUtilTest {
         HBaseEntity entity = null;
         entity = hBasePersistenceUtil.getEntityFromLogRecord((TSDRLogRecord)tsdrLog1, DataCategory.SYSLOG);
         assertTrue(entity != null);
+        boolean hasIndex = false;
+        for (HBaseColumn column : entity.getColumns()) {
+            if (TSDRHBaseDataStoreConstants.LOGRECORD_INDEX.equals(column.getColumnQualifier())) {
+                hasIndex = "1".equals(column.getValue());
+            }
+        }
+        assertTrue(hasIndex);
     }
 
     @After
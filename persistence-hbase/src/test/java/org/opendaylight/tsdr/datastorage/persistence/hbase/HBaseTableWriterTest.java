@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage.persistence.hbase;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.tsdr.persistence.hbase.HBaseTableWriter;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class HBaseTableWriterTest {
+
+    private HTableInterface table;
+    private HBaseTableWriter writer;
+
+    @Before
+    public void setup() throws IOException {
+        table = mock(HTableInterface.class);
+        writer = new HBaseTableWriter("PORTSTATS", table, false, 1024);
+    }
+
+    @Test
+    public void testWriteIsBuffered() throws IOException {
+        verify(table).setAutoFlush(false);
+        verify(table).setWriteBufferSize(1024);
+        writer.write(createPuts(3));
+        writer.write(createPuts(2));
+        verify(table, never()).flushCommits();
+        Assert.assertEquals(2, writer.getWriteCount());
+        Assert.assertEquals(5, writer.getPutCount());
+        writer.flush();
+        verify(table, times(1)).flushCommits();
+        Assert.assertEquals(1, writer.getFlushCount());
+        //Nothing is pending, no need to flush
+        writer.flush();
+        verify(table, times(1)).flushCommits();
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        writer.write(createPuts(1));
+        writer.close();
+        verify(table).flushCommits();
+        verify(table).close();
+    }
+
+    @Test
+    public void testWriteFailure() throws IOException {
+        doThrow(new IOException()).when(table).put(any(List.class));
+        try {
+            writer.write(createPuts(1));
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            Assert.assertEquals(1, writer.getFailureCount());
+        }
+        Assert.assertEquals(1, writer.getWriteCount());
+    }
+
+    @Test
+    public void testFlushFailureKeepsTheBuffer() throws IOException {
+        doThrow(new IOException()).doThrow(new IOException()).doNothing().when(table).flushCommits();
+        writer.write(createPuts(3));
+        try {
+            writer.flush();
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            Assert.assertEquals(3, writer.getPendingPuts());
+        }
+        //The next write sends the buffer first and fails while it cannot be sent
+        try {
+            writer.write(createPuts(1));
+            Assert.fail("Expected an IOException");
+        } catch (IOException e) {
+            Assert.assertEquals(3, writer.getPendingPuts());
+        }
+        verify(table, times(1)).put(any(List.class));
+        writer.write(createPuts(1));
+        Assert.assertEquals(1, writer.getPendingPuts());
+        Assert.assertEquals(2, writer.getFailureCount());
+    }
+
+    private static List<Put> createPuts(int count){
+        List<Put> puts = new ArrayList<>(count);
+        for(int i=0;i<count;i++){
+            Put p = new Put(Bytes.toBytes("row" + i));
+            p.add(Bytes.toBytes("c1"), Bytes.toBytes("raw"), Bytes.toBytes(i));
+            puts.add(p);
+        }
+        return puts;
+    }
+}
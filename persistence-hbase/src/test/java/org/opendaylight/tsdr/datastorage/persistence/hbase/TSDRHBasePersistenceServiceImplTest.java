@@ -8,6 +8,7 @@
  */
 package org.opendaylight.tsdr.datastorage.persistence.hbase;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -29,9 +30,11 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.opendaylight.tsdr.persistence.hbase.HBaseColumn;
 import org.opendaylight.tsdr.persistence.hbase.HBaseDataStore;
+import org.opendaylight.tsdr.persistence.hbase.HBaseDataStoreFactory;
 import org.opendaylight.tsdr.persistence.hbase.HBaseEntity;
 import org.opendaylight.tsdr.persistence.hbase.TSDRHBasePersistenceServiceImpl;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
 import org.opendaylight.tsdr.spi.scheduler.SchedulerService;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRLog;
@@ -49,8 +52,13 @@ import junit.framework.Assert;
 
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 /**
  * Unit Test for HBase data store under TSDR.
@@ -227,6 +235,33 @@ public class TSDRHBasePersistenceServiceImplTest {
         storageService.flushCommit(tableNames);
     }
 
+    @Test
+    public void testStoreListFlushesTheTables() throws Exception {
+        TSDRMetricRecord metric = new TSDRMetricRecordBuilder().setMetricName("PacketsMatched")
+            .setMetricValue(new BigDecimal(1))
+            .setNodeID("node1")
+            .setRecordKeys(new ArrayList<RecordKeys>())
+            .setTSDRDataCategory(DataCategory.FLOWTABLESTATS)
+            .setTimeStamp(System.currentTimeMillis()).build();
+        List<TSDRRecord> recordList = new ArrayList<TSDRRecord>();
+        recordList.add(metric);
+        storageService.store(recordList);
+        //The data store of the first test is shared by all the tests
+        HBaseDataStore dataStore = HBaseDataStoreFactory.getHBaseDataStore();
+        verify(dataStore,atLeastOnce()).flushCommit(DataCategory.FLOWTABLESTATS.name());
+
+        //A failed flush fails the store, the caller keeps the records
+        doThrow(new IOException("flush failed")).when(dataStore).flushCommit(anyString());
+        try{
+            storageService.store(recordList);
+            Assert.fail("The store should fail when the buffered writes are not sent");
+        }catch(TSDRPersistenceException e){
+            //expected
+        }finally{
+            doNothing().when(dataStore).flushCommit(anyString());
+        }
+    }
+
     @Test
     public void testStoreLog() {
         String timeStamp = (new Long((new Date()).getTime())).toString();
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.datastorage.persistence.hbase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.tsdr.persistence.hbase.TSDRHBaseRowKey;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRHBaseRowKeyTest {
+
+    private static final MD5ID SERIES = MD5ID.createTSDRID("[NID=openflow:1][DC=PORTSTATS][MN=PacketsReceived][RK=Node:openflow:1]");
+    private static final MD5ID OTHER_SERIES = MD5ID.createTSDRID("[NID=openflow:2][DC=PORTSTATS][MN=PacketsReceived][RK=Node:openflow:2]");
+
+    @Test
+    public void testCreateAndParse(){
+        byte[] rowKey = TSDRHBaseRowKey.create(SERIES, 1454000000000L, 16);
+        Assert.assertEquals(TSDRHBaseRowKey.ROW_KEY_LENGTH, rowKey.length);
+        Assert.assertTrue(TSDRHBaseRowKey.isBinaryRowKey(rowKey));
+        Assert.assertTrue(rowKey[0] >= 0 && rowKey[0] < 16);
+        Assert.assertEquals(SERIES, TSDRHBaseRowKey.getSeriesID(rowKey));
+        Assert.assertEquals(1454000000000L, TSDRHBaseRowKey.getTimeStamp(rowKey));
+        Assert.assertFalse(TSDRHBaseRowKey.isBinaryRowKey(Bytes.toBytes("[NID=openflow:1][DC=PORTSTATS][MN=PacketsReceived][RK=][TS=1]")));
+    }
+
+    @Test
+    public void testNewestFirst(){
+        byte[] older = TSDRHBaseRowKey.create(SERIES, 1000L, 16);
+        byte[] newer = TSDRHBaseRowKey.create(SERIES, 2000L, 16);
+        Assert.assertTrue(Bytes.compareTo(newer, older) < 0);
+    }
+
+    @Test
+    public void testTimeRange(){
+        byte[] startRow = TSDRHBaseRowKey.getStartRow(SERIES, 2000L, 16);
+        byte[] stopRow = TSDRHBaseRowKey.getStopRow(SERIES, 1000L, 16);
+        Assert.assertTrue(inRange(TSDRHBaseRowKey.create(SERIES, 2000L, 16), startRow, stopRow));
+        Assert.assertTrue(inRange(TSDRHBaseRowKey.create(SERIES, 1500L, 16), startRow, stopRow));
+        Assert.assertTrue(inRange(TSDRHBaseRowKey.create(SERIES, 1000L, 16), startRow, stopRow));
+        Assert.assertFalse(inRange(TSDRHBaseRowKey.create(SERIES, 999L, 16), startRow, stopRow));
+        Assert.assertFalse(inRange(TSDRHBaseRowKey.create(SERIES, 2001L, 16), startRow, stopRow));
+        Assert.assertFalse(inRange(TSDRHBaseRowKey.create(OTHER_SERIES, 1500L, 16), startRow, stopRow));
+    }
+
+    @Test
+    public void testWholeSeries(){
+        byte[] startRow = TSDRHBaseRowKey.getStartRow(SERIES, 0, 16);
+        byte[] stopRow = TSDRHBaseRowKey.getStopRow(SERIES, 0, 16);
+        Assert.assertTrue(inRange(TSDRHBaseRowKey.create(SERIES, 0L, 16), startRow, stopRow));
+        Assert.assertTrue(inRange(TSDRHBaseRowKey.create(SERIES, System.currentTimeMillis(), 16), startRow, stopRow));
+        Assert.assertFalse(inRange(TSDRHBaseRowKey.create(OTHER_SERIES, 1500L, 16), startRow, stopRow));
+    }
+
+    private static boolean inRange(byte[] row, byte[] startRow, byte[] stopRow){
+        return Bytes.compareTo(row, startRow) >= 0 && Bytes.compareTo(row, stopRow) < 0;
+    }
+
+    @Test
+    public void testSaltIsNeverATextRowKey(){
+        for(int i=0;i<1000;i++){
+            MD5ID series = MD5ID.createTSDRID("[NID=openflow:"+i+"][DC=PORTSTATS][MN=PacketsReceived][RK=]");
+            byte[] rowKey = TSDRHBaseRowKey.create(series, i, TSDRHBaseRowKey.MAX_SALT_BUCKETS);
+            Assert.assertTrue(rowKey[0] >= 0 && rowKey[0] < '[');
+            Assert.assertTrue(TSDRHBaseRowKey.isBinaryRowKey(rowKey));
+        }
+    }
+}
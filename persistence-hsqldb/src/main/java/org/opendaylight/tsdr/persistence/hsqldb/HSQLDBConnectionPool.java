@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.hsqldb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small pool of connections to the TSDR database.
+ *
+ * <p>
+ * A connection is used by one thread at a time, so every write batch runs in its own transaction
+ * and the threads do not share the state of a single connection. The connections are opened on demand,
+ * up to the size of the pool, a thread waits for a free connection once all of them are in use.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class HSQLDBConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(HSQLDBConnectionPool.class);
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    private final String url;
+    private final int size;
+    private final LinkedBlockingQueue<Connection> idle = new LinkedBlockingQueue<>();
+    private final List<Connection> connections = new ArrayList<>();
+    private boolean closed = false;
+
+    /**
+     * @param url - The jdbc url of the database
+     * @param size - The maximum number of connections
+     */
+    public HSQLDBConnectionPool(String url, int size){
+        this.url = url;
+        this.size = size;
+    }
+
+    /**
+     * A pool of a single, already open, connection.
+     * @param connection - The connection
+     */
+    public HSQLDBConnectionPool(Connection connection){
+        this.url = null;
+        this.size = 1;
+        this.connections.add(connection);
+        this.idle.add(connection);
+    }
+
+    /**
+     * Takes a connection from the pool, the connection has to be released when it is no longer used.
+     * @return - A connection
+     * @throws SQLException - If a new connection could not be opened or the pool was closed
+     */
+    public Connection getConnection() throws SQLException {
+        Connection connection = idle.poll();
+        if(connection!=null){
+            return connection;
+        }
+        synchronized (this) {
+            if(closed){
+                throw new SQLException("The connection pool was closed");
+            }
+            if(connections.size()<size){
+                connection = DriverManager.getConnection(url,"sa","");
+                connections.add(connection);
+                return connection;
+            }
+        }
+        try {
+            return idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection",e);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     * @param connection - A connection that was taken from the pool
+     */
+    public void release(Connection connection){
+        if(connection!=null){
+            idle.add(connection);
+        }
+    }
+
+    /**
+     * Closes all the connections of the pool.
+     */
+    public synchronized void close(){
+        closed = true;
+        for(Connection connection:connections){
+            try{
+                connection.close();
+            }catch(Exception err){
+                log.error("Failed to close the DB Connection",err);
+            }
+        }
+        connections.clear();
+        idle.clear();
+    }
+
+    public int getSize(){
+        return size;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.hsqldb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+
+/**
+ * The daily partitions of a TSDR table.
+ *
+ * <p>
+ * In the partitioned layout every data category has a table per day, named
+ * [prefix]_[category]_[day] where day is the number of days since the epoch. The partitions
+ * route the records to the table of their category and day and find the tables of a time range,
+ * the retention of a category is a drop of its expired tables.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class HSQLDBPartitions {
+
+    public static final long PARTITION_SIZE = 24L * 60 * 60 * 1000;
+
+    private final String prefix;
+    private final ConcurrentHashMap<DataCategory,NavigableSet<Integer>> days = new ConcurrentHashMap<>();
+
+    /**
+     * @param prefix - The prefix of the table names, e.g. METRICS
+     */
+    public HSQLDBPartitions(String prefix){
+        this.prefix = prefix;
+    }
+
+    public String getPrefix(){
+        return prefix;
+    }
+
+    /**
+     * @param time - A time in milliseconds
+     * @return - The day of the partition that holds the time, the times before the epoch are held by day 0
+     *           as a table name can not have a negative day
+     */
+    public static final int getDay(long time){
+        return (int)Math.max(0,Math.floor((double)time/PARTITION_SIZE));
+    }
+
+    /**
+     * @param category - The data category
+     * @param day - The day
+     * @return - The name of the table of the category and the day
+     */
+    public String getTableName(DataCategory category, int day){
+        return prefix+"_"+category.name()+"_"+day;
+    }
+
+    /**
+     * Adds the tables of the partitions that already exist in the database.
+     * @param tableNames - The table names, names that are not partition names of this prefix are ignored
+     */
+    public void load(Collection<String> tableNames){
+        for(String tableName:tableNames){
+            String name = tableName.toUpperCase();
+            if(!name.startsWith(prefix+"_")){
+                continue;
+            }
+            int index = name.lastIndexOf('_');
+            if(index<=prefix.length()){
+                continue;
+            }
+            try {
+                DataCategory category = DataCategory.valueOf(name.substring(prefix.length()+1,index));
+                add(category,Integer.parseInt(name.substring(index+1)));
+            }catch(IllegalArgumentException e){
+                //Not a partition table
+            }
+        }
+    }
+
+    /**
+     * @param category - The data category
+     * @param day - The day
+     * @return - true if the table of the partition exists
+     */
+    public boolean contains(DataCategory category, int day){
+        NavigableSet<Integer> categoryDays = days.get(category);
+        return categoryDays!=null && categoryDays.contains(day);
+    }
+
+    /**
+     * Marks the table of the partition as existing.
+     * @param category - The data category
+     * @param day - The day
+     */
+    public void add(DataCategory category, int day){
+        NavigableSet<Integer> categoryDays = days.get(category);
+        if(categoryDays==null){
+            categoryDays = new ConcurrentSkipListSet<>();
+            NavigableSet<Integer> existing = days.putIfAbsent(category,categoryDays);
+            if(existing!=null){
+                categoryDays = existing;
+            }
+        }
+        categoryDays.add(day);
+    }
+
+    /**
+     * Marks the table of the partition as dropped.
+     * @param category - The data category
+     * @param day - The day
+     */
+    public void remove(DataCategory category, int day){
+        NavigableSet<Integer> categoryDays = days.get(category);
+        if(categoryDays!=null){
+            categoryDays.remove(day);
+        }
+    }
+
+    /**
+     * @param category - The data category
+     * @param startTime - The start of the time range
+     * @param endTime - The end of the time range
+     * @return - The existing tables of the category in the time range, oldest first
+     */
+    public List<String> getTables(DataCategory category, long startTime, long endTime){
+        List<String> result = new ArrayList<>();
+        for(Integer day:getDays(category,startTime,endTime)){
+            result.add(getTableName(category,day));
+        }
+        return result;
+    }
+
+    /**
+     * @param category - The data category
+     * @param startTime - The start of the time range
+     * @param endTime - The end of the time range
+     * @return - The days of the existing partitions of the category in the time range, oldest first
+     */
+    public List<Integer> getDays(DataCategory category, long startTime, long endTime){
+        List<Integer> result = new ArrayList<>();
+        NavigableSet<Integer> categoryDays = days.get(category);
+        if(categoryDays!=null && endTime>=startTime){
+            result.addAll(categoryDays.subSet(getDay(startTime),true,getDay(endTime),true));
+        }
+        return result;
+    }
+
+    /**
+     * @param category - The data category
+     * @param retentionTime - The time before which the records are purged
+     * @return - The days of the category whose partitions hold only records before the retention time
+     */
+    public List<Integer> getExpiredDays(DataCategory category, long retentionTime){
+        List<Integer> result = new ArrayList<>();
+        NavigableSet<Integer> categoryDays = days.get(category);
+        if(categoryDays!=null){
+            //A partition expires once its whole day is before the retention time
+            result.addAll(categoryDays.headSet(getDay(retentionTime),false));
+        }
+        return result;
+    }
+}
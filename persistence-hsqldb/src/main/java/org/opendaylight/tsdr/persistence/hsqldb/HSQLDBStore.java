@@ -7,22 +7,38 @@
  */
 package org.opendaylight.tsdr.persistence.hsqldb;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.tsdr.spi.util.TSDRAggregationUtil;
 import org.opendaylight.tsdr.spi.util.TSDRKeyCache;
 import org.opendaylight.tsdr.spi.util.TSDRKeyCache.TSDRCacheEntry;
-import org.opendaylight.tsdr.spi.util.TSDRKeyCache.TSDRLogCollectJob;
-import org.opendaylight.tsdr.spi.util.TSDRKeyCache.TSDRMetricCollectJob;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
@@ -32,18 +48,50 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.Recor
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 /**
+ * The records are written through prepared statements in batches, a batch is collected per thread
+ * between startBatch and executeBatch and is written in a single transaction on a connection of the pool.
+ * In the partitioned layout, table_layout in the configuration file, the metrics and logs are stored in a cached
+ * table per data category per day and the retention drops the expired tables instead of deleting rows.
+ * The partitioned layout does not read the records that were stored in the METRICS and LOGS tables of the
+ * single table layout, so an existing database should stay on the single table layout.
  * @author Sharon Aicler(saichler@gmail.com)
  **/
 public class HSQLDBStore {
-    private Connection connection = null;
     private static final Logger log = LoggerFactory.getLogger(HSQLDBStore.class);
-    private TSDRKeyCache cache = new TSDRKeyCache();
+    private static final String confFile = "./etc/tsdr-persistence-hsqldb.properties";
+    private static final String URL = "jdbc:hsqldb:./tsdr/tsdr-hsqldb";
+    private final Map<String,String> config = loadConfig();
+    private TSDRKeyCache cache = new TSDRKeyCache(getKeyIDAlgorithm(),"hsqldb");
     private static final String METRIC_TABLE = "METRICS";
     private static final String LOG_TABLE = "LOGS";
+    private static final String AGGREGATION_TABLE = "AGGREGATIONS";
+    //Merges an aggregation into the stored aggregation of the same period, HSQLDB 1.8 has no MERGE
+    private static final String UPDATE_AGGREGATION_SQL = "update "+AGGREGATION_TABLE+" set minValue=CASEWHEN(minValue<=?,minValue,?)," +
+            "maxValue=CASEWHEN(maxValue>=?,maxValue,?),sumValue=sumValue+?,samples=samples+?" +
+            " where KeyA=? and KeyB=? and Granularity=? and Time=?";
+    //Inserts an aggregation of a period that has no stored aggregation
+    private static final String INSERT_AGGREGATION_SQL = "insert into "+AGGREGATION_TABLE+
+            " (KeyA,KeyB,Granularity,Time,minValue,maxValue,sumValue,samples) values(?,?,?,?,?,?,?,?)";
+    private static final String SELECT_AGGREGATION_SQL = "select * from "+AGGREGATION_TABLE+
+            " where KeyA=? and KeyB=? and Granularity=? and Time>=? and Time<=? order by Time";
+    //The number of rows sent to the database in a single executeBatch
+    private static final int MAX_BATCH_SIZE = 1000;
+    //The number of series read by a single query
+    private static final int MAX_SERIES_PER_QUERY = 500;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final AggregationGranularity[] GRANULARITIES = AggregationGranularity.values();
+    private final HSQLDBConnectionPool pool;
+    private final int fetchSize = getFetchSize();
+    private final boolean partitioned;
+    private final HSQLDBPartitions metricPartitions = new HSQLDBPartitions(METRIC_TABLE);
+    private final HSQLDBPartitions logPartitions = new HSQLDBPartitions(LOG_TABLE);
+    private final ThreadLocal<Batch> batch = new ThreadLocal<>();
 
     public HSQLDBStore(){
         log.info("Connecting to HSQLDB...");
-        this.connection = getConnection();
+        new org.hsqldb.jdbcDriver();
+        this.partitioned = isPartitionedLayout();
+        this.pool = new HSQLDBConnectionPool(URL,getPoolSize());
         try{
             createTSDRTables();
         }catch(SQLException e){
@@ -53,13 +101,85 @@ public class HSQLDBStore {
 
     public HSQLDBStore(Connection c){
         log.info("Connecting to HSQLDB...");
-        this.connection = c;
+        this.partitioned = isPartitionedLayout();
+        this.pool = new HSQLDBConnectionPool(c);
+    }
+
+    /**
+     * @param c - The connection to the database
+     * @param partitionedLayout - true for the partitioned layout, false for the single table layout
+     */
+    public HSQLDBStore(Connection c, boolean partitionedLayout){
+        log.info("Connecting to HSQLDB...");
+        this.partitioned = partitionedLayout;
+        this.pool = new HSQLDBConnectionPool(c);
+    }
+
+    private static Map<String,String> loadConfig(){
+        Map<String, String> result = new HashMap<>();
+        File file = new File(confFile);
+        if(!file.exists()){
+            return result;
+        }
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file)))){
+            String line = in.readLine();
+            while(line!=null){
+                int index = line.indexOf("=");
+                if(index!=-1 && !line.startsWith("#")) {
+                    result.put(line.substring(0, index).trim(), line.substring(index + 1).trim());
+                }
+                line = in.readLine();
+            }
+        }catch(IOException e){
+            log.error("Failed to load the HSQLDB configuration file "+confFile,e);
+        }
+        return result;
+    }
+
+    private MD5ID.KeyIDAlgorithm getKeyIDAlgorithm(){
+        String algorithm = config.get("key_id_algorithm");
+        if(algorithm!=null){
+            try {
+                return MD5ID.KeyIDAlgorithm.valueOf(algorithm.toUpperCase());
+            }catch(IllegalArgumentException e){
+                log.error("Unknown key id algorithm "+algorithm+", using MD5");
+            }
+        }
+        return MD5ID.KeyIDAlgorithm.MD5;
+    }
+
+    private boolean isPartitionedLayout(){
+        return "partitioned".equalsIgnoreCase(config.get("table_layout"));
+    }
+
+    private int getPoolSize(){
+        String size = config.get("connection_pool_size");
+        if(size!=null){
+            try {
+                return Math.max(1,Integer.parseInt(size));
+            }catch(NumberFormatException e){
+                log.error("Illegal connection pool size "+size+", using "+HSQLDBConnectionPool.DEFAULT_POOL_SIZE);
+            }
+        }
+        return HSQLDBConnectionPool.DEFAULT_POOL_SIZE;
+    }
+
+    private int getFetchSize(){
+        String size = config.get("fetch_size");
+        if(size!=null){
+            try {
+                return Math.max(1,Integer.parseInt(size));
+            }catch(NumberFormatException e){
+                log.error("Illegal fetch size "+size+", using "+DEFAULT_FETCH_SIZE);
+            }
+        }
+        return DEFAULT_FETCH_SIZE;
     }
 
     public synchronized Connection getConnection() {
         try {
             new org.hsqldb.jdbcDriver();
-            return DriverManager.getConnection("jdbc:hsqldb:./tsdr/tsdr-hsqldb", "sa","");
+            return DriverManager.getConnection(URL, "sa","");
         } catch (Exception e) {
             log.error("Failed to get connection to database",e);
         }
@@ -67,31 +187,149 @@ public class HSQLDBStore {
     }
 
     public void createTSDRTables() throws SQLException {
+        Connection connection = pool.getConnection();
+        try {
+            createTSDRTables(connection);
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    private void createTSDRTables(Connection connection) throws SQLException {
         DatabaseMetaData dbm = connection.getMetaData();
         //seek the table METRICVAL in the database schema, if it does not
         //exist then create the database schema
         ResultSet rs = dbm.getTables(null, null,METRIC_TABLE, null);
         if (!rs.next()) {
-            String sql = "CREATE TABLE "+METRIC_TABLE+" (" +
-                    "KeyA bigint, " +
-                    "KeyB bigint, " +
-                    "Time bigint, " +
-                    "value double," +
-                    "PRIMARY KEY (KeyA,KeyB,Time))";
-            Statement st = this.connection.createStatement();
+            String sql = getMetricTableSQL(METRIC_TABLE,false);
+            Statement st = connection.createStatement();
             st.execute(sql);
             st.close();
-            sql = "CREATE TABLE "+ LOG_TABLE +" (" +
+            sql = getLogTableSQL(LOG_TABLE,false);
+            st = connection.createStatement();
+            st.execute(sql);
+            st.close();
+        }
+        rs.close();
+        //The aggregations table was added later so it is checked separately
+        rs = dbm.getTables(null, null,AGGREGATION_TABLE, null);
+        if (!rs.next()) {
+            String sql = "CREATE TABLE "+AGGREGATION_TABLE+" (" +
                     "KeyA bigint, " +
                     "KeyB bigint, " +
+                    "Granularity int, " +
                     "Time bigint, " +
-                    "xIndex int," +
-                    "value VARCHAR(255)," +
-                    "PRIMARY KEY (KeyA,KeyB,Time,xIndex))";
-            st = this.connection.createStatement();
+                    "minValue double," +
+                    "maxValue double," +
+                    "sumValue double," +
+                    "samples bigint," +
+                    "PRIMARY KEY (KeyA,KeyB,Granularity,Time))";
+            Statement st = connection.createStatement();
             st.execute(sql);
             st.close();
         }
+        rs.close();
+        if(partitioned){
+            List<String> tableNames = new ArrayList<>();
+            rs = dbm.getTables(null, null, "%", null);
+            while(rs.next()){
+                tableNames.add(rs.getString("TABLE_NAME"));
+            }
+            rs.close();
+            metricPartitions.load(tableNames);
+            logPartitions.load(tableNames);
+        }
+    }
+
+    private static String getMetricTableSQL(String tableName, boolean cached){
+        return "CREATE "+(cached ? "CACHED " : "")+"TABLE "+tableName+" (" +
+                "KeyA bigint, " +
+                "KeyB bigint, " +
+                "Time bigint, " +
+                "value double," +
+                "PRIMARY KEY (KeyA,KeyB,Time))";
+    }
+
+    private static String getLogTableSQL(String tableName, boolean cached){
+        return "CREATE "+(cached ? "CACHED " : "")+"TABLE "+tableName+" (" +
+                "KeyA bigint, " +
+                "KeyB bigint, " +
+                "Time bigint, " +
+                "xIndex int," +
+                "value VARCHAR(255)," +
+                "PRIMARY KEY (KeyA,KeyB,Time,xIndex))";
+    }
+
+    private static DataCategory getCategory(DataCategory category){
+        //Records without a category are kept with the external ones
+        return category!=null ? category : DataCategory.EXTERNAL;
+    }
+
+    /**
+     * Creates the table of a partition if it does not exist.
+     */
+    private void createPartition(Connection connection, HSQLDBPartitions partitions, DataCategory category, int day) throws SQLException {
+        if(partitions.contains(category,day)){
+            return;
+        }
+        synchronized (partitions) {
+            if(partitions.contains(category,day)){
+                return;
+            }
+            String tableName = partitions.getTableName(category,day);
+            Statement st = connection.createStatement();
+            try {
+                st.execute(partitions==metricPartitions ? getMetricTableSQL(tableName,true) : getLogTableSQL(tableName,true));
+            } catch (SQLException e) {
+                ResultSet rs = connection.getMetaData().getTables(null, null, tableName, null);
+                boolean exists = rs.next();
+                rs.close();
+                if(!exists){
+                    throw e;
+                }
+            } finally {
+                st.close();
+            }
+            partitions.add(category,day);
+        }
+    }
+
+    /**
+     * Starts collecting the records the calling thread stores, they are written when the thread executes the batch.
+     */
+    public void startBatch(){
+        if(batch.get()==null){
+            batch.set(new Batch());
+        }
+    }
+
+    /**
+     * Drops the records the calling thread stored since it started the batch and did not write,
+     * so a batch that failed before it was executed is not written with the next batch of the thread.
+     */
+    public void endBatch(){
+        batch.remove();
+    }
+
+    /**
+     * Writes the records the calling thread stored since it started the batch, in a single transaction.
+     * @throws SQLException - If the batch could not be written
+     */
+    public void executeBatch() throws SQLException {
+        Batch b = batch.get();
+        if(b==null){
+            return;
+        }
+        batch.remove();
+        if(b.isEmpty()){
+            return;
+        }
+        Connection connection = pool.getConnection();
+        try {
+            write(connection,b);
+        } finally {
+            pool.release(connection);
+        }
     }
 
     public void store(TSDRMetricRecord mr) throws SQLException {
@@ -104,15 +342,16 @@ public class HSQLDBStore {
             cacheEntry = cache.addTSDRCacheEntry(tsdrKey);
         }
 
-        StringBuilder sql = new StringBuilder();
-        sql.append("insert into "+METRIC_TABLE+" (KeyA,KeyB,Time,value) values(");
-        sql.append(cacheEntry.getMd5ID().getMd5Long1()).append(",");
-        sql.append(cacheEntry.getMd5ID().getMd5Long2()).append(",");
-        sql.append(mr.getTimeStamp()).append(",");
-        sql.append(mr.getMetricValue()).append(")");
-        Statement st = this.connection.createStatement();
-        st.execute(sql.toString());
-        st.close();
+        final boolean single = batch.get()==null;
+        if(single){
+            startBatch();
+        }
+        batch.get().add(getTableRows(metricPartitions,mr.getTSDRDataCategory(),mr.getTimeStamp()),
+                new Object[]{cacheEntry.getMd5ID().getMd5Long1(),cacheEntry.getMd5ID().getMd5Long2(),
+                mr.getTimeStamp(),mr.getMetricValue().doubleValue()});
+        if(single){
+            executeBatch();
+        }
     }
 
     public void store(TSDRLogRecord lr) throws SQLException {
@@ -124,106 +363,679 @@ public class HSQLDBStore {
             cacheEntry = cache.addTSDRCacheEntry(tsdrKey);
         }
 
-        StringBuilder sql = new StringBuilder();
-        sql.append("insert into "+ LOG_TABLE +" (KeyA,KeyB,Time,xIndex,value) values(");
-        sql.append(cacheEntry.getMd5ID().getMd5Long1()).append(",");
-        sql.append(cacheEntry.getMd5ID().getMd5Long2()).append(",");
-        sql.append(lr.getTimeStamp()).append(",");
-        sql.append(lr.getIndex()).append(",'");
-        sql.append(lr.getRecordFullText()).append("')");
-        Statement st = this.connection.createStatement();
-        st.execute(sql.toString());
-        st.close();
+        final boolean single = batch.get()==null;
+        if(single){
+            startBatch();
+        }
+        batch.get().add(getTableRows(logPartitions,lr.getTSDRDataCategory(),lr.getTimeStamp()),
+                new Object[]{cacheEntry.getMd5ID().getMd5Long1(),cacheEntry.getMd5ID().getMd5Long2(),
+                lr.getTimeStamp(),lr.getIndex(),lr.getRecordFullText()});
+        if(single){
+            executeBatch();
+        }
     }
 
-    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime,int recordLimit) throws SQLException {
-        TSDRCacheEntry entry = this.cache.getCacheEntry(tsdrMetricKey);
-        //Exact match was found
-        if(entry!=null){
-            List<TSDRMetricRecord> result = new LinkedList<TSDRMetricRecord>();
-            String sql = "select * from "+METRIC_TABLE+" where KeyA=" + entry.getMd5ID().getMd5Long1()
-                    + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>=" + startDateTime + " and Time<=" + endDateTime;
-            Statement st = connection.createStatement();
-            ResultSet rs = st.executeQuery(sql);
-            while(rs.next()){
-                result.add(getTSDRMetricRecord(rs.getLong("Time"), rs.getDouble("value"), entry));
-                if(result.size()>=recordLimit){
-                    break;
+    /**
+     * Routes a record to its table, the table of its category and day in the partitioned layout.
+     */
+    private TableRows getTableRows(HSQLDBPartitions partitions, DataCategory category, Long time){
+        if(!partitioned){
+            return new TableRows(partitions,partitions.getPrefix(),null,0);
+        }
+        final DataCategory c = getCategory(category);
+        final int day = HSQLDBPartitions.getDay(time!=null ? time : System.currentTimeMillis());
+        return new TableRows(partitions,partitions.getTableName(c,day),c,day);
+    }
+
+    private String getInsertSQL(TableRows tableRows){
+        if(tableRows.partitions==metricPartitions){
+            return "insert into "+tableRows.tableName+" (KeyA,KeyB,Time,value) values(?,?,?,?)";
+        }
+        return "insert into "+tableRows.tableName+" (KeyA,KeyB,Time,xIndex,value) values(?,?,?,?,?)";
+    }
+
+    private void write(Connection connection, Batch b) throws SQLException {
+        if(partitioned){
+            //The tables are created before the transaction starts, as a table creation commits the transaction
+            for(TableRows tableRows:b.tables.values()){
+                createPartition(connection,tableRows.partitions,tableRows.category,tableRows.day);
+            }
+        }
+        SQLException batchFailure = null;
+        boolean committed = false;
+        connection.setAutoCommit(false);
+        try {
+            for(TableRows tableRows:b.tables.values()){
+                executeBatch(connection,getInsertSQL(tableRows),tableRows.rows);
+            }
+            connection.commit();
+            committed = true;
+        } catch (SQLException e) {
+            batchFailure = e;
+        } finally {
+            //Also on a runtime failure, enabling the auto commit would commit the open transaction
+            if(!committed){
+                connection.rollback();
+            }
+            connection.setAutoCommit(true);
+        }
+        if(batchFailure!=null){
+            //A single bad row, e.g. a sample that was already stored, should not fail the whole batch
+            log.warn("Failed to write a batch of "+b.size()+" records, writing them one by one",batchFailure);
+            int failed = 0;
+            for(TableRows tableRows:b.tables.values()){
+                failed+=executeOneByOne(connection,getInsertSQL(tableRows),tableRows.rows);
+            }
+            if(failed>0){
+                throw new SQLException("Failed to write "+failed+" out of "+b.size()+" records",batchFailure);
+            }
+        }
+    }
+
+    private static void executeBatch(Connection connection, String sql, List<Object[]> rows) throws SQLException {
+        if(rows.isEmpty()){
+            return;
+        }
+        PreparedStatement st = connection.prepareStatement(sql);
+        try {
+            int count = 0;
+            for(Object[] row:rows){
+                setParameters(st,row);
+                st.addBatch();
+                if(++count%MAX_BATCH_SIZE==0){
+                    st.executeBatch();
                 }
             }
-            rs.close();
+            if(count%MAX_BATCH_SIZE!=0){
+                st.executeBatch();
+            }
+        } finally {
             st.close();
-            return result;
-        }else{
-            TSDRMetricCollectJob job = new TSDRMetricCollectJob() {
-                @Override
-                public void collectMetricRecords(TSDRCacheEntry entry, long startDateTime, long endDateTime, int recordLimit, List<TSDRMetricRecord> globalResult) {
-                    String sql = "select * from "+METRIC_TABLE+" where KeyA=" + entry.getMd5ID().getMd5Long1()
-                            + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>=" + startDateTime + " and Time<=" + endDateTime;
-                    try {
-                        Statement st = connection.createStatement();
-                        ResultSet rs = st.executeQuery(sql);
-                        while (rs.next()) {
-                            globalResult.add(getTSDRMetricRecord(rs.getLong("Time"), rs.getDouble("value"), entry));
-                            if (globalResult.size() >= recordLimit) {
-                                break;
-                            }
-                        }
-                        rs.close();
-                        st.close();
-                    }catch(SQLException e){
-                        log.error("SQL Error while retrieving records",e);
+        }
+    }
+
+    private static int executeOneByOne(Connection connection, String sql, List<Object[]> rows) throws SQLException {
+        if(rows.isEmpty()){
+            return 0;
+        }
+        int failed = 0;
+        PreparedStatement st = connection.prepareStatement(sql);
+        try {
+            for(Object[] row:rows){
+                try {
+                    setParameters(st,row);
+                    st.executeUpdate();
+                } catch (SQLException e) {
+                    failed++;
+                    log.debug("Failed to write a record",e);
+                }
+            }
+        } finally {
+            st.close();
+        }
+        return failed;
+    }
+
+    private static void setParameters(PreparedStatement st, Object[] row) throws SQLException {
+        for(int i=0;i<row.length;i++){
+            st.setObject(i+1,row[i]);
+        }
+    }
+
+    //The rows of a single table in a batch
+    private static final class TableRows {
+        private final HSQLDBPartitions partitions;
+        private final String tableName;
+        private final DataCategory category;
+        private final int day;
+        private final List<Object[]> rows = new ArrayList<>();
+
+        private TableRows(HSQLDBPartitions partitions, String tableName, DataCategory category, int day){
+            this.partitions = partitions;
+            this.tableName = tableName;
+            this.category = category;
+            this.day = day;
+        }
+    }
+
+    //The records a thread stored since it started the batch, by table
+    private static final class Batch {
+        private final Map<String,TableRows> tables = new LinkedHashMap<>();
+        private int size = 0;
+
+        private void add(TableRows tableRows, Object[] row){
+            TableRows existing = tables.get(tableRows.tableName);
+            if(existing==null){
+                existing = tableRows;
+                tables.put(tableRows.tableName,tableRows);
+            }
+            existing.rows.add(row);
+            size++;
+        }
+
+        private boolean isEmpty(){
+            return size==0;
+        }
+
+        private int size(){
+            return size;
+        }
+    }
+
+    /**
+     * Stores an aggregation, if there is already an aggregation for the same period the two are merged.
+     * @param ar - The aggregation
+     * @throws SQLException
+     */
+    public void store(TSDRAggregationMetric ar) throws SQLException {
+        store(Collections.singletonList(ar));
+    }
+
+    /**
+     * Stores the aggregations in one transaction, an aggregation of a period that already has an aggregation
+     * is merged into it, the min and max are kept and the sums and sample counts are added.
+     * @param aggregations - The aggregations
+     * @throws SQLException
+     */
+    public void store(List<TSDRAggregationMetric> aggregations) throws SQLException {
+        if(aggregations.isEmpty()){
+            return;
+        }
+        Connection connection = pool.getConnection();
+        try {
+            boolean committed = false;
+            connection.setAutoCommit(false);
+            PreparedStatement update = connection.prepareStatement(UPDATE_AGGREGATION_SQL);
+            PreparedStatement insert = connection.prepareStatement(INSERT_AGGREGATION_SQL);
+            try {
+                for(TSDRAggregationMetric ar:aggregations){
+                    String tsdrKey = FormatUtil.getTSDRMetricKey(ar);
+                    TSDRCacheEntry cacheEntry = cache.getCacheEntry(tsdrKey);
+                    if(cacheEntry==null){
+                        cacheEntry = cache.addTSDRCacheEntry(tsdrKey);
                     }
+                    long keyA = cacheEntry.getMd5ID().getMd5Long1();
+                    long keyB = cacheEntry.getMd5ID().getMd5Long2();
+                    int granularity = ar.getTSDRAggregationGranularity().ordinal();
+                    double min = ar.getMinValue().doubleValue();
+                    double max = ar.getMaxValue().doubleValue();
+                    double sum = TSDRAggregationUtil.getSum(ar);
+                    long samples = TSDRAggregationUtil.getSampleCount(ar);
+                    setParameters(update,new Object[]{min,min,max,max,sum,samples,keyA,keyB,granularity,ar.getTimeStamp()});
+                    //The insert is not batched, a later aggregation of the same period in this list updates it
+                    if(update.executeUpdate()==0){
+                        setParameters(insert,new Object[]{keyA,keyB,granularity,ar.getTimeStamp(),min,max,sum,samples});
+                        insert.executeUpdate();
+                    }
+                }
+                connection.commit();
+                committed = true;
+            } finally {
+                update.close();
+                insert.close();
+                if(!committed){
+                    connection.rollback();
                 }
-            };
-            return this.cache.getTSDRMetricRecords(tsdrMetricKey,startDateTime,endDateTime,recordLimit,job);
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            pool.release(connection);
         }
     }
 
+    public List<TSDRAggregationMetric> getTSDRAggregatedMetrics(String tsdrMetricKey, AggregationGranularity granularity, long startDateTime, long endDateTime, int recordLimit) throws SQLException {
+        List<TSDRAggregationMetric> result = new LinkedList<>();
+        TSDRCacheEntry entry = this.cache.getCacheEntry(tsdrMetricKey);
+        Collection<TSDRCacheEntry> entries = entry!=null ? Collections.singletonList(entry) : this.cache.getMatchingCacheEntries(tsdrMetricKey);
+        Connection connection = pool.getConnection();
+        try {
+            collectAggregatedMetrics(connection,entries,granularity,startDateTime,endDateTime,recordLimit,result);
+        } finally {
+            pool.release(connection);
+        }
+        return result;
+    }
+
+    private void collectAggregatedMetrics(Connection connection, Collection<TSDRCacheEntry> entries, AggregationGranularity granularity,
+                                          long startDateTime, long endDateTime, int recordLimit, List<TSDRAggregationMetric> result) throws SQLException {
+        for(TSDRCacheEntry e:entries){
+            if(e.getMetricName()==null){
+                //A log key
+                continue;
+            }
+            PreparedStatement st = connection.prepareStatement(SELECT_AGGREGATION_SQL);
+            try {
+                st.setLong(1,e.getMd5ID().getMd5Long1());
+                st.setLong(2,e.getMd5ID().getMd5Long2());
+                st.setInt(3,granularity.ordinal());
+                st.setLong(4,startDateTime);
+                st.setLong(5,endDateTime);
+                st.setMaxRows(recordLimit-result.size());
+                ResultSet rs = st.executeQuery();
+                while(rs.next() && result.size()<recordLimit){
+                    result.add(getTSDRAggregationMetric(rs, e));
+                }
+                rs.close();
+            } finally {
+                st.close();
+            }
+            if(result.size()>=recordLimit){
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the metrics of the key in the time range, a key that is just a data category (tsdr:list)
+     * returns the newest metrics first.
+     */
+    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime,int recordLimit) throws SQLException {
+        return getTSDRMetricRecords(tsdrMetricKey,startDateTime,endDateTime,recordLimit,isDataCategory(tsdrMetricKey));
+    }
+
+    /**
+     * @param tsdrMetricKey - The metric key or pseudo key
+     * @param startDateTime - The start of the time range
+     * @param endDateTime - The end of the time range
+     * @param recordLimit - The maximum number of metrics
+     * @param newestFirst - Return the newest metrics first, otherwise the oldest
+     * @return - The metrics
+     * @throws SQLException - an SQLException
+     */
+    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime, int recordLimit, boolean newestFirst) throws SQLException {
+        return select(metricPartitions,METRIC_QUERY,getCacheEntries(tsdrMetricKey,true),startDateTime,endDateTime,recordLimit,newestFirst);
+    }
+
+    /**
+     * Returns the logs of the key in the time range, a key that is just a data category (tsdr:list)
+     * returns the newest logs first.
+     */
     public List<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startDateTime, long endDateTime, int recordLimit) throws SQLException {
-        TSDRCacheEntry entry = this.cache.getCacheEntry(tsdrLogKey);
-        //Exact match was found
-        if(entry!=null){
-            List<TSDRLogRecord> result = new LinkedList<TSDRLogRecord>();
-            String sql = "select * from "+ LOG_TABLE +" where KeyA=" + entry.getMd5ID().getMd5Long1()
-                    + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>=" + startDateTime + " and Time<=" + endDateTime;
-            Statement st = connection.createStatement();
-            ResultSet rs = st.executeQuery(sql);
-            while(rs.next()){
-                result.add(getTSDRLogRecord(rs.getLong("Time"), rs.getString("value"), rs.getInt("xIndex"), entry));
+        return getTSDRLogRecords(tsdrLogKey,startDateTime,endDateTime,recordLimit,isDataCategory(tsdrLogKey));
+    }
+
+    /**
+     * @param tsdrLogKey - The log key or pseudo key
+     * @param startDateTime - The start of the time range
+     * @param endDateTime - The end of the time range
+     * @param recordLimit - The maximum number of logs
+     * @param newestFirst - Return the newest logs first, otherwise the oldest
+     * @return - The logs
+     * @throws SQLException - an SQLException
+     */
+    public List<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startDateTime, long endDateTime, int recordLimit, boolean newestFirst) throws SQLException {
+        return select(logPartitions,LOG_QUERY,getCacheEntries(tsdrLogKey,false),startDateTime,endDateTime,recordLimit,newestFirst);
+    }
+
+    /**
+     * Returns a page of the metrics of the key in the time range, the metrics are ordered by time and series.
+     * @param tsdrMetricKey - The metric key or pseudo key
+     * @param startDateTime - The start of the time range
+     * @param endDateTime - The end of the time range
+     * @param pageSize - The maximum number of metrics in the page
+     * @param continuationToken - The token of the previous page, null for the first page
+     * @return - The page
+     * @throws SQLException - an SQLException
+     */
+    public TSDRRecordPage<TSDRMetricRecord> getTSDRMetricPage(String tsdrMetricKey, long startDateTime, long endDateTime, int pageSize, String continuationToken) throws SQLException {
+        return selectPage(metricPartitions,METRIC_QUERY,getCacheEntries(tsdrMetricKey,true),startDateTime,endDateTime,pageSize,continuationToken);
+    }
+
+    /**
+     * Returns a page of the logs of the key in the time range, the logs are ordered by time, series and index.
+     * @param tsdrLogKey - The log key or pseudo key
+     * @param startDateTime - The start of the time range
+     * @param endDateTime - The end of the time range
+     * @param pageSize - The maximum number of logs in the page
+     * @param continuationToken - The token of the previous page, null for the first page
+     * @return - The page
+     * @throws SQLException - an SQLException
+     */
+    public TSDRRecordPage<TSDRLogRecord> getTSDRLogPage(String tsdrLogKey, long startDateTime, long endDateTime, int pageSize, String continuationToken) throws SQLException {
+        return selectPage(logPartitions,LOG_QUERY,getCacheEntries(tsdrLogKey,false),startDateTime,endDateTime,pageSize,continuationToken);
+    }
+
+    private static boolean isDataCategory(String tsdrKey){
+        if(tsdrKey==null || tsdrKey.startsWith("[")){
+            return false;
+        }
+        try {
+            DataCategory.valueOf(tsdrKey);
+            return true;
+        }catch(IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    /**
+     * @return - The metric or the log entries that fit the key
+     */
+    private Collection<TSDRCacheEntry> getCacheEntries(String tsdrKey, boolean metrics){
+        TSDRCacheEntry entry = this.cache.getCacheEntry(tsdrKey);
+        Collection<TSDRCacheEntry> entries = entry!=null ? Collections.singletonList(entry) : this.cache.getMatchingCacheEntries(tsdrKey);
+        List<TSDRCacheEntry> result = new ArrayList<>(entries.size());
+        for(TSDRCacheEntry e:entries){
+            //A log key has no metric name
+            if((e.getMetricName()!=null)==metrics){
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the records of many series at once. The series are queried together, up to MAX_SERIES_PER_QUERY
+     * in a single statement, and the limit and the order are applied by the database. In the partitioned layout
+     * the days are read in order and the reading stops once there are enough records.
+     */
+    private <T> List<T> select(HSQLDBPartitions partitions, SeriesQuery<T> query, Collection<TSDRCacheEntry> entries,
+                               long startDateTime, long endDateTime, int recordLimit, boolean newestFirst) throws SQLException {
+        final List<T> result = new ArrayList<>();
+        if(entries.isEmpty() || recordLimit<=0){
+            return result;
+        }
+        //The tables to read, grouped by day, with the series of each table
+        final TreeMap<Integer,Map<String,List<TSDRCacheEntry>>> days = new TreeMap<>();
+        for(TSDRCacheEntry entry:entries){
+            if(!partitioned){
+                addSeries(days,0,partitions.getPrefix(),entry);
+                continue;
+            }
+            DataCategory category = getCategory(entry.getDataCategory());
+            for(Integer day:partitions.getDays(category,startDateTime,endDateTime)){
+                addSeries(days,day,partitions.getTableName(category,day),entry);
+            }
+        }
+        final Comparator<T> order = newestFirst ? Collections.reverseOrder(query) : query;
+        Connection connection = pool.getConnection();
+        try {
+            for(Map<String,List<TSDRCacheEntry>> tables:(newestFirst ? days.descendingMap() : days).values()){
+                final List<T> dayResult = new ArrayList<>();
+                for(Map.Entry<String,List<TSDRCacheEntry>> table:tables.entrySet()){
+                    List<TSDRCacheEntry> series = table.getValue();
+                    for(int i=0;i<series.size();i+=MAX_SERIES_PER_QUERY){
+                        List<TSDRCacheEntry> chunk = series.subList(i,Math.min(i+MAX_SERIES_PER_QUERY,series.size()));
+                        select(connection,table.getKey(),query,chunk,startDateTime,endDateTime,recordLimit-result.size(),newestFirst,dayResult);
+                    }
+                }
+                //The records of the tables of the day are merged, all of them come after the records of the previous days
+                Collections.sort(dayResult,order);
+                for(T record:dayResult){
+                    if(result.size()>=recordLimit){
+                        break;
+                    }
+                    result.add(record);
+                }
                 if(result.size()>=recordLimit){
                     break;
                 }
             }
-            rs.close();
+        } finally {
+            pool.release(connection);
+        }
+        return result;
+    }
+
+    private static void addSeries(Map<Integer,Map<String,List<TSDRCacheEntry>>> days, int day, String tableName, TSDRCacheEntry entry){
+        Map<String,List<TSDRCacheEntry>> tables = days.get(day);
+        if(tables==null){
+            tables = new LinkedHashMap<>();
+            days.put(day,tables);
+        }
+        List<TSDRCacheEntry> series = tables.get(tableName);
+        if(series==null){
+            series = new ArrayList<>();
+            tables.put(tableName,series);
+        }
+        series.add(entry);
+    }
+
+    private <T> void select(Connection connection, String tableName, SeriesQuery<T> query, List<TSDRCacheEntry> series,
+                            long startDateTime, long endDateTime, int limit, boolean newestFirst, List<T> result) throws SQLException {
+        final Map<MD5ID,TSDRCacheEntry> ids = new HashMap<>();
+        for(TSDRCacheEntry entry:series){
+            ids.put(entry.getMd5ID(),entry);
+        }
+        //The two halves of the ids are matched separately, the pairs that are not a series of the query are skipped below
+        StringBuilder sql = new StringBuilder("select top ").append(limit).append(" ").append(query.columns);
+        sql.append(" from ").append(tableName).append(" where KeyA in (");
+        appendParameters(sql,series.size());
+        sql.append(") and KeyB in (");
+        appendParameters(sql,series.size());
+        sql.append(") and Time>=? and Time<=? order by Time");
+        sql.append(newestFirst ? " desc" : " asc");
+        PreparedStatement st = connection.prepareStatement(sql.toString());
+        try {
+            st.setFetchSize(fetchSize);
+            int index = 1;
+            for(TSDRCacheEntry entry:series){
+                st.setLong(index++,entry.getMd5ID().getMd5Long1());
+            }
+            for(TSDRCacheEntry entry:series){
+                st.setLong(index++,entry.getMd5ID().getMd5Long2());
+            }
+            st.setLong(index++,startDateTime);
+            st.setLong(index,endDateTime);
+            ResultSet rs = st.executeQuery();
+            try {
+                while(rs.next()){
+                    TSDRCacheEntry entry = ids.get(MD5ID.createTSDRID(rs.getLong("KeyA"),rs.getLong("KeyB")));
+                    if(entry!=null){
+                        result.add(query.getRecord(rs,entry));
+                    }
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
             st.close();
-            return result;
-        }else{
-            TSDRLogCollectJob job = new TSDRLogCollectJob() {
-                @Override
-                public void collectLogRecords(TSDRCacheEntry entry, long startDateTime, long endDateTime, int recordLimit, List<TSDRLogRecord> globalResult) {
-                    String sql = "select * from "+ LOG_TABLE +" where KeyA=" + entry.getMd5ID().getMd5Long1()
-                            + " and KeyB=" + entry.getMd5ID().getMd5Long2() + " and Time>=" + startDateTime + " and Time<=" + endDateTime;
-                    try {
-                        Statement st = connection.createStatement();
-                        ResultSet rs = st.executeQuery(sql);
-                        while (rs.next()) {
-                            globalResult.add(getTSDRLogRecord(rs.getLong("Time"), rs.getString("value"), rs.getInt("xIndex"), entry));
-                            if (globalResult.size() >= recordLimit) {
-                                break;
-                            }
+        }
+    }
+
+    /**
+     * Reads a page of the records of many series. The records are ordered by their position, the values of the
+     * position columns of the query, and the token is the position of the last record of the page. The next page
+     * starts right after that position, so the reading does not depend on any state kept between the pages.
+     */
+    private <T> TSDRRecordPage<T> selectPage(HSQLDBPartitions partitions, SeriesQuery<T> query, Collection<TSDRCacheEntry> entries,
+                                             long startDateTime, long endDateTime, int pageSize, String continuationToken) throws SQLException {
+        final long[] after = continuationToken!=null ? TSDRRecordPage.getPosition(continuationToken,query.positionColumns.length) : null;
+        if(after!=null){
+            startDateTime = Math.max(startDateTime,after[0]);
+        }
+        final List<PositionedRecord<T>> page = new ArrayList<>();
+        if(entries.isEmpty() || pageSize<=0){
+            return new TSDRRecordPage<>(new ArrayList<T>(),null);
+        }
+        final TreeMap<Integer,Map<String,List<TSDRCacheEntry>>> days = new TreeMap<>();
+        for(TSDRCacheEntry entry:entries){
+            if(!partitioned){
+                addSeries(days,0,partitions.getPrefix(),entry);
+                continue;
+            }
+            DataCategory category = getCategory(entry.getDataCategory());
+            for(Integer day:partitions.getDays(category,startDateTime,endDateTime)){
+                addSeries(days,day,partitions.getTableName(category,day),entry);
+            }
+        }
+        Connection connection = pool.getConnection();
+        try {
+            //One more record than the page size is read to know if there is a next page
+            for(Map<String,List<TSDRCacheEntry>> tables:days.values()){
+                final List<PositionedRecord<T>> dayResult = new ArrayList<>();
+                for(Map.Entry<String,List<TSDRCacheEntry>> table:tables.entrySet()){
+                    List<TSDRCacheEntry> series = table.getValue();
+                    for(int i=0;i<series.size();i+=MAX_SERIES_PER_QUERY){
+                        List<TSDRCacheEntry> chunk = series.subList(i,Math.min(i+MAX_SERIES_PER_QUERY,series.size()));
+                        selectPage(connection,table.getKey(),query,chunk,startDateTime,endDateTime,after,pageSize+1-page.size(),dayResult);
+                    }
+                }
+                Collections.sort(dayResult);
+                for(PositionedRecord<T> record:dayResult){
+                    if(page.size()>pageSize){
+                        break;
+                    }
+                    page.add(record);
+                }
+                if(page.size()>pageSize){
+                    break;
+                }
+            }
+        } finally {
+            pool.release(connection);
+        }
+        String nextToken = null;
+        if(page.size()>pageSize){
+            page.remove(pageSize);
+            nextToken = TSDRRecordPage.toToken(page.get(pageSize-1).position);
+        }
+        final List<T> records = new ArrayList<>(page.size());
+        for(PositionedRecord<T> record:page){
+            records.add(record.record);
+        }
+        return new TSDRRecordPage<>(records,nextToken);
+    }
+
+    private <T> void selectPage(Connection connection, String tableName, SeriesQuery<T> query, List<TSDRCacheEntry> series,
+                                long startDateTime, long endDateTime, long[] after, int limit, List<PositionedRecord<T>> result) throws SQLException {
+        final Map<MD5ID,TSDRCacheEntry> ids = new HashMap<>();
+        for(TSDRCacheEntry entry:series){
+            ids.put(entry.getMd5ID(),entry);
+        }
+        final String[] columns = query.positionColumns;
+        StringBuilder sql = new StringBuilder("select top ").append(limit).append(" ").append(query.columns);
+        sql.append(" from ").append(tableName).append(" where KeyA in (");
+        appendParameters(sql,series.size());
+        sql.append(") and KeyB in (");
+        appendParameters(sql,series.size());
+        sql.append(") and Time>=? and Time<=?");
+        if(after!=null){
+            //The rows after the position, (c1>?) or (c1=? and ((c2>?) or (c2=? and ...)))
+            sql.append(" and ");
+            for(int i=0;i<columns.length;i++){
+                sql.append("(").append(columns[i]).append(">?");
+                if(i<columns.length-1){
+                    sql.append(" or (").append(columns[i]).append("=? and ");
+                }
+            }
+            for(int i=0;i<columns.length;i++){
+                sql.append(i<columns.length-1 ? "))" : ")");
+            }
+        }
+        sql.append(" order by ");
+        for(int i=0;i<columns.length;i++){
+            if(i>0){
+                sql.append(",");
+            }
+            sql.append(columns[i]);
+        }
+        PreparedStatement st = connection.prepareStatement(sql.toString());
+        try {
+            st.setFetchSize(Math.min(limit,fetchSize));
+            int index = 1;
+            for(TSDRCacheEntry entry:series){
+                st.setLong(index++,entry.getMd5ID().getMd5Long1());
+            }
+            for(TSDRCacheEntry entry:series){
+                st.setLong(index++,entry.getMd5ID().getMd5Long2());
+            }
+            st.setLong(index++,startDateTime);
+            st.setLong(index++,endDateTime);
+            if(after!=null){
+                for(int i=0;i<columns.length;i++){
+                    st.setLong(index++,after[i]);
+                    if(i<columns.length-1){
+                        st.setLong(index++,after[i]);
+                    }
+                }
+            }
+            ResultSet rs = st.executeQuery();
+            try {
+                while(rs.next()){
+                    TSDRCacheEntry entry = ids.get(MD5ID.createTSDRID(rs.getLong("KeyA"),rs.getLong("KeyB")));
+                    if(entry!=null){
+                        long[] position = new long[columns.length];
+                        for(int i=0;i<columns.length;i++){
+                            position[i] = rs.getLong(columns[i]);
                         }
-                        rs.close();
-                        st.close();
-                    }catch(SQLException e){
-                        log.error("SQL Error while retrieving records",e);
+                        result.add(new PositionedRecord<>(query.getRecord(rs,entry),position));
                     }
                 }
-            };
-            return this.cache.getTSDRLogRecords(tsdrLogKey,startDateTime,endDateTime,recordLimit,job);
+            } finally {
+                rs.close();
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    //A record of a page and its position
+    private static final class PositionedRecord<T> implements Comparable<PositionedRecord<T>> {
+        private final T record;
+        private final long[] position;
+
+        private PositionedRecord(T record, long[] position){
+            this.record = record;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(PositionedRecord<T> other) {
+            for(int i=0;i<position.length;i++){
+                if(position[i]!=other.position[i]){
+                    return position[i]<other.position[i] ? -1 : 1;
+                }
+            }
+            return 0;
         }
     }
 
+    private static void appendParameters(StringBuilder sql, int count){
+        for(int i=0;i<count;i++){
+            if(i>0){
+                sql.append(",");
+            }
+            sql.append("?");
+        }
+    }
+
+    //The columns and the records of a query of series, ordered by time, the position columns order the records of a page
+    private abstract static class SeriesQuery<T> implements Comparator<T> {
+        private final String columns;
+        private final String[] positionColumns;
+
+        private SeriesQuery(String columns, String... positionColumns){
+            this.columns = columns;
+            this.positionColumns = positionColumns;
+        }
+
+        protected abstract T getRecord(ResultSet rs, TSDRCacheEntry entry) throws SQLException;
+    }
+
+    private static final SeriesQuery<TSDRMetricRecord> METRIC_QUERY = new SeriesQuery<TSDRMetricRecord>("KeyA,KeyB,Time,value","Time","KeyA","KeyB") {
+        @Override
+        protected TSDRMetricRecord getRecord(ResultSet rs, TSDRCacheEntry entry) throws SQLException {
+            return getTSDRMetricRecord(rs.getLong("Time"), rs.getDouble("value"), entry);
+        }
+
+        @Override
+        public int compare(TSDRMetricRecord o1, TSDRMetricRecord o2) {
+            return o1.getTimeStamp().compareTo(o2.getTimeStamp());
+        }
+    };
+
+    private static final SeriesQuery<TSDRLogRecord> LOG_QUERY = new SeriesQuery<TSDRLogRecord>("KeyA,KeyB,Time,xIndex,value","Time","KeyA","KeyB","xIndex") {
+        @Override
+        protected TSDRLogRecord getRecord(ResultSet rs, TSDRCacheEntry entry) throws SQLException {
+            return getTSDRLogRecord(rs.getLong("Time"), rs.getString("value"), rs.getInt("xIndex"), entry);
+        }
+
+        @Override
+        public int compare(TSDRLogRecord o1, TSDRLogRecord o2) {
+            return o1.getTimeStamp().compareTo(o2.getTimeStamp());
+        }
+    };
+
     private static final List<RecordKeys> EMPTY_RECORD_KEYS = new ArrayList<>();
     private static final List<RecordAttributes> EMPTY_RECORD_ATTRIBUTES = new ArrayList<>();
 
@@ -238,6 +1050,16 @@ public class HSQLDBStore {
         return rb.build();
     }
 
+    private static final TSDRAggregationMetric getTSDRAggregationMetric(ResultSet rs, TSDRCacheEntry entry) throws SQLException {
+        TSDRMetricRecordBuilder rb = new TSDRMetricRecordBuilder();
+        rb.setMetricName(entry.getMetricName());
+        rb.setNodeID(entry.getNodeID());
+        rb.setRecordKeys(entry.getRecordKeys());
+        rb.setTSDRDataCategory(entry.getDataCategory());
+        return TSDRAggregationUtil.createAggregation(rb.build(), GRANULARITIES[rs.getInt("Granularity")], rs.getLong("Time"),
+                rs.getDouble("minValue"), rs.getDouble("maxValue"), rs.getDouble("sumValue"), rs.getLong("samples"));
+    }
+
     private static final TSDRLogRecord getTSDRLogRecord(long time,String value,int index,TSDRCacheEntry entry){
         TSDRLogRecordBuilder lb = new TSDRLogRecordBuilder();
         lb.setTSDRDataCategory(entry.getDataCategory());
@@ -251,47 +1073,89 @@ public class HSQLDBStore {
     }
 
     public void shutdown(){
-        if(this.connection!=null){
-            try{
-                this.connection.close();
-            }catch(Exception err){
-                log.error("Failed to close the DB Connection",err);
-            }
-        }
+        this.pool.close();
         this.cache.shutdown();
     }
 
-    private void purgeMetrics(DataCategory category, long retentionTime) throws SQLException {
+    private void purgeMetrics(Connection connection, DataCategory category, long retentionTime) throws SQLException {
         String sql1 = "Delete from "+METRIC_TABLE+" where keyA = ";
         String sql2 = " and keyB = ";
         String sql3 = " and time < " + retentionTime;
         for (TSDRCacheEntry entry : this.cache.getAll()) {
             if (entry.getDataCategory() == category) {
                 String sql = sql1 + entry.getMd5ID().getMd5Long1() + sql2 + entry.getMd5ID().getMd5Long2() + sql3;
-                Statement st = this.connection.createStatement();
+                Statement st = connection.createStatement();
                 st.execute(sql);
                 st.close();
             }
         }
     }
 
-    private void purgeLogs(DataCategory category, long retentionTime) throws SQLException {
+    private void purgeLogs(Connection connection, DataCategory category, long retentionTime) throws SQLException {
         String sql1 = "Delete from "+ LOG_TABLE +" where keyA = ";
         String sql2 = " and keyB = ";
         String sql3 = " and time < " + retentionTime;
         for (TSDRCacheEntry entry : this.cache.getAll()) {
             if (entry.getDataCategory() == category) {
                 String sql = sql1 + entry.getMd5ID().getMd5Long1() + sql2 + entry.getMd5ID().getMd5Long2() + sql3;
-                Statement st = this.connection.createStatement();
+                Statement st = connection.createStatement();
                 st.execute(sql);
                 st.close();
             }
         }
     }
 
+    /**
+     * Drops the partitions of the category that expired and deletes the expired records of the partition
+     * of the retention day, the cost does not depend on the number of series.
+     * @return - true if a partition was dropped
+     */
+    private boolean purgePartitions(Connection connection, HSQLDBPartitions partitions, DataCategory category, long retentionTime) throws SQLException {
+        boolean dropped = false;
+        for(Integer day:partitions.getExpiredDays(category,retentionTime)){
+            Statement st = connection.createStatement();
+            try {
+                st.execute("DROP TABLE "+partitions.getTableName(category,day)+" IF EXISTS");
+            } finally {
+                st.close();
+            }
+            partitions.remove(category,day);
+            dropped = true;
+        }
+        final int retentionDay = HSQLDBPartitions.getDay(retentionTime);
+        if(partitions.contains(category,retentionDay)){
+            Statement st = connection.createStatement();
+            try {
+                st.execute("DELETE FROM "+partitions.getTableName(category,retentionDay)+" WHERE Time<"+retentionTime);
+            } finally {
+                st.close();
+            }
+        }
+        return dropped;
+    }
+
     public void purge(DataCategory category, long retentionTime) throws SQLException {
-        purgeMetrics(category,retentionTime);
-        purgeLogs(category,retentionTime);
+        Connection connection = pool.getConnection();
+        try {
+            if(partitioned){
+                boolean dropped = purgePartitions(connection,metricPartitions,category,retentionTime);
+                dropped |= purgePartitions(connection,logPartitions,category,retentionTime);
+                if(dropped){
+                    //Return the space of the dropped tables to the file system
+                    Statement st = connection.createStatement();
+                    try {
+                        st.execute("CHECKPOINT DEFRAG");
+                    } finally {
+                        st.close();
+                    }
+                }
+                return;
+            }
+            purgeMetrics(connection,category,retentionTime);
+            purgeLogs(connection,category,retentionTime);
+        } finally {
+            pool.release(connection);
+        }
     }
 
 }
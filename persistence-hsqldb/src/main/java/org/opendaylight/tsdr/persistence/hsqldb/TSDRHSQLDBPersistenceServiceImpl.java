@@ -11,9 +11,14 @@ import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
-import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
+import org.opendaylight.tsdr.spi.persistence.TsdrAggregationPersistenceService;
+import org.opendaylight.tsdr.spi.persistence.TsdrPagingPersistenceService;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
 import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
@@ -23,12 +28,12 @@ import org.slf4j.LoggerFactory;
 /**
  * @author Sharon Aicler(saichler@gmail.com)
  **/
-public class TSDRHSQLDBPersistenceServiceImpl implements TsdrPersistenceService{
+public class TSDRHSQLDBPersistenceServiceImpl implements TsdrAggregationPersistenceService, TsdrPagingPersistenceService{
     private static final Logger LOGGER = LoggerFactory.getLogger(TSDRHSQLDBPersistenceServiceImpl.class);
     private HSQLDBStore store = null;
 
     public TSDRHSQLDBPersistenceServiceImpl(){
-        TsdrPersistenceServiceUtil.setTsdrPersistenceService(this);
+        TsdrPersistenceServiceUtil.addTsdrPersistenceService("hsqldb",this);
         System.out.println("HSQLDB Store was initialized...");
     }
 
@@ -37,7 +42,7 @@ public class TSDRHSQLDBPersistenceServiceImpl implements TsdrPersistenceService{
         try {
             store.store(metricRecord);
         }catch(SQLException e){
-            LOGGER.error("Failed to store record to database",e);
+            throw new TSDRPersistenceException("Failed to store record to database",e);
         }
     }
 
@@ -46,22 +51,41 @@ public class TSDRHSQLDBPersistenceServiceImpl implements TsdrPersistenceService{
         try{
             store.store(logRecord);
         }catch(SQLException e){
-            LOGGER.error("Failed to store record to database",e);
+            throw new TSDRPersistenceException("Failed to store record to database",e);
         }
     }
 
     @Override
     public void store(List<TSDRRecord> metricRecordList) {
-       for(TSDRRecord record:metricRecordList){
-           if(record instanceof TSDRMetricRecord){
-               store((TSDRMetricRecord)record);
-           }else
-           if(record instanceof TSDRLogRecord){
-               store((TSDRLogRecord)record);
+       //The whole list is written as a single batch in one transaction
+       store.startBatch();
+       try {
+           for(TSDRRecord record:metricRecordList){
+               if(record instanceof TSDRMetricRecord){
+                   store.store((TSDRMetricRecord)record);
+               }else
+               if(record instanceof TSDRLogRecord){
+                   store.store((TSDRLogRecord)record);
+               }
            }
+           store.executeBatch();
+       }catch(SQLException e){
+           throw new TSDRPersistenceException("Failed to store records to database",e);
+       }finally{
+           //The records of a failed batch are not left to the next batch of the thread
+           store.endBatch();
        }
     }
 
+    @Override
+    public void storeAggregatedMetrics(List<TSDRAggregationMetric> aggregationList) {
+        try{
+            store.store(aggregationList);
+        }catch(SQLException e){
+            throw new TSDRPersistenceException("Failed to store aggregations to database",e);
+        }
+    }
+
     @Override
     public void start(int timeout) {
         store = new HSQLDBStore();
@@ -116,4 +140,34 @@ public class TSDRHSQLDBPersistenceServiceImpl implements TsdrPersistenceService{
             return null;
         }
     }
+
+    @Override
+    public TSDRRecordPage<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime, int pageSize, String continuationToken) {
+        try {
+            return store.getTSDRMetricPage(tsdrMetricKey, startDateTime, endDateTime, TSDRRecordPage.getPageSize(pageSize), continuationToken);
+        }catch(SQLException e){
+            LOGGER.error("Failed to get Metric Records",e);
+            return null;
+        }
+    }
+
+    @Override
+    public TSDRRecordPage<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startTime, long endTime, int pageSize, String continuationToken) {
+        try {
+            return store.getTSDRLogPage(tsdrLogKey, startTime, endTime, TSDRRecordPage.getPageSize(pageSize), continuationToken);
+        }catch(SQLException e){
+            LOGGER.error("Failed to get log Records",e);
+            return null;
+        }
+    }
+
+    @Override
+    public List<TSDRAggregationMetric> getTSDRAggregatedMetrics(String tsdrMetricKey, AggregationGranularity granularity, long startDateTime, long endDateTime) {
+        try {
+            return store.getTSDRAggregatedMetrics(tsdrMetricKey, granularity, startDateTime, endDateTime, TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND);
+        }catch(SQLException e){
+            LOGGER.error("Failed to get aggregated metrics",e);
+            return null;
+        }
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.hsqldb;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class HSQLDBPartitionsTest {
+    private static final long DAY = HSQLDBPartitions.PARTITION_SIZE;
+
+    @Test
+    public void testTableName(){
+        HSQLDBPartitions partitions = new HSQLDBPartitions("METRICS");
+        Assert.assertEquals(0,HSQLDBPartitions.getDay(DAY-1));
+        Assert.assertEquals(1,HSQLDBPartitions.getDay(DAY));
+        Assert.assertEquals("METRICS_PORTSTATS_17000",partitions.getTableName(DataCategory.PORTSTATS,17000));
+        //A time before the epoch is held by day 0, a table name can not have a negative day
+        Assert.assertEquals(0,HSQLDBPartitions.getDay(-1));
+        Assert.assertEquals(0,HSQLDBPartitions.getDay(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testLoad(){
+        HSQLDBPartitions partitions = new HSQLDBPartitions("METRICS");
+        partitions.load(Arrays.asList("METRICS","LOGS_EXTERNAL_3","METRICS_PORTSTATS_2","metrics_portstats_1",
+                "METRICS_UNKNOWN_1","METRICS_EXTERNAL_X","AGGREGATIONS"));
+        Assert.assertTrue(partitions.contains(DataCategory.PORTSTATS,1));
+        Assert.assertTrue(partitions.contains(DataCategory.PORTSTATS,2));
+        Assert.assertFalse(partitions.contains(DataCategory.EXTERNAL,3));
+        Assert.assertEquals(Arrays.asList("METRICS_PORTSTATS_1","METRICS_PORTSTATS_2"),
+                partitions.getTables(DataCategory.PORTSTATS,0,Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRouting(){
+        HSQLDBPartitions partitions = new HSQLDBPartitions("LOGS");
+        for(int day=10;day<15;day++){
+            partitions.add(DataCategory.SYSLOG,day);
+        }
+        List<String> tables = partitions.getTables(DataCategory.SYSLOG,11*DAY+5,13*DAY);
+        Assert.assertEquals(Arrays.asList("LOGS_SYSLOG_11","LOGS_SYSLOG_12","LOGS_SYSLOG_13"),tables);
+        Assert.assertTrue(partitions.getTables(DataCategory.EXTERNAL,0,Long.MAX_VALUE).isEmpty());
+        Assert.assertTrue(partitions.getTables(DataCategory.SYSLOG,13*DAY,11*DAY).isEmpty());
+    }
+
+    @Test
+    public void testExpiredDays(){
+        HSQLDBPartitions partitions = new HSQLDBPartitions("METRICS");
+        for(int day=10;day<15;day++){
+            partitions.add(DataCategory.FLOWSTATS,day);
+        }
+        //The partition of the retention day still holds records after the retention time
+        Assert.assertEquals(Arrays.asList(10,11),partitions.getExpiredDays(DataCategory.FLOWSTATS,12*DAY+5));
+        Assert.assertEquals(Arrays.asList(10,11,12),partitions.getExpiredDays(DataCategory.FLOWSTATS,13*DAY));
+        partitions.remove(DataCategory.FLOWSTATS,10);
+        Assert.assertEquals(Arrays.asList(11),partitions.getExpiredDays(DataCategory.FLOWSTATS,12*DAY));
+        Assert.assertTrue(partitions.getExpiredDays(DataCategory.EXTERNAL,12*DAY).isEmpty());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.hsqldb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+
+/**
+ * The partitioned layout against an in memory database.
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class HSQLDBStoreInMemoryTest {
+    private static final long DAY = HSQLDBPartitions.PARTITION_SIZE;
+    private Connection connection = null;
+    private HSQLDBStore store = null;
+
+    @Before
+    public void before() throws SQLException {
+        new org.hsqldb.jdbcDriver();
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:tsdr-partitions","sa","");
+        store = new HSQLDBStore(connection,true);
+        store.createTSDRTables();
+    }
+
+    @After
+    public void after() throws SQLException {
+        connection.createStatement().execute("SHUTDOWN");
+        store.shutdown();
+    }
+
+    private boolean tableExists(String tableName) throws SQLException {
+        ResultSet rs = connection.getMetaData().getTables(null,null,tableName,null);
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testPartitions() throws SQLException {
+        TSDRMetricRecord rec = HSQLDBStoreNoMockTest.createMetricRecord();
+        long[] times = new long[]{-1000,10*DAY+5,11*DAY+5};
+        store.startBatch();
+        for(long time:times){
+            store.store(new TSDRMetricRecordBuilder(rec).setTimeStamp(time).build());
+        }
+        store.executeBatch();
+        //A time before the epoch is stored in the partition of day 0
+        Assert.assertTrue(tableExists("METRICS_EXTERNAL_0"));
+        Assert.assertTrue(tableExists("METRICS_EXTERNAL_10"));
+        Assert.assertTrue(tableExists("METRICS_EXTERNAL_11"));
+
+        String key = FormatUtil.getTSDRMetricKey(rec);
+        List<TSDRMetricRecord> list = store.getTSDRMetricRecords(key,-DAY,Long.MAX_VALUE,10);
+        Assert.assertEquals(3,list.size());
+        for(int i=0;i<times.length;i++){
+            Assert.assertEquals(times[i],list.get(i).getTimeStamp().longValue());
+        }
+        list = store.getTSDRMetricRecords(key,10*DAY,11*DAY,10);
+        Assert.assertEquals(1,list.size());
+
+        //The expired partitions are dropped
+        store.purge(DataCategory.EXTERNAL,11*DAY);
+        Assert.assertFalse(tableExists("METRICS_EXTERNAL_0"));
+        Assert.assertFalse(tableExists("METRICS_EXTERNAL_10"));
+        list = store.getTSDRMetricRecords(key,-DAY,Long.MAX_VALUE,10);
+        Assert.assertEquals(1,list.size());
+        Assert.assertEquals(11*DAY+5,list.get(0).getTimeStamp().longValue());
+    }
+}
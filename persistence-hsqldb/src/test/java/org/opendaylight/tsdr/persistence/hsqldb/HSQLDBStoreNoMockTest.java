@@ -16,8 +16,12 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.TSDRAggregationUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
@@ -87,4 +91,89 @@ public class HSQLDBStoreNoMockTest {
         Assert.assertTrue(list.size()==1);
         Assert.assertEquals(rec.getRecordFullText(),list.get(0).getRecordFullText());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testGetMetricRecordsOrder() throws SQLException {
+        store.purge(DataCategory.EXTERNAL,System.currentTimeMillis()+1000);
+        TSDRMetricRecord rec = createMetricRecord();
+        long time = rec.getTimeStamp();
+        store.startBatch();
+        for(int i=0;i<3;i++){
+            store.store(new TSDRMetricRecordBuilder(rec).setTimeStamp(time+i).build());
+        }
+        store.executeBatch();
+        String key = FormatUtil.getTSDRMetricKey(rec);
+        List<TSDRMetricRecord> list = store.getTSDRMetricRecords(key,0L,Long.MAX_VALUE,2);
+        Assert.assertEquals(2,list.size());
+        Assert.assertEquals(time,list.get(0).getTimeStamp().longValue());
+        Assert.assertEquals(time+1,list.get(1).getTimeStamp().longValue());
+        //A data category as the key (tsdr:list) returns the newest metrics first
+        list = store.getTSDRMetricRecords(DataCategory.EXTERNAL.name(),0L,Long.MAX_VALUE,2);
+        Assert.assertEquals(2,list.size());
+        Assert.assertEquals(time+2,list.get(0).getTimeStamp().longValue());
+        Assert.assertEquals(time+1,list.get(1).getTimeStamp().longValue());
+    }
+
+    @Test
+    public void testGetLogPages() throws SQLException {
+        store.purge(DataCategory.EXTERNAL,System.currentTimeMillis()+1000);
+        TSDRLogRecord rec = createLogRecord();
+        long time = rec.getTimeStamp();
+        //Logs of the same time are told apart by their index
+        store.startBatch();
+        for(int i=0;i<5;i++){
+            store.store(new TSDRLogRecordBuilder(rec).setTimeStamp(time+i/2).setIndex(i).build());
+        }
+        store.executeBatch();
+        String key = FormatUtil.getTSDRLogKey(rec);
+        List<TSDRLogRecord> logs = new ArrayList<>();
+        TSDRRecordPage<TSDRLogRecord> page = store.getTSDRLogPage(key,0L,Long.MAX_VALUE,2,null);
+        int pages = 1;
+        while(page.getContinuationToken()!=null){
+            Assert.assertEquals(2,page.getRecords().size());
+            logs.addAll(page.getRecords());
+            page = store.getTSDRLogPage(key,0L,Long.MAX_VALUE,2,page.getContinuationToken());
+            pages++;
+        }
+        logs.addAll(page.getRecords());
+        Assert.assertEquals(3,pages);
+        Assert.assertEquals(5,logs.size());
+        for(int i=0;i<5;i++){
+            Assert.assertEquals(i,logs.get(i).getIndex().intValue());
+        }
+    }
+
+    @Test
+    public void testStoreAggregation() throws SQLException {
+        TSDRMetricRecord rec = createMetricRecord();
+        long periodStart = TSDRAggregationUtil.getPeriodStart(AggregationGranularity.HOURLY, rec.getTimeStamp());
+        store.store(TSDRAggregationUtil.createAggregation(rec, AggregationGranularity.HOURLY, periodStart, 1, 5, 6, 2));
+        //A second partial aggregation of the same period is merged into the first one
+        store.store(TSDRAggregationUtil.createAggregation(rec, AggregationGranularity.HOURLY, periodStart, 0, 4, 4, 2));
+        String key = FormatUtil.getTSDRMetricKey(rec);
+        List<TSDRAggregationMetric> list = store.getTSDRAggregatedMetrics(key, AggregationGranularity.HOURLY, periodStart, periodStart, 10);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(4L, list.get(0).getSampleCount().longValue());
+        Assert.assertEquals(0, list.get(0).getMinValue().compareTo(BigDecimal.ZERO));
+        Assert.assertEquals(0, list.get(0).getMaxValue().compareTo(new BigDecimal(5)));
+        Assert.assertEquals(0, list.get(0).getSumValue().compareTo(new BigDecimal(10)));
+        Assert.assertEquals(0, list.get(0).getAvgValue().compareTo(new BigDecimal("2.5")));
+        Assert.assertTrue(store.getTSDRAggregatedMetrics(key, AggregationGranularity.DAILY, periodStart, periodStart, 10).isEmpty());
+    }
+
+    @Test
+    public void testStoreAggregationsOfOnePeriodInOneBatch() throws SQLException {
+        TSDRMetricRecord rec = createMetricRecord();
+        long periodStart = TSDRAggregationUtil.getPeriodStart(AggregationGranularity.DAILY, rec.getTimeStamp());
+        List<TSDRAggregationMetric> batch = new ArrayList<>();
+        batch.add(TSDRAggregationUtil.createAggregation(rec, AggregationGranularity.DAILY, periodStart, 1, 5, 6, 2));
+        batch.add(TSDRAggregationUtil.createAggregation(rec, AggregationGranularity.DAILY, periodStart, 2, 7, 9, 2));
+        store.store(batch);
+        List<TSDRAggregationMetric> list = store.getTSDRAggregatedMetrics(FormatUtil.getTSDRMetricKey(rec), AggregationGranularity.DAILY, periodStart, periodStart, 10);
+        Assert.assertEquals(1, list.size());
+        Assert.assertEquals(4L, list.get(0).getSampleCount().longValue());
+        Assert.assertEquals(0, list.get(0).getMinValue().compareTo(BigDecimal.ONE));
+        Assert.assertEquals(0, list.get(0).getMaxValue().compareTo(new BigDecimal(7)));
+        Assert.assertEquals(0, list.get(0).getSumValue().compareTo(new BigDecimal(15)));
+    }
+}
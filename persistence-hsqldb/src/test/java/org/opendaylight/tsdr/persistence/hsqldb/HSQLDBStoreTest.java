@@ -10,6 +10,7 @@ package org.opendaylight.tsdr.persistence.hsqldb;
 import java.io.File;
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -24,6 +25,7 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
@@ -39,6 +41,7 @@ import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.Recor
 public class HSQLDBStoreTest {
     private Connection connection = Mockito.mock(Connection.class);
     private Statement statement = Mockito.mock(Statement.class);
+    private PreparedStatement preparedStatement = Mockito.mock(PreparedStatement.class);
     private HSQLDBStore store = null;
     private ResultSet resultSet = Mockito.mock(ResultSet.class);
     private boolean next = false;
@@ -47,6 +50,8 @@ public class HSQLDBStoreTest {
     public void before() throws SQLException {
         store = new HSQLDBStore(connection);
         Mockito.when(connection.createStatement()).thenReturn(statement);
+        Mockito.when(connection.prepareStatement(Mockito.anyString())).thenReturn(preparedStatement);
+        Mockito.when(preparedStatement.executeQuery()).thenReturn(resultSet);
         Mockito.when(statement.executeQuery(Mockito.anyString())).thenReturn(resultSet);
         Mockito.when(resultSet.next()).thenAnswer(new Answer<Boolean>() {
             @Override
@@ -60,6 +65,13 @@ public class HSQLDBStoreTest {
         Mockito.when(resultSet.getString("value")).thenReturn(createLogRecord().getRecordFullText());
     }
 
+    //The rows of the result set belong to the series of the key
+    private void mockSeries(String tsdrKey) throws SQLException {
+        MD5ID id = MD5ID.createTSDRID(tsdrKey);
+        Mockito.when(resultSet.getLong("KeyA")).thenReturn(id.getMd5Long1());
+        Mockito.when(resultSet.getLong("KeyB")).thenReturn(id.getMd5Long2());
+    }
+
     @After
     public void after(){
         store.shutdown();
@@ -117,7 +129,7 @@ public class HSQLDBStoreTest {
     @Test
     public void testStoreTSDRMetric() throws SQLException {
         store.store(createMetricRecord());
-        Mockito.verify(statement,Mockito.atLeast(1)).execute(Mockito.anyString());
+        Mockito.verify(preparedStatement,Mockito.atLeast(1)).executeBatch();
         store.shutdown();
         Mockito.verify(connection,Mockito.atLeast(1)).close();
     }
@@ -125,16 +137,58 @@ public class HSQLDBStoreTest {
     @Test
     public void testStoreTSDRLog() throws SQLException {
         store.store(createLogRecord());
-        Mockito.verify(statement,Mockito.atLeast(1)).execute(Mockito.anyString());
+        Mockito.verify(preparedStatement,Mockito.atLeast(1)).executeBatch();
         store.shutdown();
         Mockito.verify(connection,Mockito.atLeast(1)).close();
     }
 
+    @Test
+    public void testStoreBatch() throws SQLException {
+        store.startBatch();
+        store.store(createMetricRecord());
+        store.store(createLogRecord());
+        store.store(createMetricRecord());
+        Mockito.verify(preparedStatement,Mockito.never()).executeBatch();
+        store.executeBatch();
+        //One statement per table, a single transaction for the whole batch
+        Mockito.verify(preparedStatement,Mockito.times(3)).addBatch();
+        Mockito.verify(preparedStatement,Mockito.times(2)).executeBatch();
+        Mockito.verify(connection,Mockito.times(1)).commit();
+    }
+
+    @Test
+    public void testStoreBatchFailure() throws SQLException {
+        Mockito.when(preparedStatement.executeBatch()).thenThrow(new SQLException("Duplicate key"));
+        store.startBatch();
+        store.store(createMetricRecord());
+        store.store(createLogRecord());
+        store.executeBatch();
+        //The batch is rolled back and the records are written one by one
+        Mockito.verify(connection,Mockito.times(1)).rollback();
+        Mockito.verify(preparedStatement,Mockito.times(2)).executeUpdate();
+    }
+
+    @Test
+    public void testStoreBatchRuntimeFailure() throws SQLException {
+        Mockito.when(preparedStatement.executeBatch()).thenThrow(new IllegalStateException("Closed"));
+        store.startBatch();
+        store.store(createMetricRecord());
+        try {
+            store.executeBatch();
+            Assert.fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            //The open transaction is rolled back and not committed by enabling the auto commit
+            Mockito.verify(connection,Mockito.times(1)).rollback();
+            Mockito.verify(connection,Mockito.never()).commit();
+        }
+    }
+
     @Test
     public void testGetMetricRecords() throws SQLException {
         TSDRMetricRecord rec = createMetricRecord();
         String key = FormatUtil.getTSDRMetricKey(rec);
         store.store(rec);
+        mockSeries(key);
         List<TSDRMetricRecord> list = store.getTSDRMetricRecords(key,0L,Long.MAX_VALUE,10);
         Assert.assertNotNull(list);
         Assert.assertTrue(list.size()==1);
@@ -146,6 +200,7 @@ public class HSQLDBStoreTest {
         TSDRMetricRecord rec = createMetricRecord();
         String key = FormatUtil.getTSDRMetricKey(rec);
         store.store(rec);
+        mockSeries(key);
         key = "[NID=Test]";
         List<TSDRMetricRecord> list = store.getTSDRMetricRecords(key,0L,Long.MAX_VALUE,10);
         Assert.assertNotNull(list);
@@ -158,6 +213,7 @@ public class HSQLDBStoreTest {
         TSDRLogRecord rec = createLogRecord();
         String key = FormatUtil.getTSDRLogKey(rec);
         store.store(rec);
+        mockSeries(key);
         List<TSDRLogRecord> list = store.getTSDRLogRecords(key,0L,Long.MAX_VALUE,10);
         Assert.assertNotNull(list);
         Assert.assertTrue(list.size()==1);
@@ -169,6 +225,7 @@ public class HSQLDBStoreTest {
         TSDRLogRecord rec = createLogRecord();
         String key = FormatUtil.getTSDRLogKey(rec);
         store.store(rec);
+        mockSeries(key);
         key = "[NID=Test]";
         List<TSDRLogRecord> list = store.getTSDRLogRecords(key,0L,Long.MAX_VALUE,10);
         Assert.assertNotNull(list);
@@ -179,7 +236,7 @@ public class HSQLDBStoreTest {
     @Test
     public void testPurge() throws SQLException {
         store.store(createMetricRecord());
-        Mockito.verify(statement,Mockito.atLeast(1)).execute(Mockito.anyString());
+        Mockito.verify(preparedStatement,Mockito.atLeast(1)).executeBatch();
         store.purge(DataCategory.EXTERNAL,0L);
         Mockito.verify(statement,Mockito.atLeast(1)).execute(Mockito.anyString());
     }
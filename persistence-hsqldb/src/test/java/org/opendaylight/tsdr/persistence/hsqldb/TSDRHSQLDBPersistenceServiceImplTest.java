@@ -10,11 +10,13 @@ package org.opendaylight.tsdr.persistence.hsqldb;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.opendaylight.tsdr.persistence.hsqldb.HSQLDBStore;
 import org.opendaylight.tsdr.persistence.hsqldb.TSDRHSQLDBPersistenceServiceImpl;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
@@ -60,6 +62,20 @@ public class TSDRHSQLDBPersistenceServiceImplTest {
         Mockito.verify(store, Mockito.atLeast(1)).store(metricRecord);
     }
 
+    @Test
+    public void testStoreListFailure() throws SQLException {
+        Mockito.doThrow(new SQLException("Failed")).when(store).executeBatch();
+        List<TSDRRecord> list = new ArrayList<>(1);
+        list.add(HSQLDBStoreTest.createMetricRecord());
+        try {
+            impl.store(list);
+            Assert.fail("Expected a TSDRPersistenceException");
+        } catch (TSDRPersistenceException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        }
+        Mockito.verify(store).endBatch();
+    }
+
     @Test
     public void testStart(){
         impl.start(100);
@@ -48,6 +48,12 @@ public class TSDRConstants {
      */
     public static final int MAX_RESULTS_FROM_LIST_METRICS_COMMAND = 1000;
 
+    /**
+     * Default and max number of records in a page of a paged query
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int MAX_PAGE_SIZE = 10000;
+
 
     /**
      * constants for metrics categories
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.model;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * A page of the records of a paged query and the continuation token of the next page.
+ *
+ * <p>
+ * The token is opaque to the caller, it encodes the position of the last record of the page
+ * so the persistence service does not keep any state between the pages and a caller may stop
+ * reading at any page. The token is URL safe so it can be passed as a query parameter.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRRecordPage<T> {
+
+    private final List<T> records;
+    private final String continuationToken;
+
+    /**
+     * @param records - The records of the page
+     * @param continuationToken - The token of the next page, null if this is the last page
+     */
+    public TSDRRecordPage(List<T> records, String continuationToken){
+        this.records = records;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<T> getRecords(){
+        return records;
+    }
+
+    /**
+     * @return - The token of the next page, null if there are no more records
+     */
+    public String getContinuationToken(){
+        return continuationToken;
+    }
+
+    /**
+     * @param pageSize - The requested page size, 0 or less for the default
+     * @return - The page size bounded by TSDRConstants.MAX_PAGE_SIZE
+     */
+    public static final int getPageSize(int pageSize){
+        if(pageSize<=0){
+            return TSDRConstants.DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(pageSize,TSDRConstants.MAX_PAGE_SIZE);
+    }
+
+    /**
+     * @param position - The position of the last record of a page
+     * @return - The continuation token
+     */
+    public static final String toToken(byte[] position){
+        return DatatypeConverter.printBase64Binary(position).replace('+','-').replace('/','_');
+    }
+
+    /**
+     * @param position - The position of the last record of a page
+     * @return - The continuation token
+     */
+    public static final String toToken(long... position){
+        ByteBuffer buff = ByteBuffer.allocate(position.length*8);
+        for(long value:position){
+            buff.putLong(value);
+        }
+        return toToken(buff.array());
+    }
+
+    /**
+     * @param token - A continuation token
+     * @return - The position the token was created from
+     * @throws IllegalArgumentException - If the token is not a continuation token
+     */
+    public static final byte[] getPosition(String token){
+        if(token==null){
+            throw new IllegalArgumentException("Illegal continuation token null");
+        }
+        byte[] data;
+        try{
+            data = DatatypeConverter.parseBase64Binary(token.replace('-','+').replace('_','/'));
+        }catch(RuntimeException e){
+            throw new IllegalArgumentException("Illegal continuation token "+token,e);
+        }
+        //The decoder skips the characters it does not know, so a token is valid only if it encodes back to itself
+        if(data==null || data.length==0 || !toToken(data).equals(token)){
+            throw new IllegalArgumentException("Illegal continuation token "+token);
+        }
+        return data;
+    }
+
+    /**
+     * @param token - A continuation token
+     * @param length - The number of values of the position
+     * @return - The position the token was created from
+     * @throws IllegalArgumentException - If the token is not a continuation token of a position of this length
+     */
+    public static final long[] getPosition(String token, int length){
+        byte[] data = getPosition(token);
+        if(data.length!=length*8){
+            throw new IllegalArgumentException("Illegal continuation token "+token);
+        }
+        ByteBuffer buff = ByteBuffer.wrap(data);
+        long[] position = new long[length];
+        for(int i=0;i<length;i++){
+            position[i] = buff.getLong();
+        }
+        return position;
+    }
+}
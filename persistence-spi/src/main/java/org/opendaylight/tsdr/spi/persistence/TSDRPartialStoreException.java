@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+
+/**
+ * Thrown when only a part of a batch could not be stored, the other records of the batch were stored
+ * so the caller should keep and store again only the failed records.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRPartialStoreException extends TSDRPersistenceException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<TSDRRecord> failedRecords;
+
+    /**
+     * @param message - The message
+     * @param cause - The failure of the records
+     * @param failedRecords - The records of the batch that were not stored
+     */
+    public TSDRPartialStoreException(String message, Throwable cause, List<TSDRRecord> failedRecords){
+        super(message,cause);
+        this.failedRecords = Collections.unmodifiableList(failedRecords);
+    }
+
+    /**
+     * @return - The records of the batch that were not stored
+     */
+    public List<TSDRRecord> getFailedRecords(){
+        return failedRecords;
+    }
+
+    /**
+     * @param batch - The batch that was stored
+     * @return - The records of the batch that were stored
+     */
+    public List<TSDRRecord> getStoredRecords(List<? extends TSDRRecord> batch){
+        final Set<TSDRRecord> failed = Collections.newSetFromMap(new IdentityHashMap<TSDRRecord,Boolean>());
+        failed.addAll(failedRecords);
+        final List<TSDRRecord> stored = new ArrayList<>();
+        for(TSDRRecord record:batch){
+            if(!failed.contains(record)){
+                stored.add(record);
+            }
+        }
+        return stored;
+    }
+}
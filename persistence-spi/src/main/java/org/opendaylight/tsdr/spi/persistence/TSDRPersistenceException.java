@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.persistence;
+
+/**
+ * Thrown by a persistence service when records could not be stored, so the caller
+ * can keep them and store them again later.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRPersistenceException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public TSDRPersistenceException(String message){
+        super(message);
+    }
+
+    public TSDRPersistenceException(String message, Throwable cause){
+        super(message,cause);
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistence service that routes every data category to one of several registered persistence
+ * services (backends), so for example the logs can go to Cassandra while the metrics stay in HBase.
+ *
+ * <p>
+ * The routes are read from tsdr.cfg, "persistence.route.&lt;DataCategory&gt;=&lt;backend&gt;" routes a
+ * category and "persistence.route.default=&lt;backend&gt;" the categories without a route. Without a
+ * default route the categories without a route go to the first registered backend. A category whose
+ * backend is not registered fails with TSDRPersistenceException instead of going to another backend,
+ * so its records are kept by the spill log until the backend is registered.
+ * </p>
+ *
+ * <p>
+ * A batch is split by backend and the parts are stored in parallel. When some of the parts fail with
+ * TSDRPersistenceException the batch fails with TSDRPartialStoreException, which carries only the records
+ * of the failed parts so the records of the other backends are not stored twice when the batch is kept
+ * and stored again.
+ * A query or a purge of a category goes to its backend, a query whose key has no category goes to all
+ * the backends and their results are concatenated.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRRoutingPersistenceService implements TsdrAggregationPersistenceService, TsdrPagingPersistenceService {
+
+    private static final Logger log = LoggerFactory.getLogger(TSDRRoutingPersistenceService.class);
+
+    public static final String ROUTE_PREFIX = "persistence.route.";
+    public static final String DEFAULT_ROUTE = "default";
+
+    private final Map<String,TsdrPersistenceService> backends = Collections.synchronizedMap(new LinkedHashMap<String,TsdrPersistenceService>());
+    private final Map<DataCategory,String> routes = new EnumMap<>(DataCategory.class);
+    private final String defaultRoute;
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,"TSDR Routing Writer "+count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * @param config - The TSDR configuration with the routes
+     */
+    public TSDRRoutingPersistenceService(Properties config){
+        String defaultBackend = null;
+        for(String name:config.stringPropertyNames()){
+            if(!name.startsWith(ROUTE_PREFIX)){
+                continue;
+            }
+            final String category = name.substring(ROUTE_PREFIX.length()).trim();
+            final String backend = config.getProperty(name).trim();
+            if(category.equals(DEFAULT_ROUTE)){
+                defaultBackend = backend;
+            }else if(FormatUtil.isDataCategory(category)){
+                routes.put(DataCategory.valueOf(category),backend);
+            }else{
+                log.error("Unknown data category {} in the route {}, ignoring it",category,name);
+            }
+        }
+        this.defaultRoute = defaultBackend;
+        log.info("TSDR persistence routes are {}, the default backend is {}",routes,defaultRoute);
+    }
+
+    /**
+     * @param config - The TSDR configuration
+     * @return - true if the configuration has persistence routes
+     */
+    public static boolean hasRoutes(Properties config){
+        for(String name:config.stringPropertyNames()){
+            if(name.startsWith(ROUTE_PREFIX)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers a backend.
+     * @param name - The name of the backend in the routes
+     * @param service - The backend
+     * @return - The backend that was registered with the same name, or null
+     */
+    public TsdrPersistenceService addBackend(String name, TsdrPersistenceService service){
+        log.info("Registering the TSDR persistence backend {}",name);
+        return backends.put(name,service);
+    }
+
+    /**
+     * @param name - The name of the backend
+     * @return - The removed backend, or null
+     */
+    public TsdrPersistenceService removeBackend(String name){
+        return backends.remove(name);
+    }
+
+    /**
+     * @param category - The data category
+     * @return - The backend the category is routed to
+     * @throws TSDRPersistenceException - if the backend of the category is not registered
+     */
+    public TsdrPersistenceService getBackend(DataCategory category){
+        String route = routes.get(category);
+        if(route==null){
+            route = defaultRoute;
+        }
+        synchronized(backends){
+            TsdrPersistenceService service = null;
+            if(route!=null){
+                service = backends.get(route);
+            }else if(!backends.isEmpty()){
+                service = backends.values().iterator().next();
+            }
+            if(service==null){
+                throw new TSDRPersistenceException("The persistence backend "+route+" of "+category+" is not registered");
+            }
+            return service;
+        }
+    }
+
+    /**
+     * @param tsdrKey - A TSDR key or just a data category
+     * @return - The backend of the category of the key, or all the backends if the key has no category
+     */
+    private Collection<TsdrPersistenceService> getBackends(String tsdrKey){
+        String category = tsdrKey!=null ? FormatUtil.getDataCategoryFromTSDRKey(tsdrKey) : null;
+        if(category==null && FormatUtil.isDataCategory(tsdrKey)){
+            category = tsdrKey;
+        }
+        if(category!=null && FormatUtil.isDataCategory(category)){
+            return Collections.singletonList(getBackend(DataCategory.valueOf(category)));
+        }
+        synchronized(backends){
+            return new LinkedHashSet<>(backends.values());
+        }
+    }
+
+    @Override
+    public void store(TSDRMetricRecord metricRecord) {
+        getBackend(metricRecord.getTSDRDataCategory()).store(metricRecord);
+    }
+
+    @Override
+    public void store(TSDRLogRecord logRecord) {
+        getBackend(logRecord.getTSDRDataCategory()).store(logRecord);
+    }
+
+    @Override
+    public void store(List<TSDRRecord> recordList) {
+        final Map<TsdrPersistenceService,List<TSDRRecord>> batches = new LinkedHashMap<>();
+        for(TSDRRecord record:recordList){
+            final TsdrPersistenceService backend = getBackend(record.getTSDRDataCategory());
+            List<TSDRRecord> batch = batches.get(backend);
+            if(batch==null){
+                batch = new ArrayList<>();
+                batches.put(backend,batch);
+            }
+            batch.add(record);
+        }
+        if(batches.size()==1){
+            final Map.Entry<TsdrPersistenceService,List<TSDRRecord>> entry = batches.entrySet().iterator().next();
+            entry.getKey().store(entry.getValue());
+            return;
+        }
+        //The other backends are written in parallel while this thread writes the first one
+        final Map<Map.Entry<TsdrPersistenceService,List<TSDRRecord>>,Future<?>> futures = new LinkedHashMap<>();
+        Map.Entry<TsdrPersistenceService,List<TSDRRecord>> first = null;
+        for(final Map.Entry<TsdrPersistenceService,List<TSDRRecord>> entry:batches.entrySet()){
+            if(first==null){
+                first = entry;
+                continue;
+            }
+            futures.put(entry,executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    entry.getKey().store(entry.getValue());
+                }
+            }));
+        }
+        final List<TSDRRecord> failedRecords = new ArrayList<>();
+        Throwable failure = null;
+        RuntimeException fatal = null;
+        try {
+            first.getKey().store(first.getValue());
+        }catch(TSDRPersistenceException e){
+            failedRecords.addAll(first.getValue());
+            failure = e;
+        }catch(RuntimeException e){
+            fatal = e;
+        }
+        for(Map.Entry<Map.Entry<TsdrPersistenceService,List<TSDRRecord>>,Future<?>> entry:futures.entrySet()){
+            try {
+                entry.getValue().get();
+            } catch (InterruptedException e) {
+                //The part may still be stored, storing it again is better than losing it
+                Thread.currentThread().interrupt();
+                failedRecords.addAll(entry.getKey().getValue());
+                failure = e;
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof TSDRPersistenceException){
+                    failedRecords.addAll(entry.getKey().getValue());
+                    failure = e.getCause();
+                }else if(e.getCause() instanceof RuntimeException){
+                    fatal = (RuntimeException)e.getCause();
+                }else{
+                    fatal = new IllegalStateException("Failed to store the records in a persistence backend",e.getCause());
+                }
+            }
+        }
+        if(fatal!=null){
+            //Storing the batch again will fail again, so it is not worth keeping any part of it
+            throw fatal;
+        }
+        if(failure!=null){
+            //Only the failed parts are kept, the parts of the other backends were stored
+            throw new TSDRPartialStoreException("Failed to store "+failedRecords.size()+" of "+recordList.size()
+                    +" records in one of the persistence backends",failure,failedRecords);
+        }
+    }
+
+    @Override
+    public void storeAggregatedMetrics(List<TSDRAggregationMetric> aggregationList) {
+        final Map<TsdrAggregationPersistenceService,List<TSDRAggregationMetric>> batches = new LinkedHashMap<>();
+        for(TSDRAggregationMetric aggregation:aggregationList){
+            final TsdrPersistenceService backend = getBackend(aggregation.getTSDRDataCategory());
+            //The raw metrics of this backend are queried instead
+            if(!(backend instanceof TsdrAggregationPersistenceService)){
+                continue;
+            }
+            List<TSDRAggregationMetric> batch = batches.get(backend);
+            if(batch==null){
+                batch = new ArrayList<>();
+                batches.put((TsdrAggregationPersistenceService)backend,batch);
+            }
+            batch.add(aggregation);
+        }
+        for(Map.Entry<TsdrAggregationPersistenceService,List<TSDRAggregationMetric>> entry:batches.entrySet()){
+            entry.getKey().storeAggregatedMetrics(entry.getValue());
+        }
+    }
+
+    @Override
+    public List<TSDRAggregationMetric> getTSDRAggregatedMetrics(String tsdrMetricKey, AggregationGranularity granularity, long startDateTime, long endDateTime) {
+        final List<TSDRAggregationMetric> result = new ArrayList<>();
+        for(TsdrPersistenceService backend:getBackends(tsdrMetricKey)){
+            if(backend instanceof TsdrAggregationPersistenceService){
+                final List<TSDRAggregationMetric> aggregations = ((TsdrAggregationPersistenceService)backend).getTSDRAggregatedMetrics(tsdrMetricKey,granularity,startDateTime,endDateTime);
+                if(aggregations!=null){
+                    result.addAll(aggregations);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime) {
+        final Collection<TsdrPersistenceService> targets = getBackends(tsdrMetricKey);
+        if(targets.size()==1){
+            return targets.iterator().next().getTSDRMetricRecords(tsdrMetricKey,startDateTime,endDateTime);
+        }
+        final List<TSDRMetricRecord> result = new ArrayList<>();
+        for(TsdrPersistenceService backend:targets){
+            final List<TSDRMetricRecord> records = backend.getTSDRMetricRecords(tsdrMetricKey,startDateTime,endDateTime);
+            if(records!=null){
+                result.addAll(records);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startTime, long endTime) {
+        final Collection<TsdrPersistenceService> targets = getBackends(tsdrLogKey);
+        if(targets.size()==1){
+            return targets.iterator().next().getTSDRLogRecords(tsdrLogKey,startTime,endTime);
+        }
+        final List<TSDRLogRecord> result = new ArrayList<>();
+        for(TsdrPersistenceService backend:targets){
+            final List<TSDRLogRecord> records = backend.getTSDRLogRecords(tsdrLogKey,startTime,endTime);
+            if(records!=null){
+                result.addAll(records);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pages are read from the backend of the category of the key, a backend that can't read pages returns
+     * all the records in one page. A key without a category is read in one page from all the backends.
+     */
+    @Override
+    public TSDRRecordPage<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime, int pageSize, String continuationToken) {
+        final Collection<TsdrPersistenceService> targets = getBackends(tsdrMetricKey);
+        if(targets.size()==1 && targets.iterator().next() instanceof TsdrPagingPersistenceService){
+            return ((TsdrPagingPersistenceService)targets.iterator().next()).getTSDRMetricRecords(tsdrMetricKey,startDateTime,endDateTime,pageSize,continuationToken);
+        }
+        return new TSDRRecordPage<>(getTSDRMetricRecords(tsdrMetricKey,startDateTime,endDateTime),null);
+    }
+
+    @Override
+    public TSDRRecordPage<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startTime, long endTime, int pageSize, String continuationToken) {
+        final Collection<TsdrPersistenceService> targets = getBackends(tsdrLogKey);
+        if(targets.size()==1 && targets.iterator().next() instanceof TsdrPagingPersistenceService){
+            return ((TsdrPagingPersistenceService)targets.iterator().next()).getTSDRLogRecords(tsdrLogKey,startTime,endTime,pageSize,continuationToken);
+        }
+        return new TSDRRecordPage<>(getTSDRLogRecords(tsdrLogKey,startTime,endTime),null);
+    }
+
+    @Override
+    public void purgeTSDRRecords(DataCategory category, Long timestamp) {
+        getBackend(category).purgeTSDRRecords(category,timestamp);
+    }
+
+    @Override
+    public void purgeAllTSDRRecords(Long timestamp) {
+        for(TsdrPersistenceService backend:getBackends(null)){
+            backend.purgeAllTSDRRecords(timestamp);
+        }
+    }
+
+    /**
+     * The backends are started when they are registered.
+     */
+    @Override
+    public void start(int timeout) {
+    }
+
+    @Override
+    public void stop(int timeout) {
+        executor.shutdown();
+        try {
+            if(!executor.awaitTermination(timeout,TimeUnit.MILLISECONDS)){
+                log.warn("The TSDR routing writers did not finish within {} ms",timeout);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        for(TsdrPersistenceService backend:getBackends(null)){
+            backend.stop(timeout);
+        }
+    }
+
+    /**
+     * @return - The names of the registered backends
+     */
+    public Set<String> getBackendNames(){
+        synchronized(backends){
+            return new LinkedHashSet<>(backends.keySet());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.persistence;
+
+import java.util.List;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
+
+/**
+ * A persistence service that can also store the metric rollups (TSDRAggregationMetric)
+ * produced by the TSDR aggregation engine. Persistence services that do not implement it are
+ * queried for the raw metrics only.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public interface TsdrAggregationPersistenceService extends TsdrPersistenceService {
+
+    /**
+     * Store a list of aggregations. An aggregation may be a partial one for a period that already
+     * has a stored aggregation of the same metric and granularity, in that case the two should be
+     * merged (see TSDRAggregationUtil.merge) so the stored aggregation covers all the samples.
+     * @param aggregationList - a list of aggregations
+     */
+    void storeAggregatedMetrics(List<TSDRAggregationMetric> aggregationList);
+
+    /**
+     * Returns the aggregations of the given granularity whose period starts between startDateTime and endDateTime.
+     * @param tsdrMetricKey -- The tsdr metric key, can also be just Data Category,
+     * @param granularity -- The aggregation granularity
+     * @param startDateTime  --The start time in milis
+     * @param endDateTime   -- The end time in milis
+     * @return - List of aggregations
+     */
+    List<TSDRAggregationMetric> getTSDRAggregatedMetrics(String tsdrMetricKey, AggregationGranularity granularity, long startDateTime, long endDateTime);
+}
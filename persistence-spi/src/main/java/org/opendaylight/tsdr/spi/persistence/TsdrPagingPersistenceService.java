@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.persistence;
+
+import org.opendaylight.tsdr.spi.model.TSDRRecordPage;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+
+/**
+ * A persistence service that can also read the records page by page. The list queries of TsdrPersistenceService
+ * are capped at TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND, a paged query reads all the records of a
+ * time range without holding them all in memory. Persistence services that do not implement it are queried
+ * with the list queries.
+ *
+ * <p>
+ * The order of the records is defined by the persistence service, reading all the pages returns every record
+ * of the time range once. A page may have fewer records than the page size and still be followed by another page,
+ * the last page has no continuation token.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public interface TsdrPagingPersistenceService extends TsdrPersistenceService {
+
+    /**
+     * Returns a page of the metrics of the key in the time range.
+     * @param tsdrMetricKey -- The tsdr metric key, can also be just Data Category,
+     * @param startDateTime  --The start time in milis
+     * @param endDateTime   -- The end time in milis
+     * @param pageSize -- The maximum number of metrics in the page, see TSDRRecordPage.getPageSize
+     * @param continuationToken -- The token of the previous page, null for the first page
+     * @return - The page
+     * @throws IllegalArgumentException - If the token is not a token of this query
+     */
+    TSDRRecordPage<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime, int pageSize, String continuationToken);
+
+    /**
+     * Returns a page of the logs of the key in the time range.
+     * @param tsdrLogKey - The tsdr log key, can be also just Data Category
+     * @param startTime - The starting time
+     * @param endTime - The end time
+     * @param pageSize -- The maximum number of logs in the page, see TSDRRecordPage.getPageSize
+     * @param continuationToken -- The token of the previous page, null for the first page
+     * @return - The page
+     * @throws IllegalArgumentException - If the token is not a token of this query
+     */
+    TSDRRecordPage<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startTime, long endTime, int pageSize, String continuationToken);
+}
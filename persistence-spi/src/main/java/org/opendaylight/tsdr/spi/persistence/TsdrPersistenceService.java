@@ -48,6 +48,7 @@ public interface TsdrPersistenceService {
     /**
      * Store a list of TSDRRecord.
      * @param recordList - a list of tsdrRecord
+     * @throws TSDRPersistenceException - if the records could not be stored, a part of them may have been stored
      */
     void store(List<TSDRRecord> recordList);
 
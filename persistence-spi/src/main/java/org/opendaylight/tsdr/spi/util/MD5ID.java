@@ -7,39 +7,45 @@
  */
 package org.opendaylight.tsdr.spi.util;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * This class encode the tsdr key into MD5 hash code to serve as a row key identifier for a single metric
  * so when pushing a sample we do not need to persist the whole tsdr string key but only two longs.
+ * Each thread hashes with its own digest and scratch buffers so no lock is taken and no array is allocated
+ * per key. A persistence backend may choose the non cryptographic Murmur3 128 bit hash instead of MD5,
+ * ids that were already stored are kept by the TSDRKeyCache so switching does not change them.
  * @author - Sharon Aicler (saichler@gmail.com)
  */
 public class MD5ID {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(MD5ID.class);
-    private static MessageDigest md = null;
-    private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    private static final WriteLock writeLock = lock.writeLock();
+    /**
+     * The algorithm used to calculate the 128 bit id of a key.
+     * MD5 is the default and is compatible with the ids that were stored by previous versions.
+     */
+    public static enum KeyIDAlgorithm {
+        MD5,
+        MURMUR3_128
+    }
+
+    private static final ThreadLocal<HashContext> hashContext = new ThreadLocal<HashContext>() {
+        @Override
+        protected HashContext initialValue() {
+            return new HashContext();
+        }
+    };
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
 
     private final long md5Long1;
     private final long md5Long2;
-    private byte[] hashByteArray = null;
 
     static {
-        if (md == null) {
-            if (md == null) {
-                try {
-                    md = MessageDigest.getInstance("MD5");
-                } catch (NoSuchAlgorithmException e) {
-                    throw new ExceptionInInitializerError("Could not initialize MD5 Algorithm");
-                }
-            }
-        }
+        //Fail early if the MD5 algorithm is not available
+        hashContext.get();
     }
 
     private MD5ID(long md5long1, long md5long2) {
@@ -50,51 +56,108 @@ public class MD5ID {
     /**
      This constructor is calculating two longs that represent the MD5 hashing of the input byte array.
      @param byteArray - A byte array to be hashed or an already hashed byte array.
+     @param length - The number of bytes to hash from the byte array.
      @param alreadyHashed - If the byte array is already hashed, don't hash it again.
      **/
-    private MD5ID(byte byteArray[],boolean alreadyHashed) {
-
+    private MD5ID(byte byteArray[],int length,boolean alreadyHashed) {
+        byte[] hashByteArray = byteArray;
         if(!alreadyHashed) {
+            final HashContext context = hashContext.get();
+            context.md.update(byteArray,0,length);
             try {
-                writeLock.lock();
-                md.update(byteArray);
-                hashByteArray = md.digest();
-            } finally {
-                writeLock.unlock();
+                context.md.digest(context.digest,0,context.digest.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException("Failed to calculate MD5 digest",e);
             }
-        }else{
-            hashByteArray = byteArray;
+            hashByteArray = context.digest;
         }
+        this.md5Long1 = getLongBigEndian(hashByteArray,0);
+        this.md5Long2 = getLongBigEndian(hashByteArray,8);
+    }
 
-        //Calculate the two longs
-        long md5Long1 = (0 << 8) + (hashByteArray[0] & 0xff);
-        md5Long1 = (md5Long1 << 8) + (hashByteArray[1] & 0xff);
-        md5Long1 = (md5Long1 << 8) + (hashByteArray[2] & 0xff);
-        md5Long1 = (md5Long1 << 8) + (hashByteArray[3] & 0xff);
-        md5Long1 = (md5Long1 << 8) + (hashByteArray[4] & 0xff);
-        md5Long1 = (md5Long1 << 8) + (hashByteArray[5] & 0xff);
-        md5Long1 = (md5Long1 << 8) + (hashByteArray[6] & 0xff);
-        md5Long1 = (md5Long1 << 8) + (hashByteArray[7] & 0xff);
-        this.md5Long1 = md5Long1;
-
-        long md5Long2 = (0 << 8) + (hashByteArray[8] & 0xff);
-        md5Long2 = (md5Long2 << 8) + (hashByteArray[9] & 0xff);
-        md5Long2 = (md5Long2 << 8) + (hashByteArray[10] & 0xff);
-        md5Long2 = (md5Long2 << 8) + (hashByteArray[11] & 0xff);
-        md5Long2 = (md5Long2 << 8) + (hashByteArray[12] & 0xff);
-        md5Long2 = (md5Long2 << 8) + (hashByteArray[13] & 0xff);
-        md5Long2 = (md5Long2 << 8) + (hashByteArray[14] & 0xff);
-        md5Long2 = (md5Long2 << 8) + (hashByteArray[15] & 0xff);
-        this.md5Long2 = md5Long2;
+    /**
+     This constructor is calculating the two longs of the Murmur3 x64 128 bit hash of the input byte array.
+     **/
+    private MD5ID(byte data[],int length) {
+        long h1 = 0;
+        long h2 = 0;
+        final int nblocks = length >>> 4;
+        for(int i=0;i<nblocks;i++){
+            long k1 = getLongLittleEndian(data,i<<4);
+            long k2 = getLongLittleEndian(data,(i<<4)+8);
+            k1 *= C1; k1 = Long.rotateLeft(k1,31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1,27); h1 += h2; h1 = h1*5+0x52dce729;
+            k2 *= C2; k2 = Long.rotateLeft(k2,33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2,31); h2 += h1; h2 = h2*5+0x38495ab5;
+        }
+        final int tail = nblocks << 4;
+        long k1 = 0;
+        long k2 = 0;
+        switch(length & 15){
+            case 15: k2 ^= ((long)(data[tail+14] & 0xff)) << 48;
+            case 14: k2 ^= ((long)(data[tail+13] & 0xff)) << 40;
+            case 13: k2 ^= ((long)(data[tail+12] & 0xff)) << 32;
+            case 12: k2 ^= ((long)(data[tail+11] & 0xff)) << 24;
+            case 11: k2 ^= ((long)(data[tail+10] & 0xff)) << 16;
+            case 10: k2 ^= ((long)(data[tail+9] & 0xff)) << 8;
+            case 9:  k2 ^= ((long)(data[tail+8] & 0xff));
+                     k2 *= C2; k2 = Long.rotateLeft(k2,33); k2 *= C1; h2 ^= k2;
+            case 8:  k1 ^= ((long)(data[tail+7] & 0xff)) << 56;
+            case 7:  k1 ^= ((long)(data[tail+6] & 0xff)) << 48;
+            case 6:  k1 ^= ((long)(data[tail+5] & 0xff)) << 40;
+            case 5:  k1 ^= ((long)(data[tail+4] & 0xff)) << 32;
+            case 4:  k1 ^= ((long)(data[tail+3] & 0xff)) << 24;
+            case 3:  k1 ^= ((long)(data[tail+2] & 0xff)) << 16;
+            case 2:  k1 ^= ((long)(data[tail+1] & 0xff)) << 8;
+            case 1:  k1 ^= ((long)(data[tail] & 0xff));
+                     k1 *= C1; k1 = Long.rotateLeft(k1,31); k1 *= C2; h1 ^= k1;
+            default:
+        }
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        this.md5Long1 = h1;
+        this.md5Long2 = h2;
+    }
+
+    private static final long fmix(long k){
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static final long getLongBigEndian(byte[] b,int offset){
+        return ((long)(b[offset] & 0xff) << 56) | ((long)(b[offset+1] & 0xff) << 48) |
+               ((long)(b[offset+2] & 0xff) << 40) | ((long)(b[offset+3] & 0xff) << 32) |
+               ((long)(b[offset+4] & 0xff) << 24) | ((long)(b[offset+5] & 0xff) << 16) |
+               ((long)(b[offset+6] & 0xff) << 8) | ((long)(b[offset+7] & 0xff));
+    }
+
+    private static final long getLongLittleEndian(byte[] b,int offset){
+        return ((long)(b[offset+7] & 0xff) << 56) | ((long)(b[offset+6] & 0xff) << 48) |
+               ((long)(b[offset+5] & 0xff) << 40) | ((long)(b[offset+4] & 0xff) << 32) |
+               ((long)(b[offset+3] & 0xff) << 24) | ((long)(b[offset+2] & 0xff) << 16) |
+               ((long)(b[offset+1] & 0xff) << 8) | ((long)(b[offset] & 0xff));
     }
 
     @Override
     public int hashCode() {
-        return java.util.Objects.hash(md5Long1, md5Long2);
+        return 31 * (int)(md5Long1 ^ (md5Long1 >>> 32)) + (int)(md5Long2 ^ (md5Long2 >>> 32));
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (!(obj instanceof MD5ID)) {
+            return false;
+        }
         MD5ID other = (MD5ID) obj;
         if (other.md5Long1 == md5Long1 && other.md5Long2 == md5Long2)
             return true;
@@ -109,21 +172,72 @@ public class MD5ID {
         return this.md5Long2;
     }
 
-    public byte[] toByteArray(){ return this.hashByteArray;}
+    public byte[] toByteArray(){
+        byte[] result = new byte[16];
+        for(int i=0;i<8;i++){
+            result[i] = (byte)(md5Long1 >>> (56-i*8));
+            result[i+8] = (byte)(md5Long2 >>> (56-i*8));
+        }
+        return result;
+    }
 
     public static final MD5ID createTSDRID(final String tsdrKey) {
-        return new MD5ID(tsdrKey.getBytes(),false);
+        return createTSDRID(tsdrKey,KeyIDAlgorithm.MD5);
+    }
+
+    public static final MD5ID createTSDRID(final String tsdrKey,KeyIDAlgorithm algorithm) {
+        final HashContext context = hashContext.get();
+        byte[] data = context.encode(tsdrKey);
+        int length = data==context.input ? tsdrKey.length() : data.length;
+        if(algorithm==KeyIDAlgorithm.MURMUR3_128){
+            return new MD5ID(data,length);
+        }
+        return new MD5ID(data,length,false);
     }
 
     public static final MD5ID createTSDRID(byte data[]) {
-        return new MD5ID(data,false);
+        return new MD5ID(data,data.length,false);
     }
 
     public static final MD5ID createTSDRIDAlreadyHash(byte data[]) {
-        return new MD5ID(data,true);
+        return new MD5ID(data,16,true);
     }
 
     public static MD5ID createTSDRID(long a, long b) {
         return new MD5ID(a, b);
     }
-}
\ No newline at end of file
+
+    //Per thread digest and scratch buffers
+    private static final class HashContext {
+        private final MessageDigest md;
+        private final byte[] digest = new byte[16];
+        private byte[] input = new byte[512];
+
+        private HashContext(){
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new ExceptionInInitializerError("Could not initialize MD5 Algorithm");
+            }
+        }
+
+        /**
+         * Encodes an ASCII key into the scratch buffer, for any other key fall back
+         * to String.getBytes() so the id stays the same as the one that was stored.
+         */
+        private byte[] encode(String tsdrKey){
+            final int length = tsdrKey.length();
+            if(input.length<length){
+                input = new byte[Math.max(length,input.length*2)];
+            }
+            for(int i=0;i<length;i++){
+                char c = tsdrKey.charAt(i);
+                if(c>=0x80){
+                    return tsdrKey.getBytes();
+                }
+                input[i] = (byte)c;
+            }
+            return input;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Calendar;
+import java.util.TimeZone;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregation;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetricBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRMetric;
+
+/**
+ * Aggregation periods and merging of metric rollups.
+ * Periods are aligned to UTC, weeks start on Monday.
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRAggregationUtil {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final long MINUTE = 60000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long WEEK = 7 * DAY;
+    //1970-01-01 was a Thursday, the first Monday after it is 4 days later
+    private static final long FIRST_MONDAY = 4 * DAY;
+    //The value scale of a decimal64 with fraction-digits 4
+    private static final int VALUE_SCALE = 4;
+
+    private TSDRAggregationUtil(){
+    }
+
+    /**
+     * @param granularity - The aggregation granularity
+     * @return - The duration of a period, months and years are taken as 30 and 365 days
+     */
+    public static long getDuration(AggregationGranularity granularity){
+        switch(granularity){
+            case _15MIN: return 15 * MINUTE;
+            case _30MIN: return 30 * MINUTE;
+            case HOURLY: return HOUR;
+            case DAILY: return DAY;
+            case WEEKLY: return WEEK;
+            case MONTHLY: return 30 * DAY;
+            default: return 365 * DAY;
+        }
+    }
+
+    /**
+     * @param granularity - The aggregation granularity
+     * @param time - A time in milis
+     * @return - The start of the period that contains the time
+     */
+    public static long getPeriodStart(AggregationGranularity granularity, long time){
+        switch(granularity){
+            case _15MIN:
+            case _30MIN:
+            case HOURLY:
+            case DAILY:
+                return floor(time, getDuration(granularity), 0);
+            case WEEKLY:
+                return floor(time, WEEK, FIRST_MONDAY);
+            default:
+                Calendar c = Calendar.getInstance(UTC);
+                c.setTimeInMillis(time);
+                if(granularity==AggregationGranularity.YEARLY){
+                    c.set(Calendar.MONTH, Calendar.JANUARY);
+                }
+                c.set(Calendar.DAY_OF_MONTH, 1);
+                c.set(Calendar.HOUR_OF_DAY, 0);
+                c.set(Calendar.MINUTE, 0);
+                c.set(Calendar.SECOND, 0);
+                c.set(Calendar.MILLISECOND, 0);
+                return c.getTimeInMillis();
+        }
+    }
+
+    /**
+     * @param granularity - The aggregation granularity
+     * @param time - A time in milis
+     * @return - The start of the period following the one that contains the time
+     */
+    public static long getPeriodEnd(AggregationGranularity granularity, long time){
+        switch(granularity){
+            case MONTHLY:
+            case YEARLY:
+                Calendar c = Calendar.getInstance(UTC);
+                c.setTimeInMillis(getPeriodStart(granularity, time));
+                c.add(granularity==AggregationGranularity.YEARLY ? Calendar.YEAR : Calendar.MONTH, 1);
+                return c.getTimeInMillis();
+            default:
+                return getPeriodStart(granularity, time) + getDuration(granularity);
+        }
+    }
+
+    private static long floor(long time, long duration, long offset){
+        long t = time - offset;
+        return t - (((t % duration) + duration) % duration) + offset;
+    }
+
+    /**
+     * Picks the coarsest granularity that still provides the requested number of data points
+     * over the time range.
+     * @param startTime - The start of the time range
+     * @param endTime - The end of the time range
+     * @param maxDataPoints - The number of data points needed
+     * @return - The granularity or null if even the finest granularity is too coarse
+     */
+    public static AggregationGranularity getGranularity(long startTime, long endTime, long maxDataPoints){
+        if(maxDataPoints<=0 || endTime<=startTime){
+            return null;
+        }
+        final long interval = (endTime - startTime) / maxDataPoints;
+        AggregationGranularity result = null;
+        for(AggregationGranularity g:AggregationGranularity.values()){
+            if(getDuration(g)<=interval){
+                result = g;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges two aggregations of the same metric, granularity and period.
+     * The sums and the sample counts are added so the average is not rounded between merges.
+     * @param a - An aggregation
+     * @param b - Another aggregation of the same period
+     * @return - An aggregation that covers the samples of both
+     */
+    public static TSDRAggregationMetric merge(TSDRAggregation a, TSDRAggregation b){
+        return createAggregation(a, a.getTSDRAggregationGranularity(), a.getTimeStamp(),
+                a.getMinValue().min(b.getMinValue()).doubleValue(),
+                a.getMaxValue().max(b.getMaxValue()).doubleValue(),
+                getSum(a) + getSum(b), getSampleCount(a) + getSampleCount(b));
+    }
+
+    /**
+     * @param a - An aggregation
+     * @return - The number of aggregated samples, an aggregation without a count is a single sample
+     */
+    public static long getSampleCount(TSDRAggregation a){
+        return a.getSampleCount()!=null ? a.getSampleCount() : 1;
+    }
+
+    /**
+     * @param a - An aggregation
+     * @return - The sum of the aggregated samples, derived from the average if the aggregation has no sum
+     */
+    public static double getSum(TSDRAggregation a){
+        if(a.getSumValue()!=null){
+            return a.getSumValue().doubleValue();
+        }
+        return a.getAvgValue().doubleValue() * getSampleCount(a);
+    }
+
+    /**
+     * Creates an aggregation of a metric.
+     * @param metric - The metric, only its keys are used
+     * @param granularity - The aggregation granularity
+     * @param periodStart - The start of the aggregation period
+     * @param min - The min value
+     * @param max - The max value
+     * @param sum - The sum of the values
+     * @param sampleCount - The number of aggregated samples
+     * @return - The aggregation
+     */
+    public static TSDRAggregationMetric createAggregation(TSDRMetric metric, AggregationGranularity granularity,
+            long periodStart, double min, double max, double sum, long sampleCount){
+        TSDRAggregationMetricBuilder b = new TSDRAggregationMetricBuilder();
+        b.setNodeID(metric.getNodeID());
+        b.setTSDRDataCategory(metric.getTSDRDataCategory());
+        b.setMetricName(metric.getMetricName());
+        b.setRecordKeys(metric.getRecordKeys());
+        b.setTimeStamp(periodStart);
+        b.setTSDRAggregationGranularity(granularity);
+        b.setMinValue(toValue(min));
+        b.setMaxValue(toValue(max));
+        b.setSumValue(toValue(sum));
+        b.setAvgValue(toValue(sampleCount>0 ? sum / sampleCount : 0));
+        b.setMetricValue(b.getAvgValue());
+        b.setSampleCount(sampleCount);
+        return b.build();
+    }
+
+    private static BigDecimal toValue(double value){
+        return new BigDecimal(value).setScale(VALUE_SCALE, RoundingMode.HALF_UP);
+    }
+}
@@ -7,16 +7,14 @@
  */
 package org.opendaylight.tsdr.spi.util;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
@@ -37,40 +35,60 @@ public class TSDRKeyCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(TSDRKeyCache.class);
 
+    //The legacy text Key Store, migrated to the binary format of every backend on its startup
     public static final String TSDR_KEY_CACHE_FILENAME = "tsdr/tsdrKeyCache.txt";
+    //The parent directory of the Key Store directories of the persistence backends
+    public static final String TSDR_KEY_CACHE_DIR = "tsdr/keycache";
     //The main cache mapping between the TSDRKey to the TSDRCacheEntry
-    private final Map<String,TSDRCacheEntry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,TSDRCacheEntry> cache = new ConcurrentHashMap<>();
     //The mapping between the MD5 and the TSDRCacheEntry
     private final Map<MD5ID,TSDRCacheEntry> md52CacheEntry = new ConcurrentHashMap<>();
-    //File that serves as the Key Store.
-    private FileOutputStream cacheStore = null;
+    //Posting lists used to resolve a pseudo key without scanning the whole cache
+    private final ConcurrentHashMap<String,Set<TSDRCacheEntry>> dataCategoryIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Set<TSDRCacheEntry>> nodeIDIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Set<TSDRCacheEntry>> metricNameIndex = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Set<TSDRCacheEntry>> recordKeyIndex = new ConcurrentHashMap<>();
+    //The binary segment files that serve as the Key Store.
+    private TSDRKeyCacheStore cacheStore = null;
+    //The algorithm used for new keys, keys loaded from the Key Store keep their stored id.
+    private final MD5ID.KeyIDAlgorithm keyIDAlgorithm;
 
     public TSDRKeyCache(){
-        File dir = new File("tsdr");
+        this(MD5ID.KeyIDAlgorithm.MD5);
+    }
+
+    public TSDRKeyCache(MD5ID.KeyIDAlgorithm keyIDAlgorithm){
+        this(keyIDAlgorithm,new File("tsdr"));
+    }
+
+    /**
+        Creates a key cache with its own Key Store, every persistence backend has its own
+        Key Store directory as the Key Store is locked by the key cache that opened it.
+        @param keyIDAlgorithm - The algorithm used for new keys
+        @param backendName - The name of the persistence backend, the name of the Key Store directory
+        @throws IllegalStateException - if the Key Store can not be loaded
+     **/
+    public TSDRKeyCache(MD5ID.KeyIDAlgorithm keyIDAlgorithm,String backendName){
+        this(keyIDAlgorithm,new File(TSDR_KEY_CACHE_DIR,backendName));
+    }
+
+    private TSDRKeyCache(MD5ID.KeyIDAlgorithm keyIDAlgorithm,File dir){
+        this.keyIDAlgorithm = keyIDAlgorithm;
         if(!dir.exists()){
             dir.mkdirs();
         }
+        cacheStore = new TSDRKeyCacheStore(dir);
         try {
-            loadTSDRCacheKey();
-            File file = new File(TSDR_KEY_CACHE_FILENAME);
-            cacheStore = new FileOutputStream(file,true);
-        } catch (IOException e) {
-            LOG.error("Failed to load key cache",e);
-        }
-    }
-
-    private void loadTSDRCacheKey() throws IOException {
-        synchronized(cache) {
-            File file = new File(TSDR_KEY_CACHE_FILENAME);
-            if(file.exists() && file.length()>0){
-                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-                String tsdrKey = in.readLine();
-                while (tsdrKey!=null){
-                    addTSDRCacheEntry(tsdrKey.substring(0,tsdrKey.indexOf("|")),false);
-                    tsdrKey = in.readLine();
+            cacheStore.open(new TSDRKeyCacheStore.KeyLoader() {
+                @Override
+                public void keyLoaded(String tsdrKey, long md5Long1, long md5Long2) {
+                    addTSDRCacheEntry(new TSDRCacheEntry(tsdrKey,MD5ID.createTSDRID(md5Long1,md5Long2)),false);
                 }
-                in.close();
-            }
+            });
+        } catch (IOException e) {
+            //Without its keys the backend can not read its samples nor keep the ids of new keys, so it does not start
+            cacheStore.close();
+            throw new IllegalStateException("Failed to load the key cache from "+dir.getPath(),e);
         }
     }
 
@@ -83,113 +101,157 @@ public class TSDRKeyCache {
     }
 
     public final TSDRCacheEntry addTSDRCacheEntry(final String tsdrKey){
-        return addTSDRCacheEntry(tsdrKey,true);
+        final TSDRCacheEntry existing = this.cache.get(tsdrKey);
+        if(existing!=null){
+            return existing;
+        }
+        return addTSDRCacheEntry(new TSDRCacheEntry(tsdrKey,MD5ID.createTSDRID(tsdrKey,keyIDAlgorithm)),true);
     }
 
-    private final TSDRCacheEntry addTSDRCacheEntry(final String tsdrKey,boolean save){
-        final TSDRCacheEntry entry = new TSDRCacheEntry(tsdrKey);
-        if(this.cache.get(entry.getTsdrKey())==null) {
-            this.cache.put(entry.getTsdrKey(), entry);
+    private final TSDRCacheEntry addTSDRCacheEntry(final TSDRCacheEntry entry,boolean save){
+        if(this.cache.putIfAbsent(entry.getTsdrKey(), entry)==null) {
             this.md52CacheEntry.put(entry.getMd5ID(), entry);
+            indexCacheEntry(entry);
             if(save && cacheStore!=null){
-                try {
-                    synchronized(cache) {
-                        cacheStore.write(tsdrKey.getBytes());
-                        cacheStore.write('|');
-                        cacheStore.write((""+entry.getMd5ID().getMd5Long1()).getBytes());
-                        cacheStore.write('|');
-                        cacheStore.write((""+entry.getMd5ID().getMd5Long2()).getBytes());
-                        cacheStore.write("\n".getBytes());
-                        cacheStore.flush();
-                    }
-                }catch(IOException e){
-                    LOG.error("Failed to save to key cache store",e);
-                    if(cacheStore!=null) {
-                        try {
-                            cacheStore.close();
-                        } catch (IOException err) {
-                            LOG.error("Failed to close the cache store", e);
-                        }
-                    }
-                    cacheStore = null;
-                }
+                cacheStore.append(entry.getTsdrKey(),entry.getMd5ID());
             }
             return entry;
         }
         return this.cache.get(entry.getTsdrKey());
     }
 
+    private final void indexCacheEntry(final TSDRCacheEntry entry){
+        addToIndex(dataCategoryIndex,entry.getDataCategory().name(),entry);
+        addToIndex(nodeIDIndex,entry.getNodeID(),entry);
+        addToIndex(metricNameIndex,entry.getMetricName(),entry);
+        if(entry.getRecordKeys()!=null){
+            for(RecordKeys rec:entry.getRecordKeys()){
+                addToIndex(recordKeyIndex,getRecordKeyIndexKey(rec),entry);
+            }
+        }
+    }
+
+    private static final void addToIndex(ConcurrentHashMap<String,Set<TSDRCacheEntry>> index,String key,TSDRCacheEntry entry){
+        if(key==null){
+            return;
+        }
+        Set<TSDRCacheEntry> postings = index.get(key);
+        if(postings==null){
+            postings = Collections.newSetFromMap(new ConcurrentHashMap<TSDRCacheEntry,Boolean>());
+            Set<TSDRCacheEntry> existing = index.putIfAbsent(key,postings);
+            if(existing!=null){
+                postings = existing;
+            }
+        }
+        postings.add(entry);
+    }
+
+    private static final String getRecordKeyIndexKey(RecordKeys rec){
+        return rec.getKeyName()+":"+rec.getKeyValue();
+    }
+
     /**
-        When the TSDR Pseudo Key is a general one and a few records in the cache fits that pseudo key,
-        the persistence layer should create a Job that this method will utilize to collect the amount of records requested while iterating
-        over the exact keys.
-        @param tsdrMetricKey - The psudo metric key
-        @param startDateTime - The start time
-        @param endDateTime - The end time
-        @param recordLimit - The number of records to collect
-        @param job - The Persistence Layer Job implementation
-        @return  - A list of TSDR Metric Records.
+        Resolves a pseudo key to the cache entries that fit it by intersecting the posting lists
+        of the criterias that are specified in the key, starting from the smallest one.
+        An empty or missing criteria does not filter, a key with no criteria at all returns the whole cache.
+        @param tsdrKey - The pseudo key, can also be just a Data Category
+        @return - The cache entries that fit the pseudo key
      **/
-    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime,int recordLimit,TSDRMetricCollectJob job) {
-        String dataCategory = FormatUtil.getDataCategoryFromTSDRKey(tsdrMetricKey);
+    public Collection<TSDRCacheEntry> getMatchingCacheEntries(String tsdrKey){
+        String dataCategory = FormatUtil.getDataCategoryFromTSDRKey(tsdrKey);
         //In case the dataCategory is null, it may be that the source
         //of the call is from the tsdr:list command, hence the tsdrKey
         //is actually a Data Category. in this case, try to see if the TSDRKey
         //is a data category.
         if(dataCategory==null){
             try{
-                DataCategory dc = DataCategory.valueOf(tsdrMetricKey);
+                DataCategory dc = DataCategory.valueOf(tsdrKey);
                 dataCategory = dc.name();
             }catch(Exception e){
-                LOG.trace("TSDR Metric Key {} is not a DataCategory",tsdrMetricKey);
+                LOG.trace("TSDR Key {} is not a DataCategory",tsdrKey);
             }
         }
-        String nodeID = FormatUtil.getNodeIdFromTSDRKey(tsdrMetricKey);
-        String metricName = FormatUtil.getMetriNameFromTSDRKey(tsdrMetricKey);
-        List<RecordKeys> recKeys = FormatUtil.getRecordKeysFromTSDRKey(tsdrMetricKey);
-
-        if(dataCategory!=null){
-            dataCategory+="]";
+        String nodeID = FormatUtil.getNodeIdFromTSDRKey(tsdrKey);
+        String metricName = FormatUtil.getMetriNameFromTSDRKey(tsdrKey);
+        List<RecordKeys> recKeys = FormatUtil.getRecordKeysFromTSDRKey(tsdrKey);
+
+        final List<Set<TSDRCacheEntry>> postings = new ArrayList<>();
+        if(!addPostings(postings,dataCategoryIndex,dataCategory) ||
+           !addPostings(postings,nodeIDIndex,nodeID) ||
+           !addPostings(postings,metricNameIndex,metricName)){
+            return Collections.emptyList();
         }
-        if(metricName!=null){
-            metricName+="]";
-        }
-        if(nodeID!=null){
-            nodeID+="]";
+        if(recKeys!=null){
+            for(RecordKeys r:recKeys){
+                if(!addPostings(postings,recordKeyIndex,getRecordKeyIndexKey(r))){
+                    return Collections.emptyList();
+                }
+            }
         }
 
-        final List<TSDRMetricRecord> result = new ArrayList<>();
+        if(postings.isEmpty()){
+            return this.cache.values();
+        }
 
-        for(TSDRCacheEntry e:this.cache.values()){
-            if(dataCategory!=null && e.getTsdrKey().indexOf(dataCategory)==-1){
-                continue;
-            }
-            if(nodeID!=null && e.getTsdrKey().indexOf(nodeID)==-1){
-                continue;
+        Set<TSDRCacheEntry> smallest = postings.get(0);
+        for(Set<TSDRCacheEntry> p:postings){
+            if(p.size()<smallest.size()){
+                smallest = p;
             }
-            if(metricName!=null && e.getTsdrKey().indexOf(metricName)==-1){
-                continue;
-            }
-            if(recKeys!=null){
-                boolean fitCriteria = true;
-                for(RecordKeys r:recKeys){
-                    if((e.getTsdrKey().indexOf(","+r.getKeyName()+":")==-1 && e.getTsdrKey().indexOf("[RK="+r.getKeyName()+":")==-1) ||
-                            (e.getTsdrKey().indexOf(":"+r.getKeyValue()+"]")==-1 && e.getTsdrKey().indexOf(":"+r.getKeyValue()+",")==-1)){
-                        fitCriteria = false;
-                        break;
-                    }
-                }
-                if(!fitCriteria){
-                    continue;
+        }
+
+        final List<TSDRCacheEntry> result = new ArrayList<>();
+        for(TSDRCacheEntry e:smallest){
+            boolean fitCriteria = true;
+            for(Set<TSDRCacheEntry> p:postings){
+                if(p!=smallest && !p.contains(e)){
+                    fitCriteria = false;
+                    break;
                 }
             }
+            if(fitCriteria){
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+        Adds the posting list of the criteria value to the list of posting lists to intersect.
+        @return - false if the criteria is specified but no entry fits it.
+     **/
+    private static final boolean addPostings(List<Set<TSDRCacheEntry>> postings,Map<String,Set<TSDRCacheEntry>> index,String value){
+        if(value==null || value.isEmpty()){
+            return true;
+        }
+        Set<TSDRCacheEntry> p = index.get(value);
+        if(p==null || p.isEmpty()){
+            return false;
+        }
+        postings.add(p);
+        return true;
+    }
+
+    /**
+        When the TSDR Pseudo Key is a general one and a few records in the cache fits that pseudo key,
+        the persistence layer should create a Job that this method will utilize to collect the amount of records requested while iterating
+        over the exact keys.
+        @param tsdrMetricKey - The psudo metric key
+        @param startDateTime - The start time
+        @param endDateTime - The end time
+        @param recordLimit - The number of records to collect
+        @param job - The Persistence Layer Job implementation
+        @return  - A list of TSDR Metric Records.
+     **/
+    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime,int recordLimit,TSDRMetricCollectJob job) {
+        final List<TSDRMetricRecord> result = new ArrayList<>();
+        for(TSDRCacheEntry e:getMatchingCacheEntries(tsdrMetricKey)){
             job.collectMetricRecords(e,startDateTime,endDateTime,recordLimit,result);
             if(result.size()>=recordLimit){
                 break;
             }
         }
         return result;
-
     }
 
     /**
@@ -204,76 +266,14 @@ public class TSDRKeyCache {
      @return  - A list of TSDR Log Records.
      **/
     public List<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startDateTime, long endDateTime, int recordLimit, TSDRLogCollectJob job) {
-        String dataCategory = FormatUtil.getDataCategoryFromTSDRKey(tsdrLogKey);
-        //In case the dataCategory is null, it may be that the source
-        //of the call is from the tsdr:list command, hence the tsdrKey
-        //is actually a Data Category. in this case, try to see if the TSDRKey
-        //is a data category.
-        if(dataCategory==null){
-            try{
-                DataCategory dc = DataCategory.valueOf(tsdrLogKey);
-                dataCategory = dc.name();
-            }catch(Exception e){
-                LOG.trace("TSDR Log Key {} is not a Data Category.",tsdrLogKey);
-            }
-        }
-        String nodeID = FormatUtil.getNodeIdFromTSDRKey(tsdrLogKey);
-        String metricName = FormatUtil.getMetriNameFromTSDRKey(tsdrLogKey);
-        List<RecordKeys> recKeys = FormatUtil.getRecordKeysFromTSDRKey(tsdrLogKey);
-
-        if(dataCategory!=null){
-            dataCategory+="]";
-        }
-        if(metricName!=null){
-            metricName+="]";
-        }
-        if(nodeID!=null){
-            nodeID+="]";
-        }
-
         final List<TSDRLogRecord> result = new ArrayList<>();
-
-        for(TSDRCacheEntry e:this.cache.values()){
-            if(dataCategory!=null && e.getTsdrKey().indexOf(dataCategory)==-1){
-                continue;
-            }
-            if(nodeID!=null && e.getTsdrKey().indexOf(nodeID)==-1){
-                continue;
-            }
-            if(metricName!=null && e.getTsdrKey().indexOf(metricName)==-1){
-                continue;
-            }
-            if(recKeys!=null){
-                boolean fitCriteria = true;
-                for(RecordKeys r:recKeys){
-                    int keyFit = 0;
-                    for(RecordKeys er:e.getRecordKeys()){
-                        if(er.getKeyName().equals(r.getKeyName()) && er.getKeyValue().equals(r.getKeyValue())){
-                            keyFit++;
-                        }
-                    }
-                    if(keyFit==0){
-                        fitCriteria = false;
-                        break;
-                    }
-                    /*
-                    if((e.getTsdrKey().indexOf(","+r.getKeyName()+":")==-1 && e.getTsdrKey().indexOf("[RK="+r.getKeyName()+":")==-1) ||
-                            (e.getTsdrKey().indexOf(":"+r.getKeyValue()+"]")==-1 && e.getTsdrKey().indexOf(":"+r.getKeyValue()+",")==-1)){
-                        fitCriteria = false;
-                        break;
-                    }*/
-                }
-                if(!fitCriteria){
-                    continue;
-                }
-            }
+        for(TSDRCacheEntry e:getMatchingCacheEntries(tsdrLogKey)){
             job.collectLogRecords(e,startDateTime,endDateTime,recordLimit,result);
             if(result.size()>=recordLimit){
                 break;
             }
         }
         return result;
-
     }
 
     public static interface TSDRMetricCollectJob {
@@ -284,6 +284,10 @@ public class TSDRKeyCache {
         public void collectLogRecords(TSDRCacheEntry entry,long startDateTime, long endDateTime,int recordLimit,List<TSDRLogRecord> globalResult);
     }
 
+    public MD5ID.KeyIDAlgorithm getKeyIDAlgorithm(){
+        return this.keyIDAlgorithm;
+    }
+
     public Collection<TSDRCacheEntry> getAll(){
         return this.cache.values();
     }
@@ -297,9 +301,9 @@ public class TSDRKeyCache {
         private final String metricName;
         private final List<RecordKeys> recordKeys;
 
-        public TSDRCacheEntry(String tsdrKey){
+        public TSDRCacheEntry(String tsdrKey,MD5ID md5ID){
             this.tsdrKey = tsdrKey;
-            this.md5ID = MD5ID.createTSDRID(this.tsdrKey);
+            this.md5ID = md5ID;
             this.dataCategory = DataCategory.valueOf(FormatUtil.getDataCategoryFromTSDRKey(this.tsdrKey));
             this.nodeID = FormatUtil.getNodeIdFromTSDRKey(this.tsdrKey);
             this.metricName = FormatUtil.getMetriNameFromTSDRKey(this.tsdrKey);
@@ -332,10 +336,8 @@ public class TSDRKeyCache {
     }
 
     public void shutdown(){
-        try {
+        if(this.cacheStore!=null) {
             this.cacheStore.close();
-        } catch (IOException e) {
-            LOG.error("Failed to close the cache store file.",e);
         }
     }
 }
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+   The TSDRKeyCacheStore is the on disk image of the TSDRKeyCache.
+   The keys are kept in versioned binary segment files, each segment starts with a header
+   of a magic number and a format version followed by records of
+   [key length (int)][md5 long 1][md5 long 2][key bytes (UTF-8)].
+   Segments are loaded through a MappedByteBuffer and the MD5 longs are taken as is so no
+   hash is calculated on startup.
+   New keys are queued and written by a single writer thread that group commits all the pending
+   keys with one write and one fsync. When the active segment is too big it is sealed and a new one
+   is opened, once there are too many sealed segments the writer compacts them into a single one.
+   The legacy text key file is shared by all the persistence backends, so it is migrated into every store
+   on the first startup of the store and kept, a marker file in the store directory records the migration.
+   A store owns its directory, it holds an exclusive lock on the directory's lock file while it is open
+   so no other store, in this process or another one, appends to or compacts its segments.
+ * @author - Sharon Aicler (saichler@gmail.com)
+ */
+public class TSDRKeyCacheStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TSDRKeyCacheStore.class);
+
+    public static final String SEGMENT_PREFIX = "tsdrKeyCache.";
+    public static final String SEGMENT_SUFFIX = ".bin";
+    public static final String LOCK_FILENAME = "tsdrKeyCache.lock";
+    //Marks a store directory that the legacy text key file was migrated into
+    public static final String LEGACY_MIGRATED_FILENAME = "tsdrKeyCache.txt.migrated";
+    public static final int MAGIC = 0x5453444B; //"TSDK"
+    public static final int FORMAT_VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_HEADER_SIZE = 20;
+    //The max time a new key waits in the queue before it is committed to disk
+    public static final long GROUP_COMMIT_INTERVAL = 200;
+    //The amount of pending bytes that triggers a commit without waiting for the interval
+    public static final int GROUP_COMMIT_SIZE = 64 * 1024;
+    public static final long MAX_SEGMENT_SIZE = 32 * 1024 * 1024;
+    public static final int COMPACTION_THRESHOLD = 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File dir;
+    private final Object pendingLock = new Object();
+    private List<byte[]> pending = new ArrayList<>();
+    private int pendingSize = 0;
+    private boolean running = true;
+    private FileChannel activeSegment = null;
+    private int activeSegmentNumber = 0;
+    private FileChannel lockChannel = null;
+    private FileLock lock = null;
+    private final WriterThread writer = new WriterThread();
+
+    /**
+        Callback for the keys that were loaded from the store.
+     **/
+    public static interface KeyLoader {
+        public void keyLoaded(String tsdrKey, long md5Long1, long md5Long2);
+    }
+
+    public TSDRKeyCacheStore(File dir){
+        this.dir = dir;
+    }
+
+    /**
+        Loads all the keys from the segment files, migrating the legacy text file if it exists
+        and was not migrated into this store yet, and starts the writer thread.
+        @param loader - The callback to invoke on each loaded key
+     **/
+    public void open(KeyLoader loader) throws IOException {
+        lock();
+        File legacyFile = new File(TSDRKeyCache.TSDR_KEY_CACHE_FILENAME);
+        int[] segments = listSegments();
+        for(int i=0;i<segments.length;i++){
+            long validLength = loadSegment(getSegmentFile(segments[i]),loader);
+            if(i==segments.length-1){
+                activeSegmentNumber = segments[i];
+                openActiveSegment(validLength);
+            }
+        }
+        if(activeSegment==null){
+            activeSegmentNumber = 1;
+            openActiveSegment(0);
+        }
+        File migratedMarker = new File(dir,LEGACY_MIGRATED_FILENAME);
+        if(legacyFile.exists() && !migratedMarker.exists()){
+            migrateLegacyFile(legacyFile,loader);
+            if(!migratedMarker.createNewFile()){
+                throw new IOException("Failed to create the key cache migration marker "+migratedMarker.getPath());
+            }
+        }
+        writer.start();
+    }
+
+    /**
+        Takes the exclusive lock of the store directory.
+        @throws IOException - if the directory is locked by another store
+     **/
+    private void lock() throws IOException {
+        lockChannel = new RandomAccessFile(new File(dir,LOCK_FILENAME),"rw").getChannel();
+        try{
+            lock = lockChannel.tryLock();
+        }catch(OverlappingFileLockException e){
+            lock = null;
+        }
+        if(lock==null){
+            lockChannel.close();
+            lockChannel = null;
+            throw new IOException("Key cache directory "+dir.getPath()+" is used by another key cache store");
+        }
+    }
+
+    private void unlock(){
+        if(lockChannel==null){
+            return;
+        }
+        try {
+            //Closing the channel releases the lock
+            lockChannel.close();
+        } catch (IOException e) {
+            LOG.error("Failed to release the key cache directory lock",e);
+        }
+        lockChannel = null;
+        lock = null;
+    }
+
+    private void openActiveSegment(long validLength) throws IOException {
+        File file = getSegmentFile(activeSegmentNumber);
+        activeSegment = new RandomAccessFile(file,"rw").getChannel();
+        if(validLength<HEADER_SIZE){
+            activeSegment.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.flip();
+            writeFully(activeSegment,header);
+            activeSegment.force(true);
+        }else if(validLength<activeSegment.size()){
+            LOG.warn("Truncating partially written key cache segment {} from {} to {} bytes",file.getName(),activeSegment.size(),validLength);
+            activeSegment.truncate(validLength);
+        }
+        activeSegment.position(activeSegment.size());
+    }
+
+    /**
+        Reads a segment through a memory mapped buffer.
+        @return - The length of the segment up to the last complete record
+     **/
+    private long loadSegment(File file,KeyLoader loader) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file,"r");FileChannel channel = raf.getChannel()){
+            long size = channel.size();
+            if(size<HEADER_SIZE){
+                return 0;
+            }
+            MappedByteBuffer buff = channel.map(FileChannel.MapMode.READ_ONLY,0,size);
+            int magic = buff.getInt();
+            int version = buff.getInt();
+            if(magic!=MAGIC || version!=FORMAT_VERSION){
+                throw new IOException("Unsupported key cache segment "+file.getName()+", version "+version);
+            }
+            byte[] keyBytes = new byte[256];
+            while(buff.remaining()>=RECORD_HEADER_SIZE){
+                int position = buff.position();
+                int length = buff.getInt();
+                long md5Long1 = buff.getLong();
+                long md5Long2 = buff.getLong();
+                if(length<=0 || length>buff.remaining()){
+                    return position;
+                }
+                if(keyBytes.length<length){
+                    keyBytes = new byte[length];
+                }
+                buff.get(keyBytes,0,length);
+                loader.keyLoaded(new String(keyBytes,0,length,UTF8),md5Long1,md5Long2);
+            }
+            return buff.position();
+        }
+    }
+
+    private void migrateLegacyFile(File legacyFile,KeyLoader loader) throws IOException {
+        LOG.info("Migrating TSDR key cache file {} to the binary format",legacyFile.getName());
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(legacyFile),UTF8))){
+            String line = in.readLine();
+            while(line!=null){
+                int index1 = line.indexOf('|');
+                int index2 = line.indexOf('|',index1+1);
+                if(index1!=-1 && index2!=-1){
+                    String tsdrKey = line.substring(0,index1);
+                    long md5Long1 = Long.parseLong(line.substring(index1+1,index2));
+                    long md5Long2 = Long.parseLong(line.substring(index2+1));
+                    loader.keyLoaded(tsdrKey,md5Long1,md5Long2);
+                    writeRecords(Arrays.asList(encode(tsdrKey,md5Long1,md5Long2)));
+                }
+                line = in.readLine();
+            }
+        }
+        activeSegment.force(true);
+    }
+
+    /**
+        Queues a new key to be committed by the writer thread.
+     **/
+    public void append(String tsdrKey,MD5ID md5ID){
+        byte[] record = encode(tsdrKey,md5ID.getMd5Long1(),md5ID.getMd5Long2());
+        synchronized(pendingLock){
+            if(!running){
+                LOG.error("Key cache store is closed, key {} was not saved",tsdrKey);
+                return;
+            }
+            pending.add(record);
+            pendingSize+=record.length;
+            if(pendingSize>=GROUP_COMMIT_SIZE){
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    private static byte[] encode(String tsdrKey,long md5Long1,long md5Long2){
+        byte[] keyBytes = tsdrKey.getBytes(UTF8);
+        ByteBuffer buff = ByteBuffer.allocate(RECORD_HEADER_SIZE+keyBytes.length);
+        buff.putInt(keyBytes.length);
+        buff.putLong(md5Long1);
+        buff.putLong(md5Long2);
+        buff.put(keyBytes);
+        return buff.array();
+    }
+
+    private void writeRecords(List<byte[]> records) throws IOException {
+        int size = 0;
+        for(byte[] r:records){
+            size+=r.length;
+        }
+        ByteBuffer buff = ByteBuffer.allocate(size);
+        for(byte[] r:records){
+            buff.put(r);
+        }
+        buff.flip();
+        writeFully(activeSegment,buff);
+        if(activeSegment.size()>=MAX_SEGMENT_SIZE){
+            rollSegment();
+        }
+    }
+
+    private static void writeFully(FileChannel channel,ByteBuffer buff) throws IOException {
+        while(buff.hasRemaining()){
+            channel.write(buff);
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        activeSegment.force(true);
+        activeSegment.close();
+        activeSegmentNumber++;
+        openActiveSegment(0);
+        int[] segments = listSegments();
+        if(segments.length-1>=COMPACTION_THRESHOLD){
+            compact(Arrays.copyOf(segments,segments.length-1));
+        }
+    }
+
+    /**
+        Merges the sealed segments into a single segment, dropping duplicate keys.
+        The merged segment replaces the first sealed segment atomically before the rest are deleted
+        so a crash in the middle leaves at most duplicate keys behind, which are ignored on load.
+        Only the given sealed segments of this store's locked directory are replaced or deleted.
+     **/
+    private void compact(int[] sealed) throws IOException {
+        LOG.info("Compacting {} TSDR key cache segments",sealed.length);
+        File target = getSegmentFile(sealed[0]);
+        File tmp = new File(dir,target.getName()+".tmp");
+        final Set<MD5ID> seen = new HashSet<>();
+        try(RandomAccessFile raf = new RandomAccessFile(tmp,"rw");final FileChannel out = raf.getChannel()){
+            out.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.flip();
+            writeFully(out,header);
+            final List<IOException> errors = new ArrayList<>(1);
+            for(int segment:sealed){
+                loadSegment(getSegmentFile(segment),new KeyLoader() {
+                    @Override
+                    public void keyLoaded(String tsdrKey, long md5Long1, long md5Long2) {
+                        if(seen.add(MD5ID.createTSDRID(md5Long1,md5Long2))){
+                            try {
+                                writeFully(out,ByteBuffer.wrap(encode(tsdrKey,md5Long1,md5Long2)));
+                            } catch (IOException e) {
+                                errors.add(e);
+                            }
+                        }
+                    }
+                });
+                if(!errors.isEmpty()){
+                    throw errors.get(0);
+                }
+            }
+            out.force(true);
+        }
+        Files.move(tmp.toPath(),target.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+        for(int i=1;i<sealed.length;i++){
+            if(!getSegmentFile(sealed[i]).delete()){
+                LOG.warn("Failed to delete compacted key cache segment {}",sealed[i]);
+            }
+        }
+    }
+
+    private File getSegmentFile(int number){
+        return new File(dir,SEGMENT_PREFIX+String.format("%08d",number)+SEGMENT_SUFFIX);
+    }
+
+    private int[] listSegments(){
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if(names==null){
+            return new int[0];
+        }
+        int[] result = new int[names.length];
+        for(int i=0;i<names.length;i++){
+            result[i] = Integer.parseInt(names[i].substring(SEGMENT_PREFIX.length(),names[i].length()-SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private class WriterThread extends Thread {
+        public WriterThread(){
+            super("TSDR Key Cache Writer");
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run(){
+            boolean stop = false;
+            while(!stop){
+                List<byte[]> toWrite;
+                synchronized(pendingLock){
+                    if(running && pendingSize<GROUP_COMMIT_SIZE){
+                        try {
+                            pendingLock.wait(GROUP_COMMIT_INTERVAL);
+                        } catch (InterruptedException e) {
+                            LOG.debug("Key cache writer was interrupted");
+                        }
+                    }
+                    stop = !running;
+                    toWrite = pending;
+                    pending = new ArrayList<>();
+                    pendingSize = 0;
+                }
+                if(!toWrite.isEmpty()){
+                    try {
+                        writeRecords(toWrite);
+                        activeSegment.force(false);
+                    } catch (IOException e) {
+                        LOG.error("Failed to commit {} keys to the key cache store",toWrite.size(),e);
+                    }
+                }
+            }
+            try {
+                activeSegment.force(true);
+                activeSegment.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close the key cache segment",e);
+            }
+        }
+    }
+
+    /**
+        Commits the pending keys and closes the store.
+     **/
+    public void close(){
+        synchronized(pendingLock){
+            running = false;
+            pendingLock.notifyAll();
+        }
+        if(writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                LOG.error("Interrupted while waiting for the key cache writer to finish",e);
+            }
+        }else if(activeSegment!=null && activeSegment.isOpen()){
+            //The store failed to open, the writer never started
+            try {
+                activeSegment.close();
+            } catch (IOException e) {
+                LOG.error("Failed to close the key cache segment",e);
+            }
+        }
+        unlock();
+    }
+}
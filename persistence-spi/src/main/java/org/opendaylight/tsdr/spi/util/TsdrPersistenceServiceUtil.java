@@ -8,9 +8,15 @@
 
 package org.opendaylight.tsdr.spi.util;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
+import java.util.Properties;
 
 import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TSDRRoutingPersistenceService;
 import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
 import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
 import org.slf4j.Logger;
@@ -27,6 +33,11 @@ public class TsdrPersistenceServiceUtil {
     private static final Logger
         log = LoggerFactory.getLogger(TsdrPersistenceServiceUtil.class);
     static private TsdrPersistenceService tsdrPersistenceService;
+    //The TSDR configuration file with the persistence routes
+    private static final String CONFIG_FILE = "./etc/tsdr.cfg";
+    //Routes the data categories to the registered persistence services, null if there are no routes
+    static private TSDRRoutingPersistenceService routingService;
+    static private boolean routesLoaded = false;
     static public TsdrPersistenceService getTsdrPersistenceService (){
           return tsdrPersistenceService;
     }
@@ -44,6 +55,46 @@ public class TsdrPersistenceServiceUtil {
                   .start(TSDRConstants.START_PERSISTENCE_SERVICE_TIMEOUT);
           }
     }
+
+    /**
+     * Registers a persistence service by its name. When tsdr.cfg has persistence routes the service is added
+     * to the routing persistence service, and the data categories routed to its name are stored in it,
+     * otherwise it replaces the registered persistence service as with setTsdrPersistenceService.
+     * @param name - The name of the persistence service in the routes, e.g. hbase or cassandra
+     * @param service - The persistence service
+     */
+    static public synchronized void addTsdrPersistenceService(String name, TsdrPersistenceService service){
+        if(!routesLoaded){
+            routesLoaded = true;
+            final Properties config = loadConfiguration(new File(CONFIG_FILE));
+            if(TSDRRoutingPersistenceService.hasRoutes(config)){
+                routingService = new TSDRRoutingPersistenceService(config);
+            }
+        }
+        if(routingService==null){
+            setTsdrPersistenceService(service);
+            return;
+        }
+        log.info("addTsdrPersistenceService: " + name + " " + new Date());
+        service.start(TSDRConstants.START_PERSISTENCE_SERVICE_TIMEOUT);
+        final TsdrPersistenceService previous = routingService.addBackend(name, service);
+        if(previous != null && previous != service){
+            previous.stop(TSDRConstants.STOP_PERSISTENCE_SERVICE_TIMEOUT);
+        }
+        tsdrPersistenceService = routingService;
+    }
+
+    static Properties loadConfiguration(File file){
+        final Properties config = new Properties();
+        if(file.exists()){
+            try (InputStream in = new FileInputStream(file)) {
+                config.load(in);
+            } catch (IOException e) {
+                log.error("Failed to read the TSDR configuration from " + file, e);
+            }
+        }
+        return config;
+    }
 /**
  * Return String type category name from Category Enum.
  * @param category
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author saichler@gmail.com
+ **/
+public class TSDRRecordPageTest {
+    @Test
+    public void testLongToken(){
+        long[] position = new long[]{Long.MIN_VALUE,-1L,0L,Long.MAX_VALUE};
+        String token = TSDRRecordPage.toToken(position);
+        Assert.assertFalse(token.contains("+"));
+        Assert.assertFalse(token.contains("/"));
+        Assert.assertArrayEquals(position,TSDRRecordPage.getPosition(token,4));
+    }
+
+    @Test
+    public void testByteToken(){
+        byte[] position = new byte[256];
+        for(int i=0;i<position.length;i++){
+            position[i] = (byte)i;
+        }
+        Assert.assertArrayEquals(position,TSDRRecordPage.getPosition(TSDRRecordPage.toToken(position)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalToken(){
+        TSDRRecordPage.getPosition(TSDRRecordPage.toToken(1L,2L),3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGarbageToken(){
+        TSDRRecordPage.getPosition("not a token!");
+    }
+
+    @Test
+    public void testPageSize(){
+        Assert.assertEquals(TSDRConstants.DEFAULT_PAGE_SIZE,TSDRRecordPage.getPageSize(0));
+        Assert.assertEquals(10,TSDRRecordPage.getPageSize(10));
+        Assert.assertEquals(TSDRConstants.MAX_PAGE_SIZE,TSDRRecordPage.getPageSize(Integer.MAX_VALUE));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.persistence;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSDRRoutingPersistenceServiceTest {
+
+    private final List<TSDRRecord> metricsStored = Collections.synchronizedList(new ArrayList<TSDRRecord>());
+    private final List<TSDRRecord> logsStored = Collections.synchronizedList(new ArrayList<TSDRRecord>());
+    private TsdrPersistenceService metricsBackend = null;
+    private TsdrPersistenceService logsBackend = null;
+    private TSDRRoutingPersistenceService routing = null;
+
+    @Before
+    public void setup(){
+        metricsBackend = mock(TsdrPersistenceService.class);
+        logsBackend = mock(TsdrPersistenceService.class);
+        doAnswer(new StoreAnswer(metricsStored)).when(metricsBackend).store(any(List.class));
+        doAnswer(new StoreAnswer(logsStored)).when(logsBackend).store(any(List.class));
+        Properties config = new Properties();
+        config.setProperty("host","127.0.0.1");
+        config.setProperty("persistence.route.default","hbase");
+        config.setProperty("persistence.route.SYSLOG","cassandra");
+        config.setProperty("persistence.route.NETFLOW","cassandra");
+        Assert.assertTrue(TSDRRoutingPersistenceService.hasRoutes(config));
+        routing = new TSDRRoutingPersistenceService(config);
+        routing.addBackend("hbase",metricsBackend);
+        routing.addBackend("cassandra",logsBackend);
+    }
+
+    private static final class StoreAnswer implements Answer<Void> {
+        private final List<TSDRRecord> stored;
+
+        private StoreAnswer(List<TSDRRecord> stored){
+            this.stored = stored;
+        }
+
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+            stored.addAll((List<TSDRRecord>)invocation.getArguments()[0]);
+            return null;
+        }
+    }
+
+    private static List<TSDRRecord> createRecords(){
+        List<TSDRRecord> records = new ArrayList<>();
+        for(int i=0;i<10;i++){
+            records.add(new TSDRMetricRecordBuilder().setMetricName("PacketCount")
+                .setMetricValue(new BigDecimal(i))
+                .setNodeID("node1")
+                .setTSDRDataCategory(DataCategory.PORTSTATS)
+                .setTimeStamp((long)i).build());
+            records.add(new TSDRLogRecordBuilder().setRecordFullText("Some syslog text "+i)
+                .setIndex(i)
+                .setNodeID("node1")
+                .setTSDRDataCategory(i%2==0 ? DataCategory.SYSLOG : DataCategory.NETFLOW)
+                .setTimeStamp((long)i).build());
+        }
+        return records;
+    }
+
+    @Test
+    public void testStoreByCategory(){
+        routing.store(createRecords());
+        Assert.assertEquals(10,metricsStored.size());
+        Assert.assertEquals(10,logsStored.size());
+        for(TSDRRecord r:metricsStored){
+            Assert.assertEquals(DataCategory.PORTSTATS,r.getTSDRDataCategory());
+        }
+    }
+
+    @Test
+    public void testFailedBackendFailsTheBatch(){
+        doThrow(new TSDRPersistenceException("down")).when(logsBackend).store(any(List.class));
+        final List<TSDRRecord> records = createRecords();
+        try {
+            routing.store(records);
+            Assert.fail("The failure of one backend should fail the batch");
+        }catch(TSDRPartialStoreException e){
+            Assert.assertEquals("down",e.getCause().getMessage());
+            //Only the records of the failed backend are kept, the metrics were stored
+            Assert.assertEquals(10,e.getFailedRecords().size());
+            for(TSDRRecord r:e.getFailedRecords()){
+                Assert.assertTrue(r instanceof TSDRLogRecord);
+            }
+            Assert.assertEquals(metricsStored,e.getStoredRecords(records));
+        }
+        Assert.assertEquals(10,metricsStored.size());
+    }
+
+    @Test
+    public void testNonTransientFailureIsNotPartial(){
+        final IllegalArgumentException failure = new IllegalArgumentException("A malformed record");
+        doThrow(failure).when(logsBackend).store(any(List.class));
+        try {
+            routing.store(createRecords());
+            Assert.fail("The failure of one backend should fail the batch");
+        }catch(RuntimeException e){
+            Assert.assertSame(failure,e);
+        }
+    }
+
+    @Test
+    public void testQueriesAndPurges(){
+        routing.getTSDRLogRecords("[NID=node1][DC=SYSLOG][RK=]",0,100);
+        verify(logsBackend).getTSDRLogRecords("[NID=node1][DC=SYSLOG][RK=]",0,100);
+        verify(metricsBackend,never()).getTSDRLogRecords(anyString(),anyLong(),anyLong());
+        routing.getTSDRMetricRecords("PORTSTATS",0,100);
+        verify(metricsBackend).getTSDRMetricRecords("PORTSTATS",0,100);
+        //A key without a category goes to all the backends
+        routing.getTSDRMetricRecords("[NID=node1]",0,100);
+        verify(metricsBackend).getTSDRMetricRecords("[NID=node1]",0,100);
+        verify(logsBackend).getTSDRMetricRecords("[NID=node1]",0,100);
+        routing.purgeTSDRRecords(DataCategory.NETFLOW,100L);
+        verify(logsBackend).purgeTSDRRecords(DataCategory.NETFLOW,100L);
+        verify(metricsBackend,never()).purgeTSDRRecords(DataCategory.NETFLOW,100L);
+        routing.purgeAllTSDRRecords(100L);
+        verify(logsBackend).purgeAllTSDRRecords(100L);
+        verify(metricsBackend).purgeAllTSDRRecords(100L);
+    }
+
+    @Test
+    public void testUnregisteredRouteFails(){
+        routing.removeBackend("cassandra");
+        try {
+            routing.getBackend(DataCategory.SYSLOG);
+            Assert.fail("The backend of the route is not registered");
+        }catch(TSDRPersistenceException e){
+            Assert.assertTrue(e.getMessage().contains("SYSLOG"));
+        }
+        try {
+            routing.store(createRecords());
+            Assert.fail("The logs should not go to the default backend");
+        }catch(TSDRPersistenceException e){
+            Assert.assertTrue(e.getMessage().contains("cassandra"));
+        }
+        Assert.assertTrue(metricsStored.isEmpty());
+        //A category without a route still goes to the default backend
+        Assert.assertSame(metricsBackend,routing.getBackend(DataCategory.PORTSTATS));
+        routing.removeBackend("hbase");
+        try {
+            routing.getBackend(DataCategory.PORTSTATS);
+            Assert.fail("The default backend is not registered");
+        }catch(TSDRPersistenceException e){
+            Assert.assertTrue(e.getMessage().contains("PORTSTATS"));
+        }
+    }
+
+    @Test
+    public void testStop(){
+        routing.store(createRecords());
+        routing.stop(1000);
+        verify(metricsBackend).stop(1000);
+        verify(logsBackend).stop(1000);
+    }
+}
@@ -47,4 +47,38 @@ public class MD5IDTest {
         MD5ID id2 = MD5ID.createTSDRIDAlreadyHash(id1.toByteArray());
         Assert.assertEquals(id1,id2);
     }
+
+    @Test
+    public void testCreateMurmur3(){
+        MD5ID id1 = MD5ID.createTSDRID("hello",MD5ID.KeyIDAlgorithm.MURMUR3_128);
+        Assert.assertEquals(0xcbd8a7b341bd9b02L,id1.getMd5Long1());
+        Assert.assertEquals(0x5b1e906a48ae1d19L,id1.getMd5Long2());
+        MD5ID id2 = MD5ID.createTSDRID("hello",MD5ID.KeyIDAlgorithm.MD5);
+        Assert.assertNotEquals(id1,id2);
+        Assert.assertEquals(MD5ID.createTSDRID("hello"),id2);
+    }
+
+    @Test
+    public void testCreateFromMultipleThreads() throws InterruptedException {
+        final MD5ID expected = MD5ID.createTSDRID("[NID=openflow:1][DC=PORTSTATS][MN=ReceivedBytes][RK=Port:1]");
+        final boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for(int i=0;i<threads.length;i++){
+            threads[i] = new Thread(){
+                @Override
+                public void run(){
+                    for(int j=0;j<1000;j++){
+                        if(!expected.equals(MD5ID.createTSDRID("[NID=openflow:1][DC=PORTSTATS][MN=ReceivedBytes][RK=Port:1]"))){
+                            failed[0] = true;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for(Thread t:threads){
+            t.join();
+        }
+        Assert.assertFalse(failed[0]);
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.spi.util;
+
+import java.math.BigDecimal;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.AggregationGranularity;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRAggregationMetric;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+
+/**
+ * @author saichler@gmail.com
+ **/
+public class TSDRAggregationUtilTest {
+    //2016-03-16 14:37:12.345 UTC, a Wednesday
+    private static final long TIME = 1458139032345L;
+
+    @Test
+    public void testPeriodStart(){
+        Assert.assertEquals(1458138600000L, TSDRAggregationUtil.getPeriodStart(AggregationGranularity._15MIN, TIME));
+        Assert.assertEquals(1458138600000L, TSDRAggregationUtil.getPeriodStart(AggregationGranularity._30MIN, TIME));
+        Assert.assertEquals(1458136800000L, TSDRAggregationUtil.getPeriodStart(AggregationGranularity.HOURLY, TIME));
+        Assert.assertEquals(1458086400000L, TSDRAggregationUtil.getPeriodStart(AggregationGranularity.DAILY, TIME));
+        //Monday 2016-03-14
+        Assert.assertEquals(1457913600000L, TSDRAggregationUtil.getPeriodStart(AggregationGranularity.WEEKLY, TIME));
+        Assert.assertEquals(1456790400000L, TSDRAggregationUtil.getPeriodStart(AggregationGranularity.MONTHLY, TIME));
+        Assert.assertEquals(1451606400000L, TSDRAggregationUtil.getPeriodStart(AggregationGranularity.YEARLY, TIME));
+    }
+
+    @Test
+    public void testPeriodEnd(){
+        Assert.assertEquals(1458139500000L, TSDRAggregationUtil.getPeriodEnd(AggregationGranularity._15MIN, TIME));
+        //April 1st
+        Assert.assertEquals(1459468800000L, TSDRAggregationUtil.getPeriodEnd(AggregationGranularity.MONTHLY, TIME));
+        //2017-01-01
+        Assert.assertEquals(1483228800000L, TSDRAggregationUtil.getPeriodEnd(AggregationGranularity.YEARLY, TIME));
+    }
+
+    @Test
+    public void testGetGranularity(){
+        final long day = 86400000L;
+        //30 days in 1000 points is 43 minutes per point
+        Assert.assertEquals(AggregationGranularity._30MIN, TSDRAggregationUtil.getGranularity(0, 30 * day, 1000));
+        Assert.assertEquals(AggregationGranularity.DAILY, TSDRAggregationUtil.getGranularity(0, 365 * day, 100));
+        //One hour needs the raw metrics
+        Assert.assertNull(TSDRAggregationUtil.getGranularity(0, 3600000L, 1000));
+    }
+
+    @Test
+    public void testMerge(){
+        TSDRMetricRecord metric = FormatUtilTest.createMetricRecord();
+        TSDRAggregationMetric a = TSDRAggregationUtil.createAggregation(metric, AggregationGranularity.HOURLY, 0, 1, 5, 6, 2);
+        TSDRAggregationMetric b = TSDRAggregationUtil.createAggregation(metric, AggregationGranularity.HOURLY, 0, 0, 4, 4, 2);
+        TSDRAggregationMetric m = TSDRAggregationUtil.merge(a, b);
+        Assert.assertEquals(0, m.getMinValue().compareTo(BigDecimal.ZERO));
+        Assert.assertEquals(0, m.getMaxValue().compareTo(new BigDecimal(5)));
+        Assert.assertEquals(0, m.getAvgValue().compareTo(new BigDecimal("2.5")));
+        Assert.assertEquals(0, m.getSumValue().compareTo(new BigDecimal(10)));
+        Assert.assertEquals(4L, m.getSampleCount().longValue());
+        Assert.assertEquals(metric.getMetricName(), m.getMetricName());
+    }
+
+    @Test
+    public void testMergeKeepsTheSum(){
+        TSDRMetricRecord metric = FormatUtilTest.createMetricRecord();
+        //An average of 1/3 is rounded, the merged average comes from the sums
+        TSDRAggregationMetric m = TSDRAggregationUtil.createAggregation(metric, AggregationGranularity.HOURLY, 0, 0, 1, 1, 3);
+        for(int i=0;i<2;i++){
+            m = TSDRAggregationUtil.merge(m, TSDRAggregationUtil.createAggregation(metric, AggregationGranularity.HOURLY, 0, 0, 1, 1, 3));
+        }
+        Assert.assertEquals(9L, m.getSampleCount().longValue());
+        Assert.assertEquals(0, m.getSumValue().compareTo(new BigDecimal(3)));
+        Assert.assertEquals(0, m.getAvgValue().compareTo(new BigDecimal("0.3333")));
+    }
+}
@@ -8,6 +8,8 @@
 package org.opendaylight.tsdr.spi.util;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import org.junit.After;
@@ -47,12 +49,17 @@ public class TSDRKeyCacheTest {
     @After
     public void after(){
         keyCache.shutdown();
-        File dir = new File("./tsdr");
-        File[] files = dir.listFiles();
-        for(File f:files){
-            f.delete();
+        delete(new File("./tsdr"));
+    }
+
+    private static void delete(File file){
+        File[] files = file.listFiles();
+        if(files!=null){
+            for(File f:files){
+                delete(f);
+            }
         }
-        dir.delete();
+        file.delete();
     }
 
     @Test
@@ -268,4 +275,125 @@ public class TSDRKeyCacheTest {
         List<TSDRLogRecord> list = keyCache.getTSDRLogRecords(KEY_5052,0,Long.MAX_VALUE,1000,new TestLogJob());
         Assert.assertEquals(0,list.size());
     }
+
+    @Test
+    public void testMetricByNodeAndRecordKey(){
+        keyCache.addTSDRCacheEntry(TSDR_TEST_KEY);
+        keyCache.addTSDRCacheEntry(TSDR_TEST_KEY2);
+        keyCache.addTSDRCacheEntry(TSDR_TEST_KEY3);
+        keyCache.addTSDRCacheEntry(TSDR_TEST_5052_KEY1);
+        List<TSDRMetricRecord> list = keyCache.getTSDRMetricRecords("[NID=openflow:11][DC=EXTERNAL][MN=][RK=Testing:test]",0,Long.MAX_VALUE,1000,new TestMetricJob());
+        Assert.assertEquals(2,list.size());
+        for(TSDRMetricRecord entry:list){
+            Assert.assertEquals("openflow:11",entry.getNodeID());
+        }
+        list = keyCache.getTSDRMetricRecords("[NID=openflow:1][DC=EXTERNAL][MN=][RK=Table:150]",0,Long.MAX_VALUE,1000,new TestMetricJob());
+        Assert.assertEquals(0,list.size());
+        list = keyCache.getTSDRMetricRecords(DataCategory.FLOWTABLESTATS.name(),0,Long.MAX_VALUE,1000,new TestMetricJob());
+        Assert.assertEquals(1,list.size());
+    }
+
+    @Test
+    public void testReloadFromStore(){
+        keyCache.addTSDRCacheEntry(TSDR_TEST_KEY);
+        keyCache.addTSDRCacheEntry(TSDR_TEST_KEY2);
+        keyCache.shutdown();
+        keyCache = new TSDRKeyCache();
+        Assert.assertEquals(2,keyCache.getAll().size());
+        TSDRCacheEntry entry = keyCache.getCacheEntry(MD5ID.createTSDRID(TSDR_TEST_KEY2));
+        Assert.assertEquals(TSDR_TEST_KEY2,entry.getTsdrKey());
+        Assert.assertEquals("openflow:11",entry.getNodeID());
+    }
+
+    @Test
+    public void testMigrateLegacyKeyFile() throws IOException {
+        keyCache.shutdown();
+        MD5ID md5 = MD5ID.createTSDRID(TSDR_TEST_KEY3);
+        FileOutputStream out = new FileOutputStream(TSDRKeyCache.TSDR_KEY_CACHE_FILENAME);
+        out.write((TSDR_TEST_KEY3+"|"+md5.getMd5Long1()+"|"+md5.getMd5Long2()+"\n").getBytes());
+        out.close();
+        keyCache = new TSDRKeyCache();
+        Assert.assertEquals(TSDR_TEST_KEY3,keyCache.getCacheEntry(md5).getTsdrKey());
+        keyCache.shutdown();
+        keyCache = new TSDRKeyCache();
+        Assert.assertEquals(TSDR_TEST_KEY3,keyCache.getCacheEntry(md5).getTsdrKey());
+        //The legacy file is kept for the backends that did not start yet, every backend migrates it once
+        Assert.assertTrue(new File(TSDRKeyCache.TSDR_KEY_CACHE_FILENAME).exists());
+        TSDRKeyCache hsqldbCache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"hsqldb");
+        Assert.assertEquals(TSDR_TEST_KEY3,hsqldbCache.getCacheEntry(md5).getTsdrKey());
+        hsqldbCache.shutdown();
+        TSDRKeyCache cassandraCache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"cassandra");
+        Assert.assertEquals(TSDR_TEST_KEY3,cassandraCache.getCacheEntry(md5).getTsdrKey());
+        cassandraCache.shutdown();
+        Assert.assertTrue(new File(TSDRKeyCache.TSDR_KEY_CACHE_DIR+"/hsqldb",TSDRKeyCacheStore.LEGACY_MIGRATED_FILENAME).exists());
+    }
+
+    @Test
+    public void testFailedLoadFailsTheKeyCache() throws IOException {
+        File dir = new File(TSDRKeyCache.TSDR_KEY_CACHE_DIR,"hsqldb");
+        dir.mkdirs();
+        File segment = new File(dir,TSDRKeyCacheStore.SEGMENT_PREFIX+"00000001"+TSDRKeyCacheStore.SEGMENT_SUFFIX);
+        FileOutputStream out = new FileOutputStream(segment);
+        out.write(new byte[]{1,2,3,4,5,6,7,8,9,10});
+        out.close();
+        try{
+            new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"hsqldb");
+            Assert.fail("A key cache whose Key Store can not be loaded was created");
+        }catch(IllegalStateException e){
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        //The Key Store is not left locked, so the backend can start once the segment is fixed
+        Assert.assertTrue(segment.delete());
+        TSDRKeyCache hsqldbCache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"hsqldb");
+        hsqldbCache.addTSDRCacheEntry(TSDR_TEST_KEY);
+        hsqldbCache.shutdown();
+    }
+
+    @Test
+    public void testKeyIDAlgorithmCompatibility(){
+        keyCache.addTSDRCacheEntry(TSDR_TEST_KEY);
+        keyCache.shutdown();
+        keyCache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MURMUR3_128);
+        //Keys that were already stored keep their MD5 id
+        Assert.assertEquals(MD5ID.createTSDRID(TSDR_TEST_KEY),keyCache.getCacheEntry(TSDR_TEST_KEY).getMd5ID());
+        TSDRCacheEntry entry = keyCache.addTSDRCacheEntry(TSDR_TEST_KEY2);
+        Assert.assertEquals(MD5ID.createTSDRID(TSDR_TEST_KEY2,MD5ID.KeyIDAlgorithm.MURMUR3_128),entry.getMd5ID());
+    }
+
+    @Test
+    public void testKeyStoreIsLocked(){
+        TSDRKeyCacheStore store = new TSDRKeyCacheStore(new File("tsdr"));
+        try{
+            store.open(new TSDRKeyCacheStore.KeyLoader() {
+                @Override
+                public void keyLoaded(String tsdrKey, long md5Long1, long md5Long2) {
+                }
+            });
+            Assert.fail("The key store of an open key cache was opened twice");
+        }catch(IOException e){
+            Assert.assertTrue(e.getMessage().contains("another key cache store"));
+        }finally{
+            store.close();
+        }
+        //The key cache still owns its store
+        keyCache.addTSDRCacheEntry(TSDR_TEST_KEY);
+        keyCache.shutdown();
+        keyCache = new TSDRKeyCache();
+        Assert.assertNotNull(keyCache.getCacheEntry(TSDR_TEST_KEY));
+    }
+
+    @Test
+    public void testBackendKeyStores(){
+        TSDRKeyCache hsqldbCache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"hsqldb");
+        TSDRKeyCache cassandraCache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"cassandra");
+        hsqldbCache.addTSDRCacheEntry(TSDR_TEST_KEY);
+        cassandraCache.addTSDRCacheEntry(TSDR_TEST_KEY2);
+        hsqldbCache.shutdown();
+        cassandraCache.shutdown();
+        Assert.assertTrue(new File(TSDRKeyCache.TSDR_KEY_CACHE_DIR+"/hsqldb",TSDRKeyCacheStore.LOCK_FILENAME).exists());
+        hsqldbCache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"hsqldb");
+        Assert.assertNotNull(hsqldbCache.getCacheEntry(TSDR_TEST_KEY));
+        Assert.assertNull(hsqldbCache.getCacheEntry(TSDR_TEST_KEY2));
+        hsqldbCache.shutdown();
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import org.opendaylight.tsdr.spi.model.TSDRConstants;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.persistence.TsdrPersistenceService;
+import org.opendaylight.tsdr.spi.scheduler.SchedulerService;
+import org.opendaylight.tsdr.spi.scheduler.Task;
+import org.opendaylight.tsdr.spi.util.TsdrPersistenceServiceUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.TSDRRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A store returns once the samples were added to the chunks in memory, the chunks that are not full
+ * are written and the segments are forced every flush_interval seconds. Samples that were stored but
+ * not flushed yet are lost on a crash, a chunk that fails to be written fails the store and stays in
+ * memory to be written later.
+ * @author Sharon Aicler(saichler@gmail.com)
+ **/
+public class TSDRTSFilePersistenceServiceImpl implements TsdrPersistenceService{
+    private static final Logger LOGGER = LoggerFactory.getLogger(TSDRTSFilePersistenceServiceImpl.class);
+    private TSFileStore store = null;
+    private ScheduledFuture flushFuture = null;
+
+    public TSDRTSFilePersistenceServiceImpl(){
+        TsdrPersistenceServiceUtil.addTsdrPersistenceService("tsfile",this);
+        LOGGER.info("TSFile Store was initialized...");
+    }
+
+    @Override
+    public void store(TSDRMetricRecord metricRecord) {
+        try {
+            store.store(metricRecord);
+        }catch(IOException e){
+            throw new TSDRPersistenceException("Failed to store metric record",e);
+        }
+    }
+
+    @Override
+    public void store(TSDRLogRecord logRecord) {
+        try{
+            store.store(logRecord);
+        }catch(IOException e){
+            throw new TSDRPersistenceException("Failed to store log record",e);
+        }
+    }
+
+    @Override
+    public void store(List<TSDRRecord> metricRecordList) {
+        for(TSDRRecord record:metricRecordList){
+            if(record instanceof TSDRMetricRecord){
+                store((TSDRMetricRecord)record);
+            }else
+            if(record instanceof TSDRLogRecord){
+                store((TSDRLogRecord)record);
+            }
+        }
+    }
+
+    @Override
+    public void start(int timeout) {
+        start(new TSFileStore());
+    }
+
+    public void start(TSFileStore s) {
+        this.store = s;
+        //The chunks that are not full yet are written periodically, this bounds what is lost on a crash
+        final int interval = s.getFlushInterval();
+        SchedulerService.getInstance().scheduleTaskAtFixedRate(new FlushTask(),interval,interval);
+    }
+
+    @Override
+    public void stop(int timeout) {
+        if(flushFuture!=null){
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        store.shutdown();
+    }
+
+    @Override
+    public void purgeTSDRRecords(DataCategory category, Long retentionTime){
+        LOGGER.info("Execute Purge with Category {} and earlier than {}.",category.name(),new Date(retentionTime));
+        store.purge(category,retentionTime);
+    }
+
+    @Override
+    public void purgeAllTSDRRecords(Long retentionTime){
+        for(DataCategory dataCategory:DataCategory.values()){
+            store.purge(dataCategory,retentionTime);
+        }
+    }
+
+    @Override
+    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime) {
+        return store.getTSDRMetricRecords(tsdrMetricKey,startDateTime,endDateTime,TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND);
+    }
+
+    @Override
+    public List<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startDateTime, long endDateTime) {
+        return store.getTSDRLogRecords(tsdrLogKey,startDateTime,endDateTime,TSDRConstants.MAX_RESULTS_FROM_LIST_METRICS_COMMAND);
+    }
+
+    private final class FlushTask extends Task {
+        @Override
+        public void runTask() {
+            store.flush();
+        }
+
+        @Override
+        public void setScheduledFuture(ScheduledFuture scheduledFuture) {
+            flushFuture = scheduledFuture;
+        }
+    }
+}
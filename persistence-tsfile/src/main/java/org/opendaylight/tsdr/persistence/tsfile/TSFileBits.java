@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable stream of bits, the bits are written most significant first.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFileBits {
+    private long[] words;
+    private int size = 0;
+
+    public TSFileBits(int initialBits){
+        this.words = new long[Math.max(1,(initialBits+63)>>>6)];
+    }
+
+    /**
+     * Writes the lowest bits of the value.
+     * @param value - The value
+     * @param bits - The number of bits to write, 1 to 64
+     */
+    public void write(long value, int bits){
+        ensureCapacity(size+bits);
+        int remaining = bits;
+        while(remaining>0){
+            final int free = 64 - (size & 63);
+            final int n = Math.min(free,remaining);
+            final long mask = n==64 ? -1L : (1L<<n)-1;
+            words[size>>>6] |= ((value>>>(remaining-n)) & mask) << (free-n);
+            size+=n;
+            remaining-=n;
+        }
+    }
+
+    public void writeBit(boolean bit){
+        ensureCapacity(size+1);
+        if(bit){
+            words[size>>>6] |= 1L << (63-(size & 63));
+        }
+        size++;
+    }
+
+    /**
+     * @return - The number of bits that were written
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * @return - The number of bytes that hold the bits
+     */
+    public int getByteCount(){
+        return (size+7)>>>3;
+    }
+
+    /**
+     * Copies the bits to the buffer, the last byte is padded with zeros.
+     * @param buffer - The buffer
+     * @param offset - The offset in the buffer
+     */
+    public void copyTo(ByteBuffer buffer, int offset){
+        final int byteCount = getByteCount();
+        for(int i=0;i<byteCount;i++){
+            buffer.put(offset+i,(byte)(words[i>>>3] >>> (56-((i & 7)<<3))));
+        }
+    }
+
+    private void ensureCapacity(int bits){
+        if(bits>words.length<<6){
+            words = Arrays.copyOf(words,Math.max(words.length<<1,(bits+63)>>>6));
+        }
+    }
+
+    /**
+     * Reads the bits that were copied to a buffer, the reader uses absolute reads so the buffer may be shared.
+     */
+    public static class Reader {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private int position = 0;
+
+        /**
+         * @param buffer - The buffer
+         * @param offset - The offset of the first byte of the bits in the buffer
+         */
+        public Reader(ByteBuffer buffer, int offset){
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        /**
+         * @param bits - The number of bits to read, 1 to 64
+         * @return - The bits as the lowest bits of the value
+         */
+        public long read(int bits){
+            long result = 0;
+            int remaining = bits;
+            while(remaining>0){
+                final int current = buffer.get(offset+(position>>>3)) & 0xFF;
+                final int available = 8 - (position & 7);
+                final int n = Math.min(available,remaining);
+                result = (result<<n) | ((current>>>(available-n)) & ((1<<n)-1));
+                position+=n;
+                remaining-=n;
+            }
+            return result;
+        }
+
+        public boolean readBit(){
+            final int current = buffer.get(offset+(position>>>3)) & 0xFF;
+            final boolean bit = ((current>>>(7-(position & 7))) & 1)==1;
+            position++;
+            return bit;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributes;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributesBuilder;
+
+/**
+ * The compressed samples of a single series.
+ *
+ * <p>
+ * The samples are compressed the way Gorilla does, a time stamp is written as the delta of its delta
+ * from the previous time stamp, so samples that arrive at a fixed interval take a single bit, and a metric
+ * value is written as the XOR with the previous value, so an unchanged value takes a single bit and a
+ * changed value only takes its meaningful bits. The text of a log, followed by the names and values of
+ * its attributes, is kept as is after the bits.
+ * </p>
+ *
+ * <p>
+ * A chunk is appended to the memory of its series until it is full and then written to a segment as:
+ * magic, crc, size, series id, type, count, min time, max time, bits length, text length, bits and text.
+ * The crc covers everything after it and the magic is written last, so a chunk that was not completely
+ * written before a crash is ignored.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFileChunk {
+    public static final byte METRIC = 0;
+    public static final byte LOG = 1;
+    public static final int MAGIC = 0x54534643;
+    public static final int HEADER_SIZE = 57;
+    //A chunk of logs is full once its text reaches this size
+    public static final int MAX_TEXT_SIZE = 64*1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final long sequence = SEQUENCE.incrementAndGet();
+    private final MD5ID seriesID;
+    private final byte type;
+    private final int maxSamples;
+    private final TSFileBits bits;
+    private final ByteArrayOutputStream text;
+    private int count = 0;
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private long lastTime = 0;
+    private long lastDelta = 0;
+    private long lastValue = 0;
+    private int lastLeading = -1;
+    private int lastTrailing = 0;
+    private int lastIndex = -1;
+    private boolean sealed = false;
+
+    /**
+     * @param seriesID - The id of the series
+     * @param type - METRIC or LOG
+     * @param maxSamples - The number of samples of a full chunk
+     */
+    public TSFileChunk(MD5ID seriesID, byte type, int maxSamples){
+        this.seriesID = seriesID;
+        this.type = type;
+        this.maxSamples = maxSamples;
+        this.bits = new TSFileBits(type==METRIC ? 1024 : 4096);
+        this.text = type==LOG ? new ByteArrayOutputStream() : null;
+    }
+
+    public void add(long time, double value){
+        writeTime(time);
+        final long valueBits = Double.doubleToRawLongBits(value);
+        if(count==0){
+            bits.write(valueBits,64);
+        }else{
+            writeXOR(valueBits ^ lastValue);
+        }
+        lastValue = valueBits;
+        count++;
+    }
+
+    public void add(long time, int index, String fullText){
+        add(time,index,fullText,null);
+    }
+
+    public void add(long time, int index, String fullText, List<RecordAttributes> attributes){
+        writeTime(time);
+        //Log indexes usually follow each other
+        if(index==lastIndex+1){
+            bits.writeBit(false);
+        }else{
+            bits.writeBit(true);
+            bits.write(index,32);
+        }
+        lastIndex = index;
+        if(fullText==null){
+            bits.writeBit(true);
+            bits.write(-1,32);
+        }else{
+            final byte[] data = fullText.getBytes(UTF8);
+            if(data.length<0x10000){
+                bits.writeBit(false);
+                bits.write(data.length,16);
+            }else{
+                bits.writeBit(true);
+                bits.write(data.length,32);
+            }
+            text.write(data,0,data.length);
+        }
+        if(attributes==null || attributes.isEmpty()){
+            bits.writeBit(false);
+        }else{
+            bits.writeBit(true);
+            bits.write(attributes.size(),16);
+            for(RecordAttributes attribute:attributes){
+                writeString(attribute.getName());
+                writeString(attribute.getValue());
+            }
+        }
+        count++;
+    }
+
+    //An attribute name or value is written to the text as its length and bytes, -1 is null
+    private void writeString(String str){
+        final byte[] data = str!=null ? str.getBytes(UTF8) : null;
+        final int length = data!=null ? data.length : -1;
+        text.write(length>>>24);
+        text.write(length>>>16);
+        text.write(length>>>8);
+        text.write(length);
+        if(data!=null){
+            text.write(data,0,data.length);
+        }
+    }
+
+    private void writeTime(long time){
+        if(count==0){
+            bits.write(time,64);
+        }else{
+            final long delta = time - lastTime;
+            final long dod = delta - lastDelta;
+            if(dod==0){
+                bits.writeBit(false);
+            }else if(dod>=-63 && dod<=64){
+                bits.write(0b10,2);
+                bits.write(dod+63,7);
+            }else if(dod>=-255 && dod<=256){
+                bits.write(0b110,3);
+                bits.write(dod+255,9);
+            }else if(dod>=-2047 && dod<=2048){
+                bits.write(0b1110,4);
+                bits.write(dod+2047,12);
+            }else if(dod>=Integer.MIN_VALUE && dod<=Integer.MAX_VALUE){
+                bits.write(0b11110,5);
+                bits.write(dod,32);
+            }else{
+                bits.write(0b11111,5);
+                bits.write(dod,64);
+            }
+            lastDelta = delta;
+        }
+        lastTime = time;
+        minTime = Math.min(minTime,time);
+        maxTime = Math.max(maxTime,time);
+    }
+
+    private void writeXOR(long xor){
+        if(xor==0){
+            bits.writeBit(false);
+            return;
+        }
+        bits.writeBit(true);
+        final int leading = Math.min(31,Long.numberOfLeadingZeros(xor));
+        final int trailing = Long.numberOfTrailingZeros(xor);
+        if(lastLeading>=0 && leading>=lastLeading && trailing>=lastTrailing){
+            //The meaningful bits fit in the window of the previous value
+            bits.writeBit(false);
+            bits.write(xor>>>lastTrailing,64-lastLeading-lastTrailing);
+        }else{
+            final int meaningful = 64-leading-trailing;
+            bits.writeBit(true);
+            bits.write(leading,5);
+            bits.write(meaningful-1,6);
+            bits.write(xor>>>trailing,meaningful);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    public boolean isFull(){
+        return count>=maxSamples || (text!=null && text.size()>=MAX_TEXT_SIZE);
+    }
+
+    public boolean isEmpty(){
+        return count==0;
+    }
+
+    /**
+     * Marks the chunk as written, no more samples are added to it.
+     */
+    public void seal(){
+        this.sealed = true;
+    }
+
+    public boolean isSealed(){
+        return sealed;
+    }
+
+    /**
+     * @return - A number that identifies the chunk while it is in memory
+     */
+    public long getSequence(){
+        return sequence;
+    }
+
+    public MD5ID getSeriesID(){
+        return seriesID;
+    }
+
+    public byte getType(){
+        return type;
+    }
+
+    public int getCount(){
+        return count;
+    }
+
+    public long getMinTime(){
+        return minTime;
+    }
+
+    public long getMaxTime(){
+        return maxTime;
+    }
+
+    /**
+     * @return - The chunk in its file format
+     */
+    public byte[] toByteArray(){
+        final int bitsLength = bits.getByteCount();
+        final int textLength = text!=null ? text.size() : 0;
+        final byte[] data = new byte[HEADER_SIZE+bitsLength+textLength];
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.putInt(0,MAGIC);
+        buffer.putInt(8,data.length);
+        buffer.putLong(12,seriesID.getMd5Long1());
+        buffer.putLong(20,seriesID.getMd5Long2());
+        buffer.put(28,type);
+        buffer.putInt(29,count);
+        buffer.putLong(33,minTime);
+        buffer.putLong(41,maxTime);
+        buffer.putInt(49,bitsLength);
+        buffer.putInt(53,textLength);
+        bits.copyTo(buffer,HEADER_SIZE);
+        if(textLength>0){
+            System.arraycopy(text.toByteArray(),0,data,HEADER_SIZE+bitsLength,textLength);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(data,8,data.length-8);
+        buffer.putInt(4,(int)crc.getValue());
+        return data;
+    }
+
+    /**
+     * Decodes the samples of the chunk that are in the time range.
+     * @param start - The start of the time range
+     * @param end - The end of the time range
+     * @param result - The list the samples are added to
+     */
+    public void decode(long start, long end, List<Sample> result){
+        if(count>0){
+            decode(ByteBuffer.wrap(toByteArray()),0,start,end,result);
+        }
+    }
+
+    /**
+     * @param buffer - The buffer of a segment
+     * @param offset - The offset of a chunk in the buffer
+     * @param limit - The end of the written part of the buffer
+     * @return - The size of the chunk, or -1 if there is no complete chunk at the offset
+     */
+    public static int getValidSize(ByteBuffer buffer, int offset, int limit){
+        if(offset+HEADER_SIZE>limit || buffer.getInt(offset)!=MAGIC){
+            return -1;
+        }
+        final int size = buffer.getInt(offset+8);
+        if(size<HEADER_SIZE || size>limit-offset){
+            return -1;
+        }
+        final byte[] data = new byte[size-8];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset+8);
+        source.get(data);
+        final CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int)crc.getValue()==buffer.getInt(offset+4) ? size : -1;
+    }
+
+    public static MD5ID getSeriesID(ByteBuffer buffer, int offset){
+        return MD5ID.createTSDRID(buffer.getLong(offset+12),buffer.getLong(offset+20));
+    }
+
+    public static byte getType(ByteBuffer buffer, int offset){
+        return buffer.get(offset+28);
+    }
+
+    public static long getMinTime(ByteBuffer buffer, int offset){
+        return buffer.getLong(offset+33);
+    }
+
+    public static long getMaxTime(ByteBuffer buffer, int offset){
+        return buffer.getLong(offset+41);
+    }
+
+    /**
+     * Decodes the samples of a chunk that are in the time range.
+     * @param buffer - The buffer that holds the chunk
+     * @param offset - The offset of the chunk in the buffer
+     * @param start - The start of the time range
+     * @param end - The end of the time range
+     * @param result - The list the samples are added to
+     */
+    public static void decode(ByteBuffer buffer, int offset, long start, long end, List<Sample> result){
+        final byte type = buffer.get(offset+28);
+        final int count = buffer.getInt(offset+29);
+        final int bitsLength = buffer.getInt(offset+49);
+        final TSFileBits.Reader reader = new TSFileBits.Reader(buffer,offset+HEADER_SIZE);
+        int textPosition = offset+HEADER_SIZE+bitsLength;
+        long time = 0;
+        long delta = 0;
+        long valueBits = 0;
+        int leading = 0;
+        int meaningful = 0;
+        int index = -1;
+        for(int i=0;i<count;i++){
+            if(i==0){
+                time = reader.read(64);
+            }else{
+                delta += readDeltaOfDelta(reader);
+                time += delta;
+            }
+            if(type==METRIC){
+                if(i==0){
+                    valueBits = reader.read(64);
+                }else if(reader.readBit()){
+                    if(reader.readBit()){
+                        leading = (int)reader.read(5);
+                        meaningful = (int)reader.read(6)+1;
+                    }
+                    valueBits ^= reader.read(meaningful) << (64-leading-meaningful);
+                }
+                if(time>=start && time<=end){
+                    result.add(new Sample(time,Double.longBitsToDouble(valueBits),0,null));
+                }
+            }else{
+                index = reader.readBit() ? (int)reader.read(32) : index+1;
+                final int length = reader.readBit() ? (int)reader.read(32) : (int)reader.read(16);
+                final boolean inRange = time>=start && time<=end;
+                String fullText = null;
+                if(length>=0){
+                    if(inRange){
+                        final byte[] data = new byte[length];
+                        final ByteBuffer source = buffer.duplicate();
+                        source.position(textPosition);
+                        source.get(data);
+                        fullText = new String(data,UTF8);
+                    }
+                    textPosition+=length;
+                }
+                List<RecordAttributes> attributes = null;
+                if(reader.readBit()){
+                    final int attributeCount = (int)reader.read(16);
+                    if(inRange){
+                        attributes = new ArrayList<>(attributeCount);
+                    }
+                    for(int j=0;j<attributeCount;j++){
+                        final int nameLength = buffer.getInt(textPosition);
+                        final String name = inRange ? readString(buffer,textPosition+4,nameLength) : null;
+                        textPosition+=4+Math.max(0,nameLength);
+                        final int valueLength = buffer.getInt(textPosition);
+                        final String value = inRange ? readString(buffer,textPosition+4,valueLength) : null;
+                        textPosition+=4+Math.max(0,valueLength);
+                        if(inRange){
+                            attributes.add(new RecordAttributesBuilder().setName(name).setValue(value).build());
+                        }
+                    }
+                }
+                if(inRange){
+                    result.add(new Sample(time,0,index,fullText,attributes));
+                }
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer, int position, int length){
+        if(length<0){
+            return null;
+        }
+        final byte[] data = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(data);
+        return new String(data,UTF8);
+    }
+
+    private static long readDeltaOfDelta(TSFileBits.Reader reader){
+        if(!reader.readBit()){
+            return 0;
+        }
+        if(!reader.readBit()){
+            return reader.read(7)-63;
+        }
+        if(!reader.readBit()){
+            return reader.read(9)-255;
+        }
+        if(!reader.readBit()){
+            return reader.read(12)-2047;
+        }
+        if(!reader.readBit()){
+            return (int)reader.read(32);
+        }
+        return reader.read(64);
+    }
+
+    /**
+     * A decoded sample, a metric has a value and a log has an index, a text and attributes.
+     */
+    public static class Sample {
+        private final long time;
+        private final double value;
+        private final int index;
+        private final String text;
+        private final List<RecordAttributes> attributes;
+
+        public Sample(long time, double value, int index, String text){
+            this(time,value,index,text,null);
+        }
+
+        public Sample(long time, double value, int index, String text, List<RecordAttributes> attributes){
+            this.time = time;
+            this.value = value;
+            this.index = index;
+            this.text = text;
+            this.attributes = attributes;
+        }
+
+        public long getTime(){
+            return time;
+        }
+
+        public double getValue(){
+            return value;
+        }
+
+        public int getIndex(){
+            return index;
+        }
+
+        public String getText(){
+            return text;
+        }
+
+        public List<RecordAttributes> getAttributes(){
+            return attributes;
+        }
+    }
+}
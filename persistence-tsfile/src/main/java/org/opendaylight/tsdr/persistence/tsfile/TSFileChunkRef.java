@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.util.List;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+
+/**
+ * The entry of a written chunk in the series index.
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFileChunkRef {
+    private final TSFileSegment segment;
+    private final int offset;
+    private final MD5ID seriesID;
+    private final byte type;
+    private final long minTime;
+    private final long maxTime;
+    private final long sequence;
+
+    /**
+     * @param segment - The segment of the chunk
+     * @param offset - The offset of the chunk in the segment
+     * @param seriesID - The id of the series
+     * @param type - The type of the chunk
+     * @param minTime - The time of the oldest sample
+     * @param maxTime - The time of the newest sample
+     * @param sequence - The sequence of the chunk while it was in memory, -1 for a chunk that was loaded from the disk
+     */
+    public TSFileChunkRef(TSFileSegment segment, int offset, MD5ID seriesID, byte type, long minTime, long maxTime, long sequence){
+        this.segment = segment;
+        this.offset = offset;
+        this.seriesID = seriesID;
+        this.type = type;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.sequence = sequence;
+    }
+
+    public MD5ID getSeriesID(){
+        return seriesID;
+    }
+
+    public byte getType(){
+        return type;
+    }
+
+    public long getSequence(){
+        return sequence;
+    }
+
+    public boolean overlaps(long start, long end){
+        return minTime<=end && maxTime>=start;
+    }
+
+    /**
+     * Decodes the samples of the chunk that are in the time range.
+     * @param start - The start of the time range
+     * @param end - The end of the time range
+     * @param result - The list the samples are added to
+     */
+    public void decode(long start, long end, List<TSFileChunk.Sample> result){
+        TSFileChunk.decode(segment.getBuffer(),offset,start,end,result);
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The samples of a data category in a single day, kept in the segments of a directory.
+ *
+ * <p>
+ * Every series has a chunk in memory that its samples are appended to, a full chunk is written to the
+ * current segment and a new segment is started when the chunk does not fit. The series index maps the id
+ * of a series to its written chunks, it is rebuilt from the segments when the partition is opened. The
+ * partition is deleted as a whole once its day is older than the retention.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFilePartition {
+    private static final Logger log = LoggerFactory.getLogger(TSFilePartition.class);
+    public static final long PARTITION_SIZE = 24L * 60 * 60 * 1000;
+
+    private final File dir;
+    private final DataCategory category;
+    private final int day;
+    private final int segmentSize;
+    private final int chunkSize;
+    private final ConcurrentHashMap<MD5ID,List<TSFileChunkRef>> index = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<MD5ID,TSFileChunk> openChunks = new ConcurrentHashMap<>();
+    //Guards the segments, only the writer of a full chunk takes it
+    private final Object writeLock = new Object();
+    private final List<TSFileSegment> segments = new ArrayList<>();
+    private TSFileSegment current = null;
+    private boolean closed = false;
+
+    /**
+     * @param dir - The directory of the partition
+     * @param category - The data category
+     * @param day - The day, the number of days since the epoch
+     * @param segmentSize - The size of a segment file
+     * @param chunkSize - The number of samples of a full chunk
+     */
+    public TSFilePartition(File dir, DataCategory category, int day, int segmentSize, int chunkSize){
+        this.dir = dir;
+        this.category = category;
+        this.day = day;
+        this.segmentSize = segmentSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param time - A time in milliseconds
+     * @return - The day of the partition that holds the time
+     */
+    public static final int getDay(long time){
+        return (int)Math.floor((double)time/PARTITION_SIZE);
+    }
+
+    public DataCategory getCategory(){
+        return category;
+    }
+
+    public int getDay(){
+        return day;
+    }
+
+    /**
+     * Opens the segments of the directory and indexes their chunks, the directory is created if it does not exist.
+     * @throws IOException - If the directory could not be created or a segment could not be opened
+     */
+    public void open() throws IOException {
+        if(!dir.exists() && !dir.mkdirs()){
+            throw new IOException("Failed to create directory "+dir);
+        }
+        final List<Integer> ids = new ArrayList<>();
+        final String[] names = dir.list();
+        if(names!=null){
+            for(String name:names){
+                int id = TSFileSegment.getId(name);
+                if(id>=0){
+                    ids.add(id);
+                }
+            }
+        }
+        Collections.sort(ids);
+        synchronized (writeLock) {
+            for(Integer id:ids){
+                TSFileSegment segment = new TSFileSegment(new File(dir,TSFileSegment.getFileName(id)),id,segmentSize);
+                for(TSFileChunkRef ref:segment.recover()){
+                    addToIndex(ref);
+                }
+                segments.add(segment);
+                current = segment;
+            }
+        }
+    }
+
+    public void append(MD5ID seriesID, long time, double value) throws IOException {
+        while(true){
+            final TSFileChunk chunk = getOpenChunk(seriesID,TSFileChunk.METRIC);
+            synchronized (chunk) {
+                //The chunk was written by another thread, take the new one
+                if(chunk.isSealed()){
+                    continue;
+                }
+                //A full chunk is written before the sample is added, so a sample that failed to be
+                //stored is not in memory and is not duplicated when it is stored again
+                if(chunk.isFull()){
+                    seal(chunk);
+                    continue;
+                }
+                chunk.add(time,value);
+                return;
+            }
+        }
+    }
+
+    public void append(MD5ID seriesID, long time, int logIndex, String fullText, List<RecordAttributes> attributes) throws IOException {
+        while(true){
+            final TSFileChunk chunk = getOpenChunk(seriesID,TSFileChunk.LOG);
+            synchronized (chunk) {
+                if(chunk.isSealed()){
+                    continue;
+                }
+                //A full chunk is written before the sample is added, so a sample that failed to be
+                //stored is not in memory and is not duplicated when it is stored again
+                if(chunk.isFull()){
+                    seal(chunk);
+                    continue;
+                }
+                chunk.add(time,logIndex,fullText,attributes);
+                return;
+            }
+        }
+    }
+
+    private TSFileChunk getOpenChunk(MD5ID seriesID, byte type){
+        TSFileChunk chunk = openChunks.get(seriesID);
+        if(chunk==null){
+            chunk = new TSFileChunk(seriesID,type,chunkSize);
+            TSFileChunk existing = openChunks.putIfAbsent(seriesID,chunk);
+            if(existing!=null){
+                chunk = existing;
+            }
+        }
+        return chunk;
+    }
+
+    /*
+     * Writes the chunk and removes it from memory, must be called while holding the lock of the chunk.
+     * When the write fails the chunk stays in memory and open, so its samples are written with it later.
+     */
+    private void seal(TSFileChunk chunk) throws IOException {
+        if(!chunk.isEmpty()){
+            write(chunk);
+        }
+        chunk.seal();
+        openChunks.remove(chunk.getSeriesID(),chunk);
+    }
+
+    private void write(TSFileChunk chunk) throws IOException {
+        final byte[] data = chunk.toByteArray();
+        final TSFileChunkRef ref;
+        synchronized (writeLock) {
+            int offset = current!=null ? current.append(data) : -1;
+            if(offset<0){
+                if(current!=null){
+                    current.force();
+                }
+                current = newSegment(data.length);
+                offset = current.append(data);
+            }
+            ref = new TSFileChunkRef(current,offset,chunk.getSeriesID(),chunk.getType(),chunk.getMinTime(),chunk.getMaxTime(),chunk.getSequence());
+        }
+        addToIndex(ref);
+    }
+
+    private TSFileSegment newSegment(int chunkLength) throws IOException {
+        if(closed){
+            throw new IOException("Partition "+dir+" was closed");
+        }
+        final int id = segments.isEmpty() ? 0 : segments.get(segments.size()-1).getId()+1;
+        //A chunk that is larger than a segment gets a segment of its own
+        final TSFileSegment segment = new TSFileSegment(new File(dir,TSFileSegment.getFileName(id)),id,Math.max(segmentSize,chunkLength));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void addToIndex(TSFileChunkRef ref){
+        List<TSFileChunkRef> refs = index.get(ref.getSeriesID());
+        if(refs==null){
+            refs = new CopyOnWriteArrayList<>();
+            List<TSFileChunkRef> existing = index.putIfAbsent(ref.getSeriesID(),refs);
+            if(existing!=null){
+                refs = existing;
+            }
+        }
+        refs.add(ref);
+    }
+
+    /**
+     * Reads the samples of a series in the time range, the written chunks and the chunk in memory.
+     * @param seriesID - The id of the series
+     * @param start - The start of the time range
+     * @param end - The end of the time range
+     * @return - The samples, oldest first
+     */
+    public List<TSFileChunk.Sample> read(MD5ID seriesID, long start, long end){
+        final List<TSFileChunk.Sample> result = new ArrayList<>();
+        final List<TSFileChunk.Sample> openSamples = new ArrayList<>();
+        long openSequence = 0;
+        final TSFileChunk chunk = openChunks.get(seriesID);
+        if(chunk!=null){
+            synchronized (chunk) {
+                chunk.decode(start,end,openSamples);
+                openSequence = chunk.getSequence();
+            }
+        }
+        final List<TSFileChunkRef> refs = index.get(seriesID);
+        if(refs!=null){
+            for(TSFileChunkRef ref:refs){
+                //The chunk that was just written was already read from memory
+                if(ref.getSequence()!=openSequence && ref.overlaps(start,end)){
+                    ref.decode(start,end,result);
+                }
+            }
+        }
+        result.addAll(openSamples);
+        Collections.sort(result,SAMPLE_TIME_ORDER);
+        return result;
+    }
+
+    /**
+     * Writes the chunks in memory, even if they are not full, and forces the current segment to the disk.
+     */
+    public void flush(){
+        for(TSFileChunk chunk:openChunks.values()){
+            synchronized (chunk) {
+                if(!chunk.isSealed()){
+                    try {
+                        seal(chunk);
+                    }catch(IOException e){
+                        log.error("Failed to write chunk to partition "+dir+", it is kept in memory and written later",e);
+                    }
+                }
+            }
+        }
+        synchronized (writeLock) {
+            if(current!=null){
+                current.force();
+            }
+        }
+    }
+
+    /**
+     * Writes the chunks in memory and closes the segments.
+     */
+    public void close(){
+        flush();
+        closeSegments();
+    }
+
+    /**
+     * Closes the segments and deletes the directory of the partition.
+     */
+    public void delete(){
+        closeSegments();
+        final File[] files = dir.listFiles();
+        if(files!=null){
+            for(File file:files){
+                if(!file.delete()){
+                    log.error("Failed to delete file "+file);
+                }
+            }
+        }
+        if(!dir.delete()){
+            log.error("Failed to delete directory "+dir);
+        }
+    }
+
+    private void closeSegments(){
+        synchronized (writeLock) {
+            closed = true;
+            for(TSFileSegment segment:segments){
+                try {
+                    segment.close();
+                }catch(IOException e){
+                    log.error("Failed to close segment "+segment.getFile(),e);
+                }
+            }
+            current = null;
+        }
+    }
+
+    private static final Comparator<TSFileChunk.Sample> SAMPLE_TIME_ORDER = new Comparator<TSFileChunk.Sample>() {
+        @Override
+        public int compare(TSFileChunk.Sample o1, TSFileChunk.Sample o2) {
+            return Long.compare(o1.getTime(),o2.getTime());
+        }
+    };
+}
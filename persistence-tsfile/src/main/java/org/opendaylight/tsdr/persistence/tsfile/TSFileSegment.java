@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append only file of chunks.
+ *
+ * <p>
+ * The file is allocated at its full size and memory mapped, chunks are copied to the mapping one after
+ * the other and are never changed, so the readers read the mapping without locking. When the segment is
+ * opened again its chunks are scanned from the start until the first chunk that is not complete, which is
+ * where the next chunk is written.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFileSegment {
+    public static final String SUFFIX = ".tsf";
+
+    private final File file;
+    private final int id;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private volatile int position = 0;
+
+    /**
+     * Opens the segment, the file is created if it does not exist.
+     * @param file - The file
+     * @param id - The number of the segment in its partition
+     * @param size - The size of the file, an existing file keeps its size
+     * @throws IOException - If the file could not be mapped
+     */
+    public TSFileSegment(File file, int id, int size) throws IOException {
+        this.file = file;
+        this.id = id;
+        this.raf = new RandomAccessFile(file,"rw");
+        final long length = Math.max(raf.length(),size);
+        if(length>Integer.MAX_VALUE){
+            raf.close();
+            throw new IOException("Segment "+file+" is too large");
+        }
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,0,length);
+    }
+
+    public static String getFileName(int id){
+        return "segment-"+id+SUFFIX;
+    }
+
+    /**
+     * @param fileName - A file name
+     * @return - The id of the segment, or -1 if the name is not of a segment
+     */
+    public static int getId(String fileName){
+        if(!fileName.startsWith("segment-") || !fileName.endsWith(SUFFIX)){
+            return -1;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(8,fileName.length()-SUFFIX.length()));
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    public int getId(){
+        return id;
+    }
+
+    public File getFile(){
+        return file;
+    }
+
+    /**
+     * Scans the complete chunks of the segment and moves the write position to the end of the last one.
+     * @return - The references of the chunks
+     */
+    public synchronized List<TSFileChunkRef> recover(){
+        final List<TSFileChunkRef> result = new ArrayList<>();
+        final int limit = buffer.capacity();
+        int offset = 0;
+        int size = TSFileChunk.getValidSize(buffer,offset,limit);
+        while(size>0){
+            result.add(new TSFileChunkRef(this,offset,TSFileChunk.getSeriesID(buffer,offset),TSFileChunk.getType(buffer,offset),
+                    TSFileChunk.getMinTime(buffer,offset),TSFileChunk.getMaxTime(buffer,offset),-1));
+            offset+=size;
+            size = TSFileChunk.getValidSize(buffer,offset,limit);
+        }
+        position = offset;
+        return result;
+    }
+
+    /**
+     * Appends a chunk to the segment.
+     * @param chunk - The chunk in its file format
+     * @return - The offset of the chunk, or -1 if the chunk does not fit in the segment
+     */
+    public synchronized int append(byte[] chunk){
+        final int offset = position;
+        if(chunk.length>buffer.capacity()-offset){
+            return -1;
+        }
+        final ByteBuffer target = buffer.duplicate();
+        target.position(offset+4);
+        target.put(chunk,4,chunk.length-4);
+        //The magic is written last, a chunk without it is ignored
+        buffer.putInt(offset,TSFileChunk.MAGIC);
+        position = offset+chunk.length;
+        return offset;
+    }
+
+    /**
+     * @return - A view of the mapping for reading chunks
+     */
+    public ByteBuffer getBuffer(){
+        return buffer.duplicate();
+    }
+
+    public int getPosition(){
+        return position;
+    }
+
+    /**
+     * Writes the changes of the mapping to the disk.
+     */
+    public void force(){
+        buffer.force();
+    }
+
+    public void close() throws IOException {
+        force();
+        raf.close();
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+import org.opendaylight.tsdr.spi.util.TSDRKeyCache;
+import org.opendaylight.tsdr.spi.util.TSDRKeyCache.TSDRCacheEntry;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded time series store of compressed chunks in files.
+ *
+ * <p>
+ * The data directory has a directory per data category and in it a directory per day, every day is a
+ * {@link TSFilePartition} of segment files. The series are identified by the id of their key in the
+ * {@link TSDRKeyCache}, so the files only hold the ids and the samples. The retention of a category
+ * deletes the directories of its expired days.
+ * </p>
+ *
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFileStore {
+    private static final Logger log = LoggerFactory.getLogger(TSFileStore.class);
+    private static final String confFile = "./etc/tsdr-persistence-tsfile.properties";
+    public static final String DEFAULT_DATA_DIR = "./tsdr/tsfile";
+    public static final int DEFAULT_SEGMENT_SIZE_MB = 64;
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+    public static final int DEFAULT_FLUSH_INTERVAL = 60;
+
+    private final Map<String,String> config;
+    private final TSDRKeyCache cache;
+    private final File dataDir;
+    private final int segmentSize;
+    private final int chunkSize;
+    private final ConcurrentHashMap<DataCategory,ConcurrentSkipListMap<Integer,TSFilePartition>> partitions = new ConcurrentHashMap<>();
+
+    public TSFileStore(){
+        this.config = loadConfig();
+        this.cache = new TSDRKeyCache(getKeyIDAlgorithm(),"tsfile");
+        this.dataDir = new File(config.containsKey("data_dir") ? config.get("data_dir") : DEFAULT_DATA_DIR);
+        this.segmentSize = getIntConfig("segment_size_mb",DEFAULT_SEGMENT_SIZE_MB)*1024*1024;
+        this.chunkSize = getIntConfig("chunk_size",DEFAULT_CHUNK_SIZE);
+        load();
+    }
+
+    /**
+     * @param dataDir - The data directory
+     * @param segmentSize - The size of a segment file in bytes
+     * @param chunkSize - The number of samples of a full chunk
+     */
+    public TSFileStore(File dataDir, int segmentSize, int chunkSize){
+        this.config = new HashMap<>();
+        this.cache = new TSDRKeyCache(MD5ID.KeyIDAlgorithm.MD5,"tsfile");
+        this.dataDir = dataDir;
+        this.segmentSize = segmentSize;
+        this.chunkSize = chunkSize;
+        load();
+    }
+
+    private static Map<String,String> loadConfig(){
+        Map<String, String> result = new HashMap<>();
+        File file = new File(confFile);
+        if(!file.exists()){
+            return result;
+        }
+        try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file)))){
+            String line = in.readLine();
+            while(line!=null){
+                int index = line.indexOf("=");
+                if(index!=-1 && !line.startsWith("#")) {
+                    result.put(line.substring(0, index).trim(), line.substring(index + 1).trim());
+                }
+                line = in.readLine();
+            }
+        }catch(IOException e){
+            log.error("Failed to load the TSFile configuration file "+confFile,e);
+        }
+        return result;
+    }
+
+    private MD5ID.KeyIDAlgorithm getKeyIDAlgorithm(){
+        String algorithm = config.get("key_id_algorithm");
+        if(algorithm!=null){
+            try {
+                return MD5ID.KeyIDAlgorithm.valueOf(algorithm.toUpperCase());
+            }catch(IllegalArgumentException e){
+                log.error("Unknown key id algorithm "+algorithm+", using MD5");
+            }
+        }
+        return MD5ID.KeyIDAlgorithm.MD5;
+    }
+
+    private int getIntConfig(String name, int defaultValue){
+        String value = config.get(name);
+        if(value!=null){
+            try {
+                return Math.max(1,Integer.parseInt(value));
+            }catch(NumberFormatException e){
+                log.error("Illegal "+name+" "+value+", using "+defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return - The interval in seconds of writing the chunks in memory to the disk
+     */
+    public int getFlushInterval(){
+        return getIntConfig("flush_interval",DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /*
+     * Opens the partitions that already exist in the data directory
+     */
+    private void load(){
+        final File[] categoryDirs = dataDir.listFiles();
+        if(categoryDirs==null){
+            return;
+        }
+        for(File categoryDir:categoryDirs){
+            final DataCategory category;
+            try {
+                category = DataCategory.valueOf(categoryDir.getName());
+            }catch(IllegalArgumentException e){
+                continue;
+            }
+            final File[] dayDirs = categoryDir.listFiles();
+            if(dayDirs==null){
+                continue;
+            }
+            for(File dayDir:dayDirs){
+                try {
+                    getPartition(category,Integer.parseInt(dayDir.getName()));
+                }catch(NumberFormatException e){
+                    log.debug("Directory {} is not a partition",dayDir);
+                }catch(IOException e){
+                    log.error("Failed to open partition "+dayDir,e);
+                }
+            }
+        }
+    }
+
+    private TSFilePartition getPartition(DataCategory category, int day) throws IOException {
+        ConcurrentSkipListMap<Integer,TSFilePartition> days = partitions.get(category);
+        if(days==null){
+            days = new ConcurrentSkipListMap<>();
+            ConcurrentSkipListMap<Integer,TSFilePartition> existing = partitions.putIfAbsent(category,days);
+            if(existing!=null){
+                days = existing;
+            }
+        }
+        TSFilePartition partition = days.get(day);
+        if(partition==null){
+            synchronized (this) {
+                partition = days.get(day);
+                if(partition==null){
+                    partition = new TSFilePartition(new File(new File(dataDir,category.name()),String.valueOf(day)),
+                            category,day,segmentSize,chunkSize);
+                    partition.open();
+                    days.put(day,partition);
+                }
+            }
+        }
+        return partition;
+    }
+
+    private TSDRCacheEntry getCacheEntry(String tsdrKey){
+        TSDRCacheEntry cacheEntry = cache.getCacheEntry(tsdrKey);
+        //if it does not exist, create it
+        if(cacheEntry==null){
+            cacheEntry = cache.addTSDRCacheEntry(tsdrKey);
+        }
+        return cacheEntry;
+    }
+
+    public void store(TSDRMetricRecord mr) throws IOException {
+        TSDRCacheEntry cacheEntry = getCacheEntry(FormatUtil.getTSDRMetricKey(mr));
+        getPartition(mr.getTSDRDataCategory(),TSFilePartition.getDay(mr.getTimeStamp()))
+                .append(cacheEntry.getMd5ID(),mr.getTimeStamp(),mr.getMetricValue().doubleValue());
+    }
+
+    public void store(TSDRLogRecord lr) throws IOException {
+        TSDRCacheEntry cacheEntry = getCacheEntry(FormatUtil.getTSDRLogKey(lr));
+        getPartition(lr.getTSDRDataCategory(),TSFilePartition.getDay(lr.getTimeStamp()))
+                .append(cacheEntry.getMd5ID(),lr.getTimeStamp(),lr.getIndex()!=null ? lr.getIndex() : 0,lr.getRecordFullText(),
+                        lr.getRecordAttributes());
+    }
+
+    /**
+     * Returns the metrics of the key in the time range, a key that is just a data category (tsdr:list)
+     * returns the newest metrics first.
+     */
+    public List<TSDRMetricRecord> getTSDRMetricRecords(String tsdrMetricKey, long startDateTime, long endDateTime, int recordLimit){
+        final List<TSDRMetricRecord> result = new ArrayList<>();
+        for(SeriesSample s:select(getCacheEntries(tsdrMetricKey,true),startDateTime,endDateTime,recordLimit,isDataCategory(tsdrMetricKey))){
+            TSDRMetricRecordBuilder rb = new TSDRMetricRecordBuilder();
+            rb.setMetricName(s.entry.getMetricName());
+            rb.setMetricValue(new BigDecimal(s.sample.getValue()));
+            rb.setNodeID(s.entry.getNodeID());
+            rb.setRecordKeys(s.entry.getRecordKeys());
+            rb.setTimeStamp(s.sample.getTime());
+            rb.setTSDRDataCategory(s.entry.getDataCategory());
+            result.add(rb.build());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the logs of the key in the time range, a key that is just a data category (tsdr:list)
+     * returns the newest logs first.
+     */
+    public List<TSDRLogRecord> getTSDRLogRecords(String tsdrLogKey, long startDateTime, long endDateTime, int recordLimit){
+        final List<TSDRLogRecord> result = new ArrayList<>();
+        for(SeriesSample s:select(getCacheEntries(tsdrLogKey,false),startDateTime,endDateTime,recordLimit,isDataCategory(tsdrLogKey))){
+            TSDRLogRecordBuilder lb = new TSDRLogRecordBuilder();
+            lb.setTSDRDataCategory(s.entry.getDataCategory());
+            lb.setTimeStamp(s.sample.getTime());
+            lb.setRecordKeys(s.entry.getRecordKeys());
+            lb.setNodeID(s.entry.getNodeID());
+            lb.setIndex(s.sample.getIndex());
+            lb.setRecordAttributes(s.sample.getAttributes());
+            lb.setRecordFullText(s.sample.getText());
+            result.add(lb.build());
+        }
+        return result;
+    }
+
+    private static boolean isDataCategory(String tsdrKey){
+        if(tsdrKey==null || tsdrKey.startsWith("[")){
+            return false;
+        }
+        try {
+            DataCategory.valueOf(tsdrKey);
+            return true;
+        }catch(IllegalArgumentException e){
+            return false;
+        }
+    }
+
+    private Collection<TSDRCacheEntry> getCacheEntries(String tsdrKey, boolean metrics){
+        TSDRCacheEntry entry = this.cache.getCacheEntry(tsdrKey);
+        Collection<TSDRCacheEntry> entries = entry!=null ? Collections.singletonList(entry) : this.cache.getMatchingCacheEntries(tsdrKey);
+        List<TSDRCacheEntry> result = new ArrayList<>(entries.size());
+        for(TSDRCacheEntry e:entries){
+            //A log key has no metric name
+            if((e.getMetricName()!=null)==metrics){
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Reads the samples of the series in the time range, every series contributes at most the limit of samples
+     * to the merge and only the limit of the oldest, or newest, samples of the merge are returned.
+     */
+    private List<SeriesSample> select(Collection<TSDRCacheEntry> entries, long startDateTime, long endDateTime, int recordLimit, boolean newestFirst){
+        final List<SeriesSample> result = new ArrayList<>();
+        for(TSDRCacheEntry entry:entries){
+            final List<TSFileChunk.Sample> samples = read(entry,startDateTime,endDateTime);
+            final int from = newestFirst ? Math.max(0,samples.size()-recordLimit) : 0;
+            final int to = newestFirst ? samples.size() : Math.min(recordLimit,samples.size());
+            for(int i=from;i<to;i++){
+                result.add(new SeriesSample(entry,samples.get(i)));
+            }
+        }
+        Collections.sort(result,newestFirst ? Collections.reverseOrder(SERIES_SAMPLE_TIME_ORDER) : SERIES_SAMPLE_TIME_ORDER);
+        return result.size()>recordLimit ? result.subList(0,recordLimit) : result;
+    }
+
+    private List<TSFileChunk.Sample> read(TSDRCacheEntry entry, long startDateTime, long endDateTime){
+        final List<TSFileChunk.Sample> result = new ArrayList<>();
+        final ConcurrentSkipListMap<Integer,TSFilePartition> days = partitions.get(entry.getDataCategory());
+        if(days==null || endDateTime<startDateTime){
+            return result;
+        }
+        final ConcurrentNavigableMap<Integer,TSFilePartition> range =
+                days.subMap(TSFilePartition.getDay(startDateTime),true,TSFilePartition.getDay(endDateTime),true);
+        for(TSFilePartition partition:range.values()){
+            result.addAll(partition.read(entry.getMd5ID(),startDateTime,endDateTime));
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the partitions of the category whose whole day is before the retention time.
+     * @param category - The data category
+     * @param retentionTime - The time before which the records are purged
+     */
+    public void purge(DataCategory category, long retentionTime){
+        final ConcurrentSkipListMap<Integer,TSFilePartition> days = partitions.get(category);
+        if(days==null){
+            return;
+        }
+        for(Integer day:new ArrayList<>(days.headMap(TSFilePartition.getDay(retentionTime),false).keySet())){
+            TSFilePartition partition = days.remove(day);
+            if(partition!=null){
+                log.info("Deleting partition {} of day {}",category.name(),day);
+                partition.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the chunks in memory of all the partitions to the disk.
+     */
+    public void flush(){
+        for(ConcurrentSkipListMap<Integer,TSFilePartition> days:partitions.values()){
+            for(TSFilePartition partition:days.values()){
+                partition.flush();
+            }
+        }
+    }
+
+    public void shutdown(){
+        for(ConcurrentSkipListMap<Integer,TSFilePartition> days:partitions.values()){
+            for(TSFilePartition partition:days.values()){
+                partition.close();
+            }
+        }
+        partitions.clear();
+        this.cache.shutdown();
+    }
+
+    private static class SeriesSample {
+        private final TSDRCacheEntry entry;
+        private final TSFileChunk.Sample sample;
+
+        private SeriesSample(TSDRCacheEntry entry, TSFileChunk.Sample sample){
+            this.entry = entry;
+            this.sample = sample;
+        }
+    }
+
+    private static final Comparator<SeriesSample> SERIES_SAMPLE_TIME_ORDER = new Comparator<SeriesSample>() {
+        @Override
+        public int compare(SeriesSample o1, SeriesSample o2) {
+            return Long.compare(o1.sample.getTime(),o2.sample.getTime());
+        }
+    };
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.tsdr.spi.util.MD5ID;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFileChunkTest {
+    private static final MD5ID ID = MD5ID.createTSDRID("[NID=Test][DC=EXTERNAL][MN=Test][RK=Test2:Test1]");
+
+    @Test
+    public void testMetricRoundTrip(){
+        Random random = new Random(7);
+        TSFileChunk chunk = new TSFileChunk(ID,TSFileChunk.METRIC,10000);
+        long[] times = new long[5000];
+        double[] values = new double[times.length];
+        long time = 1450000000000L;
+        double value = 11;
+        for(int i=0;i<times.length;i++){
+            switch(i%5){
+                case 0: time+=1000; break;
+                case 1: time+=random.nextInt(100000)-30000; value = random.nextDouble(); break;
+                case 2: time+=random.nextInt()*1000L; value = Double.MAX_VALUE; break;
+                case 3: time+=1000; value = -0.0; break;
+                default: time+=5000; value = Math.round(value)+1;
+            }
+            times[i] = time;
+            values[i] = value;
+            chunk.add(time,value);
+        }
+        List<TSFileChunk.Sample> result = new ArrayList<>();
+        chunk.decode(Long.MIN_VALUE,Long.MAX_VALUE,result);
+        Assert.assertEquals(times.length,result.size());
+        for(int i=0;i<times.length;i++){
+            Assert.assertEquals(times[i],result.get(i).getTime());
+            Assert.assertEquals(Double.doubleToRawLongBits(values[i]),Double.doubleToRawLongBits(result.get(i).getValue()));
+        }
+    }
+
+    @Test
+    public void testMetricCompression(){
+        TSFileChunk chunk = new TSFileChunk(ID,TSFileChunk.METRIC,1024);
+        for(int i=0;i<1024;i++){
+            chunk.add(1450000000000L+i*5000L,i%10==0 ? 12 : 11);
+        }
+        Assert.assertTrue(chunk.isFull());
+        //Far less than the 16 bytes of a raw sample
+        Assert.assertTrue(chunk.toByteArray().length<1024);
+    }
+
+    @Test
+    public void testLogRoundTrip(){
+        StringBuilder longText = new StringBuilder();
+        for(int i=0;i<70000;i++){
+            longText.append('x');
+        }
+        String[] texts = {"Some syslog text",null,"","\u00fcn\u00ef",longText.toString(),"Last"};
+        int[] indexes = {0,1,5,6,-3,-2};
+        TSFileChunk chunk = new TSFileChunk(ID,TSFileChunk.LOG,100);
+        for(int i=0;i<texts.length;i++){
+            chunk.add(1000+i,indexes[i],texts[i]);
+        }
+        Assert.assertTrue(chunk.isFull());
+        List<TSFileChunk.Sample> result = new ArrayList<>();
+        chunk.decode(0,Long.MAX_VALUE,result);
+        Assert.assertEquals(texts.length,result.size());
+        for(int i=0;i<texts.length;i++){
+            Assert.assertEquals(texts[i],result.get(i).getText());
+            Assert.assertEquals(indexes[i],result.get(i).getIndex());
+        }
+        result.clear();
+        chunk.decode(1004,1005,result);
+        Assert.assertEquals(2,result.size());
+        Assert.assertEquals("Last",result.get(1).getText());
+    }
+
+    @Test
+    public void testValidSize(){
+        TSFileChunk chunk = new TSFileChunk(ID,TSFileChunk.METRIC,10);
+        chunk.add(1000,1);
+        chunk.add(2000,2);
+        byte[] data = chunk.toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        Assert.assertEquals(data.length,TSFileChunk.getValidSize(buffer,0,data.length));
+        Assert.assertEquals(ID,TSFileChunk.getSeriesID(buffer,0));
+        Assert.assertEquals(1000,TSFileChunk.getMinTime(buffer,0));
+        Assert.assertEquals(2000,TSFileChunk.getMaxTime(buffer,0));
+        //A partially written chunk is ignored
+        Assert.assertEquals(-1,TSFileChunk.getValidSize(buffer,0,data.length-1));
+        data[data.length-1]++;
+        Assert.assertEquals(-1,TSFileChunk.getValidSize(buffer,0,data.length));
+    }
+}
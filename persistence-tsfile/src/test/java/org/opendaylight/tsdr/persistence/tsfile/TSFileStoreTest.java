@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016 Cisco Systems, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.tsdr.persistence.tsfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.tsdr.spi.persistence.TSDRPersistenceException;
+import org.opendaylight.tsdr.spi.util.FormatUtil;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.DataCategory;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrlogrecord.input.TSDRLogRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecord;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.storetsdrmetricrecord.input.TSDRMetricRecordBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributes;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrlog.RecordAttributesBuilder;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeys;
+import org.opendaylight.yang.gen.v1.opendaylight.tsdr.rev150219.tsdrrecord.RecordKeysBuilder;
+
+/**
+ * @author Sharon Aicler(saichler@gmail.com)
+ */
+public class TSFileStoreTest {
+    private static final File DATA_DIR = new File("./tsdr/tsfile");
+    private static final long TIME = 1450000000000L;
+    private TSFileStore store = null;
+
+    @Before
+    public void before(){
+        store = new TSFileStore(DATA_DIR,1024*1024,100);
+    }
+
+    @After
+    public void after(){
+        store.shutdown();
+        delete(new File("./tsdr"));
+    }
+
+    private static void delete(File file){
+        File[] files = file.listFiles();
+        if(files!=null){
+            for(File f:files){
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    public static TSDRMetricRecord createMetricRecord(long time, double value){
+        TSDRMetricRecordBuilder b = new TSDRMetricRecordBuilder();
+        b.setNodeID("Test");
+        b.setTimeStamp(time);
+        b.setMetricName("Test");
+        b.setMetricValue(new BigDecimal(value));
+        b.setTSDRDataCategory(DataCategory.EXTERNAL);
+        List<RecordKeys> recs = new ArrayList<>();
+        RecordKeysBuilder rb = new RecordKeysBuilder();
+        rb.setKeyValue("Test1");
+        rb.setKeyName("Test2");
+        recs.add(rb.build());
+        b.setRecordKeys(recs);
+        return b.build();
+    }
+
+    public static TSDRLogRecord createLogRecord(long time, int index){
+        TSDRLogRecordBuilder b = new TSDRLogRecordBuilder();
+        b.setNodeID("Test");
+        b.setTimeStamp(time);
+        b.setIndex(index);
+        b.setTSDRDataCategory(DataCategory.EXTERNAL);
+        b.setRecordFullText("Some syslog text "+index);
+        List<RecordKeys> recs = new ArrayList<>();
+        RecordKeysBuilder rb = new RecordKeysBuilder();
+        rb.setKeyValue("Test1");
+        rb.setKeyName("Test2");
+        recs.add(rb.build());
+        b.setRecordKeys(recs);
+        return b.build();
+    }
+
+    @Test
+    public void testStoreAndGetMetrics() throws IOException {
+        for(int i=0;i<250;i++){
+            store.store(createMetricRecord(TIME+i*1000L,i));
+        }
+        String key = FormatUtil.getTSDRMetricKey(createMetricRecord(TIME,0));
+        List<TSDRMetricRecord> result = store.getTSDRMetricRecords(key,TIME,TIME+1000000,1000);
+        Assert.assertEquals(250,result.size());
+        for(int i=0;i<result.size();i++){
+            Assert.assertEquals(TIME+i*1000L,result.get(i).getTimeStamp().longValue());
+            Assert.assertEquals(i,result.get(i).getMetricValue().intValue());
+            Assert.assertEquals("Test",result.get(i).getMetricName());
+        }
+        Assert.assertEquals(10,store.getTSDRMetricRecords(key,TIME+100000,TIME+109000,1000).size());
+        Assert.assertEquals(5,store.getTSDRMetricRecords(key,TIME,TIME+1000000,5).size());
+        //The whole category returns the newest first
+        result = store.getTSDRMetricRecords(DataCategory.EXTERNAL.name(),TIME,TIME+1000000,5);
+        Assert.assertEquals(5,result.size());
+        Assert.assertEquals(TIME+249000L,result.get(0).getTimeStamp().longValue());
+    }
+
+    @Test
+    public void testStoreAndGetLogs() throws IOException {
+        for(int i=0;i<150;i++){
+            store.store(createLogRecord(TIME+i*1000L,i));
+        }
+        String key = FormatUtil.getTSDRLogKey(createLogRecord(TIME,0));
+        List<TSDRLogRecord> result = store.getTSDRLogRecords(key,TIME,TIME+1000000,1000);
+        Assert.assertEquals(150,result.size());
+        Assert.assertEquals("Some syslog text 149",result.get(149).getRecordFullText());
+        Assert.assertEquals(149,result.get(149).getIndex().intValue());
+        //Logs and metrics of the same category are kept apart
+        Assert.assertTrue(store.getTSDRMetricRecords(DataCategory.EXTERNAL.name(),TIME,TIME+1000000,1000).isEmpty());
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        for(int i=0;i<150;i++){
+            store.store(createMetricRecord(TIME+i*1000L,i));
+        }
+        store.shutdown();
+        store = new TSFileStore(DATA_DIR,1024*1024,100);
+        String key = FormatUtil.getTSDRMetricKey(createMetricRecord(TIME,0));
+        Assert.assertEquals(150,store.getTSDRMetricRecords(key,TIME,TIME+1000000,1000).size());
+        store.store(createMetricRecord(TIME+150000L,150));
+        Assert.assertEquals(151,store.getTSDRMetricRecords(key,TIME,TIME+1000000,1000).size());
+    }
+
+    @Test
+    public void testPurge() throws IOException {
+        long day = TSFilePartition.PARTITION_SIZE;
+        store.store(createMetricRecord(TIME,1));
+        store.store(createMetricRecord(TIME+day,2));
+        store.store(createMetricRecord(TIME+2*day,3));
+        store.flush();
+        store.purge(DataCategory.EXTERNAL,TIME+2*day);
+        String key = FormatUtil.getTSDRMetricKey(createMetricRecord(TIME,0));
+        List<TSDRMetricRecord> result = store.getTSDRMetricRecords(key,TIME,TIME+3*day,1000);
+        Assert.assertEquals(1,result.size());
+        Assert.assertEquals(3,result.get(0).getMetricValue().intValue());
+        Assert.assertEquals(1,new File(DATA_DIR,DataCategory.EXTERNAL.name()).list().length);
+    }
+
+    @Test
+    public void testLogAttributes() throws IOException {
+        List<RecordAttributes> attributes = new ArrayList<>();
+        attributes.add(new RecordAttributesBuilder().setName("Facility").setValue("auth").build());
+        attributes.add(new RecordAttributesBuilder().setName("Severity").setValue(null).build());
+        store.store(new TSDRLogRecordBuilder(createLogRecord(TIME,0)).setRecordAttributes(attributes).build());
+        store.store(createLogRecord(TIME+1000L,1));
+        //Read from the disk as well
+        store.shutdown();
+        store = new TSFileStore(DATA_DIR,1024*1024,100);
+        String key = FormatUtil.getTSDRLogKey(createLogRecord(TIME,0));
+        List<TSDRLogRecord> result = store.getTSDRLogRecords(key,TIME,TIME+1000000,1000);
+        Assert.assertEquals(2,result.size());
+        Assert.assertEquals(attributes,result.get(0).getRecordAttributes());
+        Assert.assertEquals("Some syslog text 0",result.get(0).getRecordFullText());
+        Assert.assertNull(result.get(1).getRecordAttributes());
+        Assert.assertEquals("Some syslog text 1",result.get(1).getRecordFullText());
+    }
+
+    @Test(expected = TSDRPersistenceException.class)
+    public void testStoreFailure() throws IOException {
+        //The data directory is a file, so the partition of the record can not be created
+        File file = new File("./tsdr/tsfile-not-a-dir");
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        TSDRTSFilePersistenceServiceImpl service = new TSDRTSFilePersistenceServiceImpl();
+        service.start(new TSFileStore(file,1024*1024,100));
+        try {
+            service.store(createMetricRecord(TIME,1));
+        }finally{
+            service.stop(0);
+        }
+    }
+
+    @Test
+    public void testFailedChunkWriteKeepsTheSamples() throws IOException {
+        for(int i=0;i<100;i++){
+            store.store(createMetricRecord(TIME+i*1000L,i));
+        }
+        //The partition directory is replaced by a file, so the full chunk can not be written
+        File partitionDir = new File(new File(DATA_DIR,DataCategory.EXTERNAL.name()),String.valueOf(TSFilePartition.getDay(TIME)));
+        delete(partitionDir);
+        Assert.assertTrue(partitionDir.createNewFile());
+        try {
+            store.store(createMetricRecord(TIME+100000L,100));
+            Assert.fail("The chunk should fail to be written");
+        }catch(IOException e){
+            //The full chunk stays in memory without the failed sample
+        }
+        Assert.assertTrue(partitionDir.delete());
+        Assert.assertTrue(partitionDir.mkdirs());
+        store.store(createMetricRecord(TIME+100000L,100));
+        store.shutdown();
+        store = new TSFileStore(DATA_DIR,1024*1024,100);
+        String key = FormatUtil.getTSDRMetricKey(createMetricRecord(TIME,0));
+        Assert.assertEquals(101,store.getTSDRMetricRecords(key,TIME,TIME+1000000,1000).size());
+    }
+}